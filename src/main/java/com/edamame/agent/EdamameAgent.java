@@ -1,14 +1,23 @@
 package com.edamame.agent;
 
 import com.edamame.agent.config.AgentConfig;
+import com.edamame.agent.log.EdgeFilter;
 import com.edamame.agent.log.LogCollector;
+import com.edamame.agent.log.LogEntry;
+import com.edamame.agent.log.LogFileWatcher;
+import com.edamame.agent.network.AdaptiveBatchTuner;
 import com.edamame.agent.network.LogTransmitter;
 import com.edamame.agent.system.IptablesManager;
 import com.edamame.agent.util.AgentLogger;
 
-import java.util.concurrent.Executors;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Edamame Security Analyzer Agent
@@ -23,6 +32,8 @@ import java.util.concurrent.TimeUnit;
 public class EdamameAgent {
 
     private static final String AGENT_VERSION = "1.0.0";
+    /** ファイル変更検知から収集開始までの待ち時間（連続する追記をまとめる） */
+    private static final long WATCH_COLLECT_DELAY_MS = 200;
 
     private final AgentConfig config;
     private final ScheduledExecutorService executor;
@@ -30,6 +41,8 @@ public class EdamameAgent {
     private LogCollector logCollector;
     private LogTransmitter logTransmitter;
     private IptablesManager iptablesManager = null;
+    private LogFileWatcher logFileWatcher = null;
+    private final AtomicBoolean watchCollectPending = new AtomicBoolean(false);
 
     private volatile boolean running = false;
     private String registrationId = null;
@@ -44,7 +57,10 @@ public class EdamameAgent {
         // LogCollectorとLogTransmitterの初期化は設定読み込み後に移動
         this.logCollector = null; // 初期化を遅延
         this.logTransmitter = null; // 初期化を遅延
-        this.executor = Executors.newScheduledThreadPool(4);
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(4);
+        // 停止時は予約済みの収集（次回の定期収集・変更検知後の収集）を実行せずに破棄する
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.executor = scheduler;
 
         AgentLogger.debug("Edamame Agent v" + AGENT_VERSION + " を初期化しました");
     }
@@ -69,8 +85,11 @@ public class EdamameAgent {
             AgentLogger.debug("Edamameエージェントを開始します（サーバー接続は自動管理）");
 
             // LogCollectorとLogTransmitterを初期化（設定読み込み後）
-            logCollector = new LogCollector(config);
+            // エッジフィルタはサーバーから同期した条件で、サーバー側で破棄される行を送信前に破棄する
+            EdgeFilter edgeFilter = config.isEdgeFilter() ? new EdgeFilter() : null;
+            logCollector = new LogCollector(config, edgeFilter);
             logTransmitter = new LogTransmitter(config);
+            logTransmitter.setEdgeFilter(edgeFilter);
 
             // IptablesManagerを初期化（LogTransmitter初期化後に移動）
             iptablesManager = new IptablesManager(config, logTransmitter);
@@ -79,6 +98,10 @@ public class EdamameAgent {
             logTransmitter.setReconnectionSuccessCallback(() -> {
                 // 再接続時に新しい登録IDを設定する処理は、LogTransmitter内で既に新しいIDで登録済み
                 AgentLogger.info("再接続が完了しました。新しいセッションで動作を継続します");
+                // 切断中に変わった可能性があるエッジフィルタを同期
+                executor.execute(this::syncEdgeFilter);
+                // スプールに退避したログの送信を収集スレッドで開始
+                requestLogCollection();
             });
 
             // エージェント起動完了をマーク
@@ -88,13 +111,12 @@ public class EdamameAgent {
             // 初期サーバー接続を試行（失敗時は再接続モードに移行）
             executor.schedule(this::initialServerConnection, 2, TimeUnit.SECONDS);
 
-            // ログ収集開始（10秒後に開始して初期接続処理と分離）
-            executor.scheduleWithFixedDelay(
-                this::collectAndTransmitLogs,
-                10,
-                config.getLogCollectionInterval(),
-                TimeUnit.SECONDS
-            );
+            // ログファイル変更監視（追記・ローテーションを検知して即時収集。定期収集は取りこぼし時のフォールバック）
+            logFileWatcher = new LogFileWatcher(config.getNginxLogPaths(), this::requestLogCollection);
+            logFileWatcher.start();
+
+            // ログ収集開始（10秒後に開始して初期接続処理と分離。以降の間隔は AdaptiveBatchTuner が決定）
+            scheduleNextCollection(TimeUnit.SECONDS.toMillis(10));
 
             // iptables管理開始（20秒後に開始してログ収集と確実に分離）
             executor.scheduleWithFixedDelay(
@@ -133,6 +155,7 @@ public class EdamameAgent {
                 registrationId = logTransmitter.registerServer();
                 if (registrationId != null) {
                     // LogTransmitter側でログ出力されるため、ここでの重複ログは削除
+                    syncEdgeFilter();
                     return; // 成功時は通常動作
                 } else {
                     AgentLogger.warn("サーバー登録に失敗しました。再接続待機モードに移行します");
@@ -150,23 +173,124 @@ public class EdamameAgent {
         }
     }
 
+    /**
+     * ファイル変更検知時の収集要求（短時間の連続通知は1回の収集にまとめる）
+     */
+    private void requestLogCollection() {
+        if (running && watchCollectPending.compareAndSet(false, true)) {
+            try {
+                executor.schedule(() -> {
+                    watchCollectPending.set(false);
+                    collectAndTransmitLogs();
+                }, WATCH_COLLECT_DELAY_MS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                watchCollectPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * 定期収集を実行し、適応制御で決定した待ち時間後に次回を予約
+     */
+    private void runScheduledCollection() {
+        if (!running) {
+            return;
+        }
+        try {
+            collectAndTransmitLogs();
+        } finally {
+            scheduleNextCollection(logTransmitter.getBatchTuner().nextCollectionDelayMs());
+        }
+    }
+
+    /**
+     * 次回の定期収集を予約（停止中は予約しない）
+     */
+    private void scheduleNextCollection(long delayMs) {
+        if (!running) {
+            return;
+        }
+        try {
+            executor.schedule(this::runScheduledCollection, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            AgentLogger.debug("エージェント停止中のため次回のログ収集を予約しません");
+        }
+    }
+
     /**
      * ログ収集・転送処理
+     * 先にスプールへ退避済みのログを送信し、接続中は適応制御で選択したバッチサイズ単位の収集とパイプライン送信を繰り返す。
+     * 未接続中はスプールへ退避する。送信（確認応答）またはスプールへの退避が完了したバッチのみ読み取り位置を確定する。
+     * 完了時に未送信量を AdaptiveBatchTuner へ通知し、次回のバッチサイズと収集間隔を決定させる。
+     * ファイル変更検知と定期収集の両方から呼ばれるため同期化する
      */
-    private void collectAndTransmitLogs() {
+    private synchronized void collectAndTransmitLogs() {
+        AdaptiveBatchTuner tuner = logTransmitter.getBatchTuner();
+        int delivered = 0;
         try {
-            var logs = logCollector.collectNewLogs();
-            if (!logs.isEmpty()) {
-                boolean success = logTransmitter.transmitLogs(logs);
-                if (success) {
-                    AgentLogger.info(logs.size() + " 件のログエントリを転送しました");
-                } else {
-                    AgentLogger.warn("ログ転送に失敗しました");
+            logTransmitter.drainSpool();
+
+            delivered = logTransmitter.transmitPipelined(new CollectorBatchPipeline(tuner));
+
+            // 未接続中はスプールへ退避（接続中に送信できなかった分は次回、最も古い未確認バッチから再送）
+            while (running && !logTransmitter.isConnected()) {
+                LogCollector.LogChunk chunk = logCollector.collectNextChunk(tuner.batchSize());
+                if (chunk.isEmpty()) {
+                    break;
                 }
+                tuner.recordBatch(chunk.entries().size());
+                if (!logTransmitter.deliverLogs(chunk.entries())) {
+                    // 送信もスプール退避もできなかった分はファイル位置を進めずに残し、次回同じ範囲から再収集する
+                    AgentLogger.warn("ログ転送に失敗しました（次回同じ範囲から再送します）");
+                    break;
+                }
+                logCollector.commit(chunk);
+                delivered += chunk.entries().size();
+            }
+            if (delivered > 0) {
+                AgentLogger.info(delivered + " 件のログエントリを転送（またはスプールへ退避）しました");
             }
         } catch (Exception e) {
             AgentLogger.error("ログ収集・転送中にエラーが発生しました: " + e.getMessage());
         }
+        tuner.completeRun(logCollector.getLagBytes(), delivered);
+    }
+
+    /**
+     * LogCollector から収集したバッチをパイプライン送信し、確認応答順に読み取り位置を確定する
+     */
+    private final class CollectorBatchPipeline implements LogTransmitter.BatchPipeline {
+        private final Deque<LogCollector.LogChunk> inFlight = new ArrayDeque<>();
+        private final AdaptiveBatchTuner tuner;
+
+        CollectorBatchPipeline(AdaptiveBatchTuner tuner) {
+            this.tuner = tuner;
+        }
+
+        @Override
+        public List<LogEntry> nextBatch() {
+            if (!running) {
+                return null;
+            }
+            LogCollector.LogChunk chunk = logCollector.collectNextChunk(tuner.batchSize());
+            if (chunk.isEmpty()) {
+                return null;
+            }
+            tuner.recordBatch(chunk.entries().size());
+            inFlight.add(chunk);
+            return chunk.entries();
+        }
+
+        @Override
+        public void acknowledged() {
+            logCollector.commit(inFlight.poll());
+        }
+
+        @Override
+        public void aborted() {
+            inFlight.clear();
+            logCollector.rewind();
+        }
     }
 
     /**
@@ -186,11 +310,24 @@ public class EdamameAgent {
     private void sendHeartbeat() {
         try {
             logTransmitter.sendHeartbeat();
+            // プッシュを取りこぼした場合の追いつき（変更がなければサーバーは unchanged のみを返す）
+            syncEdgeFilter();
         } catch (Exception e) {
             AgentLogger.error("ハートビート送信中にエラーが発生しました: " + e.getMessage());
         }
     }
 
+    /**
+     * エッジフィルタを同期（サーバーが対応している場合のみ）
+     */
+    private void syncEdgeFilter() {
+        try {
+            logTransmitter.syncEdgeFilter();
+        } catch (Exception e) {
+            AgentLogger.warn("エッジフィルタ同期中にエラーが発生しました: " + e.getMessage());
+        }
+    }
+
     /**
      * エージェントを停止
      */
@@ -202,12 +339,22 @@ public class EdamameAgent {
         running = false;
 
         try {
+            // ファイル変更監視を停止
+            if (logFileWatcher != null) {
+                logFileWatcher.stop();
+            }
+
             // スケジュールされたタスクを停止
             executor.shutdown();
             if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
                 executor.shutdownNow();
             }
 
+            // ブロックリストの同期を停止
+            if (iptablesManager != null) {
+                iptablesManager.shutdown();
+            }
+
             // サーバー登録を解除
             if (registrationId != null) {
                 logTransmitter.unregisterServer(registrationId);
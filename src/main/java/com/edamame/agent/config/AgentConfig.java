@@ -51,6 +51,12 @@ public class AgentConfig {
     private boolean useSSL = false;
     private int connectionTimeout = 30;
     private boolean socketKeepAlive = true;
+    private boolean compressBatches = true;       // ログバッチのdeflate圧縮（サーバー対応時のみ）
+    private boolean binaryBatches = true;         // ログバッチのバイナリ形式（v2）送信（サーバー対応時のみ）
+    private int pipelineWindow = 8;               // 確認応答を待たずに送信できるバッチ数（サーバー対応時のみ）
+    private boolean controlChannel = true;        // ハートビート・ブロック要求を別接続で送信（サーバー対応時のみ）
+    private boolean edgeFilter = true;            // サーバーで破棄されるリクエストを送信前に破棄（サーバー対応時のみ）
+    private boolean aggregateCleanTraffic = false; // 正常な既知のリクエストを件数に集約して送信（エッジフィルタ有効・サーバー対応時のみ）
 
     // サーバー情報
     private String serverName = "default-server";
@@ -59,14 +65,19 @@ public class AgentConfig {
     private List<String> nginxLogPaths = new ArrayList<>();
     private Map<String, List<String>> serverLogMappings = new HashMap<>(); // サーバー名 -> ログパスリストのマッピング
     private String defaultServerName = "main-nginx"; // デフォルトサーバー名
-    private int logCollectionInterval = 10;       // 秒
+    private int logCollectionInterval = 10;       // 秒（適応制御時は収集間隔の上限）
     private String logFormat = "combined";
-    private int maxBatchSize = 100;
+    private int maxBatchSize = 1000;              // 適応制御時はバッチサイズの上限
+    private boolean adaptiveBatching = true;      // 未送信量・確認応答時間・サーバー混雑度に応じたバッチサイズと収集間隔の調整
+    private int minBatchSize = 50;                // 適応制御時のバッチサイズの下限
+    private int minCollectionIntervalMs = 200;    // 適応制御時の収集間隔の下限（ミリ秒）
+    private int spoolMaxSizeMb = 256;             // 未接続時のディスクスプール上限（MB）
 
     // iptables設定
     private boolean enableIptables = true;
     private int iptablesCheckInterval = 30;       // 秒
     private String iptablesChain = "INPUT";
+    private String firewallBackend = "auto";      // auto: ipsetが使えればipset / ipset / iptables: IPごとのルール
     private int blockDuration = 3600;             // 秒
 
     // ハートビート設定
@@ -140,6 +151,12 @@ public class AgentConfig {
             useSSL = edamameNode.path("useSSL").asBoolean(useSSL);
             connectionTimeout = edamameNode.path("connectionTimeout").asInt(connectionTimeout);
             socketKeepAlive = edamameNode.path("socketKeepAlive").asBoolean(socketKeepAlive);
+            compressBatches = edamameNode.path("compressBatches").asBoolean(compressBatches);
+            binaryBatches = edamameNode.path("binaryBatches").asBoolean(binaryBatches);
+            pipelineWindow = Math.max(1, edamameNode.path("pipelineWindow").asInt(pipelineWindow));
+            controlChannel = edamameNode.path("controlChannel").asBoolean(controlChannel);
+            edgeFilter = edamameNode.path("edgeFilter").asBoolean(edgeFilter);
+            aggregateCleanTraffic = edamameNode.path("aggregateCleanTraffic").asBoolean(aggregateCleanTraffic);
         }
     }
 
@@ -151,7 +168,11 @@ public class AgentConfig {
         if (!loggingNode.isMissingNode()) {
             logCollectionInterval = loggingNode.path("collectionInterval").asInt(logCollectionInterval);
             logFormat = loggingNode.path("format").asText(logFormat);
-            maxBatchSize = loggingNode.path("maxBatchSize").asInt(maxBatchSize);
+            maxBatchSize = Math.max(1, loggingNode.path("maxBatchSize").asInt(maxBatchSize));
+            adaptiveBatching = loggingNode.path("adaptiveBatching").asBoolean(adaptiveBatching);
+            minBatchSize = Math.max(1, Math.min(maxBatchSize, loggingNode.path("minBatchSize").asInt(minBatchSize)));
+            minCollectionIntervalMs = Math.max(50, loggingNode.path("minCollectionIntervalMs").asInt(minCollectionIntervalMs));
+            spoolMaxSizeMb = loggingNode.path("spoolMaxSizeMb").asInt(spoolMaxSizeMb);
 
             // debugModeのみで統一（logLevelは廃止）
             boolean debugMode = loggingNode.path("debugMode").asBoolean(false);
@@ -209,6 +230,7 @@ public class AgentConfig {
             enableIptables = iptablesNode.path("enabled").asBoolean(enableIptables);
             iptablesCheckInterval = iptablesNode.path("checkInterval").asInt(iptablesCheckInterval);
             iptablesChain = iptablesNode.path("chain").asText(iptablesChain);
+            firewallBackend = iptablesNode.path("backend").asText(firewallBackend).toLowerCase();
             blockDuration = iptablesNode.path("blockDuration").asInt(blockDuration);
         }
     }
@@ -304,7 +326,13 @@ public class AgentConfig {
             "apiKey": "edamame-agent-api-key-2025",
             "useSSL": false,
             "connectionTimeout": 30,
-            "socketKeepAlive": true
+            "socketKeepAlive": true,
+            "compressBatches": true,
+            "binaryBatches": true,
+            "pipelineWindow": 8,
+            "controlChannel": true,
+            "edgeFilter": true,
+            "aggregateCleanTraffic": false
           },
           "logging": {
             "servers": [
@@ -316,13 +344,18 @@ public class AgentConfig {
             ],
             "collectionInterval": 10,
             "format": "combined",
-            "maxBatchSize": 100
+            "maxBatchSize": 1000,
+            "adaptiveBatching": true,
+            "minBatchSize": 50,
+            "minCollectionIntervalMs": 200,
+            "spoolMaxSizeMb": 256
           },
           "iptables": {
             "enabled": false,
             "checkInterval": 30,
             "chain": "INPUT",
-            "blockDuration": 3600
+            "blockDuration": 3600,
+            "backend": "auto"
           }
         }
         """;
@@ -342,6 +375,12 @@ public class AgentConfig {
     public String getEdamameHost() { return edamameHost; }
     public int getEdamamePort() { return edamamePort; }
     public String getApiKey() { return apiKey; }
+    public boolean isCompressBatches() { return compressBatches; }
+    public boolean isBinaryBatches() { return binaryBatches; }
+    public int getPipelineWindow() { return pipelineWindow; }
+    public boolean isControlChannel() { return controlChannel; }
+    public boolean isEdgeFilter() { return edgeFilter; }
+    public boolean isAggregateCleanTraffic() { return aggregateCleanTraffic; }
     
     public String getServerName() { return serverName; }
     
@@ -349,10 +388,15 @@ public class AgentConfig {
     public int getLogCollectionInterval() { return logCollectionInterval; }
     public String getLogFormat() { return logFormat; }
     public int getMaxBatchSize() { return maxBatchSize; }
+    public boolean isAdaptiveBatching() { return adaptiveBatching; }
+    public int getMinBatchSize() { return minBatchSize; }
+    public int getMinCollectionIntervalMs() { return minCollectionIntervalMs; }
+    public int getSpoolMaxSizeMb() { return spoolMaxSizeMb; }
     
     public boolean isEnableIptables() { return enableIptables; }
     public int getIptablesCheckInterval() { return iptablesCheckInterval; }
     public String getIptablesChain() { return iptablesChain; }
+    public String getFirewallBackend() { return firewallBackend; }
     
     public int getHeartbeatInterval() { return heartbeatInterval; }
     
@@ -0,0 +1,120 @@
+package com.edamame.agent.log;
+
+import com.edamame.agent.util.AgentLogger;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 攻撃パターンによる事前分類（エッジフィルタの仕様として配信された攻撃パターンの組）
+ * サーバーの AttackPattern.CompiledPatternSet と同じ判定（定義順、例外URLは大文字小文字を区別する正規表現・
+ * パターンは大文字小文字を区別しない正規表現、いずれも不正な場合は部分一致）で、デコード済みのURLから攻撃タイプを求める。
+ * 結果はパターンの組のバージョンとともに LogEntry に付けて送り、サーバーはバージョンが一致する場合にそのまま採用する。
+ * 構築後は変更しないため、判定はロックなしで行う。
+ *
+ * @author Edamame Team
+ * @version 1.0.0
+ */
+final class AttackClassifier {
+
+    /**
+     * 攻撃パターン
+     *
+     * @param attackType 攻撃タイプ
+     * @param pattern パターン（regex が null の場合は大文字小文字を区別しない部分一致に使う）
+     * @param regex コンパイル済みのパターン（不正な場合はnull）
+     * @param excludeUrls 例外URL（excludeRegexes の要素が null の場合は部分一致に使う）
+     * @param excludeRegexes コンパイル済みの例外URL
+     */
+    private record Rule(String attackType, String pattern, Pattern regex, List<String> excludeUrls, List<Pattern> excludeRegexes) {
+
+        boolean matches(String url) {
+            for (int i = 0; i < excludeUrls.size(); i++) {
+                Pattern exclude = excludeRegexes.get(i);
+                if (exclude != null ? exclude.matcher(url).find() : url.contains(excludeUrls.get(i))) {
+                    return false;
+                }
+            }
+            return regex != null ? regex.matcher(url).find() : url.toLowerCase().contains(pattern.toLowerCase());
+        }
+    }
+
+    private final String version;
+    private final List<Rule> rules;
+
+    private AttackClassifier(String version, List<Rule> rules) {
+        this.version = version;
+        this.rules = rules;
+    }
+
+    /**
+     * 仕様の attackPatterns を解釈
+     *
+     * @param node attackPatterns（{"version", "patterns": [{"type", "pattern", "excludeUrls"}]}）
+     * @return 分類器（attackPatterns がない・バージョンがない場合はnull）
+     */
+    static AttackClassifier parse(JsonNode node) {
+        String version = node.path("version").asText("");
+        if (node.isMissingNode() || node.isNull() || version.isEmpty()) {
+            return null;
+        }
+        List<Rule> rules = new ArrayList<>();
+        for (JsonNode item : node.path("patterns")) {
+            String attackType = item.path("type").asText("");
+            String pattern = item.path("pattern").asText("");
+            if (attackType.isEmpty() || pattern.isEmpty()) {
+                continue;
+            }
+            List<String> excludeUrls = new ArrayList<>();
+            List<Pattern> excludeRegexes = new ArrayList<>();
+            for (JsonNode exclude : item.path("excludeUrls")) {
+                excludeUrls.add(exclude.asText());
+                excludeRegexes.add(compile(exclude.asText(), 0));
+            }
+            rules.add(new Rule(attackType, pattern, compile(pattern, Pattern.CASE_INSENSITIVE),
+                List.copyOf(excludeUrls), Collections.unmodifiableList(excludeRegexes)));
+        }
+        AgentLogger.debug("攻撃パターンを読み込みました: " + rules.size() + " 件（バージョン " + version + "）");
+        return new AttackClassifier(version, List.copyOf(rules));
+    }
+
+    private static Pattern compile(String regex, int flags) {
+        try {
+            return Pattern.compile(regex, flags);
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * パターンの組のバージョンを取得
+     *
+     * @return バージョン
+     */
+    String getVersion() {
+        return version;
+    }
+
+    /**
+     * URLから攻撃タイプを判定
+     *
+     * @param url デコード済みのURL
+     * @return 攻撃タイプ（複数の場合はカンマ区切り、該当なしは"normal"）
+     */
+    String classify(String url) {
+        List<String> detected = null;
+        for (Rule rule : rules) {
+            if (rule.matches(url)) {
+                if (detected == null) {
+                    detected = new ArrayList<>(2);
+                }
+                detected.add(rule.attackType());
+            }
+        }
+        return detected == null ? "normal" : String.join(",", detected);
+    }
+}
@@ -0,0 +1,240 @@
+package com.edamame.agent.log;
+
+import com.edamame.agent.util.AgentLogger;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * エッジフィルタ（サーバーが取込時に破棄するリクエストを送信前に破棄する条件）
+ * サーバーから同期・プッシュされた仕様（静的ファイルの拡張子・固定パス・URL抑止ルール）を保持し、
+ * LogCollector が収集したアクセスログの行を送信キューへ入れる前に判定する。
+ * 判定はサーバー（AgentTcpServer.isIgnorableRequest → UrlSuppressionManager）と同じ順序・同じURL表現
+ * （UrlCodec.decode と同じ多重デコード）で行い、サーバー側で破棄される行だけを破棄する。
+ * 仕様は参照ごと差し替えるため、判定はロックなしで行う。
+ * <p>
+ * 破棄件数はルールごと（"extension:拡張子" / "path:パス" / "suppression:ルールID"）に数え、
+ * ハートビートで前回報告以降の件数として送る。送信に失敗した件数は次回に持ち越す。
+ * 仕様を受け取っていない間・サーバーが edge-filter に対応しない間は何も破棄しない。
+ * </p>
+ * <p>
+ * 仕様に攻撃パターンの組（attackPatterns）が含まれる場合は、破棄しない行に攻撃タイプとパターンのバージョンを付ける
+ * （事前分類。URLのデコードは破棄の判定と共用する）。サーバーはバージョンが一致する場合にこの結果を採用する。
+ * </p>
+ *
+ * v1.1.0: 攻撃パターンの組による事前分類を追加し、判定を inspect（破棄または分類結果の付与）に統合
+ *
+ * @author Edamame Team
+ * @version 1.1.0
+ */
+public final class EdgeFilter {
+
+    /**
+     * URL抑止ルール
+     *
+     * @param id ルールID
+     * @param serverName 対象サーバー名（all は全サーバー）
+     * @param pattern コンパイル済みの正規表現（大文字小文字を区別しない）
+     */
+    private record SuppressionRule(long id, String serverName, Pattern pattern) {}
+
+    /**
+     * サーバーから受け取った仕様
+     *
+     * @param version バージョン
+     * @param extensions 破棄する拡張子（URLの末尾と比較）
+     * @param paths 破棄するパス（URL全体と比較）
+     * @param suppressions URL抑止ルール（ID順）
+     * @param byServer サーバー名（小文字）→ 適用するURL抑止ルール
+     * @param classifier 攻撃パターンによる事前分類（配信されていない場合はnull）
+     */
+    private record Spec(long version, List<String> extensions, List<String> paths, List<SuppressionRule> suppressions,
+                        Map<String, List<SuppressionRule>> byServer, AttackClassifier classifier) {
+
+        List<SuppressionRule> forServer(String serverName) {
+            return byServer.computeIfAbsent(serverName.toLowerCase(Locale.ROOT), key -> {
+                List<SuppressionRule> applicable = new ArrayList<>();
+                for (SuppressionRule rule : suppressions) {
+                    if ("all".equalsIgnoreCase(rule.serverName()) || key.equalsIgnoreCase(rule.serverName())) {
+                        applicable.add(rule);
+                    }
+                }
+                return applicable;
+            });
+        }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, LongAdder> dropCounts = new ConcurrentHashMap<>();
+    private volatile Spec spec; // null は未同期・無効
+
+    /**
+     * 適用中の仕様のバージョンを取得
+     *
+     * @return バージョン（未同期は0）
+     */
+    public long getVersion() {
+        Spec current = spec;
+        return current != null ? current.version() : 0;
+    }
+
+    /**
+     * 同期応答またはプッシュで受け取った仕様（JSON）を適用
+     * unchanged の応答は何もしない。解釈できない場合は現在の仕様を維持する
+     *
+     * @param specJson 仕様（version, extensions, paths, suppressions, attackPatterns）
+     */
+    public void apply(String specJson) {
+        try {
+            JsonNode root = objectMapper.readTree(specJson);
+            if (root.path("unchanged").asBoolean(false)) {
+                return;
+            }
+            List<String> extensions = new ArrayList<>();
+            root.path("extensions").forEach(node -> extensions.add(node.asText()));
+            List<String> paths = new ArrayList<>();
+            root.path("paths").forEach(node -> paths.add(node.asText()));
+            List<SuppressionRule> suppressions = new ArrayList<>();
+            for (JsonNode node : root.path("suppressions")) {
+                String pattern = node.path("pattern").asText("");
+                if (pattern.isBlank()) {
+                    continue;
+                }
+                try {
+                    suppressions.add(new SuppressionRule(node.path("id").asLong(),
+                        node.path("serverName").asText("all"), Pattern.compile(pattern, Pattern.CASE_INSENSITIVE)));
+                } catch (Exception e) {
+                    // サーバー側では引き続き判定されるため、エージェントでは破棄しない
+                    AgentLogger.debug("URL抑止パターンをコンパイルできないため無視します: " + pattern + " (" + e.getMessage() + ")");
+                }
+            }
+            AttackClassifier classifier = AttackClassifier.parse(root.path("attackPatterns"));
+            long version = root.path("version").asLong();
+            spec = new Spec(version, List.copyOf(extensions), List.copyOf(paths), List.copyOf(suppressions), new ConcurrentHashMap<>(),
+                classifier);
+            AgentLogger.info("エッジフィルタを適用しました（拡張子 " + extensions.size() + " 件、パス " + paths.size()
+                + " 件、URL抑止ルール " + suppressions.size() + " 件、攻撃パターン "
+                + (classifier != null ? classifier.getVersion() : "なし") + "、バージョン " + version + "）");
+        } catch (IOException e) {
+            AgentLogger.warn("エッジフィルタの解析に失敗しました（現在の条件を維持します）: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 仕様を破棄し、以降は何も破棄しない（edge-filter に対応しないサーバーへ接続した場合）
+     */
+    public void clear() {
+        if (spec != null) {
+            spec = null;
+            AgentLogger.info("サーバーがエッジフィルタに対応していないため、エージェント側での破棄を停止しました");
+        }
+    }
+
+    /**
+     * 適用中の攻撃パターンのバージョンを取得
+     *
+     * @return バージョン（配信されていない場合はnull）
+     */
+    public String getAttackPatternVersion() {
+        Spec current = spec;
+        return current != null && current.classifier() != null ? current.classifier().getVersion() : null;
+    }
+
+    /**
+     * サーバーで破棄される行か判定し、破棄しない行には事前分類の結果を付ける
+     * 対象はアクセスログ（ソースパスに access.log を含み error.log を含まない）の解析済みの行のみで、それ以外はそのまま返す
+     *
+     * @param entry ログエントリ
+     * @return 破棄する場合はnull（該当ルールの件数を加算）、それ以外は送信するエントリ
+     */
+    public LogEntry inspect(LogEntry entry) {
+        Spec current = spec;
+        if (current == null || entry.clientIp() == null || entry.clientIp().isEmpty()) {
+            return entry;
+        }
+        String sourcePath = entry.sourcePath();
+        if (sourcePath == null || sourcePath.contains("error.log") || !sourcePath.contains("access.log")) {
+            return entry;
+        }
+        String url = decode(entry.getRequestUrl());
+        if (url == null || url.isEmpty()) {
+            return entry;
+        }
+        for (String extension : current.extensions()) {
+            if (url.endsWith(extension)) {
+                return drop("extension:" + extension);
+            }
+        }
+        if (current.paths().contains(url)) {
+            return drop("path:" + url);
+        }
+        String serverName = entry.serverName() == null || entry.serverName().isBlank() ? "all" : entry.serverName();
+        for (SuppressionRule rule : current.forServer(serverName)) {
+            if (rule.pattern().matcher(url).find()) {
+                return drop("suppression:" + rule.id());
+            }
+        }
+        AttackClassifier classifier = current.classifier();
+        return classifier != null ? entry.withAttackTag(classifier.classify(url), classifier.getVersion()) : entry;
+    }
+
+    private LogEntry drop(String key) {
+        dropCounts.computeIfAbsent(key, k -> new LongAdder()).increment();
+        return null;
+    }
+
+    /**
+     * 前回取得以降の破棄件数を取得してリセット（ハートビート送信時）
+     *
+     * @return ルールのキー → 件数（破棄なしは空）
+     */
+    public Map<String, Long> drainDropCounts() {
+        Map<String, Long> drained = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : dropCounts.entrySet()) {
+            long count = entry.getValue().sumThenReset();
+            if (count > 0) {
+                drained.put(entry.getKey(), count);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * 報告できなかった破棄件数を戻す（次回のハートビートで報告する）
+     *
+     * @param counts drainDropCounts で取得した件数
+     */
+    public void restoreDropCounts(Map<String, Long> counts) {
+        counts.forEach((key, count) -> dropCounts.computeIfAbsent(key, k -> new LongAdder()).add(count));
+    }
+
+    /**
+     * URLをデコード（サーバーの UrlCodec.decode と同じ多重デコード。最大5回、変化がなくなるか%がなくなるまで）
+     */
+    private static String decode(String url) {
+        if (url == null) return null;
+        String prev = url;
+        String decoded = url;
+        for (int i = 0; i < 5; i++) {
+            try {
+                decoded = URLDecoder.decode(decoded.replace("+", " "), StandardCharsets.UTF_8);
+                if (decoded.equals(prev) || !decoded.contains("%")) break;
+                prev = decoded;
+            } catch (Exception e) {
+                return prev;
+            }
+        }
+        return decoded;
+    }
+}
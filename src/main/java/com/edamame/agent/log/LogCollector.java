@@ -4,15 +4,19 @@ import com.edamame.agent.config.AgentConfig;
 import com.edamame.agent.util.AgentLogger;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -20,18 +24,36 @@ import java.util.regex.Matcher;
  * Nginxログ収集クラス
  * ホストまたはDockerコンテナのNginxログファイルを監視し、
  * 新しいログエントリを収集する
+ * v1.1.0: FileChannel＋ダイレクトバッファによる読み取りに変更（UTF-8デコード、書き込み途中の行は次回へ持ち越し）
+ * v1.2.0: maxBatchSize 単位の分割収集に変更し、位置は送信成功後に確定
+ * v1.3.0: デバイス＋inodeでファイルを追跡し、ローテーション時は旧ファイルの残りを読み切ってから切り替え
+ * v1.4.0: 送信中（未確定）のバッチの続きから先読み収集し、失敗時は確定位置へ巻き戻す（パイプライン送信対応）
+ * v1.5.0: 各エントリに読み取り位置（ストリームID＋行末オフセット）を付与（サーバー側の再送重複排除用）
+ * v1.6.0: バッチの最大行数を呼び出しごとに指定可能にし、未送信量（確定位置からファイル末尾までのバイト数）の取得を追加
+ * v1.7.0: エッジフィルタ（EdgeFilter）に一致する行を送信対象に入れずに破棄（破棄した行は行数・バイト数の上限に数えない）
+ * v1.8.0: 送信対象の行にエッジフィルタの攻撃パターンによる事前分類の結果を付与
  *
  * @author Edamame Team
- * @version 1.0.0
+ * @version 1.8.0
  */
 public class LogCollector {
 
     private static final String POSITION_FILE = getPositionFilePath();
+    /** 1バッチで読み取る最大バイト数（送信メッセージ上限 MAX_MESSAGE_SIZE に対しJSON化の膨張分の余裕を持たせる） */
+    private static final long MAX_BATCH_BYTES = 2L * 1024 * 1024;
+    /** 1バッチの収集で破棄した行を含めて読み取る最大バイト数（破棄が続く区間でも1回の収集時間を抑える） */
+    private static final long MAX_SCAN_BYTES = 16L * 1024 * 1024;
 
     private final AgentConfig config;
-    private final Map<String, Long> filePositions;
+    private final Map<String, FilePosition> filePositions;
     private final Map<String, Boolean> rotatedAfterLastRead = new HashMap<>();
+    /** 送信中（確認応答待ち）のバッチの読み取り後位置。次の収集はここから先読みする */
+    private final Map<String, FilePosition> readAheadPositions = new HashMap<>();
     private final Pattern nginxLogPattern;
+    private final LogFileTailer tailer = new LogFileTailer();
+    private final EdgeFilter edgeFilter;
+    private int nextPathIndex = 0;
+    private boolean positionsDirty = false;
 
     /**
      * コンストラクタ
@@ -39,7 +61,18 @@ public class LogCollector {
      * @param config エージェント設定
      */
     public LogCollector(AgentConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * コンストラクタ（エッジフィルタを指定）
+     *
+     * @param config エージェント設定
+     * @param edgeFilter 送信前に破棄する行の判定（nullの場合は破棄しない）
+     */
+    public LogCollector(AgentConfig config, EdgeFilter edgeFilter) {
         this.config = config;
+        this.edgeFilter = edgeFilter;
         this.filePositions = new HashMap<>();
         this.nginxLogPattern = buildLogPattern(config.getLogFormat());
 
@@ -58,93 +91,379 @@ public class LogCollector {
     }
 
     /**
-     * 新しいログエントリを収集
+     * ファイルの読み取り位置（どの実ファイルのどこまで読んだか）
+     * ストリームIDはオフセットの系列を表し、ローテーション・切り詰め・位置の新規作成で採番し直す。
+     * 同じストリームID内ではオフセットが単調に増えるため、サーバーは (ストリームID, オフセット) で再送を判別できる。
      *
-     * @return 新しいログエントリのリスト
+     * @param fileId ファイル識別子（デバイス＋inode。取得できない環境ではnull）
+     * @param offset 読み取り済みのバイトオフセット
+     * @param streamId ストリームID
      */
-    public List<LogEntry> collectNewLogs() {
-        List<LogEntry> logs = new ArrayList<>();
+    public record FilePosition(String fileId, long offset, String streamId) {}
 
-        for (String logPath : config.getNginxLogPaths()) {
+    /**
+     * 1回の送信分の収集結果
+     * 位置情報は送信成功（サーバー応答）後に {@link #commit(LogChunk)} で確定する
+     *
+     * @param entries 収集したログエントリ
+     * @param positions ファイルごとの読み取り後位置（未確定）
+     */
+    public record LogChunk(List<LogEntry> entries, Map<String, FilePosition> positions) {
+        public boolean isEmpty() {
+            return entries.isEmpty();
+        }
+    }
+
+    /**
+     * 読み取り対象（ローテーション直後はローテート済みファイルの残りを読む）
+     */
+    private record ReadTarget(Path path, String fileId, long start, String streamId) {}
+
+    /**
+     * 1ファイルの読み取り結果
+     *
+     * @param end 最後に読み取った完全な行の直後の位置
+     * @param acceptedBytes 送信対象にした行のバイト数（エッジフィルタで破棄した行を除く）
+     */
+    private record ReadResult(long end, long acceptedBytes) {}
+
+    /**
+     * 新しいログエントリを最大1バッチ分（maxBatchSize 行・MAX_BATCH_BYTES バイト）収集
+     *
+     * @return 収集結果（新しいログがなければ空）
+     * @see #collectNextChunk(int)
+     */
+    public LogChunk collectNextChunk() {
+        return collectNextChunk(config.getMaxBatchSize());
+    }
+
+    /**
+     * 新しいログエントリを最大1バッチ分（maxLines 行・MAX_BATCH_BYTES バイト）収集
+     * 送信中のバッチがあればその続きから先読みし、なければ確定済み位置から読む。
+     * エッジフィルタに一致した行は送信対象に入れず、位置だけを進める（破棄した行の読み取りは MAX_SCAN_BYTES まで）。
+     * 確定済み位置は進めないため、送信に失敗した場合は {@link #rewind()} 後に同じ範囲を再収集する
+     *
+     * @param maxLines バッチの最大行数（適応制御で選択した値）
+     * @return 収集結果（新しいログがなければ空）
+     */
+    public synchronized LogChunk collectNextChunk(int maxLines) {
+        List<LogEntry> logs = new ArrayList<>();
+        Map<String, FilePosition> positions = new HashMap<>();
+        List<String> logPaths = config.getNginxLogPaths();
+        maxLines = Math.max(1, maxLines);
+        long remainingBytes = MAX_BATCH_BYTES;
+        long remainingScan = MAX_SCAN_BYTES;
+
+        // 特定ファイルの大量出力で他ファイルが滞留しないよう開始位置を巡回させる
+        int offset = logPaths.isEmpty() ? 0 : Math.floorMod(nextPathIndex++, logPaths.size());
+        for (int i = 0; i < logPaths.size() && logs.size() < maxLines && remainingBytes > 0 && remainingScan > 0; i++) {
+            String logPath = logPaths.get((offset + i) % logPaths.size());
             try {
-                List<LogEntry> pathLogs = collectLogsFromFile(logPath);
-                logs.addAll(pathLogs);
+                FilePosition readAhead = readAheadPositions.get(logPath);
+                ReadTarget target = readAhead != null
+                    ? resolveReadAheadTarget(logPath, readAhead)
+                    : resolveReadTarget(logPath);
+                if (target == null) {
+                    continue;
+                }
+                int before = logs.size();
+                ReadResult result = collectLogsFromFile(logPath, target, maxLines - logs.size(), remainingBytes, remainingScan, logs);
+                long end = result.end();
+                remainingBytes -= result.acceptedBytes();
+                remainingScan -= end - target.start();
+                FilePosition position = new FilePosition(target.fileId(), end, target.streamId());
+                if (logs.size() > before) {
+                    positions.put(logPath, position);
+                } else if (end != target.start()) {
+                    if (readAhead != null) {
+                        // 送信中のバッチより先の位置は、このバッチの確認応答と一緒に確定する
+                        positions.put(logPath, position);
+                    } else {
+                        // 送信対象がない位置変化（解析不能行・破棄した行のみ）は確認応答を待たずに確定
+                        filePositions.put(logPath, position);
+                        positionsDirty = true;
+                    }
+                } else if (readAhead == null && !target.path().equals(Paths.get(logPath))) {
+                    // ローテート済みファイルに完全な行が残っていない（末尾の改行なし行のみ）場合は現行ファイルへ切り替え
+                    switchToCurrentFile(logPath, fileIdentity(Paths.get(logPath)));
+                }
             } catch (Exception e) {
                 AgentLogger.warn("ログファイル読み取り中にエラーが発生しました (" + logPath + "): " + e.getMessage());
             }
         }
 
-        if (!logs.isEmpty()) {
+        if (positionsDirty && logs.isEmpty()) {
             saveFilePositions();
+        }
+        if (!logs.isEmpty()) {
+            readAheadPositions.putAll(positions);
             AgentLogger.debug(logs.size() + " 件の新しいログエントリを収集しました");
         }
 
-        return logs;
+        return new LogChunk(logs, positions);
     }
 
     /**
-     * 指定されたファイルからログを収集
+     * 送信成功した収集結果の位置を確定して保存
+     *
+     * @param chunk collectNextChunk で取得した収集結果
      */
-    private List<LogEntry> collectLogsFromFile(String logPath) throws IOException {
-        List<LogEntry> logs = new ArrayList<>();
+    public synchronized void commit(LogChunk chunk) {
+        if (chunk.positions().isEmpty() && !positionsDirty) {
+            return;
+        }
+        filePositions.putAll(chunk.positions());
+        for (Map.Entry<String, FilePosition> entry : chunk.positions().entrySet()) {
+            // 新規行を送信できたのでローテート直後フラグを解除
+            rotatedAfterLastRead.put(entry.getKey(), false);
+            // 送信中のバッチがすべて確定した（先読み位置に追いついた）ファイルは確定位置からの読み取りに戻す
+            readAheadPositions.remove(entry.getKey(), entry.getValue());
+        }
+        saveFilePositions();
+    }
+
+    /**
+     * 送信中（未確定）のバッチを破棄し、次の収集を確定済み位置からやり直す
+     * 確認応答を受けられなかったバッチは、最も古いものから再収集・再送される
+     */
+    public synchronized void rewind() {
+        if (!readAheadPositions.isEmpty()) {
+            AgentLogger.debug("未確定のバッチを破棄し、確定済み位置から再収集します");
+            readAheadPositions.clear();
+        }
+    }
+
+    /**
+     * 未送信量（確定済み位置からファイル末尾までのバイト数の合計）を取得
+     * ローテーション後は旧ファイルの未読部分と現行ファイル全体を、位置未記録のファイルは全体を数える
+     *
+     * @return 未送信量（バイト）
+     */
+    public synchronized long getLagBytes() {
+        long lag = 0;
+        for (String logPath : config.getNginxLogPaths()) {
+            try {
+                Path path = Paths.get(logPath);
+                if (!Files.exists(path)) {
+                    continue;
+                }
+                long fileSize = Files.size(path);
+                FilePosition committed = filePositions.get(logPath);
+                if (committed == null) {
+                    lag += fileSize;
+                    continue;
+                }
+                String currentId = fileIdentity(path);
+                if (currentId != null && committed.fileId() != null && !currentId.equals(committed.fileId())) {
+                    Path rotated = findRotatedFile(path, committed.fileId());
+                    if (rotated != null) {
+                        lag += Math.max(0, Files.size(rotated) - committed.offset());
+                    }
+                    lag += fileSize;
+                } else {
+                    // 切り詰め後（ファイルサイズ < 位置）は次回先頭から読むため全体を数える
+                    lag += fileSize >= committed.offset() ? fileSize - committed.offset() : fileSize;
+                }
+            } catch (IOException e) {
+                AgentLogger.debug("未送信量の取得に失敗しました (" + logPath + "): " + e.getMessage());
+            }
+        }
+        return lag;
+    }
+
+    /**
+     * 送信中のバッチの続きから読み取る対象を決定
+     * ローテーション・切り詰めの判定と位置の切り替えは確定済み位置に対して行うため、
+     * 先読み中にこれらを検出した場合は送信中のバッチが確定するまで読み取りを保留する。
+     *
+     * @return 読み取り対象（新しいデータがないか保留する場合はnull）
+     */
+    private ReadTarget resolveReadAheadTarget(String logPath, FilePosition readAhead) throws IOException {
+        Path path = Paths.get(logPath);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        String currentId = fileIdentity(path);
+        if (currentId != null && !currentId.equals(readAhead.fileId())) {
+            // 先読み中のファイルがローテート済み: 旧ファイルの残りのみ続けて読む
+            Path rotated = readAhead.fileId() != null ? findRotatedFile(path, readAhead.fileId()) : null;
+            if (rotated != null && Files.size(rotated) > readAhead.offset()) {
+                return new ReadTarget(rotated, readAhead.fileId(), readAhead.offset(), readAhead.streamId());
+            }
+            return null;
+        }
+        if (Files.size(path) <= readAhead.offset()) {
+            return null;
+        }
+        return new ReadTarget(path, currentId, readAhead.offset(), readAhead.streamId());
+    }
+
+    /**
+     * 確定済み位置とファイル識別子から読み取り対象を決定（ローテーション・切り詰め検出を含む）
+     * 識別子（デバイス＋inode）が変わっていればローテーションと判断し、旧ファイル（access.log.1 等）の
+     * 未読部分を読み切ってから現行ファイルの先頭へ切り替える。
+     *
+     * @return 読み取り対象（ファイルが存在しないか新しいデータがなければnull）
+     */
+    private ReadTarget resolveReadTarget(String logPath) throws IOException {
         Path path = Paths.get(logPath);
 
         if (!Files.exists(path)) {
             AgentLogger.warn("ログファイルが存在しません: " + logPath);
-            return logs;
+            return null;
         }
 
-        long currentPosition = filePositions.getOrDefault(logPath, 0L);
-        long fileSize = Files.size(path);
+        String currentId = fileIdentity(path);
+        FilePosition committed = filePositions.get(logPath);
+        if (committed == null || committed.fileId() == null) {
+            // 初回または識別子未記録（旧形式の位置ファイル）の場合は現行ファイルの位置として扱う
+            committed = committed != null
+                ? new FilePosition(currentId, committed.offset(), committed.streamId())
+                : new FilePosition(currentId, 0L, newStreamId());
+            filePositions.put(logPath, committed);
+            positionsDirty = true;
+        } else if (currentId != null && !currentId.equals(committed.fileId())) {
+            // inodeが変わった: ローテート済みファイルに未読部分が残っていれば先に読み切る
+            Path rotated = findRotatedFile(path, committed.fileId());
+            if (rotated != null && Files.size(rotated) > committed.offset()) {
+                return new ReadTarget(rotated, committed.fileId(), committed.offset(), committed.streamId());
+            }
+            if (rotated == null && committed.offset() > 0) {
+                AgentLogger.warn("ローテート済みファイルが見つからないため未読部分を読み取れません: " + logPath);
+            }
+            committed = switchToCurrentFile(logPath, currentId);
+        }
 
-        if (fileSize < currentPosition) {
-            // ファイルがローテーションされた可能性
-            currentPosition = 0L;
+        long fileSize = Files.size(path);
+        if (fileSize < committed.offset()) {
+            // 同一ファイルの切り詰め（copytruncate 等）
+            committed = new FilePosition(currentId, 0L, newStreamId());
+            filePositions.put(logPath, committed);
+            positionsDirty = true;
             // ローテート直後フラグが未設定またはfalseのときのみMSG出力
             if (!rotatedAfterLastRead.getOrDefault(logPath, false)) {
-                AgentLogger.info("ログファイルのローテーションを検出しました: " + logPath);
+                AgentLogger.info("ログファイルの切り詰めを検出しました: " + logPath);
                 rotatedAfterLastRead.put(logPath, true);
             }
         }
 
-        if (fileSize == currentPosition) {
+        if (fileSize == committed.offset()) {
             // 新しいデータなし
-            return logs;
+            return null;
         }
+        return new ReadTarget(path, currentId, committed.offset(), committed.streamId());
+    }
 
-        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
-            file.seek(currentPosition);
-            String line;
-            long newPosition = currentPosition;
-            boolean hasNewLine = false;
-
-            while ((line = file.readLine()) != null) {
-                newPosition = file.getFilePointer();
-                LogEntry entry = parseLogLine(line, logPath);
-                if (entry != null) {
-                    logs.add(entry);
-                    hasNewLine = true;
+    /**
+     * ローテーション後の現行ファイル先頭へ位置を切り替える
+     */
+    private FilePosition switchToCurrentFile(String logPath, String currentId) {
+        FilePosition position = new FilePosition(currentId, 0L, newStreamId());
+        filePositions.put(logPath, position);
+        positionsDirty = true;
+        AgentLogger.info("ログファイルのローテーションを検出しました: " + logPath);
+        rotatedAfterLastRead.put(logPath, true);
+        return position;
+    }
+
+    /**
+     * 指定識別子を持つローテート済みファイルを同じディレクトリから探す（access.log.1 を優先、圧縮済みは対象外）
+     *
+     * @return 見つかったファイル（なければnull）
+     */
+    private Path findRotatedFile(Path path, String fileId) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        String name = path.getFileName().toString();
+        Path first = dir.resolve(name + ".1");
+        if (Files.isRegularFile(first) && fileId.equals(fileIdentity(first))) {
+            return first;
+        }
+        try (DirectoryStream<Path> candidates = Files.newDirectoryStream(dir, name + ".*")) {
+            for (Path candidate : candidates) {
+                String candidateName = candidate.getFileName().toString();
+                if (candidateName.endsWith(".gz") || !Files.isRegularFile(candidate)) {
+                    continue;
+                }
+                if (fileId.equals(fileIdentity(candidate))) {
+                    return candidate;
                 }
             }
+        }
+        return null;
+    }
+
+    /**
+     * 新しいストリームIDを採番（エージェントの再インストール等で位置ファイルを作り直しても衝突しないよう乱数）
+     */
+    private static String newStreamId() {
+        return String.format("%016x", ThreadLocalRandom.current().nextLong());
+    }
 
-            filePositions.put(logPath, newPosition);
-            // 新規行があればローテート直後フラグを解除
-            if (hasNewLine) {
-                rotatedAfterLastRead.put(logPath, false);
+    /**
+     * ファイル識別子（デバイス＋inode）を取得
+     * unix属性ビューが使えない環境では fileKey を、いずれも取得できなければnullを返す
+     */
+    private static String fileIdentity(Path path) {
+        try {
+            Object dev = Files.getAttribute(path, "unix:dev");
+            Object ino = Files.getAttribute(path, "unix:ino");
+            return dev + "-" + ino;
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            try {
+                Object key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+                // 位置ファイルの区切り文字と衝突しないよう置換
+                return key != null ? key.toString().replace(':', '_') : null;
+            } catch (IOException ex) {
+                return null;
             }
         }
+    }
 
-        return logs;
+    /**
+     * 読み取り対象の開始位置から上限までログを収集（エッジフィルタに一致した行は破棄）
+     *
+     * @return 最後に読み取った完全な行の直後の位置と、送信対象にした行のバイト数
+     */
+    private ReadResult collectLogsFromFile(String logPath, ReadTarget target, int maxLines, long maxBytes, long maxScanBytes,
+                                           List<LogEntry> logs) throws IOException {
+        long[] accepted = new long[2]; // [0]: 送信対象にした行のバイト数, [1]: 直前の行末
+        accepted[1] = target.start();
+        try (FileChannel channel = FileChannel.open(target.path(), StandardOpenOption.READ)) {
+            long end = tailer.readLines(channel, target.start(), maxLines, maxBytes, maxScanBytes, (line, endOffset) -> {
+                long lineStart = accepted[1];
+                accepted[1] = endOffset;
+                // ローテート済みファイルの行も監視対象パスのログとして扱う（サーバー名の対応付けを維持）
+                LogEntry entry = parseLogLine(line, logPath, target.streamId(), endOffset);
+                if (entry == null) {
+                    // 解析できない行は従来どおり上限に数える
+                    accepted[0] += endOffset - lineStart;
+                    return true;
+                }
+                if (edgeFilter != null) {
+                    entry = edgeFilter.inspect(entry);
+                    if (entry == null) {
+                        return false;
+                    }
+                }
+                logs.add(entry);
+                accepted[0] += endOffset - lineStart;
+                return true;
+            });
+            return new ReadResult(end, accepted[0]);
+        }
     }
 
     /**
      * ログ行をパースしてLogEntryに変換
+     *
+     * @param streamId 読み取り中のストリームID
+     * @param endOffset この行の改行直後のバイトオフセット
      */
-    private LogEntry parseLogLine(String line, String sourcePath) {
+    private LogEntry parseLogLine(String line, String sourcePath, String streamId, long endOffset) {
         try {
             // ModSecurityエラーログの場合は、サーバー側で処理するため生ログとして送信
             if (isModSecurityErrorLog(line)) {
-                return createRawLogEntry(line, sourcePath);
+                return createRawLogEntry(line, sourcePath, streamId, endOffset);
             }
             
             // 通常のNGINXアクセスログの処理
@@ -177,7 +496,11 @@ public class LogCollector {
                     sourcePath,
                     serverName,
                     LocalDateTime.now().format(java.time.format.DateTimeFormatter.ISO_LOCAL_DATE_TIME),
-                    false  // 通常のアクセスログはModSecurityブロックではない
+                    false,  // 通常のアクセスログはModSecurityブロックではない
+                    streamId,
+                    endOffset,
+                    null,
+                    null
                 );
             }
         } catch (Exception e) {
@@ -198,7 +521,7 @@ public class LogCollector {
      * ModSecurityエラーログを生ログエントリとして作成
      * サーバー側でModSecurityの詳細解析と適切な関連付けを行うため、生ログラインを送信
      */
-    private LogEntry createRawLogEntry(String line, String sourcePath) {
+    private LogEntry createRawLogEntry(String line, String sourcePath, String streamId, long endOffset) {
         try {
             // サーバー名を抽出
             String serverName = extractServerName(sourcePath);
@@ -215,7 +538,11 @@ public class LogCollector {
                 sourcePath,
                 serverName,
                 LocalDateTime.now().format(java.time.format.DateTimeFormatter.ISO_LOCAL_DATE_TIME),
-                false // blockedByModSec - サーバー側で判定
+                false, // blockedByModSec - サーバー側で判定
+                streamId,
+                endOffset,
+                null,
+                null
             );
 
         } catch (Exception e) {
@@ -233,9 +560,16 @@ public class LogCollector {
             if (Files.exists(positionFile)) {
                 List<String> lines = Files.readAllLines(positionFile);
                 for (String line : lines) {
+                    // "path:position:fileId:streamId"（旧形式 "path:position" / "path:position:fileId" はストリームIDを新規採番）
                     String[] parts = line.split(":");
-                    if (parts.length == 2) {
-                        filePositions.put(parts[0], Long.parseLong(parts[1]));
+                    if (parts.length >= 2 && parts.length <= 4) {
+                        String fileId = parts.length >= 3 && !parts[2].isEmpty() ? parts[2] : null;
+                        String streamId = parts.length == 4 ? parts[3] : null;
+                        if (streamId == null) {
+                            streamId = newStreamId();
+                            positionsDirty = true;
+                        }
+                        filePositions.put(parts[0], new FilePosition(fileId, Long.parseLong(parts[1]), streamId));
                     }
                 }
                 AgentLogger.debug("ファイル位置情報を読み込みました: " + filePositions.size() + " ファイル");
@@ -251,12 +585,15 @@ public class LogCollector {
     private void saveFilePositions() {
         try {
             List<String> lines = new ArrayList<>();
-            for (Map.Entry<String, Long> entry : filePositions.entrySet()) {
-                lines.add(entry.getKey() + ":" + entry.getValue());
+            for (Map.Entry<String, FilePosition> entry : filePositions.entrySet()) {
+                FilePosition position = entry.getValue();
+                lines.add(entry.getKey() + ":" + position.offset()
+                    + ":" + (position.fileId() != null ? position.fileId() : "") + ":" + position.streamId());
             }
 
             Path positionFile = Paths.get(POSITION_FILE);
             Files.write(positionFile, lines);
+            positionsDirty = false;
             AgentLogger.debug("ファイル位置情報を保存しました");
 
         } catch (Exception e) {
@@ -9,9 +9,11 @@ import java.time.format.DateTimeFormatter;
  * 収集したNginxログの情報を保持する
  * Java 11-21対応のRecordクラス
  * Jackson LocalDateTime問題回避のため文字列型に変更
+ * v1.3.0: 読み取り位置（streamId, endOffset）を追加。サーバーは同じ位置の再送を重複として処理しない
+ * v1.4.0: 収集時の事前分類の結果（attackType, attackPatternVersion）を追加。サーバーはバージョンが一致する場合に採用する
  *
  * @author Edamame Team
- * @version 1.2.0
+ * @version 1.4.0
  */
 public record LogEntry(
     String clientIp,
@@ -24,7 +26,11 @@ public record LogEntry(
     String sourcePath,
     String serverName,
     String collectedAt,  // LocalDateTime → Stringに変更
-    boolean blockedByModSec  // ModSecurityブロックフラグを追加
+    boolean blockedByModSec,  // ModSecurityブロックフラグを追加
+    String streamId,  // 読み取り位置のストリームID（位置を持たない場合はnull）
+    long endOffset,   // この行の改行直後のバイトオフセット（streamId内で単調増加）
+    String attackType,           // 事前分類の攻撃タイプ（分類していない場合はnull）
+    String attackPatternVersion  // 事前分類に使った攻撃パターンのバージョン（分類していない場合はnull）
 ) {
 
     /**
@@ -59,7 +65,7 @@ public record LogEntry(
     ) {
         String currentTime = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
         return new LogEntry(clientIp, timestamp, request, statusCode, responseSize, 
-                           referer, userAgent, sourcePath, serverName, currentTime, false);
+                           referer, userAgent, sourcePath, serverName, currentTime, false, null, 0L, null, null);
     }
 
     /**
@@ -78,7 +84,37 @@ public record LogEntry(
     ) {
         String currentTime = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
         return new LogEntry(clientIp, timestamp, request, statusCode, responseSize, 
-                           referer, userAgent, sourcePath, serverName, currentTime, true);
+                           referer, userAgent, sourcePath, serverName, currentTime, true, null, 0L, null, null);
+    }
+
+    /**
+     * 読み取り位置を持つか（スプール済みの旧形式エントリ等は持たない）
+     *
+     * @return 位置を持つ場合true
+     */
+    public boolean hasPosition() {
+        return streamId != null && !streamId.isEmpty();
+    }
+
+    /**
+     * 事前分類の結果を持つか
+     *
+     * @return 攻撃タイプとパターンのバージョンを持つ場合true
+     */
+    public boolean hasAttackTag() {
+        return attackType != null && attackPatternVersion != null;
+    }
+
+    /**
+     * 事前分類の結果を付けたエントリを作成
+     *
+     * @param attackType 攻撃タイプ（該当なしは"normal"）
+     * @param attackPatternVersion 分類に使った攻撃パターンのバージョン
+     * @return 結果を付けたエントリ
+     */
+    public LogEntry withAttackTag(String attackType, String attackPatternVersion) {
+        return new LogEntry(clientIp, timestamp, request, statusCode, responseSize, referer, userAgent, sourcePath,
+            serverName, collectedAt, blockedByModSec, streamId, endOffset, attackType, attackPatternVersion);
     }
 
     /**
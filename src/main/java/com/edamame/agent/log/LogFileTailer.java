@@ -0,0 +1,162 @@
+package com.edamame.agent.log;
+
+import com.edamame.agent.util.AgentLogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * FileChannelベースのログ行リーダー
+ * 再利用するダイレクトバッファへまとめて読み込み、バイト列上で改行を走査して
+ * 行単位にUTF-8デコードする。ファイル末尾の改行で終わっていない行（書き込み途中の行）は
+ * 返さずに次回の読み取りへ持ち越すため、返却する位置は常に完全な行の直後のバイトオフセットとなる。
+ * 1回の読み取りは行数・バイト数の上限で区切り、収集側のメモリ使用量を一定に保つ。
+ * 行数・バイト数の上限は収集側が採用した行（コールバックがtrueを返した行）だけを数え、
+ * 破棄した行を含む走査量は別の上限で区切る。
+ * 改行までの長さが {@link #MAX_LINE_BYTES} を超える行は行バッファへ溜めずに読み飛ばし、件数を数える。
+ * 1インスタンスは1スレッドから使用する前提（バッファを共有するためスレッドセーフではない）。
+ *
+ * v1.2.0: 上限の対象を採用した行に限定し、走査量の上限を追加（エッジフィルタで破棄する行は数えない）
+ * v1.3.0: 1行の長さに上限を設け、超過した行は読み飛ばして件数を数える（改行のない巨大な行で行バッファが際限なく伸びるのを防止）
+ *
+ * @author Edamame Team
+ * @version 1.3.0
+ */
+final class LogFileTailer {
+
+    /** 読み取りバッファサイズ（バイト） */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** 行バッファの初期サイズ（バイト） */
+    private static final int INITIAL_LINE_CAPACITY = 2 * 1024;
+    /** 読み取り後も保持する行バッファの上限（極端に長い行で拡張した分は解放する） */
+    private static final int MAX_RETAINED_LINE_CAPACITY = 256 * 1024;
+    /** 1行の最大長（バイト、改行を除く）。超過した行は読み飛ばす */
+    static final int MAX_LINE_BYTES = 1024 * 1024;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private byte[] lineBytes = new byte[INITIAL_LINE_CAPACITY];
+    private int lineLength;
+    private boolean oversized;
+    private long oversizedLineCount;
+
+    /**
+     * 1行読み取るごとに呼ばれるコールバック
+     */
+    @FunctionalInterface
+    interface LineConsumer {
+        /**
+         * @param line 改行（CRLFのCRを含む）を除いた行文字列
+         * @param endOffset この行の改行直後のバイトオフセット
+         * @return 行を採用した場合true（行数・バイト数の上限に数える）
+         */
+        boolean accept(String line, long endOffset);
+    }
+
+    /**
+     * 指定位置から完全な行を読み取る（行数・バイト数・走査量の上限に達した時点で停止）
+     *
+     * @param channel 読み取り対象チャネル
+     * @param position 読み取り開始位置（バイトオフセット）
+     * @param maxLines 採用する最大行数
+     * @param maxBytes 採用する最大バイト数（この値に達した行で停止。1行目は上限を超えても返す）
+     * @param maxScanBytes 破棄した行を含めて読み取る最大バイト数
+     * @param consumer 行ごとのコールバック
+     * @return 最後に読み取った完全な行の直後のバイトオフセット（行がなければ開始位置）
+     * @throws IOException 読み取りエラー
+     */
+    long readLines(FileChannel channel, long position, int maxLines, long maxBytes, long maxScanBytes,
+                   LineConsumer consumer) throws IOException {
+        long readPosition = position;
+        long committed = position;
+        int lines = 0;
+        long acceptedBytes = 0;
+        lineLength = 0;
+        oversized = false;
+        buffer.clear();
+
+        reading:
+        while (channel.read(buffer, readPosition) > 0) {
+            buffer.flip();
+            int start = 0;
+            int limit = buffer.limit();
+            for (int i = start; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    appendLineBytes(start, i);
+                    long lineStart = committed;
+                    committed = readPosition + i + 1;
+                    if (oversized) {
+                        // 最大長を超えた行はコールバックへ渡さず、位置だけ進める（走査量には数える）
+                        oversizedLineCount++;
+                        AgentLogger.warn("最大長を超えるログ行を読み飛ばしました（" + (committed - lineStart)
+                            + " バイト、累計 " + oversizedLineCount + " 行）");
+                        oversized = false;
+                    } else if (consumer.accept(decodeLine(), committed)) {
+                        lines++;
+                        acceptedBytes += committed - lineStart;
+                    }
+                    lineLength = 0;
+                    start = i + 1;
+                    if (lines >= maxLines || acceptedBytes >= maxBytes || committed - position >= maxScanBytes) {
+                        break reading;
+                    }
+                }
+            }
+            // 改行が見つからなかった残りは行バッファへ退避して次の読み取りで継続
+            appendLineBytes(start, limit);
+            readPosition += limit;
+            buffer.clear();
+        }
+
+        // 上限以降の読み取り済み部分と、末尾の改行なし部分（書き込み途中の可能性）は返さない（位置も進めない）
+        lineLength = 0;
+        oversized = false;
+        buffer.clear();
+        if (lineBytes.length > MAX_RETAINED_LINE_CAPACITY) {
+            lineBytes = new byte[INITIAL_LINE_CAPACITY];
+        }
+        return committed;
+    }
+
+    /**
+     * 最大長を超えて読み飛ばした行の累計件数を取得
+     *
+     * @return 読み飛ばした行数
+     */
+    long getOversizedLineCount() {
+        return oversizedLineCount;
+    }
+
+    /**
+     * バッファの [from, to) を行バッファに追加（最大長を超えた行は以降を溜めない）
+     */
+    private void appendLineBytes(int from, int to) {
+        int length = to - from;
+        if (length <= 0 || oversized) {
+            return;
+        }
+        if (lineLength + length > MAX_LINE_BYTES) {
+            oversized = true;
+            lineLength = 0;
+            return;
+        }
+        if (lineLength + length > lineBytes.length) {
+            lineBytes = Arrays.copyOf(lineBytes, Math.max(lineBytes.length * 2, lineLength + length));
+        }
+        buffer.get(from, lineBytes, lineLength, length);
+        lineLength += length;
+    }
+
+    /**
+     * 行バッファをUTF-8でデコード（行末のCRは除去）
+     */
+    private String decodeLine() {
+        int length = lineLength;
+        if (length > 0 && lineBytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(lineBytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,170 @@
+package com.edamame.agent.log;
+
+import com.edamame.agent.util.AgentLogger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ログファイル変更監視クラス
+ * 監視対象ログの親ディレクトリを WatchService（Linux では inotify）で監視し、
+ * ログの追記・作成（ローテーション）を検知したら変更通知コールバックを呼び出す。
+ * 監視できないディレクトリや取りこぼしは、呼び出し側の定期ポーリングで補う前提。
+ *
+ * @author Edamame Team
+ * @version 1.0.0
+ */
+public class LogFileWatcher {
+
+    private final Map<Path, Set<String>> watchedNames = new HashMap<>();
+    private final Runnable onChange;
+    private WatchService watchService;
+    private Thread watcherThread;
+    private volatile boolean running = false;
+
+    /**
+     * コンストラクタ
+     *
+     * @param logPaths 監視対象ログファイルのパス
+     * @param onChange 変更検知時のコールバック（監視スレッドから呼ばれるため短時間で戻ること）
+     */
+    public LogFileWatcher(List<String> logPaths, Runnable onChange) {
+        this.onChange = onChange;
+        for (String logPath : logPaths) {
+            Path path = Paths.get(logPath).toAbsolutePath();
+            Path dir = path.getParent();
+            if (dir != null) {
+                watchedNames.computeIfAbsent(dir, d -> new HashSet<>()).add(path.getFileName().toString());
+            }
+        }
+    }
+
+    /**
+     * 監視を開始
+     *
+     * @return 1つ以上のディレクトリを監視できた場合true
+     */
+    public synchronized boolean start() {
+        if (running) {
+            return true;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            AgentLogger.warn("ファイル変更監視を開始できません（定期ポーリングのみで収集します）: " + e.getMessage());
+            return false;
+        }
+
+        int registered = 0;
+        for (Path dir : watchedNames.keySet()) {
+            try {
+                dir.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+                registered++;
+            } catch (IOException e) {
+                AgentLogger.warn("ディレクトリを監視できません（定期ポーリングで補完します）: " + dir + " - " + e.getMessage());
+            }
+        }
+        if (registered == 0) {
+            closeWatchService();
+            return false;
+        }
+
+        running = true;
+        WatchService service = watchService;
+        watcherThread = new Thread(() -> watchLoop(service), "log-file-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        AgentLogger.info("ログファイル変更監視を開始しました。監視ディレクトリ数: " + registered);
+        return true;
+    }
+
+    /**
+     * 監視を停止
+     */
+    public synchronized void stop() {
+        running = false;
+        closeWatchService();
+        if (watcherThread != null) {
+            watcherThread.interrupt();
+            watcherThread = null;
+        }
+    }
+
+    /**
+     * 監視スレッド本体
+     */
+    private void watchLoop(WatchService service) {
+        while (running) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir = (Path) key.watchable();
+            Set<String> names = watchedNames.getOrDefault(dir, Set.of());
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // イベント取りこぼし時は変更ありとして扱う
+                    changed = true;
+                } else if (event.context() instanceof Path name && isWatchedName(names, name.getFileName().toString())) {
+                    changed = true;
+                }
+            }
+            key.reset();
+
+            if (changed) {
+                try {
+                    onChange.run();
+                } catch (Exception e) {
+                    AgentLogger.warn("ログ変更通知の処理中にエラーが発生しました: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 監視対象ファイル、またはそのローテート済みファイル（access.log.1 等）か
+     */
+    private boolean isWatchedName(Set<String> names, String fileName) {
+        for (String name : names) {
+            if (fileName.equals(name) || fileName.startsWith(name + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * WatchServiceをクローズ（監視スレッドの take() は ClosedWatchServiceException で終了する）
+     */
+    private void closeWatchService() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                AgentLogger.debug("WatchServiceのクローズに失敗しました: " + e.getMessage());
+            }
+            watchService = null;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.edamame.agent.network;
+
+import com.edamame.agent.config.AgentConfig;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * バッチサイズと収集間隔の適応制御
+ * 収集・送信の1回ごとに、未送信量（ログファイル末尾までの未確定バイト数）・確認応答時間・
+ * サーバーの取込キュー混雑度（バックプレッシャー）から、次回のバッチサイズと収集までの待ち時間を
+ * 設定の範囲（minBatchSize〜maxBatchSize, minCollectionIntervalMs〜collectionInterval）で選ぶ。
+ * <ul>
+ *   <li>混雑（混雑度または確認応答時間が閾値超過）: バッチサイズを半減し、待ち時間を倍にする</li>
+ *   <li>上限サイズのバッチが出た（追いついていない）: バッチサイズを倍にし、待ち時間を下限にする</li>
+ *   <li>ログを送信した・未送信量が残っている: 待ち時間を下限にする</li>
+ *   <li>新しいログがない: 待ち時間を倍にする（上限は collectionInterval）</li>
+ * </ul>
+ * adaptiveBatching が無効の場合は常に maxBatchSize と collectionInterval を返す。
+ * 収集スレッドと送信・ハートビートの各スレッドから呼ばれるため同期化する。
+ *
+ * @author Edamame Team
+ * @version 1.0.0
+ */
+public class AdaptiveBatchTuner {
+
+    /** 適応制御開始時のバッチサイズ（設定範囲に収める） */
+    private static final int INITIAL_BATCH_SIZE = 100;
+    /** 混雑と判断する取込キュー使用率（%） */
+    private static final int BACKPRESSURE_HIGH_PERCENT = 75;
+    /** 混雑と判断する確認応答時間（平滑化後、ミリ秒） */
+    private static final long ACK_LATENCY_HIGH_MS = 2000;
+    /** 確認応答時間の平滑化係数 */
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final boolean adaptive;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+
+    private int batchSize;
+    private long delayMs;
+    private long lagBytes = 0;
+    private double ackLatencyMs = -1;     // 未計測は -1
+    private int backpressurePercent = -1; // サーバー非対応・未受信は -1
+    private int fullBatches = 0;
+
+    /**
+     * コンストラクタ
+     *
+     * @param config エージェント設定
+     */
+    public AdaptiveBatchTuner(AgentConfig config) {
+        this.adaptive = config.isAdaptiveBatching();
+        this.maxBatchSize = Math.max(1, config.getMaxBatchSize());
+        this.minBatchSize = Math.max(1, Math.min(config.getMinBatchSize(), maxBatchSize));
+        this.maxDelayMs = Math.max(1, config.getLogCollectionInterval()) * 1000L;
+        this.minDelayMs = Math.min(config.getMinCollectionIntervalMs(), maxDelayMs);
+        this.batchSize = adaptive ? Math.max(minBatchSize, Math.min(maxBatchSize, INITIAL_BATCH_SIZE)) : maxBatchSize;
+        this.delayMs = maxDelayMs;
+    }
+
+    /**
+     * 次に収集するバッチの最大行数
+     */
+    public synchronized int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * 次の定期収集までの待ち時間（ミリ秒）
+     */
+    public synchronized long nextCollectionDelayMs() {
+        return delayMs;
+    }
+
+    /**
+     * 収集したバッチを記録（上限サイズのバッチは未送信ログが溜まっている目安）
+     *
+     * @param entries バッチの件数
+     */
+    public synchronized void recordBatch(int entries) {
+        if (entries >= batchSize) {
+            fullBatches++;
+        }
+    }
+
+    /**
+     * ログバッチの確認応答を記録
+     *
+     * @param latencyMs 送信から応答受信までの時間（ミリ秒）
+     * @param responseMessage 応答メッセージ（ingest-backpressure 合意時は混雑度を含む）
+     */
+    public synchronized void recordAck(long latencyMs, String responseMessage) {
+        ackLatencyMs = ackLatencyMs < 0 ? latencyMs : ackLatencyMs + (latencyMs - ackLatencyMs) * LATENCY_SMOOTHING;
+        int backpressure = parseBackpressure(responseMessage);
+        if (backpressure >= 0) {
+            backpressurePercent = backpressure;
+        }
+    }
+
+    /**
+     * 1回の収集・送信の完了を記録し、次回のバッチサイズと待ち時間を決定
+     *
+     * @param remainingLagBytes 送信後にログファイル末尾まで残っている未確定バイト数
+     * @param delivered 送信（またはスプールへ退避）した件数
+     */
+    public synchronized void completeRun(long remainingLagBytes, int delivered) {
+        lagBytes = remainingLagBytes;
+        boolean fellBehind = fullBatches > 0;
+        fullBatches = 0;
+        if (!adaptive) {
+            return;
+        }
+
+        if (backpressurePercent >= BACKPRESSURE_HIGH_PERCENT || ackLatencyMs > ACK_LATENCY_HIGH_MS) {
+            batchSize = Math.max(minBatchSize, batchSize / 2);
+            delayMs = Math.min(maxDelayMs, Math.max(minDelayMs, delayMs * 2));
+        } else if (fellBehind) {
+            batchSize = (int) Math.min(maxBatchSize, batchSize * 2L);
+            delayMs = minDelayMs;
+        } else if (delivered > 0 || remainingLagBytes > 0) {
+            delayMs = minDelayMs;
+        } else {
+            delayMs = Math.min(maxDelayMs, delayMs * 2);
+        }
+    }
+
+    /**
+     * ハートビートで通知する現在の状態
+     *
+     * @return 未送信量・選択中のバッチサイズと収集間隔・確認応答時間・サーバー混雑度
+     */
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("adaptive", adaptive);
+        status.put("lagBytes", lagBytes);
+        status.put("batchSize", batchSize);
+        status.put("collectionDelayMs", delayMs);
+        status.put("ackLatencyMs", ackLatencyMs < 0 ? null : Math.round(ackLatencyMs));
+        status.put("serverBackpressure", backpressurePercent < 0 ? null : backpressurePercent);
+        return status;
+    }
+
+    /**
+     * 応答メッセージ末尾の取込キュー使用率を取得
+     *
+     * @return 0〜100（含まれない・解釈できない場合は -1）
+     */
+    static int parseBackpressure(String responseMessage) {
+        if (responseMessage == null) {
+            return -1;
+        }
+        int index = responseMessage.lastIndexOf(TcpProtocolConstants.BACKPRESSURE_RESPONSE_MARKER);
+        if (index < 0) {
+            return -1;
+        }
+        try {
+            int value = Integer.parseInt(responseMessage.substring(index + TcpProtocolConstants.BACKPRESSURE_RESPONSE_MARKER.length()).trim());
+            return value >= 0 && value <= 100 ? value : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
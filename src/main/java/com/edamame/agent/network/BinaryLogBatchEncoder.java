@@ -0,0 +1,295 @@
+package com.edamame.agent.network;
+
+import com.edamame.agent.log.LogEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.DateTimeException;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.edamame.agent.network.TcpProtocolConstants.*;
+
+/**
+ * バイナリ形式（v2）ログバッチのエンコーダー
+ * JSONでは全エントリに繰り返し出現するキー名と値を、以下の形式で詰めて表現する。
+ * <pre>
+ * 本体: [varint 文字列表の件数]{[文字列]}[varint エントリ数]{エントリ}
+ * エントリ: [byte フラグ][varint サーバー名idx][varint ソースパスidx][文字列 クライアントIP]
+ *           [リクエスト: 分割時は varint メソッドidx / 文字列 URL / varint プロトコルidx、それ以外は文字列]
+ *           [zigzag ステータスコード][レスポンスサイズ: 数値時は varlong、それ以外は文字列]
+ *           [アクセス時刻: エポック時は zigzag 秒 / zigzag UTCオフセット秒、それ以外は文字列]
+ *           [収集時刻: エポック時は zigzag 秒 / varint ナノ秒、それ以外は文字列]
+ *           [文字列 リファラー][文字列 User-Agent]
+ *           [読み取り位置: 位置を持つ場合のみ varint ストリームIDidx / varlong 行末オフセット]
+ *           [事前分類: attack-tags 合意時に分類結果を持つ場合のみ varint 攻撃タイプidx / varint パターンバージョンidx]
+ * 文字列: [varint UTF-8バイト長][UTF-8]
+ * </pre>
+ * サーバー名・ソースパス・HTTPメソッド・プロトコル・ストリームID・攻撃タイプ・パターンバージョンはバッチごとの文字列表に1度だけ格納する。
+ * 時刻は元の文字列へ完全に復元できる場合のみ数値化し、復元できない値は文字列のまま送る（可逆）。
+ * 1インスタンスは呼び出し側で直列化して使用する（バッファを再利用するためスレッドセーフではない）。
+ *
+ * v1.1.0: 読み取り位置（ストリームID＋行末オフセット）を追加
+ * v1.2.0: 事前分類の結果（攻撃タイプ＋パターンバージョン）を追加
+ *
+ * @author Edamame Team
+ * @version 1.2.0
+ */
+final class BinaryLogBatchEncoder {
+
+    /** NGINXアクセスログの月名（3文字ずつ、月-1 の3倍の位置） */
+    private static final String MONTH_NAMES = "JanFebMarAprMayJunJulAugSepOctNovDec";
+    /** 収集時刻の小数部（桁数）をナノ秒へ換算する倍率 */
+    private static final int[] POWERS_OF_TEN = { 1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000 };
+
+    private final Map<String, Integer> stringTable = new HashMap<>();
+    private final ByteArrayOutputStream tableBuffer = new ByteArrayOutputStream(1024);
+    private final ByteArrayOutputStream entryBuffer = new ByteArrayOutputStream(64 * 1024);
+
+    /**
+     * ログリストをバイナリ形式の本体へエンコード
+     *
+     * @param logs ログリスト
+     * @param includeAttackTags 事前分類の結果を含めるか（サーバーが attack-tags に対応する場合のみ）
+     * @return エンコード済みの本体（形式バージョン・エンコーディングのヘッダーは含まない）
+     * @throws IOException バッファへの書き込みエラー
+     */
+    byte[] encode(List<LogEntry> logs, boolean includeAttackTags) throws IOException {
+        stringTable.clear();
+        tableBuffer.reset();
+        entryBuffer.reset();
+
+        writeVarLong(entryBuffer, logs.size());
+        for (LogEntry entry : logs) {
+            writeEntry(entry, includeAttackTags && entry.hasAttackTag());
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(tableBuffer.size() + entryBuffer.size() + 8);
+        writeVarLong(body, stringTable.size());
+        tableBuffer.writeTo(body);
+        entryBuffer.writeTo(body);
+        return body.toByteArray();
+    }
+
+    /**
+     * 1エントリを書き込み
+     */
+    private void writeEntry(LogEntry entry, boolean attackTag) {
+        String[] requestParts = splitRequest(entry.request());
+        Long responseSize = parseResponseSize(entry.responseSize());
+        OffsetDateTime accessTime = parseNginxTime(entry.timestamp());
+        LocalDateTime collectedAt = parseCollectedAt(entry.collectedAt());
+
+        int flags = 0;
+        if (entry.blockedByModSec()) flags |= BINARY_ENTRY_BLOCKED_BY_MODSEC;
+        if (requestParts != null) flags |= BINARY_ENTRY_REQUEST_SPLIT;
+        if (responseSize != null) flags |= BINARY_ENTRY_SIZE_NUMERIC;
+        if (accessTime != null) flags |= BINARY_ENTRY_TIMESTAMP_EPOCH;
+        if (collectedAt != null) flags |= BINARY_ENTRY_COLLECTED_EPOCH;
+        if (entry.hasPosition()) flags |= BINARY_ENTRY_POSITION;
+        if (attackTag) flags |= BINARY_ENTRY_ATTACK_TAG;
+        entryBuffer.write(flags);
+
+        writeVarLong(entryBuffer, tableIndex(entry.serverName()));
+        writeVarLong(entryBuffer, tableIndex(entry.sourcePath()));
+        writeString(entryBuffer, entry.clientIp());
+
+        if (requestParts != null) {
+            writeVarLong(entryBuffer, tableIndex(requestParts[0]));
+            writeString(entryBuffer, requestParts[1]);
+            writeVarLong(entryBuffer, tableIndex(requestParts[2]));
+        } else {
+            writeString(entryBuffer, entry.request());
+        }
+
+        writeVarLong(entryBuffer, zigZag(entry.statusCode()));
+
+        if (responseSize != null) {
+            writeVarLong(entryBuffer, responseSize);
+        } else {
+            writeString(entryBuffer, entry.responseSize());
+        }
+
+        if (accessTime != null) {
+            writeVarLong(entryBuffer, zigZag(accessTime.toEpochSecond()));
+            writeVarLong(entryBuffer, zigZag(accessTime.getOffset().getTotalSeconds()));
+        } else {
+            writeString(entryBuffer, entry.timestamp());
+        }
+
+        if (collectedAt != null) {
+            writeVarLong(entryBuffer, zigZag(collectedAt.toEpochSecond(ZoneOffset.UTC)));
+            writeVarLong(entryBuffer, collectedAt.getNano());
+        } else {
+            writeString(entryBuffer, entry.collectedAt());
+        }
+
+        writeString(entryBuffer, entry.referer());
+        writeString(entryBuffer, entry.userAgent());
+
+        if (entry.hasPosition()) {
+            writeVarLong(entryBuffer, tableIndex(entry.streamId()));
+            writeVarLong(entryBuffer, entry.endOffset());
+        }
+
+        if (attackTag) {
+            writeVarLong(entryBuffer, tableIndex(entry.attackType()));
+            writeVarLong(entryBuffer, tableIndex(entry.attackPatternVersion()));
+        }
+    }
+
+    /**
+     * 文字列表のインデックスを取得（未登録なら追加）
+     */
+    private int tableIndex(String value) {
+        Integer index = stringTable.get(value);
+        if (index == null) {
+            index = stringTable.size();
+            stringTable.put(value, index);
+            writeString(tableBuffer, value);
+        }
+        return index;
+    }
+
+    /**
+     * リクエスト行を「メソッド URL プロトコル」に分割（連結して元に戻せる場合のみ）
+     */
+    private static String[] splitRequest(String request) {
+        int first = request.indexOf(' ');
+        int last = request.lastIndexOf(' ');
+        if (first <= 0 || last <= first + 1 || last == request.length() - 1) {
+            return null;
+        }
+        String url = request.substring(first + 1, last);
+        if (url.indexOf(' ') >= 0) {
+            return null;
+        }
+        return new String[] { request.substring(0, first), url, request.substring(last + 1) };
+    }
+
+    /**
+     * 数値のレスポンスサイズを取得（先頭ゼロ等で元の文字列に戻せない場合はnull）
+     */
+    private static Long parseResponseSize(String responseSize) {
+        if (responseSize.isEmpty() || responseSize.length() > 18) {
+            return null;
+        }
+        for (int i = 0; i < responseSize.length(); i++) {
+            char c = responseSize.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+        }
+        long value = Long.parseLong(responseSize);
+        return Long.toString(value).equals(responseSize) ? value : null;
+    }
+
+    /**
+     * NGINX形式の時刻（dd/MMM/yyyy:HH:mm:ss +hhmm 固定長）を解析
+     * 1エントリごとに DateTimeFormatter で解析・再整形すると送信時間の大半を占めるため、固定位置で読み取る。
+     * 書式どおりに再整形して元の文字列と一致する値のみを返す（それ以外はnull）
+     */
+    private static OffsetDateTime parseNginxTime(String timestamp) {
+        if (timestamp.length() != 26 || timestamp.charAt(2) != '/' || timestamp.charAt(6) != '/'
+                || timestamp.charAt(11) != ':' || timestamp.charAt(14) != ':' || timestamp.charAt(17) != ':'
+                || timestamp.charAt(20) != ' ') {
+            return null;
+        }
+        int monthIndex = MONTH_NAMES.indexOf(timestamp.substring(3, 6));
+        int day = digits(timestamp, 0, 2);
+        int year = digits(timestamp, 7, 4);
+        int hour = digits(timestamp, 12, 2);
+        int minute = digits(timestamp, 15, 2);
+        int second = digits(timestamp, 18, 2);
+        int offsetHours = digits(timestamp, 22, 2);
+        int offsetMinutes = digits(timestamp, 24, 2);
+        char sign = timestamp.charAt(21);
+        if (monthIndex < 0 || monthIndex % 3 != 0 || (sign != '+' && sign != '-')
+                || (day | year | hour | minute | second | offsetHours | offsetMinutes) < 0 || year < 1
+                || offsetMinutes >= 60 || (sign == '-' && offsetHours == 0 && offsetMinutes == 0)) {
+            return null;
+        }
+        try {
+            int month = monthIndex / 3 + 1;
+            int offsetSeconds = (offsetHours * 3600 + offsetMinutes * 60) * (sign == '-' ? -1 : 1);
+            return OffsetDateTime.of(year, month, day, hour, minute, second, 0, ZoneOffset.ofTotalSeconds(offsetSeconds));
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * ISO形式の収集時刻（yyyy-MM-ddTHH:mm:ss[.fraction]）を解析
+     * ISO_LOCAL_DATE_TIME で再整形して元の文字列と一致する値（小数部が末尾0なし）のみを返す（それ以外はnull）
+     */
+    private static LocalDateTime parseCollectedAt(String collectedAt) {
+        int length = collectedAt.length();
+        if (length < 19 || length == 20 || length > 29 || collectedAt.charAt(4) != '-' || collectedAt.charAt(7) != '-'
+                || collectedAt.charAt(10) != 'T' || collectedAt.charAt(13) != ':' || collectedAt.charAt(16) != ':') {
+            return null;
+        }
+        int nano = 0;
+        if (length > 19) {
+            if (collectedAt.charAt(19) != '.' || collectedAt.charAt(length - 1) == '0') {
+                return null;
+            }
+            int fraction = digits(collectedAt, 20, length - 20);
+            if (fraction < 0) {
+                return null;
+            }
+            nano = fraction * POWERS_OF_TEN[29 - length];
+        }
+        int year = digits(collectedAt, 0, 4);
+        int month = digits(collectedAt, 5, 2);
+        int day = digits(collectedAt, 8, 2);
+        int hour = digits(collectedAt, 11, 2);
+        int minute = digits(collectedAt, 14, 2);
+        int second = digits(collectedAt, 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) {
+            return null;
+        }
+        try {
+            return LocalDateTime.of(year, month, day, hour, minute, second, nano);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 10進数字列を整数へ変換（数字以外を含む場合は-1）
+     */
+    private static int digits(String value, int from, int count) {
+        int result = 0;
+        for (int i = from; i < from + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -0,0 +1,215 @@
+package com.edamame.agent.network;
+
+import com.edamame.agent.config.AgentConfig;
+import com.edamame.agent.util.AgentLogger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.edamame.agent.network.TcpProtocolConstants.*;
+
+/**
+ * ハートビート・ブロック要求用の制御接続
+ * ログ送信（データ接続）とは別のTCP接続で、認証後に MSG_TYPE_CONTROL_ATTACH でデータ接続の登録IDに紐づける。
+ * サーバーは接続ごとに別スレッドで処理するため、大きなログバッチの送信・処理待ちや再試行の待機中でも
+ * ハートビートとブロック要求は待たされずに応答を受け取る。
+ * 接続は初回の要求時に確立し、登録IDが変わった場合（再接続後の再登録）は張り直す。
+ * 要求は同期化して1件ずつ送受信する。{@link #close()} は要求中のスレッドを待たずにソケットを閉じる。
+ * 紐づけ後は読み取りスレッドが受信を続け、サーバーからのプッシュ（ブロックリストの差分・エッジフィルタ）はリスナーへ渡し、
+ * それ以外のフレームは要求中のスレッドへの応答として渡す。
+ *
+ * v1.1.0: 読み取りスレッドを追加し、サーバーからのブロックリスト差分プッシュを受信
+ * v1.2.0: エッジフィルタのプッシュ（PUSH_EDGE_FILTER）の受信を追加
+ *
+ * @author Edamame Team
+ * @version 1.2.0
+ */
+final class ControlChannel {
+
+    /**
+     * 制御接続の応答
+     *
+     * @param code レスポンスコード
+     * @param message メッセージ
+     */
+    record Response(byte code, String message) {}
+
+    /** 読み取りスレッドの終了（切断）を要求中のスレッドへ伝える目印 */
+    private static final Response DISCONNECTED = new Response(RESPONSE_ERROR, "disconnected");
+
+    private final AgentConfig config;
+    private final Consumer<String> blockListPushListener;
+    private final Consumer<String> edgeFilterPushListener;
+    private volatile Socket socket;
+    private DataOutputStream out;
+    private BlockingQueue<Response> responses;
+    private String attachedRegistrationId;
+
+    /**
+     * コンストラクタ
+     *
+     * @param config エージェント設定
+     * @param blockListPushListener ブロックリスト差分プッシュ（JSON）の受信先。読み取りスレッドから呼ばれるため処理は短くすること
+     * @param edgeFilterPushListener エッジフィルタのプッシュ（JSON）の受信先。同上
+     */
+    ControlChannel(AgentConfig config, Consumer<String> blockListPushListener, Consumer<String> edgeFilterPushListener) {
+        this.config = config;
+        this.blockListPushListener = blockListPushListener;
+        this.edgeFilterPushListener = edgeFilterPushListener;
+    }
+
+    /**
+     * 要求を送信して応答を受信（未接続・登録ID変更時は接続と紐づけを先に行う）
+     *
+     * @param messageType メッセージタイプ
+     * @param data データ
+     * @param registrationId データ接続の登録ID
+     * @return 応答
+     * @throws IOException 接続・紐づけ・送受信のエラー、応答待ちのタイムアウト（呼び出し側で {@link #close()} する）
+     */
+    synchronized Response request(byte messageType, byte[] data, String registrationId) throws IOException {
+        ensureAttached(registrationId);
+        writeFrame(out, messageType, data);
+        Response response;
+        try {
+            response = responses.poll(SOCKET_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("制御接続の応答待ちが中断されました");
+        }
+        if (response == null) {
+            throw new SocketTimeoutException("制御接続の応答がタイムアウトしました");
+        }
+        if (response == DISCONNECTED) {
+            throw new EOFException("制御接続が切断されました");
+        }
+        return response;
+    }
+
+    /**
+     * 制御接続を閉じる（次回の要求で張り直す）
+     */
+    void close() {
+        Socket current = socket;
+        socket = null;
+        if (current != null && !current.isClosed()) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                AgentLogger.debug("制御接続の切断エラー: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 接続・認証・登録IDへの紐づけを確保し、読み取りスレッドを開始
+     */
+    private void ensureAttached(String registrationId) throws IOException {
+        Socket current = socket;
+        if (current != null && !current.isClosed() && registrationId.equals(attachedRegistrationId)) {
+            return;
+        }
+        close();
+        attachedRegistrationId = null;
+
+        Socket newSocket = new Socket();
+        DataInputStream in;
+        try {
+            newSocket.setKeepAlive(true);
+            newSocket.setTcpNoDelay(true);
+            newSocket.setSoTimeout(SOCKET_TIMEOUT);
+            newSocket.connect(new InetSocketAddress(config.getEdamameHost(), config.getEdamamePort()), SOCKET_TIMEOUT);
+            in = new DataInputStream(newSocket.getInputStream());
+            out = new DataOutputStream(newSocket.getOutputStream());
+            socket = newSocket;
+
+            LogTransmitter.writeAuthMessage(out, config);
+            out.flush();
+            byte authResponse = in.readByte();
+            if (authResponse != RESPONSE_SUCCESS) {
+                throw new IOException("制御接続の認証に失敗しました。レスポンスコード: " + authResponse);
+            }
+
+            writeFrame(out, MSG_TYPE_CONTROL_ATTACH, registrationId.getBytes(StandardCharsets.UTF_8));
+            Response attach = readFrame(in);
+            if (attach.code() != RESPONSE_SUCCESS) {
+                throw new IOException("制御接続の登録に失敗しました: " + attach.message());
+            }
+            // 以降の受信は読み取りスレッドが待ち受ける（プッシュは要求と無関係に届くため無期限に待つ。応答待ちは request で打ち切る）
+            newSocket.setSoTimeout(0);
+        } catch (IOException e) {
+            socket = null;
+            newSocket.close();
+            throw e;
+        }
+        attachedRegistrationId = registrationId;
+        BlockingQueue<Response> queue = new LinkedBlockingQueue<>();
+        responses = queue;
+        Thread reader = new Thread(() -> readLoop(newSocket, in, queue), "edamame-control-reader");
+        reader.setDaemon(true);
+        reader.start();
+        AgentLogger.debug("制御接続を確立しました（登録ID: " + registrationId + "）");
+    }
+
+    /**
+     * 読み取りスレッド: プッシュはリスナーへ、それ以外は応答として要求中のスレッドへ渡す
+     */
+    private void readLoop(Socket readerSocket, DataInputStream in, BlockingQueue<Response> queue) {
+        try {
+            while (true) {
+                Response frame = readFrame(in);
+                if (frame.code() == PUSH_BLOCK_LIST_DELTA) {
+                    try {
+                        blockListPushListener.accept(frame.message());
+                    } catch (Exception e) {
+                        AgentLogger.warn("ブロックリストのプッシュ処理中にエラーが発生しました: " + e.getMessage());
+                    }
+                } else if (frame.code() == PUSH_EDGE_FILTER) {
+                    try {
+                        edgeFilterPushListener.accept(frame.message());
+                    } catch (Exception e) {
+                        AgentLogger.warn("エッジフィルタのプッシュ処理中にエラーが発生しました: " + e.getMessage());
+                    }
+                } else {
+                    queue.offer(frame);
+                }
+            }
+        } catch (IOException e) {
+            if (socket == readerSocket) {
+                AgentLogger.debug("制御接続の受信を終了しました（次回の要求で張り直します）: " + e.getMessage());
+                close();
+            }
+        } finally {
+            queue.offer(DISCONNECTED);
+        }
+    }
+
+    private static void writeFrame(DataOutputStream out, byte messageType, byte[] data) throws IOException {
+        out.writeByte(messageType);
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+    }
+
+    private static Response readFrame(DataInputStream in) throws IOException {
+        byte code = in.readByte();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_MESSAGE_SIZE) {
+            throw new IOException("Invalid response length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new Response(code, new String(bytes, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,410 @@
+package com.edamame.agent.network;
+
+import com.edamame.agent.util.AgentLogger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 送信待ちログバッチのディスクスプール
+ * サーバー未接続中に収集したバッチを、メモリマップしたセグメントファイルへ順に追記し、
+ * 再接続後に追記順で取り出す。メモリ上に保持するのは書き込み中のセグメントのマッピングのみで、
+ * 未接続時間の長さに関わらずメモリ使用量は一定となる。読み取りはマップせず FileChannel で行う。
+ * <p>
+ * セグメント内のレコード形式: [int 長さ][ペイロード]。長さ0は未書き込み領域、-1はセグメント終端を表す。
+ * ペイロードを書いてから長さを書き込み、追記した範囲だけを force するため、書き込み途中で停止したレコードは読み出されない。
+ * 読み取り位置は確認応答（{@link #ack()}）ごとにカーソルファイルへ保存し、エージェント再起動後も継続する。
+ * 読み終えたセグメントは削除する。マッピングが解放されるまで削除できない環境（Windows）では削除を保留し、
+ * 以降の追記・読み取り時に再試行する。
+ * 1インスタンスは呼び出し側で直列化して使用する（スレッドセーフではない）。
+ * </p>
+ *
+ * v1.1.0: 読み取りをFileChannelに変更し、削除できないセグメントは削除を保留して再試行。追記のforceを追記範囲に限定
+ *
+ * @author Edamame Team
+ * @version 1.1.0
+ */
+public final class LogSpool {
+
+    /** 標準のセグメントサイズ（バイト） */
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int HEADER_SIZE = Integer.BYTES;
+    private static final int END_OF_SEGMENT = -1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String CURSOR_FILE = "cursor";
+
+    private final Path directory;
+    private final long maxSizeBytes;
+
+    private long writeSegment = -1;
+    private MappedByteBuffer writeBuffer;
+    private long readSegment = -1;
+    private int readOffset;
+    private FileChannel readChannel;
+    private long readSize;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    /** 削除を保留している読み終えたセグメント */
+    private final List<Long> pendingDeletes = new ArrayList<>();
+    /** 直近の peek で返したレコードの次の位置（ack で読み取り位置に反映） */
+    private int pendingReadOffset = -1;
+
+    /**
+     * スプールを開く（既存のセグメントとカーソルを復元）
+     *
+     * @param directory スプールディレクトリ
+     * @param maxSizeBytes セグメント合計サイズの上限（超える追記は拒否）
+     * @throws IOException ディレクトリ作成・復元に失敗した場合
+     */
+    public LogSpool(Path directory, long maxSizeBytes) throws IOException {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+        Files.createDirectories(directory);
+        restore();
+    }
+
+    /**
+     * JARと同じディレクトリ配下のスプールディレクトリを返す
+     *
+     * @return スプールディレクトリ
+     */
+    public static Path defaultDirectory() {
+        try {
+            String jarPath = LogSpool.class.getProtectionDomain().getCodeSource().getLocation().toURI().getPath();
+            Path parent = Paths.get(jarPath).getParent();
+            return (parent != null ? parent : Paths.get(".")).resolve("edamame-agent-spool");
+        } catch (Exception e) {
+            // 失敗時はカレントディレクトリに作成
+            return Paths.get("edamame-agent-spool");
+        }
+    }
+
+    /**
+     * レコードを末尾に追記して永続化
+     *
+     * @param payload ペイロード
+     * @return 追記できた場合true（サイズ上限に達した場合false）
+     * @throws IOException 書き込みエラー
+     */
+    public boolean append(byte[] payload) throws IOException {
+        int required = HEADER_SIZE + payload.length;
+        if (writeBuffer == null || writeBuffer.remaining() < required + HEADER_SIZE) {
+            int segmentSize = Math.max(SEGMENT_SIZE, required + HEADER_SIZE);
+            retryPendingDeletes();
+            if (sizeBytes() + segmentSize > maxSizeBytes) {
+                return false;
+            }
+            if (writeBuffer != null) {
+                int end = writeBuffer.position();
+                writeBuffer.putInt(end, END_OF_SEGMENT);
+                writeBuffer.force(end, HEADER_SIZE);
+            }
+            openWriteSegment(writeSegment + 1, segmentSize);
+        }
+
+        int offset = writeBuffer.position();
+        writeBuffer.put(offset + HEADER_SIZE, payload);
+        writeBuffer.putInt(offset, payload.length);
+        writeBuffer.position(offset + required);
+        // セグメント全体ではなく今回追記した範囲だけを永続化
+        writeBuffer.force(offset, required);
+        return true;
+    }
+
+    /**
+     * 先頭のレコードを取得（読み取り位置は進めない）
+     *
+     * @return ペイロード（空の場合null）
+     * @throws IOException 読み取りエラー
+     */
+    public byte[] peek() throws IOException {
+        while (true) {
+            if (readChannel == null) {
+                if (readSegment > writeSegment || writeSegment < 0) {
+                    return null;
+                }
+                if (!openReadSegment(readSegment)) {
+                    // セグメントが欠落している場合は次へ
+                    advanceReadSegment();
+                    continue;
+                }
+            }
+
+            int length = readOffset + HEADER_SIZE <= readSize ? readInt(readOffset) : END_OF_SEGMENT;
+            if (length > 0 && readOffset + HEADER_SIZE + (long) length <= readSize) {
+                byte[] payload = new byte[length];
+                readFully(ByteBuffer.wrap(payload), readOffset + HEADER_SIZE);
+                pendingReadOffset = readOffset + HEADER_SIZE + length;
+                return payload;
+            }
+            if (length == 0 && readSegment == writeSegment) {
+                // 書き込み中セグメントの末尾まで読み終えた
+                return null;
+            }
+            // セグメント終端（または後続セグメントが存在する未使用領域）: 読み終えたセグメントを削除して次へ
+            advanceReadSegment();
+        }
+    }
+
+    /**
+     * 直近の peek で取得したレコードを処理済みにする（読み取り位置を保存）
+     *
+     * @throws IOException カーソル保存エラー
+     */
+    public void ack() throws IOException {
+        if (pendingReadOffset < 0) {
+            return;
+        }
+        readOffset = pendingReadOffset;
+        pendingReadOffset = -1;
+        saveCursor();
+    }
+
+    /**
+     * 未処理のレコードがないか
+     *
+     * @return 空であればtrue
+     * @throws IOException 読み取りエラー
+     */
+    public boolean isEmpty() throws IOException {
+        boolean empty = peek() == null;
+        pendingReadOffset = -1;
+        return empty;
+    }
+
+    /**
+     * セグメントファイルの合計サイズ
+     *
+     * @return 合計バイト数
+     */
+    public long sizeBytes() {
+        long total = 0;
+        for (long segment : listSegments()) {
+            try {
+                total += Files.size(segmentPath(segment));
+            } catch (IOException e) {
+                AgentLogger.debug("スプールセグメントのサイズ取得に失敗しました: " + e.getMessage());
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 既存セグメントとカーソルから読み書き位置を復元
+     */
+    private void restore() throws IOException {
+        List<Long> segments = listSegments();
+        long cursorSegment = -1;
+        int cursorOffset = 0;
+        Path cursor = directory.resolve(CURSOR_FILE);
+        if (Files.exists(cursor)) {
+            String[] parts = Files.readString(cursor, StandardCharsets.UTF_8).trim().split(":");
+            if (parts.length == 2) {
+                cursorSegment = Long.parseLong(parts[0]);
+                cursorOffset = Integer.parseInt(parts[1]);
+            }
+        }
+        // カーソルより前のセグメントは読み終えたもの（前回の実行で削除を保留したまま終了した）
+        for (Iterator<Long> it = segments.iterator(); it.hasNext(); ) {
+            long segment = it.next();
+            if (segment < cursorSegment) {
+                deleteSegment(segment);
+                it.remove();
+            }
+        }
+        if (segments.isEmpty()) {
+            // 次の追記はカーソルのセグメントから（削除できなかった古い番号は再利用しない）
+            readSegment = Math.max(0, cursorSegment);
+            readOffset = 0;
+            writeSegment = readSegment - 1;
+            return;
+        }
+
+        // 書き込み位置: 最後のセグメントのレコード末尾
+        long last = segments.get(segments.size() - 1);
+        writeSegment = last;
+        writeBuffer = mapSegment(last);
+        int offset = 0;
+        while (offset + HEADER_SIZE <= writeBuffer.capacity()) {
+            int length = writeBuffer.getInt(offset);
+            if (length <= 0 || offset + HEADER_SIZE + length > writeBuffer.capacity()) {
+                break;
+            }
+            offset += HEADER_SIZE + length;
+        }
+        writeBuffer.position(offset);
+
+        // 読み取り位置: カーソルファイル（なければ最古のセグメント先頭）
+        readSegment = segments.get(0);
+        readOffset = readSegment == cursorSegment ? cursorOffset : 0;
+        AgentLogger.info("ログスプールを復元しました: セグメント数=" + segments.size() + ", サイズ=" + sizeBytes() + " バイト");
+    }
+
+    /**
+     * 新しい書き込みセグメントを作成してマップ
+     */
+    private void openWriteSegment(long segment, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            writeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        writeSegment = segment;
+        if (readSegment == segment) {
+            closeReadChannel();
+        }
+    }
+
+    /**
+     * 読み終えたセグメントを削除して次のセグメントへ進む
+     */
+    private void advanceReadSegment() throws IOException {
+        closeReadChannel();
+        long finished = readSegment;
+        readSegment++;
+        readOffset = 0;
+        pendingReadOffset = -1;
+        if (readSegment > writeSegment) {
+            // 全セグメントを読み終えた場合は次回の追記で新しいセグメントを作る（削除前にマッピングの参照を外す）
+            writeBuffer = null;
+        }
+        saveCursor();
+        retryPendingDeletes();
+        deleteSegment(finished);
+    }
+
+    /**
+     * セグメントを削除（マッピングが残っていて削除できない場合は保留し、後で再試行）
+     */
+    private void deleteSegment(long segment) {
+        try {
+            Files.deleteIfExists(segmentPath(segment));
+        } catch (IOException e) {
+            AgentLogger.debug("スプールセグメントの削除を保留します (" + segment + "): " + e.getMessage());
+            pendingDeletes.add(segment);
+        }
+    }
+
+    /**
+     * 削除を保留しているセグメントの削除を再試行
+     */
+    private void retryPendingDeletes() {
+        for (Iterator<Long> it = pendingDeletes.iterator(); it.hasNext(); ) {
+            try {
+                Files.deleteIfExists(segmentPath(it.next()));
+                it.remove();
+            } catch (IOException e) {
+                // マッピングがまだ解放されていない。次回に再試行
+            }
+        }
+    }
+
+    /**
+     * 読み取り対象のセグメントを開く（存在しなければfalse）
+     */
+    private boolean openReadSegment(long segment) throws IOException {
+        Path path = segmentPath(segment);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        readChannel = FileChannel.open(path, StandardOpenOption.READ);
+        readSize = readChannel.size();
+        return true;
+    }
+
+    /**
+     * 読み取り中のセグメントを閉じる
+     */
+    private void closeReadChannel() throws IOException {
+        if (readChannel != null) {
+            FileChannel channel = readChannel;
+            readChannel = null;
+            channel.close();
+        }
+    }
+
+    /**
+     * 読み取り中のセグメントの指定位置からint値を読む
+     */
+    private int readInt(long position) throws IOException {
+        header.clear();
+        readFully(header, position);
+        return header.getInt(0);
+    }
+
+    /**
+     * 読み取り中のセグメントの指定位置からバッファが満たされるまで読む
+     */
+    private void readFully(ByteBuffer target, long position) throws IOException {
+        long offset = position;
+        while (target.hasRemaining()) {
+            int read = readChannel.read(target, offset);
+            if (read < 0) {
+                throw new EOFException("スプールセグメントの終端を超えて読み取りました: " + readSegment);
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * 既存セグメント全体をマップ（存在しなければnull）
+     */
+    private MappedByteBuffer mapSegment(long segment) throws IOException {
+        Path path = segmentPath(segment);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+    }
+
+    /**
+     * 読み取り位置をカーソルファイルへ保存（一時ファイル経由で置き換え）
+     */
+    private void saveCursor() throws IOException {
+        Path tmp = directory.resolve(CURSOR_FILE + ".tmp");
+        Files.writeString(tmp, readSegment + ":" + readOffset, StandardCharsets.UTF_8);
+        Files.move(tmp, directory.resolve(CURSOR_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * セグメント番号の一覧（昇順）
+     */
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    AgentLogger.debug("スプールセグメント名を解釈できません: " + name);
+                }
+            }
+        } catch (IOException e) {
+            AgentLogger.warn("スプールディレクトリの走査に失敗しました: " + e.getMessage());
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    /**
+     * セグメント番号からファイルパスを作成
+     */
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+}
@@ -1,27 +1,45 @@
 package com.edamame.agent.network;
 
 import com.edamame.agent.config.AgentConfig;
+import com.edamame.agent.log.EdgeFilter;
 import com.edamame.agent.log.LogEntry;
 import com.edamame.agent.util.AgentLogger;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import static com.edamame.agent.network.TcpProtocolConstants.*;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
 
 /**
  * ログ転送クラス（TCP通信版）
  * 収集したログを枝豆コンテナにTCP通信で送信する
  * 接続を可能な限り使い回し、Socket timeoutを防止する
  * v2.4.0: 接続断絶時の自動再接続機能とログキューイング機能を追加
+ * v2.5.0: メモリ上のログキューを廃止（未送信ログはLogCollectorが確定位置から再収集）
+ * v2.6.0: 未接続中のログをディスクスプール（LogSpool）へ退避し、再接続後に順に送信
+ * v2.7.0: 認証時の機能ネゴシエーションとdeflate圧縮ログバッチ送信を追加
+ * v2.8.0: バイナリ形式（v2）ログバッチ送信を追加
+ * v2.9.0: シーケンス番号付きバッチのパイプライン送信（transmitPipelined）を追加
+ * v2.10.0: 確認応答時間とサーバー混雑度を AdaptiveBatchTuner へ記録し、ハートビートで転送状況を通知
+ * v2.11.0: ハートビートとブロック要求を制御接続（ControlChannel）で送信し、ログ送信の処理待ちから分離
+ * v2.12.0: バージョン付きブロックリストの差分同期（syncBlockList）と制御接続での差分プッシュ受信を追加
+ * v2.13.0: エッジフィルタの同期（syncEdgeFilter）・プッシュ受信と、ハートビートでのルールごとの破棄件数の報告を追加
+ * v2.14.0: 事前分類の結果（attack-tags）をネゴシエーションし、合意した場合のみバイナリ形式のエントリに含める
+ * v2.15.0: 集約バッチ（traffic-aggregate）に対応し、正常な既知のリクエストを件数に集約して送信
  *
  * @author Edamame Team
- * @version 2.4.0
+ * @version 2.15.0
  */
 public class LogTransmitter {
 
@@ -32,9 +50,21 @@ public class LogTransmitter {
     private Socket socket;
     private DataOutputStream out;
     private DataInputStream in;
-    private boolean connected = false;
+    private volatile boolean connected = false;
     private boolean authenticated = false;
-    private long lastActivityTime = 0;
+    private boolean deflateBatches = false; // 接続ごとにネゴシエーションで決定
+    private boolean binaryBatches = false;  // 接続ごとにネゴシエーションで決定
+    private boolean pipelinedBatches = false; // 接続ごとにネゴシエーションで決定
+    private volatile boolean controlChannelSupported = false; // 接続ごとにネゴシエーションで決定
+    private volatile boolean blockListSyncSupported = false;  // 接続ごとにネゴシエーションで決定
+    private volatile Consumer<String> blockListPushListener;   // 制御接続で受信したブロックリスト差分の受信先
+    private volatile boolean edgeFilterSupported = false;     // 接続ごとにネゴシエーションで決定
+    private volatile EdgeFilter edgeFilter;                    // 送信前に破棄する行の判定（未設定は要求しない）
+    private boolean attackTagsSupported = false; // 接続ごとにネゴシエーションで決定
+    private boolean trafficAggregateSupported = false; // 接続ごとにネゴシエーションで決定
+    private volatile String registrationId = null; // 制御接続の紐づけに使うデータ接続の登録ID
+    private long nextSequence = 1;           // バッチのシーケンス番号（単調増加）
+    private volatile long lastActivityTime = 0;
     private static final long CONNECTION_TIMEOUT = 300000; // 5分間の非活動でタイムアウト
     private static final int MAX_RETRY_ATTEMPTS = 3;
 
@@ -44,9 +74,14 @@ public class LogTransmitter {
     private ScheduledFuture<?> reconnectTask = null;
     private static final int RECONNECT_INTERVAL_SECONDS = 30; // 30秒間隔で再接続試行
 
-    // ログキューイング機能用の変数
-    private final Queue<LogEntry> logQueue = new ConcurrentLinkedQueue<>();
-    private static final int MAX_QUEUE_SIZE = 10000; // 最大キューサイズ
+    // 未接続中のログを保持するディスクスプール（作成できない場合はnull）
+    private final LogSpool spool;
+    private final ObjectReader spoolReader;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final BinaryLogBatchEncoder binaryEncoder = new BinaryLogBatchEncoder();
+    private final TrafficAggregator trafficAggregator; // 正常な既知のリクエストの集約（無効時はnull）
+    private final AdaptiveBatchTuner batchTuner;
+    private final ControlChannel controlChannel;
 
     /**
      * コンストラクタ
@@ -59,11 +94,72 @@ public class LogTransmitter {
         // LocalDateTimeの処理設定
         this.objectMapper.findAndRegisterModules();
         this.objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        this.spoolReader = objectMapper.readerFor(new TypeReference<List<LogEntry>>() {})
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.spool = openSpool(config);
+        this.batchTuner = new AdaptiveBatchTuner(config);
+        this.trafficAggregator = config.isAggregateCleanTraffic() ? new TrafficAggregator() : null;
+        this.controlChannel = new ControlChannel(config, this::onBlockListPush, this::onEdgeFilterPush);
 
         AgentLogger.debug("TCP LogTransmitterを初期化しました: " +
             config.getEdamameHost() + ":" + config.getEdamamePort());
     }
 
+    /**
+     * 制御接続で受信したブロックリスト差分（JSON）の受信先を設定
+     * 制御接続の読み取りスレッドから呼ばれるため、受信先は処理を別スレッドへ渡すこと
+     *
+     * @param listener 受信先（null で受信しない）
+     */
+    public void setBlockListPushListener(Consumer<String> listener) {
+        this.blockListPushListener = listener;
+    }
+
+    private void onBlockListPush(String deltaJson) {
+        Consumer<String> listener = blockListPushListener;
+        if (listener != null) {
+            listener.accept(deltaJson);
+        }
+    }
+
+    /**
+     * エッジフィルタを設定（次回の接続から edge-filter をネゴシエーションし、破棄件数をハートビートで報告する）
+     * 同期・プッシュで受け取った仕様はこのフィルタへ適用する
+     *
+     * @param edgeFilter エッジフィルタ（null で使用しない）
+     */
+    public void setEdgeFilter(EdgeFilter edgeFilter) {
+        this.edgeFilter = edgeFilter;
+    }
+
+    private void onEdgeFilterPush(String specJson) {
+        EdgeFilter filter = edgeFilter;
+        if (filter != null) {
+            filter.apply(specJson);
+        }
+    }
+
+    /**
+     * バッチサイズと収集間隔の適応制御を取得
+     *
+     * @return 確認応答時間とサーバー混雑度を記録している AdaptiveBatchTuner
+     */
+    public AdaptiveBatchTuner getBatchTuner() {
+        return batchTuner;
+    }
+
+    /**
+     * ディスクスプールを開く（失敗時はスプールなしで動作し、未送信ログはファイル上に残す）
+     */
+    private static LogSpool openSpool(AgentConfig config) {
+        try {
+            return new LogSpool(LogSpool.defaultDirectory(), config.getSpoolMaxSizeMb() * 1024L * 1024L);
+        } catch (Exception e) {
+            AgentLogger.warn("ログスプールを開けません（未接続中のログはログファイル上に保持します）: " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * 永続的な接続を確立・維持
      */
@@ -129,8 +225,9 @@ public class LogTransmitter {
     private void handleConnectionLoss() {
         AgentLogger.warn("サーバー接続が切断されました。再接続待機モードに移行します");
 
-        // 接続状態をリセット
+        // 接続状態をリセット（制御接続も再登録後のデータ接続に紐づけ直すため閉じる）
         disconnect();
+        controlChannel.close();
 
         // 再接続モードに移行
         if (!reconnecting) {
@@ -178,8 +275,8 @@ public class LogTransmitter {
                 AgentLogger.info("サーバーへの再接続に成功しました");
                 stopReconnectMode();
 
-                // キュー��溜まったデータを送信
-                processQueuedData();
+                // サーバー登録をやり直してセッションを復元（未送信ログはLogCollectorが確定位置から再収集する）
+                restoreSessionAfterReconnect();
             } else {
                 AgentLogger.warn("再接続に失敗しました。" + RECONNECT_INTERVAL_SECONDS + "秒後に再試行します");
             }
@@ -206,12 +303,9 @@ public class LogTransmitter {
     }
 
     /**
-     * キューに溜まったデータを処理
+     * 再接続後にサーバー登録を再実行してセッションを復元
      */
-    private void processQueuedData() {
-        AgentLogger.info("キューに溜まったデータの送信を開始します");
-
-        // まず、サーバー登録を再実行
+    private void restoreSessionAfterReconnect() {
         try {
             String newRegistrationId = registerServer();
             if (newRegistrationId != null) {
@@ -220,44 +314,9 @@ public class LogTransmitter {
                 notifyReconnectionSuccess(newRegistrationId);
             } else {
                 AgentLogger.warn("再接続時のサーバー登録に失敗しました");
-                return; // 登録に失敗した場合はキューデータ送信をスキップ
             }
         } catch (Exception e) {
             AgentLogger.error("再接続時のサーバー登録中にエラーが発生しました: " + e.getMessage());
-            return;
-        }
-
-        // ログキューの処理
-        int logCount = 0;
-        List<LogEntry> batchLogs = new ArrayList<>();
-
-        while (!logQueue.isEmpty() && batchLogs.size() < config.getMaxBatchSize()) {
-            LogEntry log = logQueue.poll();
-            if (log != null) {
-                batchLogs.add(log);
-                logCount++;
-            }
-        }
-
-        if (!batchLogs.isEmpty()) {
-            try {
-                if (transmitLogsInternal(batchLogs)) {
-                    AgentLogger.info("キューから " + logCount + " 件のログを送信しました");
-                } else {
-                    // 送信失敗時はキューに戻す
-                    batchLogs.forEach(logQueue::offer);
-                    AgentLogger.warn("キューからのログ送信に失敗しました");
-                }
-            } catch (Exception e) {
-                // 送信失敗時はキューに戻す
-                batchLogs.forEach(logQueue::offer);
-                AgentLogger.warn("キューからのログ送信中にエラーが発生しました: " + e.getMessage());
-            }
-        }
-
-        // 残りのキューサイズを報告
-        if (!logQueue.isEmpty()) {
-            AgentLogger.info("ログキューに " + logQueue.size() + " 件のデータが残っています");
         }
     }
 
@@ -284,23 +343,6 @@ public class LogTransmitter {
         }
     }
 
-    /**
-     * ログをキューに追加
-     */
-    private void queueLogs(List<LogEntry> logs) {
-        for (LogEntry log : logs) {
-            if (logQueue.size() < MAX_QUEUE_SIZE) {
-                logQueue.offer(log);
-            } else {
-                // キューが満杯の場合は古いデータを削除
-                logQueue.poll();
-                logQueue.offer(log);
-                AgentLogger.warn("ログキューが満杯のため、古いデータを削除しました");
-            }
-        }
-        AgentLogger.info(logs.size() + " 件のログをキューに追加しました（キューサイズ: " + logQueue.size() + "）");
-    }
-
     /**
      * 接続確立と認証を実行
      */
@@ -350,27 +392,13 @@ public class LogTransmitter {
      */
     private boolean authenticate() {
         try {
-            // APIキーとエージェント名を準備
-            String apiKey = config.getApiKey();
-            String agentName = config.getAgentId();
-
-            // データ長を計算（APIキー長 + APIキー + エージェント名長 + エージェント名）
-            byte[] apiKeyBytes = apiKey.getBytes(StandardCharsets.UTF_8);
-            byte[] agentNameBytes = agentName.getBytes(StandardCharsets.UTF_8);
-            int totalDataLength = 4 + apiKeyBytes.length + 4 + agentNameBytes.length; // 長さフィールド込み
-
-            // 認証メッセージを送信
-            out.writeByte(MSG_TYPE_AUTH);
-            out.writeInt(totalDataLength); // 全データ長
-            out.writeInt(apiKeyBytes.length); // APIキー長
-            out.write(apiKeyBytes); // APIキー
-            out.writeInt(agentNameBytes.length); // エージェント名長
-            out.write(agentNameBytes); // エージェント名
+            writeAuthMessage(out, config);
             out.flush();
 
             // レスポンスを受信
             byte responseCode = in.readByte();
             if (responseCode == RESPONSE_SUCCESS) {
+                negotiateCapabilities();
                 return true;
             } else {
                 AgentLogger.warn("TCP認証に失敗しました。レスポンスコード: " + responseCode);
@@ -383,18 +411,344 @@ public class LogTransmitter {
         }
     }
 
+    /**
+     * 認証メッセージを書き込み（データ接続・制御接続で共通）
+     *
+     * @param out 出力ストリーム
+     * @param config エージェント設定（APIキーとエージェント名）
+     * @throws IOException 書き込みエラー
+     */
+    static void writeAuthMessage(DataOutputStream out, AgentConfig config) throws IOException {
+        // データ長を計算（APIキー長 + APIキー + エージェント名長 + エージェント名）
+        byte[] apiKeyBytes = config.getApiKey().getBytes(StandardCharsets.UTF_8);
+        byte[] agentNameBytes = config.getAgentId().getBytes(StandardCharsets.UTF_8);
+        int totalDataLength = 4 + apiKeyBytes.length + 4 + agentNameBytes.length; // 長さフィールド込み
+
+        out.writeByte(MSG_TYPE_AUTH);
+        out.writeInt(totalDataLength); // 全データ長
+        out.writeInt(apiKeyBytes.length); // APIキー長
+        out.write(apiKeyBytes); // APIキー
+        out.writeInt(agentNameBytes.length); // エージェント名長
+        out.write(agentNameBytes); // エージェント名
+    }
+
+    /**
+     * サーバーと接続済みか（再接続モード中でないか）
+     *
+     * @return 接続済みであればtrue
+     */
+    public boolean isConnected() {
+        return connected && !reconnecting;
+    }
+
+    /**
+     * ログを送信、または未接続・送信失敗時はディスクスプールへ退避
+     * スプールに未送信分が残っている間は順序を保つため新しいログもスプールへ追記する。
+     * trueを返した場合（送信成功またはスプールへ永続化済み）、呼び出し側は読み取り位置を確定してよい。
+     *
+     * @param logs 送信するログ
+     * @return 送信またはスプールへの退避に成功した場合true
+     */
+    public synchronized boolean deliverLogs(List<LogEntry> logs) {
+        if (logs.isEmpty()) {
+            return true;
+        }
+        try {
+            if (spool != null && (!isConnected() || !spool.isEmpty())) {
+                return spoolLogs(logs);
+            }
+        } catch (IOException e) {
+            AgentLogger.warn("ログスプールの確認に失敗しました: " + e.getMessage());
+        }
+        if (transmitLogs(logs)) {
+            return true;
+        }
+        return spool != null && spoolLogs(logs);
+    }
+
+    /**
+     * スプールに退避したログを追記順に送信
+     * 接続中であればバッチ単位で連続送信し、送信に失敗した時点で中断する（次回同じバッチから再開）。
+     *
+     * @return 送信したログ件数
+     */
+    public synchronized int drainSpool() {
+        if (spool == null) {
+            return 0;
+        }
+        int sent = 0;
+        try {
+            byte[] payload;
+            while (isConnected() && (payload = spool.peek()) != null) {
+                List<LogEntry> logs;
+                try {
+                    logs = spoolReader.readValue(payload);
+                } catch (IOException e) {
+                    AgentLogger.warn("スプールのバッチを解釈できないため破棄します: " + e.getMessage());
+                    spool.ack();
+                    continue;
+                }
+                if (!transmitLogs(logs)) {
+                    break;
+                }
+                spool.ack();
+                sent += logs.size();
+            }
+            if (sent > 0) {
+                AgentLogger.info("スプールから " + sent + " 件のログを送信しました（残りサイズ: " + spool.sizeBytes() + " バイト）");
+            }
+        } catch (IOException e) {
+            AgentLogger.warn("ログスプールの読み取りに失敗しました: " + e.getMessage());
+        }
+        return sent;
+    }
+
+    /**
+     * ログをスプールへ追記
+     */
+    private boolean spoolLogs(List<LogEntry> logs) {
+        try {
+            if (spool.append(objectMapper.writeValueAsBytes(logs))) {
+                AgentLogger.debug(logs.size() + " 件のログをスプールへ退避しました");
+                return true;
+            }
+            AgentLogger.warn("ログスプールが上限（" + config.getSpoolMaxSizeMb() + "MB）に達しました。未送信ログはログファイル上に保持します");
+        } catch (IOException e) {
+            AgentLogger.warn("ログスプールへの書き込みに失敗しました: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * 認証直後に対応機能をネゴシエーション
+     * 旧サーバーは未知のメッセージタイプとしてエラー応答を返すため、その場合は非圧縮のJSONバッチで送信する
+     */
+    private void negotiateCapabilities() throws IOException {
+        deflateBatches = false;
+        binaryBatches = false;
+        pipelinedBatches = false;
+        controlChannelSupported = false;
+        blockListSyncSupported = false;
+        edgeFilterSupported = false;
+        attackTagsSupported = false;
+        trafficAggregateSupported = false;
+        List<String> requested = new ArrayList<>();
+        if (config.isCompressBatches()) {
+            requested.add(CAPABILITY_DEFLATE_BATCH);
+        }
+        if (config.isBinaryBatches()) {
+            requested.add(CAPABILITY_BINARY_BATCH_V2);
+        }
+        if (config.getPipelineWindow() > 1) {
+            requested.add(CAPABILITY_PIPELINED_BATCH);
+        }
+        if (config.isAdaptiveBatching()) {
+            requested.add(CAPABILITY_INGEST_BACKPRESSURE);
+        }
+        if (config.isControlChannel()) {
+            requested.add(CAPABILITY_CONTROL_CHANNEL);
+        }
+        if (config.isEnableIptables()) {
+            requested.add(CAPABILITY_BLOCK_LIST_SYNC);
+        }
+        EdgeFilter filter = edgeFilter;
+        if (filter != null) {
+            requested.add(CAPABILITY_EDGE_FILTER);
+            requested.add(CAPABILITY_ATTACK_TAGS);
+            if (trafficAggregator != null) {
+                requested.add(CAPABILITY_TRAFFIC_AGGREGATE);
+            }
+        }
+        if (requested.isEmpty()) {
+            return;
+        }
+        out.writeByte(MSG_TYPE_CAPABILITIES);
+        writeString(String.join(",", requested));
+        out.flush();
+
+        byte responseCode = in.readByte();
+        String accepted = readString();
+        if (responseCode == RESPONSE_SUCCESS) {
+            List<String> acceptedList = Arrays.asList(accepted.split(","));
+            deflateBatches = acceptedList.contains(CAPABILITY_DEFLATE_BATCH);
+            binaryBatches = acceptedList.contains(CAPABILITY_BINARY_BATCH_V2);
+            pipelinedBatches = acceptedList.contains(CAPABILITY_PIPELINED_BATCH);
+            controlChannelSupported = acceptedList.contains(CAPABILITY_CONTROL_CHANNEL);
+            blockListSyncSupported = acceptedList.contains(CAPABILITY_BLOCK_LIST_SYNC);
+            edgeFilterSupported = acceptedList.contains(CAPABILITY_EDGE_FILTER);
+            attackTagsSupported = acceptedList.contains(CAPABILITY_ATTACK_TAGS);
+            // 集約の判定には事前分類の結果が必要
+            trafficAggregateSupported = edgeFilterSupported && attackTagsSupported
+                && acceptedList.contains(CAPABILITY_TRAFFIC_AGGREGATE);
+        }
+        if (trafficAggregator != null && !trafficAggregateSupported) {
+            // 接続先が変わった可能性があるため、既知のURLは全行の送信からやり直す
+            trafficAggregator.clear();
+        }
+        if (filter != null && !edgeFilterSupported) {
+            // 対応しないサーバーでは破棄した行を取り込めないため、以前の接続で受け取った条件も使わない
+            filter.clear();
+        }
+        AgentLogger.debug("機能ネゴシエーション結果: " + (responseCode == RESPONSE_SUCCESS ? accepted : "非対応サーバー")
+            + "（圧縮バッチ: " + (deflateBatches ? "有効" : "無効") + ", バイナリバッチ: " + (binaryBatches ? "有効" : "無効")
+            + ", パイプライン送信: " + (pipelinedBatches ? "有効" : "無効")
+            + ", 制御接続: " + (controlChannelSupported ? "有効" : "無効")
+            + ", ブロックリスト差分同期: " + (blockListSyncSupported ? "有効" : "無効")
+            + ", エッジフィルタ: " + (edgeFilterSupported ? "有効" : "無効")
+            + ", 事前分類: " + (attackTagsSupported ? "有効" : "無効")
+            + ", 集約バッチ: " + (trafficAggregateSupported ? "有効" : "無効") + "）");
+    }
+
+    /**
+     * パイプライン送信でバッチを供給し、確認応答に応じて確定・巻き戻しを行う呼び出し側の処理
+     * 各メソッドは transmitPipelined の呼び出しスレッドから呼ばれる
+     */
+    public interface BatchPipeline {
+        /**
+         * 次に送信するバッチ
+         *
+         * @return ログリスト（送信するものがなければnull）
+         */
+        List<LogEntry> nextBatch();
+
+        /**
+         * 最も古い送信中バッチの成功応答を受けた（送信順に1バッチずつ呼ばれる）
+         */
+        void acknowledged();
+
+        /**
+         * 送信中のバッチを確認応答なしで破棄した（最も古い未確認バッチから再送できるよう状態を戻すこと）
+         */
+        void aborted();
+    }
+
+    /**
+     * 送信中（確認応答待ち）のバッチ
+     *
+     * @param onAcknowledged 成功応答を受けたときの処理（なければnull）
+     */
+    private record InFlightBatch(long sequence, int size, long sentAtNanos, Runnable onAcknowledged) {}
+
+    /**
+     * ログバッチをパイプライン送信
+     * サーバーが pipelined-batch に対応していれば、シーケンス番号付きのバッチを最大 pipelineWindow 件まで
+     * 確認応答を待たずに送信し、応答はシーケンス番号で照合する（非対応サーバーでは1件ずつ応答を待つ）。
+     * エラー応答・切断時は送信中の応答を読み切ってから {@link BatchPipeline#aborted()} を呼び、
+     * 次回は最も古い未確認バッチから再送させる。スプールに未送信分がある間は順序維持のため送信しない。
+     *
+     * @param pipeline バッチの供給・確定処理
+     * @return 確認応答を受けたログ件数
+     */
+    public synchronized int transmitPipelined(BatchPipeline pipeline) {
+        if (reconnecting || !connected) {
+            return 0;
+        }
+        try {
+            if (spool != null && !spool.isEmpty()) {
+                return 0;
+            }
+        } catch (IOException e) {
+            AgentLogger.warn("ログスプールの確認に失敗しました: " + e.getMessage());
+            return 0;
+        }
+
+        Deque<InFlightBatch> inFlight = new ArrayDeque<>();
+        int acknowledged = 0;
+        try {
+            if (!ensureConnection()) {
+                return 0;
+            }
+            boolean pipelined = pipelinedBatches;
+            int window = pipelined ? config.getPipelineWindow() : 1;
+            boolean sourceDrained = false;
+            boolean failed = false;
+
+            while (true) {
+                // ウィンドウに空きがある限り送信
+                while (!failed && !sourceDrained && inFlight.size() < window) {
+                    List<LogEntry> logs = pipeline.nextBatch();
+                    if (logs == null) {
+                        sourceDrained = true;
+                        break;
+                    }
+                    BatchFrame frame = encodeLogBatch(logs);
+                    long sequence = nextSequence++;
+                    if (pipelined) {
+                        writeSequencedFrame(sequence, frame);
+                    } else {
+                        writeFrame(frame);
+                    }
+                    inFlight.add(new InFlightBatch(sequence, logs.size(), System.nanoTime(), frame.onAcknowledged()));
+                }
+                out.flush();
+
+                InFlightBatch oldest = inFlight.poll();
+                if (oldest == null) {
+                    break;
+                }
+
+                // 最も古い送信中バッチの応答を受信
+                byte responseCode = in.readByte();
+                String message;
+                if (pipelined) {
+                    int length = in.readInt();
+                    if (length < Long.BYTES || length > MAX_MESSAGE_SIZE) {
+                        throw new IOException("Invalid sequenced response length: " + length);
+                    }
+                    long sequence = in.readLong();
+                    byte[] bytes = new byte[length - Long.BYTES];
+                    in.readFully(bytes);
+                    message = new String(bytes, StandardCharsets.UTF_8);
+                    if (sequence != oldest.sequence()) {
+                        throw new IOException("確認応答のシーケンス番号が一致しません（期待 " + oldest.sequence() + ", 受信 " + sequence + "）");
+                    }
+                } else {
+                    message = readString();
+                }
+
+                if (failed) {
+                    // 失敗後は送信済み分の応答を読み捨てる（成功していても再送時に重複として扱われる）
+                    continue;
+                }
+                batchTuner.recordAck(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.sentAtNanos()), message);
+                if (responseCode == RESPONSE_SUCCESS) {
+                    updateLastActivity();
+                    if (oldest.onAcknowledged() != null) {
+                        oldest.onAcknowledged().run();
+                    }
+                    pipeline.acknowledged();
+                    acknowledged += oldest.size();
+                    AgentLogger.debug("ログ送信成功 (seq=" + oldest.sequence() + "): " + message);
+                } else {
+                    AgentLogger.warn("ログ送信エラー (seq=" + oldest.sequence() + "): " + message);
+                    failed = true;
+                }
+            }
+
+            if (failed) {
+                pipeline.aborted();
+            }
+        } catch (Exception e) {
+            AgentLogger.warn("パイプライン送信中にエラーが発生しました（未確認 " + inFlight.size() + " バッチは再送します）: " + e.getMessage());
+            pipeline.aborted();
+            // 応答の読み取り位置がずれている可能性があるため接続を張り直す
+            handleConnectionLoss();
+        }
+        return acknowledged;
+    }
+
     /**
      * ログリストを枝豆コンテナに送信（接続使い回し版）
+     * サーバーの成功応答を受けた場合のみtrueを返す（呼び出し側はtrueの場合のみ読み取り位置を確定する）
      */
     public synchronized boolean transmitLogs(List<LogEntry> logs) {
         if (logs.isEmpty()) {
             return true;
         }
 
-        // 接続が切断されている場合はキューに追加
+        // 接続が切断されている場合は送信しない（ログはファイル上に残り、再接続後に再収集される）
         if (reconnecting || !connected) {
-            queueLogs(logs);
-            return false; // 実際の送信は行われていないがエラーではない
+            return false;
         }
 
         // 通常の送信処理
@@ -403,9 +757,8 @@ public class LogTransmitter {
         } catch (Exception e) {
             AgentLogger.warn("ログ送信中にエラーが発生しました: " + e.getMessage());
 
-            // 接続エラーの場合はキューに追加して再接続モードに移行
+            // 接続エラーの場合は再接続モードに移行
             if (isConnectionError(e)) {
-                queueLogs(logs);
                 handleConnectionLoss();
             }
 
@@ -424,18 +777,20 @@ public class LogTransmitter {
                     continue;
                 }
 
-                // ログバッチを送信
-                LogBatch batch = new LogBatch(logs, config.getAgentId());
-                String jsonData = objectMapper.writeValueAsString(batch);
-
-                out.writeByte(MSG_TYPE_LOG_BATCH);
-                writeString(jsonData);
+                // ログバッチを送信（ネゴシエーション結果に応じてバイナリ形式・deflate圧縮）
+                long sentAt = System.nanoTime();
+                BatchFrame frame = encodeLogBatch(logs);
+                writeFrame(frame);
                 out.flush();
 
                 byte responseCode = in.readByte();
                 if (responseCode == RESPONSE_SUCCESS) {
                     String responseMessage = readString();
+                    batchTuner.recordAck(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAt), responseMessage);
                     updateLastActivity();
+                    if (frame.onAcknowledged() != null) {
+                        frame.onAcknowledged().run();
+                    }
                     AgentLogger.debug("ログ送信成功: " + responseMessage);
                     return true;
                 } else {
@@ -467,21 +822,66 @@ public class LogTransmitter {
     }
 
     /**
-     * ハートビートを送信（接続使い回し版）
+     * ハートビートを送信
+     * サーバーが control-channel に対応していれば制御接続で送信し、ログ送信中でも待たされない。
+     * 非対応サーバーではデータ接続で送信する
      */
-    public synchronized boolean sendHeartbeat() {
+    public boolean sendHeartbeat() {
         // 接続が切断されている場合はスキップ
         if (reconnecting || !connected) {
             AgentLogger.debug("再接続モード中のためハートビートをスキップします");
             return false;
         }
 
+        // 前回の報告以降にエッジフィルタで破棄した件数（送信できなければ次回に持ち越す）
+        EdgeFilter filter = edgeFilter;
+        Map<String, Long> drops = filter != null ? filter.drainDropCounts() : Map.of();
+        String controlRegistrationId = controlRegistrationId();
+        boolean sent = controlRegistrationId != null
+            ? sendHeartbeatOnControlChannel(controlRegistrationId, drops)
+            : sendHeartbeatOnDataConnection(drops);
+        if (!sent && filter != null) {
+            filter.restoreDropCounts(drops);
+        }
+        return sent;
+    }
+
+    /**
+     * 制御接続でハートビートを送信
+     * 成功時はデータ接続の最終活動時刻も更新する（サーバー側もデータ接続の生存確認として扱う）
+     */
+    private boolean sendHeartbeatOnControlChannel(String controlRegistrationId, Map<String, Long> drops) {
+        try {
+            ControlChannel.Response response = controlChannel.request(MSG_TYPE_HEARTBEAT,
+                buildHeartbeatJson(drops).getBytes(StandardCharsets.UTF_8), controlRegistrationId);
+            if (response.code() == RESPONSE_SUCCESS) {
+                updateLastActivity();
+                AgentLogger.debug("ハートビート送信成功（制御接続）: " + response.message());
+                return true;
+            }
+            AgentLogger.warn("ハートビート送信に失敗しました（制御接続）。レスポンスコード: " + response.code() + ", エラー: " + response.message());
+            return false;
+        } catch (IOException e) {
+            AgentLogger.warn("制御接続でのハートビート送信中にエラーが発生しました（次回再接続します）: " + e.getMessage());
+            controlChannel.close();
+            return false;
+        }
+    }
+
+    /**
+     * データ接続でハートビートを送信（制御接続に非対応のサーバー）
+     */
+    private synchronized boolean sendHeartbeatOnDataConnection(Map<String, Long> drops) {
+        if (reconnecting || !connected) {
+            return false;
+        }
+
         try {
             if (!ensureConnection()) {
                 return false;
             }
 
-            return sendHeartbeatInternal();
+            return sendHeartbeatInternal(drops);
 
         } catch (Exception e) {
             AgentLogger.warn("ハートビート送信中にエラーが発生しました: " + e.getMessage());
@@ -498,17 +898,9 @@ public class LogTransmitter {
     /**
      * ハートビート送信の内部処理
      */
-    private boolean sendHeartbeatInternal() throws IOException {
-        // ハートビートメッセージを作成
-        Map<String, Object> heartbeatData = new HashMap<>();
-        heartbeatData.put("agentName", config.getAgentId()); // agentIdをagentNameに変更
-        heartbeatData.put("timestamp", System.currentTimeMillis());
-        heartbeatData.put("status", "active");
-
-        String jsonData = objectMapper.writeValueAsString(heartbeatData);
-
+    private boolean sendHeartbeatInternal(Map<String, Long> drops) throws IOException {
         out.writeByte(MSG_TYPE_HEARTBEAT);
-        writeString(jsonData);
+        writeString(buildHeartbeatJson(drops));
         out.flush();
 
         byte responseCode = in.readByte();
@@ -524,16 +916,62 @@ public class LogTransmitter {
         }
     }
 
+    /**
+     * ハートビートメッセージ（JSON）を作成
+     *
+     * @param drops 前回の報告以降にエッジフィルタで破棄した件数（ルールのキー → 件数）
+     */
+    private String buildHeartbeatJson(Map<String, Long> drops) throws IOException {
+        Map<String, Object> heartbeatData = new HashMap<>();
+        heartbeatData.put("agentName", config.getAgentId()); // agentIdをagentNameに変更
+        heartbeatData.put("timestamp", System.currentTimeMillis());
+        heartbeatData.put("status", "active");
+        // 未送信量と適応制御で選択中のバッチサイズ・収集間隔
+        heartbeatData.put("flowControl", batchTuner.snapshot());
+        if (edgeFilterSupported) {
+            Map<String, Object> edgeFilterData = new HashMap<>();
+            EdgeFilter filter = edgeFilter;
+            edgeFilterData.put("version", filter != null ? filter.getVersion() : 0);
+            edgeFilterData.put("drops", drops);
+            heartbeatData.put("edgeFilter", edgeFilterData);
+        }
+        return objectMapper.writeValueAsString(heartbeatData);
+    }
+
     /**
      * ブロック要求を取得
+     * サーバーが control-channel に対応していれば制御接続で取得し、ログ送信中でも待たされない
      */
-    public synchronized String fetchBlockRequests() {
+    public String fetchBlockRequests() {
         // 接続が切断されている場合は空の結果を返す
         if (reconnecting || !connected) {
             AgentLogger.debug("再接続モード中のためブロック要求をスキップします");
             return "[]";
         }
 
+        String controlRegistrationId = controlRegistrationId();
+        if (controlRegistrationId == null) {
+            return fetchBlockRequestsOnDataConnection();
+        }
+        try {
+            ControlChannel.Response response = controlChannel.request(MSG_TYPE_BLOCK_REQUEST,
+                config.getAgentId().getBytes(StandardCharsets.UTF_8), controlRegistrationId);
+            return blockRequestsResponse(response.code(), response.message());
+        } catch (IOException e) {
+            AgentLogger.warn("制御接続でのブロック要求取得中にエラーが発生しました（次回再接続します）: " + e.getMessage());
+            controlChannel.close();
+            return "[]";
+        }
+    }
+
+    /**
+     * データ接続でブロック要求を取得（制御接続に非対応のサーバー）
+     */
+    private synchronized String fetchBlockRequestsOnDataConnection() {
+        if (reconnecting || !connected) {
+            return "[]";
+        }
+
         try {
             if (!ensureConnection()) {
                 return "[]"; // 空のJSONを返す
@@ -544,21 +982,11 @@ public class LogTransmitter {
             out.flush();
 
             byte responseCode = in.readByte();
+            String message = readString();
             if (responseCode == RESPONSE_SUCCESS) {
-                String responseData = readString();
                 updateLastActivity();
-                AgentLogger.debug("ブロック要求取得成功");
-                return responseData;
-            } else {
-                String errorMessage = readString();
-                if (responseCode == 1) {
-                    // レスポンスコード1はデータなしの正常状態
-                    AgentLogger.debug("ブロック要求はありません（正常）");
-                } else {
-                    AgentLogger.warn("ブロック要求取得に失敗しました。レスポンスコード: " + responseCode + ", エラー: " + errorMessage);
-                }
-                return "[]";
             }
+            return blockRequestsResponse(responseCode, message);
 
         } catch (Exception e) {
             AgentLogger.warn("ブロック要求取得中にエラーが発生しました: " + e.getMessage());
@@ -572,6 +1000,203 @@ public class LogTransmitter {
         }
     }
 
+    /**
+     * サーバーがブロックリストの差分同期（block-list-sync）に対応しているか
+     *
+     * @return 対応していれば true（非対応サーバーでは fetchBlockRequests を使う）
+     */
+    public boolean isBlockListSyncSupported() {
+        return blockListSyncSupported && connected && !reconnecting;
+    }
+
+    /**
+     * ブロックリストを差分同期
+     * 制御接続で同期した場合、サーバーは以降の変更を制御接続へプッシュする（setBlockListPushListener の受信先へ渡す）
+     *
+     * @param version 最後に適用したバージョン（未同期は0）
+     * @return 差分（JSON）。未接続・非対応・失敗時はnull
+     */
+    public String syncBlockList(long version) {
+        if (!isBlockListSyncSupported()) {
+            return null;
+        }
+        byte[] request = ("{\"version\":" + version + "}").getBytes(StandardCharsets.UTF_8);
+
+        String controlRegistrationId = controlRegistrationId();
+        if (controlRegistrationId == null) {
+            return syncBlockListOnDataConnection(request);
+        }
+        try {
+            ControlChannel.Response response = controlChannel.request(MSG_TYPE_BLOCK_SYNC, request, controlRegistrationId);
+            return blockListSyncResponse(response.code(), response.message());
+        } catch (IOException e) {
+            AgentLogger.warn("制御接続でのブロックリスト同期中にエラーが発生しました（次回再接続します）: " + e.getMessage());
+            controlChannel.close();
+            return null;
+        }
+    }
+
+    /**
+     * データ接続でブロックリストを差分同期（制御接続を使わない場合。プッシュは受けない）
+     */
+    private synchronized String syncBlockListOnDataConnection(byte[] request) {
+        if (reconnecting || !connected) {
+            return null;
+        }
+
+        try {
+            if (!ensureConnection()) {
+                return null;
+            }
+
+            out.writeByte(MSG_TYPE_BLOCK_SYNC);
+            out.writeInt(request.length);
+            out.write(request);
+            out.flush();
+
+            byte responseCode = in.readByte();
+            String message = readString();
+            if (responseCode == RESPONSE_SUCCESS) {
+                updateLastActivity();
+            }
+            return blockListSyncResponse(responseCode, message);
+
+        } catch (Exception e) {
+            AgentLogger.warn("ブロックリスト同期中にエラーが発生しました: " + e.getMessage());
+
+            // 接続エラーの場合は再接続モードに移行
+            if (isConnectionError(e)) {
+                handleConnectionLoss();
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * サーバーがエッジフィルタ（edge-filter）に対応しているか
+     *
+     * @return 対応していれば true
+     */
+    public boolean isEdgeFilterSupported() {
+        return edgeFilterSupported && connected && !reconnecting;
+    }
+
+    /**
+     * エッジフィルタを同期し、受け取った仕様を setEdgeFilter のフィルタへ適用
+     * 制御接続で同期した場合、サーバーは以降の変更を制御接続へプッシュする
+     *
+     * @return 同期できた場合true（未接続・非対応・失敗時はfalse）
+     */
+    public boolean syncEdgeFilter() {
+        EdgeFilter filter = edgeFilter;
+        if (filter == null || !isEdgeFilterSupported()) {
+            return false;
+        }
+        byte[] request = ("{\"version\":" + filter.getVersion() + "}").getBytes(StandardCharsets.UTF_8);
+
+        String controlRegistrationId = controlRegistrationId();
+        String spec;
+        if (controlRegistrationId == null) {
+            spec = syncEdgeFilterOnDataConnection(request);
+        } else {
+            try {
+                ControlChannel.Response response = controlChannel.request(MSG_TYPE_EDGE_FILTER_SYNC, request, controlRegistrationId);
+                spec = edgeFilterSyncResponse(response.code(), response.message());
+            } catch (IOException e) {
+                AgentLogger.warn("制御接続でのエッジフィルタ同期中にエラーが発生しました（次回再接続します）: " + e.getMessage());
+                controlChannel.close();
+                return false;
+            }
+        }
+        if (spec == null) {
+            return false;
+        }
+        filter.apply(spec);
+        return true;
+    }
+
+    /**
+     * データ接続でエッジフィルタを同期（制御接続を使わない場合。プッシュは受けない）
+     */
+    private synchronized String syncEdgeFilterOnDataConnection(byte[] request) {
+        if (reconnecting || !connected) {
+            return null;
+        }
+
+        try {
+            if (!ensureConnection()) {
+                return null;
+            }
+
+            out.writeByte(MSG_TYPE_EDGE_FILTER_SYNC);
+            out.writeInt(request.length);
+            out.write(request);
+            out.flush();
+
+            byte responseCode = in.readByte();
+            String message = readString();
+            if (responseCode == RESPONSE_SUCCESS) {
+                updateLastActivity();
+            }
+            return edgeFilterSyncResponse(responseCode, message);
+
+        } catch (Exception e) {
+            AgentLogger.warn("エッジフィルタ同期中にエラーが発生しました: " + e.getMessage());
+
+            // 接続エラーの場合は再接続モードに移行
+            if (isConnectionError(e)) {
+                handleConnectionLoss();
+            }
+
+            return null;
+        }
+    }
+
+    private String edgeFilterSyncResponse(byte responseCode, String message) {
+        if (responseCode == RESPONSE_SUCCESS) {
+            return message;
+        }
+        AgentLogger.warn("エッジフィルタ同期に失敗しました。レスポンスコード: " + responseCode + ", エラー: " + message);
+        return null;
+    }
+
+    private String blockListSyncResponse(byte responseCode, String message) {
+        if (responseCode == RESPONSE_SUCCESS) {
+            return message;
+        }
+        AgentLogger.warn("ブロックリスト同期に失敗しました。レスポンスコード: " + responseCode + ", エラー: " + message);
+        return null;
+    }
+
+    /**
+     * ブロック要求の応答を解釈
+     *
+     * @return 成功時は応答JSON、それ以外は空のJSON
+     */
+    private String blockRequestsResponse(byte responseCode, String message) {
+        if (responseCode == RESPONSE_SUCCESS) {
+            AgentLogger.debug("ブロック要求取得成功");
+            return message;
+        }
+        if (responseCode == 1) {
+            // レスポンスコード1はデータなしの正常状態
+            AgentLogger.debug("ブロック要求はありません（正常）");
+        } else {
+            AgentLogger.warn("ブロック要求取得に失敗しました。レスポンスコード: " + responseCode + ", エラー: " + message);
+        }
+        return "[]";
+    }
+
+    /**
+     * 制御接続を使う場合の登録ID
+     *
+     * @return サーバーが control-channel に対応し登録済みであれば登録ID、それ以外はnull（データ接続を使う）
+     */
+    private String controlRegistrationId() {
+        return controlChannelSupported ? registrationId : null;
+    }
+
     /**
      * サーバー登録処理
      */
@@ -623,10 +1248,11 @@ public class LogTransmitter {
 
             byte responseCode = in.readByte();
             if (responseCode == RESPONSE_SUCCESS) {
-                String registrationId = readString();
+                String newRegistrationId = readString();
                 updateLastActivity();
-                AgentLogger.debug("サーバー登録に成功しました。登録ID: " + registrationId);
-                return registrationId;
+                registrationId = newRegistrationId;
+                AgentLogger.debug("サーバー登録に成功しました。登録ID: " + newRegistrationId);
+                return newRegistrationId;
             } else {
                 String errorMessage = readString();
                 AgentLogger.error("サーバー登録時の認証に失敗しました: " + errorMessage);
@@ -664,6 +1290,7 @@ public class LogTransmitter {
             if (responseCode == RESPONSE_SUCCESS) {
                 String responseMessage = readString();
                 updateLastActivity();
+                this.registrationId = null;
                 AgentLogger.debug("サーバー登録解除に成功しました: " + responseMessage);
                 return true;
             } else {
@@ -687,6 +1314,109 @@ public class LogTransmitter {
         out.write(bytes);
     }
 
+    /**
+     * 送信するバッチのメッセージタイプとデータ
+     *
+     * @param onAcknowledged 成功応答を受けたときの処理（なければnull）
+     */
+    private record BatchFrame(byte type, byte[] data, Runnable onAcknowledged) {
+        BatchFrame(byte type, byte[] data) {
+            this(type, data, null);
+        }
+    }
+
+    /**
+     * ログバッチをエンコード
+     * 集約バッチの合意済みで集約できる行があれば、全行の行と集計を1つの集約バッチにまとめる
+     * （データ: [byte 全行のバッチのメッセージタイプ（0 は全行なし）][int 集計JSONの長さ][集計JSON][全行のバッチのデータ]）
+     */
+    private BatchFrame encodeLogBatch(List<LogEntry> logs) throws IOException {
+        TrafficAggregator aggregator = trafficAggregator;
+        if (aggregator == null || !trafficAggregateSupported) {
+            return encodeEntries(logs);
+        }
+        TrafficAggregator.Split split = aggregator.split(logs);
+        Runnable markKnown = split.newKeys().isEmpty() ? null : () -> aggregator.markKnown(split.newKeys());
+        if (split.records().isEmpty()) {
+            BatchFrame frame = encodeEntries(logs);
+            return new BatchFrame(frame.type(), frame.data(), markKnown);
+        }
+
+        byte[] aggregateJson = objectMapper.writeValueAsBytes(Map.of("records", split.records()));
+        BatchFrame full = split.fullEntries().isEmpty() ? null : encodeEntries(split.fullEntries());
+        int fullLength = full != null ? full.data().length : 0;
+        ByteBuffer buffer = ByteBuffer.allocate(1 + Integer.BYTES + aggregateJson.length + fullLength)
+            .put(full != null ? full.type() : 0).putInt(aggregateJson.length).put(aggregateJson);
+        if (full != null) {
+            buffer.put(full.data());
+        }
+        AgentLogger.debug("集約バッチ: " + logs.size() + " 件 → 全行 " + split.fullEntries().size() + " 件＋集計 "
+            + split.records().size() + " 件");
+        return new BatchFrame(MSG_TYPE_AGGREGATED_BATCH, buffer.array(), markKnown);
+    }
+
+    /**
+     * ネゴシエーション結果に応じた形式（バイナリ／JSON、deflate 有無）でログバッチをエンコード
+     */
+    private BatchFrame encodeEntries(List<LogEntry> logs) throws IOException {
+        if (binaryBatches) {
+            byte[] body = binaryEncoder.encode(logs, attackTagsSupported);
+            if (deflateBatches) {
+                byte[] compressed = deflate(body);
+                AgentLogger.debug("バイナリ圧縮ログバッチ: " + body.length + " → " + compressed.length + " バイト");
+                return new BatchFrame(MSG_TYPE_LOG_BATCH_BINARY, ByteBuffer.allocate(2 + Integer.BYTES + compressed.length)
+                    .put(BINARY_BATCH_FORMAT_V2).put(BATCH_ENCODING_DEFLATE).putInt(body.length).put(compressed).array());
+            }
+            return new BatchFrame(MSG_TYPE_LOG_BATCH_BINARY, ByteBuffer.allocate(2 + body.length)
+                .put(BINARY_BATCH_FORMAT_V2).put(BATCH_ENCODING_RAW).put(body).array());
+        }
+
+        byte[] jsonData = objectMapper.writeValueAsBytes(new LogBatch(logs, config.getAgentId()));
+        if (deflateBatches) {
+            byte[] compressed = deflate(jsonData);
+            AgentLogger.debug("圧縮ログバッチ: " + jsonData.length + " → " + compressed.length + " バイト");
+            return new BatchFrame(MSG_TYPE_LOG_BATCH_DEFLATE, ByteBuffer.allocate(Integer.BYTES + compressed.length)
+                .putInt(jsonData.length).put(compressed).array());
+        }
+        return new BatchFrame(MSG_TYPE_LOG_BATCH, jsonData);
+    }
+
+    /**
+     * バッチのフレームを書き込み（flushは呼び出し側）
+     */
+    private void writeFrame(BatchFrame frame) throws IOException {
+        out.writeByte(frame.type());
+        out.writeInt(frame.data().length);
+        out.write(frame.data());
+    }
+
+    /**
+     * シーケンス番号付きでバッチのフレームを書き込み（flushは呼び出し側）
+     */
+    private void writeSequencedFrame(long sequence, BatchFrame frame) throws IOException {
+        out.writeByte(MSG_TYPE_SEQUENCED_BATCH);
+        out.writeInt(Long.BYTES + 1 + frame.data().length);
+        out.writeLong(sequence);
+        out.writeByte(frame.type());
+        out.write(frame.data());
+    }
+
+    /**
+     * deflate圧縮（圧縮器はバッチごとに再利用）
+     */
+    private byte[] deflate(byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(chunk);
+            compressed.write(chunk, 0, length);
+        }
+        return compressed.toByteArray();
+    }
+
     /**
      * 文字列を読み込み
      */
@@ -775,16 +1505,9 @@ public class LogTransmitter {
             }
         }
 
-        // TCP接続を切断
+        // TCP接続（データ接続・制御接続）を切断
         disconnect();
-
-        // キューをクリア
-        int logQueueSize = logQueue.size();
-        logQueue.clear();
-
-        if (logQueueSize > 0) {
-            AgentLogger.warn("クリーンアップ時に " + logQueueSize + " 件のログがキューに残っていました");
-        }
+        controlChannel.close();
 
         AgentLogger.info("LogTransmitterのクリーンアップが完了しました");
     }
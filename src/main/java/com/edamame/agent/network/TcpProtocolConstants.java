@@ -5,9 +5,19 @@ package com.edamame.agent.network;
  *
  * サーバー側（AgentTcpServer）とエージェント側（LogTransmitter, ServerRegistration）で
  * 共通使用するプロトコル定数を定義
+ * v1.1.0: 機能ネゴシエーションとdeflate圧縮ログバッチを追加
+ * v1.2.0: バイナリ形式（v2）ログバッチを追加
+ * v1.3.0: シーケンス番号付きバッチ（パイプライン送信）を追加
+ * v1.4.0: バイナリ形式のエントリに読み取り位置フラグを追加
+ * v1.5.0: ログバッチ応答で取込キューの混雑度（バックプレッシャー）を通知する機能を追加
+ * v1.6.0: ハートビート・ブロック要求用の制御接続（MSG_TYPE_CONTROL_ATTACH）を追加
+ * v1.7.0: バージョン付きブロックリストの差分同期（MSG_TYPE_BLOCK_SYNC）とサーバーからの差分プッシュを追加
+ * v1.8.0: エージェント側で破棄するリクエストの条件（エッジフィルタ）の同期とプッシュを追加
+ * v1.9.0: エッジフィルタの仕様に攻撃パターンの組を追加し、エージェントの事前分類（attack-tags）とバイナリ形式のエントリフラグを追加
+ * v1.10.0: 正常な既知のリクエストを件数に集約して送る集約バッチ（MSG_TYPE_AGGREGATED_BATCH）を追加
  *
  * @author Edamame Team
- * @version 1.0.0
+ * @version 1.10.0
  */
 public final class TcpProtocolConstants {
 
@@ -21,8 +31,34 @@ public final class TcpProtocolConstants {
     public static final byte MSG_TYPE_BLOCK_REQUEST = 0x03;
     public static final byte MSG_TYPE_AUTH = 0x04;
 
+    // 機能ネゴシエーション（認証直後にエージェントが対応機能をカンマ区切りで送信し、サーバーが受理した機能を返す）
+    public static final byte MSG_TYPE_CAPABILITIES = 0x05;
+    // deflate圧縮ログバッチ（データ: [int 展開後サイズ][deflate圧縮したLogBatch JSON]）
+    public static final byte MSG_TYPE_LOG_BATCH_DEFLATE = 0x06;
+    // バイナリ形式ログバッチ（データ: [byte 形式バージョン][byte エンコーディング][本体]）
+    public static final byte MSG_TYPE_LOG_BATCH_BINARY = 0x07;
+    // シーケンス番号付きバッチ（データ: [long シーケンス番号][byte バッチのメッセージタイプ][バッチのデータ]）
+    // 応答: [byte レスポンスコード][int 長さ][long シーケンス番号][UTF-8 メッセージ]（番号を解釈できない場合は -1）
+    public static final byte MSG_TYPE_SEQUENCED_BATCH = 0x08;
+
     // 接続テスト用（エージェント設定読み込み時の軽量テスト）
     public static final byte MSG_TYPE_CONNECTION_TEST = 0x09;
+    // 制御接続の登録（データ: UTF-8 登録ID）。認証済みの2本目の接続を、同じエージェントのデータ接続の登録に紐づける
+    // 以降この接続ではハートビート・ブロック要求のみを送り、ログ送信の処理待ちに影響されずに応答を受け取る
+    public static final byte MSG_TYPE_CONTROL_ATTACH = 0x0A;
+    // ブロックリストの差分同期（データ: JSON {"version": 最後に適用したバージョン}）
+    // 応答: JSON {"version", "since", "full", "blocks": [{"ipAddress", "expiresAt", "reason"}], "unblocks": [IP]}
+    // 制御接続で同期したエージェントには、以降の変更を同じ形式で PUSH_BLOCK_LIST_DELTA としてプッシュする
+    public static final byte MSG_TYPE_BLOCK_SYNC = 0x0B;
+    // エッジフィルタの同期（データ: JSON {"version": 適用中のバージョン}）
+    // 応答: JSON {"version", "extensions": [拡張子], "paths": [パス], "suppressions": [{"id", "serverName", "pattern"}],
+    //            "attackPatterns": {"version", "patterns": [{"type", "pattern", "excludeUrls"}]}}（攻撃パターンを読み込めない場合は attackPatterns なし）
+    // （バージョンが一致する場合は {"version", "unchanged": true}）。制御接続で同期したエージェントには変更を PUSH_EDGE_FILTER としてプッシュする
+    public static final byte MSG_TYPE_EDGE_FILTER_SYNC = 0x0C;
+    // 集約バッチ（データ: [byte 全行のバッチのメッセージタイプ（0 は全行なし）][int 集計JSONの長さ][集計JSON（UTF-8）][全行のバッチのデータ]）
+    // 集計JSON: {"records": [{"serverName", "sourcePath", "method", "url", "statusCode", "minute", "count", "bytes", "ips", "streamId", "endOffset"}]}
+    // 通常のログバッチと同様にシーケンス番号付きバッチの中身にもでき、応答は1つ
+    public static final byte MSG_TYPE_AGGREGATED_BATCH = 0x0D;
 
     // サーバー登録関連
     public static final byte MSG_TYPE_REGISTER = 0x10;
@@ -37,11 +73,45 @@ public final class TcpProtocolConstants {
     public static final byte RESPONSE_ERROR = 0x01;
     public static final byte RESPONSE_AUTH_FAILED = 0x02;
 
+    // サーバーからのプッシュ（応答と同じ [byte コード][int 長さ][UTF-8 メッセージ] 形式で、要求と無関係に届く）
+    public static final byte PUSH_BLOCK_LIST_DELTA = 0x20;
+    public static final byte PUSH_EDGE_FILTER = 0x21;
+
+    // ネゴシエーション可能な機能名
+    public static final String CAPABILITY_DEFLATE_BATCH = "deflate-batch";
+    public static final String CAPABILITY_BINARY_BATCH_V2 = "binary-batch-v2";
+    public static final String CAPABILITY_PIPELINED_BATCH = "pipelined-batch";
+    public static final String CAPABILITY_INGEST_BACKPRESSURE = "ingest-backpressure";
+    public static final String CAPABILITY_CONTROL_CHANNEL = "control-channel";
+    public static final String CAPABILITY_BLOCK_LIST_SYNC = "block-list-sync";
+    public static final String CAPABILITY_EDGE_FILTER = "edge-filter";
+    // エントリに事前分類の結果（attackType, attackPatternVersion）を付けて送る（バイナリ形式では BINARY_ENTRY_ATTACK_TAG）
+    public static final String CAPABILITY_ATTACK_TAGS = "attack-tags";
+    public static final String CAPABILITY_TRAFFIC_AGGREGATE = "traffic-aggregate";
+
+    // ingest-backpressure 合意時にログバッチ応答メッセージの末尾へ付与する取込キュー使用率（0〜100）の区切り
+    public static final String BACKPRESSURE_RESPONSE_MARKER = ";backpressure=";
+
+    // バイナリ形式ログバッチの形式バージョンと本体のエンコーディング
+    public static final byte BINARY_BATCH_FORMAT_V2 = 2;
+    public static final byte BATCH_ENCODING_RAW = 0;
+    public static final byte BATCH_ENCODING_DEFLATE = 1; // 本体: [int 展開後サイズ][deflate圧縮データ]
+
+    // バイナリ形式ログバッチのエントリフラグ
+    public static final int BINARY_ENTRY_BLOCKED_BY_MODSEC = 0x01;
+    public static final int BINARY_ENTRY_REQUEST_SPLIT = 0x02;     // リクエスト行を メソッド/URL/プロトコル に分割
+    public static final int BINARY_ENTRY_SIZE_NUMERIC = 0x04;      // レスポンスサイズを数値で格納
+    public static final int BINARY_ENTRY_TIMESTAMP_EPOCH = 0x08;   // アクセス時刻をエポック秒＋UTCオフセットで格納
+    public static final int BINARY_ENTRY_COLLECTED_EPOCH = 0x10;   // 収集時刻をエポック秒＋ナノ秒で格納
+    public static final int BINARY_ENTRY_POSITION = 0x20;          // 読み取り位置（ストリームID＋行末オフセット）を末尾に格納
+    public static final int BINARY_ENTRY_ATTACK_TAG = 0x40;        // 事前分類の結果（varint 攻撃タイプidx / varint パターンバージョンidx）を末尾に格納
+
     // 有効なAPIキー（実際の運用では外部設定から読み込み）
     public static final String VALID_API_KEY = "edamame-agent-api-key-2025";
 
     // 通信制限設定
     public static final int SOCKET_TIMEOUT = 30000; // 30秒
     public static final int MAX_MESSAGE_SIZE = 10 * 1024 * 1024; // 10MB
+    public static final int MAX_INFLATED_SIZE = 64 * 1024 * 1024; // 圧縮バッチ展開後の上限 64MB
     public static final long CONNECTION_TIMEOUT = 300000; // 5分間の非活動でタイムアウト
 }
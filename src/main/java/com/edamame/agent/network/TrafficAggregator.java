@@ -0,0 +1,160 @@
+package com.edamame.agent.network;
+
+import com.edamame.agent.log.LogEntry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 正常なリクエストの集約（集約バッチの作成）
+ * 事前分類で攻撃なし（normal）と判定され、ModSecurityでブロックされず、ステータスが2xx/3xxのアクセスログの行のうち、
+ * サーバーへ全行を送信済みのURL（サーバー名・メソッド・URL）のものは、1行ずつ送らず
+ * サーバー名・ソースパス・ストリーム・メソッド・URL・ステータス・分ごとの件数（集計）にまとめる。
+ * それ以外の行（攻撃・ModSecurity・4xx/5xx・未分類・初めてのURL）は全行を送る。
+ * <p>
+ * 既知のURLは全行の送信がサーバーに確認応答された時点で登録し（markKnown）、最近使われた順に上限件数まで保持する。
+ * 同じバッチ内では、全行を含めた最初の行より後の同じURLの行も集約する（サーバーは全行を先に処理する）。
+ * 集計には範囲内の最後の行の読み取り位置を付け、サーバーは取込済み位置による重複判定に使う。
+ * </p>
+ * 送信スレッド（LogTransmitter の同期メソッド）からのみ呼び出す。
+ *
+ * @author Edamame Team
+ * @version 1.0.0
+ */
+final class TrafficAggregator {
+
+    /** 保持する既知のURLの上限 */
+    static final int MAX_KNOWN_URLS = 100_000;
+    /** 1件の集計に含める送信元IPの上限（ユニークIPの推定に使う） */
+    static final int MAX_IPS_PER_RECORD = 32;
+    /** nginxの時刻の長さ（dd/MMM/yyyy:HH:mm:ss +zzzz） */
+    private static final int NGINX_TIMESTAMP_LENGTH = 26;
+
+    /**
+     * バッチの振り分け結果
+     *
+     * @param fullEntries 全行を送る行（元の順序）
+     * @param records 集計（serverName, sourcePath, method, url, statusCode, minute, count, bytes, ips, streamId, endOffset）
+     * @param newKeys 全行を送る正常な行のうち未知のURLのキー（確認応答後に markKnown へ渡す）
+     */
+    record Split(List<LogEntry> fullEntries, List<Map<String, Object>> records, Set<String> newKeys) {}
+
+    /**
+     * 集計中の件数
+     */
+    private static final class Bucket {
+        final LogEntry first;
+        final String minute;
+        long count;
+        long bytes;
+        final Set<String> ips = new LinkedHashSet<>();
+        long endOffset;
+
+        Bucket(LogEntry first, String minute) {
+            this.first = first;
+            this.minute = minute;
+        }
+    }
+
+    private final Map<String, Boolean> knownUrls = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_KNOWN_URLS;
+        }
+    };
+
+    /**
+     * バッチを全行の行と集計に振り分ける
+     *
+     * @param logs 送信するバッチ
+     * @return 振り分け結果（集約できる行がなければ records は空）
+     */
+    Split split(List<LogEntry> logs) {
+        List<LogEntry> fullEntries = new ArrayList<>(logs.size());
+        Map<String, Bucket> buckets = new LinkedHashMap<>();
+        Set<String> newKeys = new LinkedHashSet<>();
+        Set<String> sentInBatch = new HashSet<>();
+        for (LogEntry entry : logs) {
+            if (!isClean(entry)) {
+                fullEntries.add(entry);
+                continue;
+            }
+            String key = urlKey(entry);
+            if (!sentInBatch.contains(key) && knownUrls.get(key) == null) {
+                // 初めてのURLは全行を送り、url_registry への登録・ホワイトリスト判定をサーバーで行わせる
+                fullEntries.add(entry);
+                sentInBatch.add(key);
+                newKeys.add(key);
+                continue;
+            }
+            String minute = entry.timestamp().substring(0, 18) + "00" + entry.timestamp().substring(20);
+            Bucket bucket = buckets.computeIfAbsent(key + '\0' + entry.sourcePath() + '\0' + entry.streamId() + '\0'
+                + entry.statusCode() + '\0' + minute, k -> new Bucket(entry, minute));
+            bucket.count++;
+            bucket.bytes += entry.getResponseSizeBytes();
+            if (bucket.ips.size() < MAX_IPS_PER_RECORD) {
+                bucket.ips.add(entry.clientIp());
+            }
+            bucket.endOffset = Math.max(bucket.endOffset, entry.endOffset());
+        }
+
+        List<Map<String, Object>> records = new ArrayList<>(buckets.size());
+        for (Bucket bucket : buckets.values()) {
+            LogEntry first = bucket.first;
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("serverName", first.serverName());
+            record.put("sourcePath", first.sourcePath());
+            record.put("method", first.getHttpMethod());
+            record.put("url", first.getRequestUrl());
+            record.put("statusCode", first.statusCode());
+            record.put("minute", bucket.minute);
+            record.put("count", bucket.count);
+            record.put("bytes", bucket.bytes);
+            record.put("ips", List.copyOf(bucket.ips));
+            if (first.hasPosition()) {
+                record.put("streamId", first.streamId());
+                record.put("endOffset", bucket.endOffset);
+            }
+            records.add(record);
+        }
+        return new Split(fullEntries, records, newKeys);
+    }
+
+    /**
+     * 全行の送信が確認応答されたURLを既知として登録
+     *
+     * @param keys split で返されたキー
+     */
+    void markKnown(Collection<String> keys) {
+        for (String key : keys) {
+            knownUrls.put(key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * 既知のURLを破棄（集約バッチに対応しないサーバーへ接続した場合）
+     */
+    void clear() {
+        knownUrls.clear();
+    }
+
+    /**
+     * 集約できる正常な行か（事前分類で normal、ModSecurityブロックなし、2xx/3xx、nginx形式の時刻）
+     */
+    private static boolean isClean(LogEntry entry) {
+        String timestamp = entry.timestamp();
+        return entry.hasAttackTag() && "normal".equals(entry.attackType()) && !entry.blockedByModSec()
+            && entry.statusCode() >= 200 && entry.statusCode() < 400
+            && timestamp.length() == NGINX_TIMESTAMP_LENGTH && timestamp.charAt(17) == ':' && timestamp.charAt(20) == ' ';
+    }
+
+    private static String urlKey(LogEntry entry) {
+        return entry.serverName() + '\0' + entry.getHttpMethod() + '\0' + entry.getRequestUrl();
+    }
+}
@@ -0,0 +1,44 @@
+package com.edamame.agent.system;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * ファイアウォール操作コマンドの実行
+ * IptablesManager とファイアウォールバックエンドは外部コマンドをこのインターフェース経由で実行する。
+ * 既定の実装は {@link ProcessCommandExecutor}。実行したコマンドと標準入力を記録する実装に差し替えれば、
+ * iptables・ipset のない環境でも適用内容を確認できる。
+ *
+ * @author Edamame Team
+ * @version 1.0.0
+ */
+public interface CommandExecutor {
+
+    /**
+     * コマンドの実行結果
+     *
+     * @param exitCode 終了コード
+     * @param output 標準出力
+     * @param error 標準エラー出力
+     */
+    record Result(int exitCode, String output, String error) {
+
+        /**
+         * 終了コードが0か
+         */
+        public boolean succeeded() {
+            return exitCode == 0;
+        }
+    }
+
+    /**
+     * コマンドを実行して終了を待つ（シェルを経由しない）
+     *
+     * @param command コマンドと引数
+     * @param input 標準入力へ書き込む内容（不要な場合はnull）
+     * @return 実行結果
+     * @throws IOException コマンドを起動できない・入出力エラー
+     * @throws InterruptedException 終了待ちが中断された
+     */
+    Result execute(List<String> command, String input) throws IOException, InterruptedException;
+}
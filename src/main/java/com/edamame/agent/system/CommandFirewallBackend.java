@@ -0,0 +1,117 @@
+package com.edamame.agent.system;
+
+import com.edamame.agent.util.AgentLogger;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * IPアドレスごとにルールを追加・削除するバックエンド
+ * Linuxでは EDAMAME_BLOCKS チェーンへ `-s <IP> -j DROP` のルールを挿入・削除し、
+ * WindowsではWindows Firewallのルール（EDAMAME_BLOCK_<IP>）を追加・削除する。
+ * 1件ごとにコマンドを起動するため、ipset が使えない環境・Windows 向けの従来方式。
+ *
+ * @author Edamame Team
+ * @version 1.0.0
+ */
+final class CommandFirewallBackend implements FirewallBackend {
+
+    private final CommandExecutor executor;
+    private final boolean windows;
+
+    /**
+     * コンストラクタ
+     *
+     * @param executor コマンド実行
+     * @param windows Windows Firewallを使用するか
+     */
+    CommandFirewallBackend(CommandExecutor executor, boolean windows) {
+        this.executor = executor;
+        this.windows = windows;
+    }
+
+    @Override
+    public String name() {
+        return windows ? "netsh" : "iptables";
+    }
+
+    /**
+     * EDAMAME_BLOCKS チェーンを作成し、末尾に -j RETURN がなければ追加（Windowsは準備不要）
+     */
+    @Override
+    public boolean initialize() {
+        if (windows) {
+            AgentLogger.info("Windows Firewallを準備しました");
+            return true;
+        }
+        try {
+            CommandExecutor.Result created = executor.execute(List.of("iptables", "-t", "filter", "-N", EDAMAME_CHAIN), null);
+            String error = created.error().toLowerCase();
+            if (created.succeeded()) {
+                AgentLogger.info("iptablesチェーン " + EDAMAME_CHAIN + " を初期化しました");
+            } else if (error.contains("chain already exists") || (created.exitCode() == 1 && error.isBlank())) {
+                AgentLogger.info("iptablesチェーン " + EDAMAME_CHAIN + " は既に存在します。既存チェーンを利用します。");
+            } else if (created.exitCode() == 4 && error.isBlank()) {
+                AgentLogger.error("iptablesコマンドが権限不足で失敗しました。root権限で実行してください: iptables -t filter -N " + EDAMAME_CHAIN);
+            } else {
+                AgentLogger.error("iptablesチェーン " + EDAMAME_CHAIN + " の初期化に失敗しました。コマンド実行結果: exitCode="
+                    + created.exitCode() + ", error=" + created.error());
+            }
+
+            // EDAMAME_BLOCKSチェーン末尾に-j RETURNがなければ追加
+            CommandExecutor.Result rules = executor.execute(List.of("iptables", "-t", "filter", "-S", EDAMAME_CHAIN), null);
+            String[] lines = rules.output().strip().split("\n");
+            String lastRule = lines[lines.length - 1];
+            if (!lastRule.trim().endsWith("-j RETURN")) {
+                if (FirewallBackend.run(executor, List.of("iptables", "-A", EDAMAME_CHAIN, "-j", "RETURN"), null)) {
+                    AgentLogger.info("iptablesチェーン " + EDAMAME_CHAIN + " の末尾に-j RETURNを追加しました");
+                } else {
+                    AgentLogger.warn("iptablesチェーン " + EDAMAME_CHAIN + " の末尾に-j RETURNの追加に失敗しました");
+                }
+            } else {
+                AgentLogger.debug("iptablesチェーン " + EDAMAME_CHAIN + " の末尾には既に-j RETURNがあります");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            AgentLogger.error("ファイアウォールチェーンの初期化に失敗しました: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * 1件ずつルールを追加・削除（全件同期も差分と同じく追加・解除分のみ実行）
+     */
+    @Override
+    public Set<String> apply(Change change) {
+        Set<String> failed = new HashSet<>();
+        for (String ipAddress : change.unblocks()) {
+            if (!FirewallBackend.run(executor, unblockCommand(ipAddress), null)) {
+                failed.add(ipAddress);
+            }
+        }
+        for (String ipAddress : change.blocks()) {
+            if (!FirewallBackend.run(executor, blockCommand(ipAddress), null)) {
+                failed.add(ipAddress);
+            }
+        }
+        return failed;
+    }
+
+    private List<String> blockCommand(String ipAddress) {
+        if (windows) {
+            return List.of("netsh", "advfirewall", "firewall", "add", "rule", "name=EDAMAME_BLOCK_" + ipAddress,
+                "dir=in", "action=block", "remoteip=" + ipAddress);
+        }
+        return List.of("iptables", "-I", EDAMAME_CHAIN, "-s", ipAddress, "-j", "DROP");
+    }
+
+    private List<String> unblockCommand(String ipAddress) {
+        if (windows) {
+            return List.of("netsh", "advfirewall", "firewall", "delete", "rule", "name=EDAMAME_BLOCK_" + ipAddress);
+        }
+        return List.of("iptables", "-D", EDAMAME_CHAIN, "-s", ipAddress, "-j", "DROP");
+    }
+}
@@ -0,0 +1,84 @@
+package com.edamame.agent.system;
+
+import com.edamame.agent.util.AgentLogger;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * ブロックするIPアドレスをOSのファイアウォールへ反映するバックエンド
+ * IptablesManager はブロック・解除をまとめて {@link #apply} へ渡し、反映できたIPを有効なブロックとして管理する。
+ *
+ * @author Edamame Team
+ * @version 1.0.0
+ */
+interface FirewallBackend {
+
+    /** ブロック用のiptablesチェーン */
+    String EDAMAME_CHAIN = "EDAMAME_BLOCKS";
+
+    /**
+     * 1回で反映する変更
+     *
+     * @param blocks 新たにブロックするIPアドレス
+     * @param unblocks 解除するIPアドレス
+     * @param fullList 反映後にブロックされているべきIPアドレスの全体（全件同期の場合。差分のみの場合はnull）
+     */
+    record Change(Set<String> blocks, Set<String> unblocks, Set<String> fullList) {}
+
+    /**
+     * ログ表示用の名前
+     */
+    String name();
+
+    /**
+     * チェーン・セット等を準備
+     *
+     * @return 利用できる場合true
+     */
+    boolean initialize();
+
+    /**
+     * 変更を反映
+     *
+     * @param change 変更
+     * @return 反映できなかったIPアドレス（ブロック・解除とも。すべて反映できた場合は空）
+     */
+    Set<String> apply(Change change);
+
+    /**
+     * コマンドを実行し、失敗時は標準エラー出力・終了コードと権限不足の可能性をログ出力
+     *
+     * @param executor コマンド実行
+     * @param command コマンドと引数
+     * @param input 標準入力へ書き込む内容（不要な場合はnull）
+     * @return 成功した場合true
+     */
+    static boolean run(CommandExecutor executor, List<String> command, String input) {
+        String commandLine = String.join(" ", command);
+        try {
+            CommandExecutor.Result result = executor.execute(command, input);
+            if (result.succeeded()) {
+                AgentLogger.debug("コマンド実行成功: " + commandLine);
+                return true;
+            }
+            String error = result.error().toLowerCase(Locale.ROOT);
+            if (error.contains("permission denied") || error.contains("not permitted")
+                    || error.contains("must be run as root") || error.contains("you must be root")) {
+                AgentLogger.error("ファイアウォールのコマンドが権限不足で失敗しました。root権限で実行してください: " + commandLine
+                    + "\nエラー内容: " + result.error());
+            } else {
+                AgentLogger.warn("コマンド実行エラー: " + commandLine + " -> " + result.error() + " (終了コード: " + result.exitCode() + ")");
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            AgentLogger.warn("コマンドの実行が中断されました: " + commandLine);
+            return false;
+        } catch (Exception e) {
+            AgentLogger.warn("コマンド実行に失敗しました: " + commandLine + " -> " + e.getMessage());
+            return false;
+        }
+    }
+}
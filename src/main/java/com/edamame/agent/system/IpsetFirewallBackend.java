@@ -0,0 +1,228 @@
+package com.edamame.agent.system;
+
+import com.edamame.agent.util.AgentLogger;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * ipset のハッシュセットでブロックするバックエンド
+ * ブロックするIPアドレスは ipset（IPv4: edamame-block4、IPv6: edamame-block6、いずれも hash:net）に保持し、
+ * EDAMAME_BLOCKS チェーンはセットを参照する1本のDROPルールと末尾の RETURN だけにする。
+ * パケットごとの照合はルール数に依存せず、変更は1回の `ipset restore` でまとめて反映する。
+ * <ul>
+ *   <li>差分: add / del の行を1回の `ipset restore -exist` で反映する</li>
+ *   <li>全件同期: 一時セットへ全件を入れて swap で入れ替える（入れ替えは不可分で、途中の状態を照合しない）</li>
+ * </ul>
+ * チェーンは初期化時に `iptables-restore --noflush` で1回のトランザクションとして組み直す
+ * （従来のIPごとのルールが残っていれば消える）。IPv6 は ip6tables-restore が使えない場合はセットへの登録のみ行う。
+ * <p>
+ * `ipset restore` は不可分ではなく、失敗した行より前の行は反映済みになる。失敗した場合は `ipset list` でセットを読み直し、
+ * 実際に反映されていないブロック・解除だけを失敗として返す（反映済みのブロックを有効なブロックとして管理し、期限で解除するため）。
+ * </p>
+ *
+ * v1.0.1: restore 失敗時にセットを読み直し、実際に反映されなかったIPアドレスだけを失敗として返す
+ *
+ * @author Edamame Team
+ * @version 1.0.1
+ */
+final class IpsetFirewallBackend implements FirewallBackend {
+
+    static final String SET_V4 = "edamame-block4";
+    static final String SET_V6 = "edamame-block6";
+    private static final String SWAP_SUFFIX = "-swap";
+    private static final String MEMBERS_HEADER = "Members:";
+    private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    private final CommandExecutor executor;
+
+    /**
+     * コンストラクタ
+     *
+     * @param executor コマンド実行
+     */
+    IpsetFirewallBackend(CommandExecutor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public String name() {
+        return "ipset";
+    }
+
+    /**
+     * セットを作成し（既存は再利用）、EDAMAME_BLOCKS チェーンをセット参照のルールに組み直す
+     *
+     * @return ipset と iptables-restore（IPv4）が使える場合true
+     */
+    @Override
+    public boolean initialize() {
+        String sets = "create " + SET_V4 + " hash:net family inet\n"
+            + "create " + SET_V6 + " hash:net family inet6\n";
+        if (!FirewallBackend.run(executor, List.of("ipset", "restore", "-exist"), sets)) {
+            return false;
+        }
+        if (!FirewallBackend.run(executor, List.of("iptables-restore", "--noflush"), chainRules(SET_V4))) {
+            return false;
+        }
+        if (!FirewallBackend.run(executor, List.of("ip6tables-restore", "--noflush"), chainRules(SET_V6))) {
+            AgentLogger.warn("ip6tables の " + EDAMAME_CHAIN + " チェーンを準備できませんでした。IPv6 のブロックはセットへの登録のみ行います");
+        }
+        AgentLogger.info("ipset " + SET_V4 + " / " + SET_V6 + " を参照する iptables チェーン " + EDAMAME_CHAIN + " を初期化しました");
+        return true;
+    }
+
+    /**
+     * 変更を1回の ipset restore で反映
+     * 失敗した場合はセットを読み直して反映されなかったものだけを返す（読み直せない場合は変更全体を未反映として返す）
+     */
+    @Override
+    public Set<String> apply(Change change) {
+        StringBuilder script = new StringBuilder();
+        if (change.fullList() != null) {
+            appendReplace(script, SET_V4, "inet", change.fullList(), false);
+            appendReplace(script, SET_V6, "inet6", change.fullList(), true);
+        } else {
+            for (String ipAddress : change.unblocks()) {
+                script.append("del ").append(setFor(ipAddress)).append(' ').append(ipAddress).append('\n');
+            }
+            for (String ipAddress : change.blocks()) {
+                script.append("add ").append(setFor(ipAddress)).append(' ').append(ipAddress).append('\n');
+            }
+        }
+        if (script.isEmpty() || FirewallBackend.run(executor, List.of("ipset", "restore", "-exist"), script.toString())) {
+            return Set.of();
+        }
+
+        // restore は失敗した行で停止するため、途中までの行は反映済み。セットの実際の内容から失敗したものを判定する
+        Set<String> members = listMembers(SET_V4);
+        Set<String> membersV6 = members != null ? listMembers(SET_V6) : null;
+        Set<String> failed = new HashSet<>();
+        if (membersV6 == null) {
+            AgentLogger.warn("ipset の内容を読み直せないため、変更全体を未反映として扱います");
+            failed.addAll(change.blocks());
+            failed.addAll(change.unblocks());
+            return failed;
+        }
+        members.addAll(membersV6);
+        for (String ipAddress : change.blocks()) {
+            if (!members.contains(memberKey(ipAddress))) {
+                failed.add(ipAddress);
+            }
+        }
+        for (String ipAddress : change.unblocks()) {
+            if (members.contains(memberKey(ipAddress))) {
+                failed.add(ipAddress);
+            }
+        }
+        AgentLogger.warn("ipset restore が途中で失敗しました（未反映 " + failed.size() + " 件、反映済み "
+            + (change.blocks().size() + change.unblocks().size() - failed.size()) + " 件）");
+        return failed;
+    }
+
+    /**
+     * セットに登録されているアドレスを `ipset list` で取得
+     *
+     * @return 比較用に正規化したアドレス（取得できない場合はnull）
+     */
+    private Set<String> listMembers(String set) {
+        List<String> command = List.of("ipset", "list", set);
+        try {
+            CommandExecutor.Result result = executor.execute(command, null);
+            if (!result.succeeded()) {
+                AgentLogger.warn("コマンド実行エラー: " + String.join(" ", command) + " -> " + result.error()
+                    + " (終了コード: " + result.exitCode() + ")");
+                return null;
+            }
+            Set<String> members = new HashSet<>();
+            boolean inMembers = false;
+            for (String line : result.output().split("\n")) {
+                String trimmed = line.trim();
+                if (!inMembers) {
+                    inMembers = trimmed.equals(MEMBERS_HEADER);
+                } else if (!trimmed.isEmpty()) {
+                    // エントリのオプション（timeout 等）は無視してアドレスのみ使う
+                    int space = trimmed.indexOf(' ');
+                    members.add(memberKey(space < 0 ? trimmed : trimmed.substring(0, space)));
+                }
+            }
+            return members;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            AgentLogger.warn("コマンドの実行が中断されました: " + String.join(" ", command));
+            return null;
+        } catch (Exception e) {
+            AgentLogger.warn("コマンド実行に失敗しました: " + String.join(" ", command) + " -> " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * セットの内容と比較するための正規化したアドレス
+     * 表記の揺れ（IPv6の省略・大文字、/32・/128 の有無、ネットワーク部以外のビット）を吸収する。解釈できない場合は小文字化のみ
+     */
+    static String memberKey(String ipAddress) {
+        String value = ipAddress.trim().toLowerCase(Locale.ROOT);
+        int slash = value.indexOf('/');
+        String address = slash < 0 ? value : value.substring(0, slash);
+        if (!isIpv6(address) && !IPV4.matcher(address).matches()) {
+            return value; // 名前解決を起こさないようリテラル以外は解釈しない
+        }
+        try {
+            byte[] bytes = InetAddress.getByName(address).getAddress();
+            int bits = bytes.length * Byte.SIZE;
+            int prefix = slash < 0 ? bits : Integer.parseInt(value.substring(slash + 1));
+            if (prefix < 0 || prefix > bits) {
+                return value;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                int keep = Math.max(0, Math.min(Byte.SIZE, prefix - i * Byte.SIZE));
+                bytes[i] &= (byte) (0xFF << (Byte.SIZE - keep));
+            }
+            return HexFormat.of().formatHex(bytes) + "/" + prefix;
+        } catch (UnknownHostException | NumberFormatException e) {
+            return value;
+        }
+    }
+
+    /**
+     * 一時セットへ全件を登録して本来のセットと入れ替える行を追加
+     */
+    private static void appendReplace(StringBuilder script, String set, String family, Set<String> ipAddresses, boolean ipv6) {
+        String swap = set + SWAP_SUFFIX;
+        script.append("create ").append(swap).append(" hash:net family ").append(family).append('\n');
+        script.append("flush ").append(swap).append('\n');
+        for (String ipAddress : ipAddresses) {
+            if (isIpv6(ipAddress) == ipv6) {
+                script.append("add ").append(swap).append(' ').append(ipAddress).append('\n');
+            }
+        }
+        script.append("swap ").append(swap).append(' ').append(set).append('\n');
+        script.append("destroy ").append(swap).append('\n');
+    }
+
+    /**
+     * EDAMAME_BLOCKS チェーンをセット参照のDROPルールとRETURNで置き換える iptables-restore の入力
+     */
+    private static String chainRules(String set) {
+        return "*filter\n"
+            + ":" + EDAMAME_CHAIN + " - [0:0]\n"
+            + "-A " + EDAMAME_CHAIN + " -m set --match-set " + set + " src -j DROP\n"
+            + "-A " + EDAMAME_CHAIN + " -j RETURN\n"
+            + "COMMIT\n";
+    }
+
+    private static String setFor(String ipAddress) {
+        return isIpv6(ipAddress) ? SET_V6 : SET_V4;
+    }
+
+    private static boolean isIpv6(String ipAddress) {
+        return ipAddress.indexOf(':') >= 0;
+    }
+}
@@ -4,34 +4,52 @@ import com.edamame.agent.config.AgentConfig;
 import com.edamame.agent.network.LogTransmitter;
 import com.edamame.agent.util.AgentLogger;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * iptables管理クラス
  * Linux iptablesを操作してIPアドレスのブロック・解除を行う
  * WindowsではWindows Firewallコマンドを使用
+ * サーバーがブロックリストの差分同期（block-list-sync）に対応している場合は、最後に適用したバージョンからの差分を同期し、
+ * 以降の変更は制御接続へのプッシュで受け取る。同期とプッシュの適用は専用スレッドで受信順に行う。
+ * ファイアウォールへの反映は {@link FirewallBackend} が行う。Linuxで ipset が使える場合は ipset のセットへ
+ * 1回の ipset restore でまとめて反映し（iptables.backend=auto / ipset）、使えない場合とWindowsではIPごとにルールを追加・削除する。
+ * v1.2.0: バージョン付きブロックリストの差分同期とプッシュの適用を追加
+ * v1.3.0: ファイアウォールへの反映をバックエンド（ipset / IPごとのルール）とコマンド実行（CommandExecutor）に分離し、変更をまとめて反映
+ * v1.3.1: CIDR表記（アドレス/プレフィックス長）のブロックを受け付け
+ * v1.3.2: ファイアウォールへ反映できなかった変更があればバージョンを進めず、次回の同期で全件を取り直す
  *
  * @author Edamame Team
- * @version 1.1.0
+ * @version 1.3.2
  */
-public class IptablesManager {
-
-    private static final String EDAMAME_CHAIN = "EDAMAME_BLOCKS";
+public final class IptablesManager {
 
     private final AgentConfig config;
     private final LogTransmitter logTransmitter;
     private final Map<String, BlockRule> activeBlocks;
     private final boolean isWindows;
+    private final FirewallBackend firewall;
     private final ObjectMapper objectMapper;
+    private final ExecutorService blockListExecutor;
+    private final AtomicBoolean syncPending = new AtomicBoolean(false);
+    private long blockListVersion = 0; // blockListExecutor のスレッドでのみ参照（未同期は0）
 
     /**
      * コンストラクタ
@@ -40,85 +58,79 @@ public class IptablesManager {
      * @param logTransmitter 統一されたLogTransmitterインスタンス
      */
     public IptablesManager(AgentConfig config, LogTransmitter logTransmitter) {
+        this(config, logTransmitter, new ProcessCommandExecutor());
+    }
+
+    /**
+     * コンストラクタ（コマンド実行を指定）
+     *
+     * @param config エージェント設定
+     * @param logTransmitter 統一されたLogTransmitterインスタンス
+     * @param commandExecutor ファイアウォール操作コマンドの実行
+     */
+    public IptablesManager(AgentConfig config, LogTransmitter logTransmitter, CommandExecutor commandExecutor) {
         this.config = config;
         this.logTransmitter = logTransmitter;
         this.activeBlocks = new ConcurrentHashMap<>();
         this.isWindows = System.getProperty("os.name").toLowerCase().contains("win");
         this.objectMapper = new ObjectMapper();
+        this.blockListExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "edamame-block-sync");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.firewall = config.isEnableIptables()
+            ? initializeFirewall(commandExecutor)
+            : new CommandFirewallBackend(commandExecutor, isWindows);
 
         if (config.isEnableIptables()) {
-            initializeFirewallChain();
+            // 制御接続の読み取りスレッドを止めないよう、プッシュされた差分は専用スレッドで適用する
+            logTransmitter.setBlockListPushListener(json -> submitBlockListTask(() -> applyBlockListDelta(json, true)));
         }
 
         AgentLogger.info("IptablesManagerを初期化しました (OS: " +
-                    (isWindows ? "Windows" : "Linux") + ")");
+                    (isWindows ? "Windows" : "Linux") + ", バックエンド: " + firewall.name() + ")");
     }
 
     /**
-     * ファイアウォールチェーンを初期化
+     * 設定（iptables.backend）とOSに応じてバックエンドを選択して初期化
+     * auto / ipset で ipset・iptables-restore が使えない場合はIPごとのルールにフォールバックする
      */
-    private void initializeFirewallChain() {
-        try {
-            if (isWindows) {
-                // Windows Firewallの初期化は不要
-                AgentLogger.info("Windows Firewallを準備しました");
+    private FirewallBackend initializeFirewall(CommandExecutor commandExecutor) {
+        String backend = config.getFirewallBackend();
+        if (!isWindows && !"iptables".equals(backend)) {
+            FirewallBackend ipset = new IpsetFirewallBackend(commandExecutor);
+            if (ipset.initialize()) {
+                return ipset;
+            }
+            String message = "ipset を利用できないため、IPごとのiptablesルールでブロックします";
+            if ("ipset".equals(backend)) {
+                AgentLogger.error(message);
             } else {
-                // Linuxでiptablesチェーンを作成（Dockerコンテナ対応）
-                ProcessBuilder pb = new ProcessBuilder("sh", "-c", "iptables -t filter -N " + EDAMAME_CHAIN + " 2>/dev/null");
-                Process process = pb.start();
-                int exitCode = process.waitFor();
-                BufferedReader errorReader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-                StringBuilder errorOutput = new StringBuilder();
-                String errorLine;
-                while ((errorLine = errorReader.readLine()) != null) {
-                    errorOutput.append(errorLine).append("\n");
-                }
-                String errorStr = errorOutput.toString().toLowerCase();
-                if (exitCode == 0) {
-                    AgentLogger.debug("コマンド実行成功: sh -c iptables -t filter -N " + EDAMAME_CHAIN + " 2>/dev/null");
-                    AgentLogger.info("iptablesチェーン " + EDAMAME_CHAIN + " を初期化しました");
-                } else if (errorStr.contains("chain already exists") || (exitCode == 1 && errorStr.isBlank())) {
-                    AgentLogger.info("iptablesチェーン " + EDAMAME_CHAIN + " は既に存在します。既存チェーンを利用します。");
-                } else if (exitCode == 4 && errorStr.isBlank()) {
-                    AgentLogger.error("iptablesコマンドが権限不足で失敗しました。root権限で実行してください: sh -c iptables -t filter -N " + EDAMAME_CHAIN + " 2>/dev/null");
-                } else {
-                    AgentLogger.error("iptablesチェーン " + EDAMAME_CHAIN + " の初期化に失敗しました。コマンド実行結果: exitCode=" + exitCode + ", error=" + errorOutput);
-                }
-
-                // EDAMAME_BLOCKSチェーン末尾に-j RETURNがなければ追加
-                ProcessBuilder listPb = new ProcessBuilder("sh", "-c", "iptables -t filter -S " + EDAMAME_CHAIN);
-                Process listProcess = listPb.start();
-                BufferedReader listReader = new BufferedReader(new InputStreamReader(listProcess.getInputStream()));
-                String lastRule = null;
-                String line;
-                while ((line = listReader.readLine()) != null) {
-                    lastRule = line;
-                }
-                if (lastRule == null || !lastRule.trim().endsWith("-j RETURN")) {
-                    // 末尾にRETURNがなければ追加
-                    boolean added = executeCommand(new String[]{"sh", "-c", "iptables -A " + EDAMAME_CHAIN + " -j RETURN"});
-                    if (added) {
-                        AgentLogger.info("iptablesチェーン " + EDAMAME_CHAIN + " の末尾に-j RETURNを追加しました");
-                    } else {
-                        AgentLogger.warn("iptablesチェーン " + EDAMAME_CHAIN + " の末尾に-j RETURNの追加に失敗しました");
-                    }
-                } else {
-                    AgentLogger.debug("iptablesチェーン " + EDAMAME_CHAIN + " の末尾には既に-j RETURNがあります");
-                }
+                AgentLogger.info(message);
             }
-        } catch (Exception e) {
-            AgentLogger.error("ファイアウォールチェーンの初期化に失敗しました: " + e.getMessage());
         }
+        FirewallBackend command = new CommandFirewallBackend(commandExecutor, isWindows);
+        command.initialize();
+        return command;
     }
 
     /**
      * ブロック要求を処理
+     * 差分同期に対応したサーバーでは同期を予約する（プッシュを取りこぼした場合や再接続後の追いつきを兼ねる）
      */
     public void processBlockRequests() {
         if (!config.isEnableIptables()) {
             return;
         }
 
+        if (logTransmitter.isBlockListSyncSupported()) {
+            requestBlockListSync();
+            return;
+        }
+
+        cleanupExpiredBlocks();
         try {
             String blockRequestsJson = logTransmitter.fetchBlockRequests();
 
@@ -151,9 +163,22 @@ public class IptablesManager {
 
             if (!requests.isEmpty()) {
                 AgentLogger.debug("ブロック要求を " + requests.size() + " 件処理します");
+                LocalDateTime now = LocalDateTime.now();
+                Map<String, LocalDateTime> blocks = new LinkedHashMap<>();
+                Set<String> unblocks = new LinkedHashSet<>();
                 for (BlockRequest request : requests) {
-                    processBlockRequest(request);
+                    String ipAddress = request.getIpAddress() != null ? request.getIpAddress() : "";
+                    if (!isIpAddress(ipAddress)) {
+                        AgentLogger.warn("不正なIPアドレスのブロック要求を無視しました: " + ipAddress);
+                    } else if ("block".equals(request.getAction())) {
+                        unblocks.remove(ipAddress);
+                        blocks.put(ipAddress, now.plusMinutes(request.getDurationMinutes()));
+                    } else if ("unblock".equals(request.getAction())) {
+                        blocks.remove(ipAddress);
+                        unblocks.add(ipAddress);
+                    }
                 }
+                applyFirewallChanges(blocks, unblocks, false);
             }
 
         } catch (Exception e) {
@@ -162,179 +187,179 @@ public class IptablesManager {
     }
 
     /**
-     * 個別のブロック要求を処理
+     * ブロックリストの差分同期を予約（予約済みの場合はまとめる）
      */
-    private void processBlockRequest(BlockRequest request) {
-        try {
-            LocalDateTime now = LocalDateTime.now();
-
-            if ("block".equals(request.getAction())) {
-                blockIpAddress(request.getIpAddress(), request.getDurationMinutes());
-            } else if ("unblock".equals(request.getAction())) {
-                unblockIpAddress(request.getIpAddress());
-            }
+    private void requestBlockListSync() {
+        if (syncPending.compareAndSet(false, true)) {
+            submitBlockListTask(this::syncBlockList);
+        }
+    }
 
-        } catch (Exception e) {
-            AgentLogger.error("ブロック要求処理中にエラーが発生しました: " + e.getMessage());
+    private void submitBlockListTask(Runnable task) {
+        try {
+            blockListExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            AgentLogger.debug("停止中のためブロックリストの処理をスキップします");
         }
     }
 
     /**
-     * IPアドレスをブロック
+     * 最後に適用したバージョンからの差分を取得して適用（blockListExecutor のスレッド）
      */
-    private void blockIpAddress(String ipAddress, int durationMinutes) {
-        try {
-            if (activeBlocks.containsKey(ipAddress)) {
-                AgentLogger.debug("IPアドレス " + ipAddress + " は既にブロック済みです");
-                return;
-            }
-
-            LocalDateTime expiryTime = LocalDateTime.now().plusMinutes(durationMinutes);
-            String command = buildBlockCommand(ipAddress);
-
-            if (executeCommand(command)) {
-                activeBlocks.put(ipAddress, new BlockRule(ipAddress, expiryTime));
-                AgentLogger.info("IPアドレス " + ipAddress + " をブロックしました (期限: " +
-                    expiryTime.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")) + ")");
-            }
-
-        } catch (Exception e) {
-            AgentLogger.error("IPアドレス " + ipAddress + " のブロックに失敗しました: " + e.getMessage());
+    private void syncBlockList() {
+        syncPending.set(false);
+        cleanupExpiredBlocks();
+        String deltaJson = logTransmitter.syncBlockList(blockListVersion);
+        if (deltaJson != null) {
+            applyBlockListDelta(deltaJson, false);
         }
     }
 
     /**
-     * IPアドレスのブロックを解除
+     * ブロックリストの差分を適用（blockListExecutor のスレッド）
+     * 全件（full）の場合は一覧に含まれないブロックを解除する。
+     * プッシュの起点バージョンが適用済みバージョンと一致しない場合（取りこぼし）は適用せずに再同期する
+     *
+     * @param deltaJson 差分（version, since, full, blocks, unblocks）
+     * @param pushed プッシュで受信したものか
      */
-    private void unblockIpAddress(String ipAddress) {
+    private void applyBlockListDelta(String deltaJson, boolean pushed) {
         try {
-            if (!activeBlocks.containsKey(ipAddress)) {
-                AgentLogger.debug("IPアドレス " + ipAddress + " はブロックされていません");
+            JsonNode delta = objectMapper.readTree(deltaJson);
+            boolean full = delta.path("full").asBoolean(false);
+            if (pushed && !full && delta.path("since").asLong(-1) != blockListVersion) {
+                AgentLogger.debug("ブロックリストのプッシュが適用済みバージョンと一致しないため再同期します");
+                requestBlockListSync();
                 return;
             }
 
-            String command = buildUnblockCommand(ipAddress);
-
-            if (executeCommand(command)) {
-                activeBlocks.remove(ipAddress);
-                AgentLogger.info("IPアドレス " + ipAddress + " のブロックを解除しました");
+            Map<String, LocalDateTime> blocks = new LinkedHashMap<>();
+            for (JsonNode block : delta.path("blocks")) {
+                String ipAddress = block.path("ipAddress").asText("");
+                if (!isIpAddress(ipAddress)) {
+                    AgentLogger.warn("不正なIPアドレスのブロックを無視しました: " + ipAddress);
+                    continue;
+                }
+                LocalDateTime expiryTime = block.hasNonNull("expiresAt")
+                    ? LocalDateTime.ofInstant(Instant.ofEpochMilli(block.get("expiresAt").asLong()), ZoneId.systemDefault())
+                    : null;
+                blocks.put(ipAddress, expiryTime);
+            }
+            Set<String> unblocks = new LinkedHashSet<>();
+            delta.path("unblocks").forEach(ip -> unblocks.add(ip.asText()));
+
+            Applied applied = applyFirewallChanges(blocks, unblocks, full);
+            if (applied.failed() > 0) {
+                // 反映できなかったブロック・解除は以降の差分に含まれないため、バージョンを未同期に戻して次回は全件を取り直す
+                blockListVersion = 0;
+                AgentLogger.warn("ブロックリストの一部を反映できなかったため、次回の同期で全件を取り直します（" + applied.failed() + " 件）");
+            } else {
+                blockListVersion = delta.path("version").asLong(blockListVersion);
+            }
+            if (applied.blocked() > 0 || applied.unblocked() > 0) {
+                AgentLogger.info("ブロックリストを適用しました（" + (pushed ? "プッシュ" : full ? "全件同期" : "差分同期")
+                    + "、ブロック " + applied.blocked() + " 件、解除 " + applied.unblocked() + " 件、バージョン " + blockListVersion + "）");
             }
-
         } catch (Exception e) {
-            AgentLogger.error("IPアドレス " + ipAddress + " のブロック解除に失敗しました: " + e.getMessage());
+            AgentLogger.warn("ブロックリストの適用中にエラーが発生しました: " + e.getMessage());
         }
     }
 
     /**
-     * ブロックコマンドを構築
+     * ブロック・解除をまとめてファイアウォールへ反映し、反映できたものを有効なブロックに記録
+     * ブロック済みのIPは期限のみ更新する。全件（replaceAll）の場合は blocks にない有効なブロックを解除する。
+     * 同期スレッドと定期処理から呼ばれるため同期化する
+     *
+     * @param blocks ブロックするIPアドレスと期限（無期限はnull）
+     * @param unblocks 解除するIPアドレス
+     * @param replaceAll blocks をブロック一覧全体として置き換えるか
+     * @return 反映したブロック・解除と反映できなかった件数
      */
-    private String buildBlockCommand(String ipAddress) {
-        if (isWindows) {
-            return "netsh advfirewall firewall add rule name=\"EDAMAME_BLOCK_" + ipAddress +
-                   "\" dir=in action=block remoteip=" + ipAddress;
-        } else {
-            return "iptables -I " + EDAMAME_CHAIN + " -s " + ipAddress + " -j DROP";
+    private synchronized Applied applyFirewallChanges(Map<String, LocalDateTime> blocks, Set<String> unblocks, boolean replaceAll) {
+        Set<String> newBlocks = new LinkedHashSet<>();
+        for (Map.Entry<String, LocalDateTime> entry : blocks.entrySet()) {
+            if (activeBlocks.containsKey(entry.getKey())) {
+                activeBlocks.put(entry.getKey(), new BlockRule(entry.getKey(), entry.getValue()));
+            } else {
+                newBlocks.add(entry.getKey());
+            }
         }
-    }
-
-    /**
-     * ブロック解除コマンドを構築
-     */
-    private String buildUnblockCommand(String ipAddress) {
-        if (isWindows) {
-            return "netsh advfirewall firewall delete rule name=\"EDAMAME_BLOCK_" + ipAddress + "\"";
-        } else {
-            return "iptables -D " + EDAMAME_CHAIN + " -s " + ipAddress + " -j DROP";
+        Set<String> removed = new LinkedHashSet<>();
+        for (String ipAddress : activeBlocks.keySet()) {
+            if (unblocks.contains(ipAddress) || (replaceAll && !blocks.containsKey(ipAddress))) {
+                removed.add(ipAddress);
+            }
+        }
+        if (newBlocks.isEmpty() && removed.isEmpty() && !replaceAll) {
+            return new Applied(0, 0, 0);
         }
-    }
-
-    /**
-     * コマンドを実行（配列あり）
-     * 権限不足やコマンド失敗時は標準エラー出力・終了コードを詳細にログ出力し、root権限でない場合の警告も明示
-     */
-    private boolean executeCommand(String[] command) {
-        try {
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            Process process = processBuilder.start();
-            int exitCode = process.waitFor();
 
-            if (exitCode == 0) {
-                AgentLogger.debug("コマンド実行成功: " + String.join(" ", command));
-                return true;
-            } else {
-                BufferedReader errorReader = new BufferedReader(
-                    new InputStreamReader(process.getErrorStream()));
-                String errorLine;
-                StringBuilder errorOutput = new StringBuilder();
-                while ((errorLine = errorReader.readLine()) != null) {
-                    errorOutput.append(errorLine).append("\n");
-                }
-                AgentLogger.warn("コマンド実行エラー: " + String.join(" ", command) + " -> " + errorOutput + " (終了コード: " + exitCode + ")");
-                // Linuxでiptables失敗時は権限不足の可能性を明示
-                if (!isWindows && (errorOutput.toString().toLowerCase().contains("permission denied") ||
-                                   errorOutput.toString().toLowerCase().contains("operation not permitted") ||
-                                   errorOutput.toString().toLowerCase().contains("must be run as root") ||
-                                   errorOutput.toString().toLowerCase().contains("you must be root") ||
-                                   errorOutput.toString().toLowerCase().contains("permission denied") ||
-                        errorOutput.toString().toLowerCase().contains("not permitted"))) {
-                    AgentLogger.error("iptablesコマンドが権限不足で失敗しました。root権限で実行してください: " + String.join(" ", command) + "\nエラー内容: " + errorOutput.toString());
-                } else if (!isWindows && exitCode != 0) {
-                    AgentLogger.warn("iptablesコマンドが失敗しました。root権限でない場合は動作しません: " + String.join(" ", command) + "\nエラー内容: " + errorOutput.toString());
-                }
-                return false;
+        Set<String> failed = firewall.apply(new FirewallBackend.Change(newBlocks, removed,
+            replaceAll ? blocks.keySet() : null));
+        int blocked = 0;
+        for (String ipAddress : newBlocks) {
+            if (!failed.contains(ipAddress)) {
+                LocalDateTime expiryTime = blocks.get(ipAddress);
+                activeBlocks.put(ipAddress, new BlockRule(ipAddress, expiryTime));
+                blocked++;
+                AgentLogger.debug("IPアドレス " + ipAddress + " をブロックしました (期限: " +
+                    (expiryTime != null ? expiryTime.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")) : "無期限") + ")");
             }
-        } catch (Exception e) {
-            AgentLogger.error("コマンド実行に失敗しました: " + String.join(" ", command) + " -> " + e.getMessage());
-            if (!isWindows) {
-                AgentLogger.warn("iptablesコマンド実行時に例外が発生しました。root権限でない場合は動作しません");
+        }
+        int unblocked = 0;
+        for (String ipAddress : removed) {
+            if (!failed.contains(ipAddress)) {
+                activeBlocks.remove(ipAddress);
+                unblocked++;
+                AgentLogger.debug("IPアドレス " + ipAddress + " のブロックを解除しました");
             }
-            return false;
         }
+        if (!failed.isEmpty()) {
+            AgentLogger.warn("ファイアウォールへ反映できなかったIPアドレスがあります（" + failed.size() + " 件、バックエンド: " + firewall.name() + "）");
+        }
+        if (blocked > 0 || unblocked > 0) {
+            AgentLogger.info("ファイアウォールへ反映しました（ブロック " + blocked + " 件、解除 " + unblocked
+                + " 件、有効 " + activeBlocks.size() + " 件、バックエンド: " + firewall.name() + "）");
+        }
+        return new Applied(blocked, unblocked, failed.size());
     }
 
     /**
-     * コマンドを実行（文字列1本）
-     * 権限不足やコマンド失敗時は標準エラー出力・終了コードを詳細にログ出力し、root権限でない場合の警告も明示
+     * IPアドレスまたはCIDR（アドレス/プレフィックス長）として扱える文字列か
+     * （コマンドへ埋め込むため数字・16進数字・区切り文字のみ許可）
      */
-    private boolean executeCommand(String command) {
-        try {
-            ProcessBuilder builder = new ProcessBuilder();
-            if (isWindows) {
-                builder.command("cmd.exe", "/c", command);
-            } else {
-                builder.command("sh", "-c", command);
+    private static boolean isIpAddress(String value) {
+        int slash = value.indexOf('/');
+        String address = slash < 0 ? value : value.substring(0, slash);
+        if (address.isEmpty() || address.length() > 45) {
+            return false;
+        }
+        if (slash >= 0) {
+            String length = value.substring(slash + 1);
+            if (length.isEmpty() || length.length() > 3) {
+                return false;
             }
-            Process process = builder.start();
-            int exitCode = process.waitFor();
-
-            if (exitCode == 0) {
-                AgentLogger.debug("コマンド実行成功: " + String.join(" ", command));
-                return true;
-            } else {
-                BufferedReader errorReader = new BufferedReader(
-                    new InputStreamReader(process.getErrorStream()));
-                String errorLine;
-                StringBuilder errorOutput = new StringBuilder();
-                while ((errorLine = errorReader.readLine()) != null) {
-                    errorOutput.append(errorLine).append("\n");
+            for (int i = 0; i < length.length(); i++) {
+                if (!Character.isDigit(length.charAt(i))) {
+                    return false;
                 }
-                String errorStr = errorOutput.toString().toLowerCase();
-                AgentLogger.warn("コマンド実行エラー: " + command + " -> " + errorOutput.toString() + " (終了コード: " + exitCode + ")");
-                // Linuxでiptables失敗時は権限不足の可能性を明示
-                if (!isWindows && (errorStr.contains("permission denied") || errorStr.contains("operation not permitted") || errorStr.contains("Permission denied") || errorStr.contains("must be run as root") || errorStr.contains("you must be root") || errorStr.contains("not permitted"))) {
-                    AgentLogger.error("iptablesコマンドが権限不足で失敗しました。root権限で実行してください: " + command + "\nエラー内容: " + errorOutput.toString());
-                } else if (!isWindows && exitCode != 0) {
-                    AgentLogger.warn("iptablesコマンドが失敗しました。root権限でない場合は動作しません: " + command + "\nエラー内容: " + errorOutput.toString());
-                }
-                return false;
             }
-        } catch (Exception e) {
-            AgentLogger.error("コマンド実行に失敗しました: " + command + " -> " + e.getMessage());
-            if (!isWindows) {
-                AgentLogger.warn("iptablesコマンド実行時に例外が発生しました。root権限でない場合は動作しません");
+        }
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (!(Character.digit(c, 16) >= 0 || c == '.' || c == ':')) {
+                return false;
             }
-            return false;
         }
+        return true;
+    }
+
+    /**
+     * ブロックリストの同期を停止
+     */
+    public void shutdown() {
+        logTransmitter.setBlockListPushListener(null);
+        blockListExecutor.shutdownNow();
     }
 
     /**
@@ -342,19 +367,25 @@ public class IptablesManager {
      */
     public void cleanupExpiredBlocks() {
         LocalDateTime now = LocalDateTime.now();
-        List<String> expiredIps = new ArrayList<>();
+        Set<String> expiredIps = new LinkedHashSet<>();
 
         for (Map.Entry<String, BlockRule> entry : activeBlocks.entrySet()) {
-            if (entry.getValue().getExpiryTime().isBefore(now)) {
+            LocalDateTime expiryTime = entry.getValue().getExpiryTime();
+            if (expiryTime != null && expiryTime.isBefore(now)) {
                 expiredIps.add(entry.getKey());
             }
         }
 
-        for (String ip : expiredIps) {
-            unblockIpAddress(ip);
+        if (!expiredIps.isEmpty()) {
+            applyFirewallChanges(Map.of(), expiredIps, false);
         }
     }
 
+    /**
+     * 1回の反映で実際にブロック・解除した件数と、反映できなかった件数
+     */
+    private record Applied(int blocked, int unblocked, int failed) {}
+
     /**
      * ブロック要求データクラス
      */
@@ -378,7 +409,7 @@ public class IptablesManager {
     }
 
     /**
-     * アクティブなブロックルールデータクラス
+     * アクティブなブロックルールデータクラス（期限nullは無期限）
      */
     private static class BlockRule {
         private final String ipAddress;
@@ -0,0 +1,49 @@
+package com.edamame.agent.system;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 子プロセスでコマンドを実行する {@link CommandExecutor} の既定の実装
+ * 標準エラー出力は別スレッドで読み取り、大量の入力（ipset restore 等）を書き込む間に
+ * 子プロセスの出力が詰まって停止しないようにする。
+ *
+ * @author Edamame Team
+ * @version 1.0.0
+ */
+public class ProcessCommandExecutor implements CommandExecutor {
+
+    @Override
+    public Result execute(List<String> command, String input) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).start();
+        CompletableFuture<String> error = CompletableFuture.supplyAsync(
+            () -> readFully(process.getErrorStream()), Thread.ofVirtual()::start);
+        try (OutputStream stdin = process.getOutputStream()) {
+            if (input != null) {
+                stdin.write(input.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            // 入力の途中で終了した場合は終了コードと標準エラー出力で判断する
+        }
+        String output = readFully(process.getInputStream());
+        int exitCode = process.waitFor();
+        try {
+            return new Result(exitCode, output, error.get());
+        } catch (ExecutionException e) {
+            return new Result(exitCode, output, "");
+        }
+    }
+
+    private static String readFully(InputStream stream) {
+        try (stream) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+}
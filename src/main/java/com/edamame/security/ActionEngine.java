@@ -4,6 +4,7 @@ import static com.edamame.security.db.DbService.*;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import com.edamame.security.tools.AppLogger;
+import com.edamame.security.tools.HyperLogLog;
 import javax.mail.*;
 import javax.mail.internet.*;
 import java.sql.*;
@@ -16,6 +17,9 @@ import com.edamame.security.action.MailActionHandler; // 追加: MailActionHandl
  * アクション実行エンジン
  * 特定条件下でのアクション実行を管理・実行するクラス
  * v2.0.0: Connection引数を完全廃止、DbService専用に統一
+ * v2.1.0: 定時レポートのアクセス/攻撃/ModSecブロック統計を時間別ロールアップから取得
+ * v2.1.1: 攻撃統計は従来どおり期間内に登録された攻撃URL数（url_registry）に戻し、ステータスはクラス別集計であることを明記
+ * v2.1.2: status_codes を従来どおりステータスコード別の件数（status_stats_hourly）に戻し、クラス別の件数は status_classes で返す
  */
 public class ActionEngine {
 
@@ -505,7 +509,8 @@ public class ActionEngine {
     }
 
     /**
-     * アクセス数統計を取得（static移行対応）
+     * アクセス数統計を取得（時間別ロールアップ access_stats_hourly を参照）
+     * 集計は時間単位のため、開始時刻を含む時間帯から終了時刻を含む時間帯までを対象とする
      */
     private Map<String, Object> getAccessStatistics(String targetServer, LocalDateTime startTime, LocalDateTime endTime) {
         Map<String, Object> stats = new HashMap<>();
@@ -513,45 +518,69 @@ public class ActionEngine {
         try {
             String serverCondition = "*".equals(targetServer) ? "" : " AND server_name = ?";
 
-            // 総アクセス数
-            String totalSql = """
-                SELECT COUNT(*) as total_access
-                FROM access_log
-                WHERE access_time BETWEEN ? AND ?
+            String sql = """
+                SELECT request_count, status_2xx, status_3xx, status_4xx, status_5xx, status_other, ip_sketch, distinct_ip_estimate
+                FROM access_stats_hourly
+                WHERE hour_start >= ? AND hour_start <= ?
                 """ + serverCondition;
 
-            try (PreparedStatement pstmt = getConnection().prepareStatement(totalSql)) {
-                pstmt.setTimestamp(1, Timestamp.valueOf(startTime));
+            try (PreparedStatement pstmt = getConnection().prepareStatement(sql)) {
+                pstmt.setTimestamp(1, Timestamp.valueOf(startTime.truncatedTo(java.time.temporal.ChronoUnit.HOURS)));
                 pstmt.setTimestamp(2, Timestamp.valueOf(endTime));
                 if (!"*".equals(targetServer)) {
                     pstmt.setString(3, targetServer);
                 }
 
+                long totalAccess = 0;
+                long[] statusClasses = new long[5];
+                long uniqueIpsWithoutSketch = 0;
+                HyperLogLog ipSketch = new HyperLogLog();
                 ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) {
-                    stats.put("total_access", rs.getInt("total_access"));
+                while (rs.next()) {
+                    totalAccess += rs.getLong("request_count");
+                    statusClasses[0] += rs.getLong("status_2xx");
+                    statusClasses[1] += rs.getLong("status_3xx");
+                    statusClasses[2] += rs.getLong("status_4xx");
+                    statusClasses[3] += rs.getLong("status_5xx");
+                    statusClasses[4] += rs.getLong("status_other");
+                    byte[] sketch = rs.getBytes("ip_sketch");
+                    if (sketch != null) {
+                        ipSketch.merge(sketch);
+                    } else {
+                        // 初期生成分（スケッチなし）は時間帯ごとのユニーク数を上限として加算
+                        uniqueIpsWithoutSketch += rs.getLong("distinct_ip_estimate");
+                    }
+                }
+                stats.put("total_access", (int) totalAccess);
+
+                // ステータスクラス別（2xx/3xx/4xx/5xx/other）の件数
+                Map<String, Integer> statusClassCounts = new LinkedHashMap<>();
+                String[] labels = {"2xx", "3xx", "4xx", "5xx", "other"};
+                for (int i = 0; i < labels.length; i++) {
+                    if (statusClasses[i] > 0) {
+                        statusClassCounts.put(labels[i], (int) statusClasses[i]);
+                    }
                 }
+                stats.put("status_classes", statusClassCounts);
+                stats.put("unique_ips", ipSketch.estimate() + uniqueIpsWithoutSketch);
             }
 
-            // ステータスコード別統計
+            // ステータスコード別（200, 404 等）の件数（時間別ロールアップ status_stats_hourly を参照）
             String statusSql = """
-                SELECT status_code, COUNT(*) as count
-                FROM access_log
-                WHERE access_time BETWEEN ? AND ?
+                SELECT status_code, SUM(request_count) AS count
+                FROM status_stats_hourly
+                WHERE hour_start >= ? AND hour_start <= ?
                 """ + serverCondition + """
                 GROUP BY status_code
-                ORDER BY count DESC
                 """;
-
             try (PreparedStatement pstmt = getConnection().prepareStatement(statusSql)) {
-                pstmt.setTimestamp(1, Timestamp.valueOf(startTime));
+                pstmt.setTimestamp(1, Timestamp.valueOf(startTime.truncatedTo(java.time.temporal.ChronoUnit.HOURS)));
                 pstmt.setTimestamp(2, Timestamp.valueOf(endTime));
                 if (!"*".equals(targetServer)) {
                     pstmt.setString(3, targetServer);
                 }
-
-                ResultSet rs = pstmt.executeQuery();
                 Map<String, Integer> statusCodes = new HashMap<>();
+                ResultSet rs = pstmt.executeQuery();
                 while (rs.next()) {
                     statusCodes.put(String.valueOf(rs.getInt("status_code")), rs.getInt("count"));
                 }
@@ -568,7 +597,8 @@ public class ActionEngine {
     }
 
     /**
-     * 攻撃統計を取得（static移行対応）
+     * 攻撃統計を取得（期間内に新規登録された攻撃URL数を攻撃タイプ別に集計）
+     * url_registry は URL 単位の小さな表のため、時間別ロールアップではなく現在の分類を直接参照する
      */
     private Map<String, Object> getAttackStatistics(String targetServer, LocalDateTime startTime, LocalDateTime endTime) {
         Map<String, Object> stats = new HashMap<>();
@@ -624,16 +654,15 @@ public class ActionEngine {
         try {
             String serverCondition = "*".equals(targetServer) ? "" : " AND server_name = ?";
 
-            // ModSecurityブロック数
+            // ModSecurityブロック数（時間別ロールアップを参照）
             String blockSql = """
-                SELECT COUNT(*) as blocked_count
-                FROM access_log
-                WHERE access_time BETWEEN ? AND ?
-                  AND blocked_by_modsec = TRUE
+                SELECT COALESCE(SUM(modsec_blocks), 0) as blocked_count
+                FROM access_stats_hourly
+                WHERE hour_start >= ? AND hour_start <= ?
                 """ + serverCondition;
 
             try (PreparedStatement pstmt = getConnection().prepareStatement(blockSql)) {
-                pstmt.setTimestamp(1, Timestamp.valueOf(startTime));
+                pstmt.setTimestamp(1, Timestamp.valueOf(startTime.truncatedTo(java.time.temporal.ChronoUnit.HOURS)));
                 pstmt.setTimestamp(2, Timestamp.valueOf(endTime));
                 if (!"*".equals(targetServer)) {
                     pstmt.setString(3, targetServer);
@@ -15,21 +15,100 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 /**
  * 攻撃パターン検出・更新クラス
  * attack_patterns.jsonによる攻撃タイプ検出とGitHubからの自動更新
+ * <p>
+ * 検出はYAML（本体＋オーバーライド）をマージしてコンパイルした {@link CompiledPatternSet} で行う。
+ * コンパイル済みのパターンはファイルの組ごとに保持し、いずれかのファイルの更新時刻・サイズが変わった場合のみ読み直す。
+ * パターンの組はバージョン（本体のversion＋有効なパターン定義のハッシュ）を持ち、エージェントへ配信して
+ * 収集時の事前分類に使う（サーバーはバージョンが一致するエージェントの分類結果を採用する）。
+ * </p>
+ *
+ * v1.1.0: コンパイル済みパターンの組（バージョン付き）をキャッシュし、検出ごとのYAML読み込み・コンパイルを廃止
+ *
+ * @author Edamame Team
+ * @version 1.1.0
  */
 public class AttackPattern {
 
     private static final String GITHUB_URL = "https://raw.githubusercontent.com/otofuserver/Edamame-NginxLog-Security-Analyzer/master/container/config/attack_patterns.yaml";
 
+    /** ファイルの組（パスのリスト）→ コンパイル済みのパターンの組 */
+    private static final Map<List<String>, CachedPatternSet> COMPILED_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * キャッシュしたパターンの組と、読み込み時の各ファイルの状態（存在・更新時刻・サイズ）
+     */
+    private record CachedPatternSet(List<String> fileStamps, CompiledPatternSet patternSet) {}
+
+    /**
+     * コンパイル済みの攻撃パターン（無効化・パターンが空の定義は含まない）
+     *
+     * @param attackType 攻撃タイプ（YAMLのキー）
+     * @param pattern パターン（正規表現。不正な場合は大文字小文字を区別しない部分一致）
+     * @param excludeUrls 例外URL（正規表現。不正な場合は部分一致）
+     * @param regex コンパイル済みのパターン（不正な場合はnull）
+     * @param excludeRegexes コンパイル済みの例外URL（excludeUrls と同じ順序。不正な要素はnull）
+     */
+    public record CompiledPattern(String attackType, String pattern, List<String> excludeUrls, Pattern regex,
+                                  List<Pattern> excludeRegexes) {
+
+        /**
+         * URLがこのパターンに一致するか（例外URLに一致する場合は一致しない）
+         *
+         * @param url 検査対象のURL（デコード済み）
+         * @return 一致する場合true
+         */
+        public boolean matches(String url) {
+            for (int i = 0; i < excludeUrls.size(); i++) {
+                Pattern exclude = excludeRegexes.get(i);
+                if (exclude != null ? exclude.matcher(url).find() : url.contains(excludeUrls.get(i))) {
+                    return false;
+                }
+            }
+            return regex != null ? regex.matcher(url).find() : url.toLowerCase().contains(pattern.toLowerCase());
+        }
+    }
+
+    /**
+     * コンパイル済みの攻撃パターンの組
+     *
+     * @param version バージョン（本体のversion＋有効なパターン定義のハッシュ。オーバーライドの変更でも変わる）
+     * @param patterns パターン（YAMLの定義順）
+     */
+    public record CompiledPatternSet(String version, List<CompiledPattern> patterns) {
+
+        /**
+         * URLから攻撃タイプを検出
+         *
+         * @param url 検査対象のURL（デコード済み）
+         * @return 攻撃タイプ（複数の場合はカンマ区切り、該当なしは"normal"）
+         */
+        public String detect(String url) {
+            List<String> detectedAttacks = new ArrayList<>();
+            for (CompiledPattern pattern : patterns) {
+                if (pattern.matches(url)) {
+                    detectedAttacks.add(pattern.attackType());
+                }
+            }
+            return detectedAttacks.isEmpty() ? "normal" : String.join(",", detectedAttacks);
+        }
+    }
+
     /**
      * attack_patterns.yamlファイルが存在するかチェックする
      * @param yamlPath attack_patterns.yamlのパス
@@ -180,58 +259,98 @@ public class AttackPattern {
 
     /**
      * YAML版: URLから攻撃タイプを検出する（オーバーライド・無効化・例外URL対応）
+     * コンパイル済みのパターンの組（{@link #compiled}）で判定する
      * @param url 検査対象のURL
      * @param yamlPaths attack_patterns.yaml, override.yaml等のパス（複数可）
      * @return 攻撃タイプ（文字列、複数の場合はカンマ区切り）
      */
     public static String detectAttackTypeYaml(String url, String... yamlPaths) {
         try {
-            AttackPatternYaml yaml = loadYamlPatterns(yamlPaths);
-            List<String> detectedAttacks = new ArrayList<>();
+            return compiled(yamlPaths).detect(url);
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * コンパイル済みの攻撃パターンの組を取得（いずれかのファイルの更新時刻・サイズが変わった場合のみ読み直す）
+     * @param yamlPaths attack_patterns.yaml, override.yaml等のパス（複数可）
+     * @return コンパイル済みのパターンの組
+     * @throws IOException YAMLの読み込みエラー
+     */
+    public static CompiledPatternSet compiled(String... yamlPaths) throws IOException {
+        List<String> key = List.of(yamlPaths);
+        List<String> fileStamps = fileStamps(yamlPaths);
+        CachedPatternSet cached = COMPILED_CACHE.get(key);
+        if (cached != null && cached.fileStamps().equals(fileStamps)) {
+            return cached.patternSet();
+        }
+        CompiledPatternSet patternSet = compile(loadYamlPatterns(yamlPaths));
+        COMPILED_CACHE.put(key, new CachedPatternSet(fileStamps, patternSet));
+        if (cached == null || !cached.patternSet().version().equals(patternSet.version())) {
+            AppLogger.debug("攻撃パターンをコンパイルしました: " + patternSet.patterns().size() + " 件（バージョン " + patternSet.version() + "）");
+        }
+        return patternSet;
+    }
+
+    /**
+     * 各ファイルの状態（存在しない場合は "-"、存在する場合は 更新時刻:サイズ）
+     */
+    private static List<String> fileStamps(String... yamlPaths) {
+        List<String> stamps = new ArrayList<>(yamlPaths.length);
+        for (String path : yamlPaths) {
+            File file = new File(path);
+            stamps.add(file.exists() ? file.lastModified() + ":" + file.length() : "-");
+        }
+        return stamps;
+    }
+
+    /**
+     * マージ済みの定義をコンパイルし、有効な定義の内容からバージョンを求める
+     */
+    private static CompiledPatternSet compile(AttackPatternYaml yaml) {
+        List<CompiledPattern> patterns = new ArrayList<>();
+        Map<String, Object> effective = new LinkedHashMap<>();
+        if (yaml.patterns() != null) {
             for (var entry : yaml.patterns().entrySet()) {
-                String attackType = entry.getKey();
                 var def = entry.getValue();
                 if (def == null) continue;
                 if (def.disable != null && def.disable) continue; // 無効化
-                boolean isExcluded = false;
-                // 例外URL判定（正規表現）
-                if (def.excludeUrls != null && !def.excludeUrls.isEmpty()) {
-                    for (String exclude : def.excludeUrls) {
-                        try {
-                            Pattern excludePattern = Pattern.compile(exclude);
-                            if (excludePattern.matcher(url).find()) {
-                                isExcluded = true;
-                                break;
-                            }
-                        } catch (PatternSyntaxException e) {
-                            if (url.contains(exclude)) {
-                                isExcluded = true;
-                                break;
-                            }
-                        }
-                    }
-                }
-                if (isExcluded) continue;
                 String pattern = def.pattern;
                 if (pattern == null || pattern.isEmpty()) continue;
-                try {
-                    Pattern regex = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
-                    if (regex.matcher(url).find()) {
-                        detectedAttacks.add(attackType);
+                List<String> excludeUrls = def.excludeUrls != null ? List.copyOf(def.excludeUrls) : List.of();
+                List<Pattern> excludeRegexes = new ArrayList<>(excludeUrls.size());
+                for (String exclude : excludeUrls) {
+                    try {
+                        excludeRegexes.add(Pattern.compile(exclude));
+                    } catch (PatternSyntaxException e) {
+                        excludeRegexes.add(null);
                     }
+                }
+                Pattern regex;
+                try {
+                    regex = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
                 } catch (PatternSyntaxException e) {
-                    if (url.toLowerCase().contains(pattern.toLowerCase())) {
-                        detectedAttacks.add(attackType);
-                    }
+                    regex = null;
                 }
+                patterns.add(new CompiledPattern(entry.getKey(), pattern, excludeUrls, regex,
+                    Collections.unmodifiableList(excludeRegexes)));
+                effective.put(entry.getKey(), List.of(pattern, excludeUrls));
             }
-            if (!detectedAttacks.isEmpty()) {
-                return String.join(",", detectedAttacks);
-            } else {
-                return "normal";
-            }
-        } catch (Exception e) {
-            return "unknown";
+        }
+        String mainVersion = yaml.version() != null ? yaml.version() : "unknown";
+        return new CompiledPatternSet(mainVersion + "-" + digest(effective.toString()), List.copyOf(patterns));
+    }
+
+    /**
+     * 文字列のSHA-256（先頭12桁の16進）
+     */
+    private static String digest(String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 6);
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(value.hashCode());
         }
     }
 
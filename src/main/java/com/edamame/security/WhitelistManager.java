@@ -2,8 +2,8 @@ package com.edamame.security;
 
 import com.edamame.security.db.DbService;
 import com.edamame.security.tools.AppLogger;
+import com.edamame.security.tools.IpPrefixTrie;
 
-import java.sql.*;
 import java.util.Map;
 
 /**
@@ -13,11 +13,49 @@ import java.util.Map;
  * 今後の既存処理移行・統合のための基盤クラス。
  * DB連携や詳細ロジックは今後段階的に実装予定。
  * </p>
+ * <p>
+ * whitelist_ip の各要素は単一IPまたはCIDR（例: 192.0.2.0/24, 2001:db8::/32）で、
+ * 設定は {@link IpPrefixTrie} を含むスナップショットとしてメモリに保持し、参照ごと差し替える。
+ * 判定はロックなしでスナップショットを参照するだけで、ログ1行ごとの設定の読み込みは行わない。
+ * スナップショットは DbService.updateWhitelistSettings による更新（設定バージョンの変化）で読み直し、
+ * 外部からの変更に備えて一定時間ごとにも読み直す。
+ * </p>
+ *
+ * v1.1.0: CIDR指定に対応し、IPの照合をプレフィックストライのスナップショットに変更。
+ *         再アクセス時の判定が設定文字列全体との一致になっていた不具合を修正
+ * v1.2.0: ホワイトリスト設定をバージョン付きのスナップショットで保持し、判定ごとの設定読み込みを廃止。
+ *         再アクセス時はホワイトリスト対象IPの場合のみURLの状態を確認
+ *
  * @author Edamame Team
- * @version 1.0.0
+ * @version 1.2.0
  */
 public class WhitelistManager {
-    
+
+    /** 設定バージョンが変わらなくても読み直す間隔（ミリ秒） */
+    private static final long REFRESH_INTERVAL_MS = 60_000;
+
+    /**
+     * ホワイトリスト設定のスナップショット
+     *
+     * @param version 読み込み時の設定バージョン（DbService.getWhitelistSettingsVersion）
+     * @param loadedAtMillis 読み込み時刻
+     * @param whitelistMode ホワイトリストモード
+     * @param source whitelist_ip の設定文字列
+     * @param prefixes 登録されているIP・CIDR
+     */
+    private record Snapshot(long version, long loadedAtMillis, boolean whitelistMode, String source,
+                            IpPrefixTrie<Boolean> prefixes) {
+
+        /**
+         * クライアントIPがホワイトリスト対象か（モード無効時はfalse）
+         */
+        boolean matches(String clientIp) {
+            return whitelistMode && clientIp != null && prefixes.contains(clientIp);
+        }
+    }
+
+    private final Object loadLock = new Object();
+    private volatile Snapshot snapshot;
 
     /**
      * コンストラクタ
@@ -26,33 +64,20 @@ public class WhitelistManager {
     }
 
     /**
-     * クライアントIPに基づいてホワイトリスト状態を判定（複数IP対応)
+     * クライアントIPに基づいてホワイトリスト状態を判定（複数IP・CIDR対応)
      * @param clientIp クライアントIPアドレス
      * @return ホワイトリスト対象の場合true
      */
     public boolean determineWhitelistStatus(String clientIp) {
         try {
-            Map<String, Object> whitelistSettings = DbService.selectWhitelistSettings();
-            if (whitelistSettings != null) {
-                boolean whitelistMode = Boolean.TRUE.equals(whitelistSettings.get("whitelist_mode"));
-                String whitelistIp = (String) whitelistSettings.get("whitelist_ip");
-                if (whitelistMode && whitelistIp != null && clientIp != null) {
-                    String[] whitelistIps = whitelistIp.split(",");
-                    for (String ip : whitelistIps) {
-                        if (clientIp.equals(ip.trim())) {
-                            AppLogger.debug("ホワイトリスト判定: モード=" + true +
-                                    ", 設定IP=" + whitelistIp +
-                                    ", クライアントIP=" + clientIp +
-                                    " → true");
-                            return true;
-                        }
-                    }
-                    AppLogger.debug("ホワイトリスト判定: モード=" + true +
-                            ", 設定IP=" + whitelistIp +
-                            ", クライアントIP=" + clientIp +
-                            " → false");
-                    return false;
-                }
+            Snapshot current = current();
+            if (current.whitelistMode() && clientIp != null) {
+                boolean matched = current.matches(clientIp);
+                AppLogger.debug("ホワイトリスト判定: モード=" + true +
+                        ", 設定IP=" + current.source() +
+                        ", クライアントIP=" + clientIp +
+                        " → " + matched);
+                return matched;
             }
             AppLogger.debug("ホワイトリスト判定: 無効または設定なし (IP: " + clientIp + ")");
             return false;
@@ -64,6 +89,7 @@ public class WhitelistManager {
 
     /**
      * 既存URLの再アクセス時にホワイトリスト状態を再評価（必要時のみ更新）
+     * ホワイトリスト対象外のIPではDBにアクセスしない
      * @param serverName サーバー名
      * @param method HTTPメソッド
      * @param fullUrl フルURL
@@ -71,6 +97,10 @@ public class WhitelistManager {
      */
     public void updateExistingUrlWhitelistStatusOnAccess(String serverName, String method, String fullUrl, String clientIp) {
         try {
+            Snapshot current = current();
+            if (!current.matches(clientIp)) {
+                return;
+            }
             Boolean currentWhitelistStatus = DbService.selectIsWhitelistedFromUrlRegistry(serverName, method, fullUrl);
             if (currentWhitelistStatus == null) {
                 return;
@@ -80,23 +110,79 @@ public class WhitelistManager {
                                  " (既に安全判定済み、変更なし, IP: " + clientIp + ")");
                 return;
             }
-            Map<String, Object> whitelistSettings = DbService.selectWhitelistSettings();
-            if (whitelistSettings != null) {
-                boolean whitelistMode = Boolean.TRUE.equals(whitelistSettings.get("whitelist_mode"));
-                String whitelistIp = (String) whitelistSettings.get("whitelist_ip");
-                if (whitelistMode && whitelistIp != null && whitelistIp.equals(clientIp)) {
-                    int affected = DbService.updateUrlWhitelistStatus(serverName, method, fullUrl);
-                    if (affected > 0) {
-                        AppLogger.info("再アクセス時URL安全判定: " + serverName + " - " + method + " " + fullUrl +
-                                         " → safe (安全IPからアクセス: " + clientIp + ")");
-                    }
-                } else {
-                    AppLogger.debug("再アクセス時URL状態確認: " + serverName + " - " + method + " " + fullUrl +
-                                     " (unsafe維持: whitelist_mode=" + whitelistMode + ", IP: " + clientIp + ")");
-                }
+            int affected = DbService.updateUrlWhitelistStatus(serverName, method, fullUrl);
+            if (affected > 0) {
+                AppLogger.info("再アクセス時URL安全判定: " + serverName + " - " + method + " " + fullUrl +
+                                 " → safe (安全IPからアクセス: " + clientIp + ")");
             }
         } catch (Exception e) {
             AppLogger.error("Error in URL whitelist status check on access: " + e.getMessage());
         }
     }
+
+    /**
+     * 現在のスナップショットを取得（設定バージョンの変化・一定時間経過時は読み直す）
+     * @return スナップショット
+     * @throws Exception 初回の読み込みに失敗した場合
+     */
+    private Snapshot current() throws Exception {
+        long now = System.currentTimeMillis();
+        long version = DbService.getWhitelistSettingsVersion();
+        Snapshot current = snapshot;
+        if (isFresh(current, version, now)) {
+            return current;
+        }
+        synchronized (loadLock) {
+            current = snapshot;
+            if (isFresh(current, version, now)) {
+                return current;
+            }
+            try {
+                Snapshot loaded = load(version, now, current);
+                snapshot = loaded;
+                return loaded;
+            } catch (Exception e) {
+                if (current == null) {
+                    throw e;
+                }
+                // 読み込みに失敗した場合は前回の設定を使い続け、次の間隔で再試行する
+                AppLogger.warn("ホワイトリスト設定の再読み込みに失敗しました（前回の設定を継続）: " + e.getMessage());
+                snapshot = new Snapshot(version, now, current.whitelistMode(), current.source(), current.prefixes());
+                return snapshot;
+            }
+        }
+    }
+
+    private static boolean isFresh(Snapshot snapshot, long version, long now) {
+        return snapshot != null && snapshot.version() == version && now - snapshot.loadedAtMillis() < REFRESH_INTERVAL_MS;
+    }
+
+    /**
+     * 設定を読み込み、whitelist_ip が前回と異なる場合のみトライを構築し直す
+     * @param version 読み込み前に取得した設定バージョン（読み込み中の更新は次回の判定で読み直す）
+     * @param now 現在時刻
+     * @param previous 前回のスナップショット（なければnull）
+     * @return スナップショット
+     * @throws Exception 読み込みエラー
+     */
+    private static Snapshot load(long version, long now, Snapshot previous) throws Exception {
+        Map<String, Object> whitelistSettings = DbService.selectWhitelistSettings();
+        boolean whitelistMode = whitelistSettings != null && Boolean.TRUE.equals(whitelistSettings.get("whitelist_mode"));
+        Object rawIp = whitelistSettings != null ? whitelistSettings.get("whitelist_ip") : null;
+        String whitelistIp = rawIp != null ? rawIp.toString() : "";
+        if (previous != null && previous.source().equals(whitelistIp)) {
+            return new Snapshot(version, now, whitelistMode, whitelistIp, previous.prefixes());
+        }
+        IpPrefixTrie.Builder<Boolean> builder = IpPrefixTrie.builder();
+        for (String entry : whitelistIp.split(",")) {
+            String trimmed = entry.trim();
+            if (!trimmed.isEmpty() && !builder.add(trimmed, Boolean.TRUE)) {
+                AppLogger.warn("ホワイトリストIPとして解釈できない値を無視しました: " + trimmed);
+            }
+        }
+        IpPrefixTrie<Boolean> prefixes = builder.build();
+        AppLogger.debug("ホワイトリスト設定を読み込みました: モード=" + whitelistMode + ", 登録数=" + prefixes.size()
+            + " (バージョン " + version + ")");
+        return new Snapshot(version, now, whitelistMode, whitelistIp, prefixes);
+    }
 }
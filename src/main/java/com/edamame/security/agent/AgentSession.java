@@ -6,13 +6,18 @@ import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.Set;
 
 /**
  * エージェントセッション管理クラス
  * 個々のエージェント接続を管理し、通信状態を追跡する
  *
+ * v1.1.0: 機能ネゴシエーションで合意した機能（capabilities）を保持
+ * v1.2.0: シーケンス番号付き応答（sendSequencedResponse）を追加
+ * v1.3.0: 制御接続として同じエージェントのデータ接続に紐づける（attachAsControl）
+ *
  * @author Edamame Team
- * @version 1.0.0
+ * @version 1.3.0
  */
 public class AgentSession {
 
@@ -23,6 +28,8 @@ public class AgentSession {
     private String registrationId;
     private LocalDateTime lastActivity;
     private volatile boolean active;
+    private volatile Set<String> capabilities = Set.of();
+    private volatile AgentSession dataSession; // 制御接続の場合、紐づけたデータ接続のセッション
 
     /**
      * コンストラクタ
@@ -51,6 +58,25 @@ public class AgentSession {
         return agentName;
     }
 
+    /**
+     * ネゴシエーションで合意した機能を設定
+     *
+     * @param capabilities 合意した機能名
+     */
+    public void setCapabilities(Set<String> capabilities) {
+        this.capabilities = Set.copyOf(capabilities);
+    }
+
+    /**
+     * 指定機能が合意済みか
+     *
+     * @param capability 機能名
+     * @return 合意済みであればtrue
+     */
+    public boolean supports(String capability) {
+        return capabilities.contains(capability);
+    }
+
     /**
      * 登録IDを取得
      *
@@ -69,6 +95,25 @@ public class AgentSession {
         this.registrationId = registrationId;
     }
 
+    /**
+     * 制御接続としてデータ接続の登録に紐づける
+     *
+     * @param dataSession 同じエージェントのデータ接続のセッション（登録済み）
+     */
+    public void attachAsControl(AgentSession dataSession) {
+        this.registrationId = dataSession.getRegistrationId();
+        this.dataSession = dataSession;
+    }
+
+    /**
+     * 制御接続の紐づけ先のデータ接続セッションを取得
+     *
+     * @return データ接続のセッション（制御接続でなければnull）
+     */
+    public AgentSession getDataSession() {
+        return dataSession;
+    }
+
     /**
      * 最終アクティビティ時刻を取得
      *
@@ -131,6 +176,36 @@ public class AgentSession {
         }
     }
 
+    /**
+     * シーケンス番号付きの応答を送信（形式: [byte レスポンスコード][int 長さ][long シーケンス番号][UTF-8 メッセージ]）
+     *
+     * @param responseCode レスポンスコード
+     * @param sequence 応答対象バッチのシーケンス番号（解釈できない場合は -1）
+     * @param message メッセージ
+     * @throws IOException 送信エラー
+     */
+    public synchronized void sendSequencedResponse(byte responseCode, long sequence, String message) throws IOException {
+        if (!isActive()) {
+            throw new IOException("Session is not active");
+        }
+
+        try {
+            byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+
+            output.writeByte(responseCode);
+            output.writeInt(Long.BYTES + messageBytes.length);
+            output.writeLong(sequence);
+            output.write(messageBytes);
+            output.flush();
+
+            updateLastActivity();
+
+        } catch (IOException e) {
+            active = false;
+            throw e;
+        }
+    }
+
     /**
      * セッションを閉じる
      */
@@ -169,7 +244,7 @@ public class AgentSession {
      */
     @Override
     public String toString() {
-        return String.format("AgentSession[name=%s, registrationId=%s, active=%s, lastActivity=%s]",
-                agentName, registrationId, active, lastActivity);
+        return String.format("AgentSession[name=%s, registrationId=%s, control=%s, active=%s, lastActivity=%s]",
+                agentName, registrationId, dataSession != null, active, lastActivity);
     }
 }
@@ -16,10 +16,17 @@ import java.util.concurrent.*;
 import com.edamame.security.tools.AppLogger;
 import java.nio.charset.StandardCharsets;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.Locale;
 import com.edamame.security.tools.UrlCodec;
 import java.sql.Timestamp;
 import com.edamame.security.suppression.UrlSuppressionManager;
+import com.edamame.security.db.AccessRollupBatch;
+import com.edamame.security.db.DbRegistry;
+import com.edamame.security.db.DbService;
+import com.edamame.security.db.IngestWriter;
+import java.nio.ByteBuffer;
+import java.util.zip.InflaterInputStream;
 
 /**
  * エージェントTCP通信サーバー
@@ -27,23 +34,56 @@ import com.edamame.security.suppression.UrlSuppressionManager;
  * カスタムバイナリプロトコルで通信を行う
  * v2.0.0: DbService/DbSessionパターンに完全移行
  * v3.0.0: ModSecurityキュー管理をNginxLogToMysqlに移行
+ * v3.1.0: 取込バッチ単位で時間別ロールアップ（access_stats_hourly等）を更新
+ * v3.2.0: 取込時の書き込みをIngestWriter（グループコミット）経由に変更
+ * v3.3.0: 機能ネゴシエーションとdeflate圧縮ログバッチの受信に対応
+ * v3.4.0: バイナリ形式（v2）ログバッチの受信に対応
+ * v3.5.0: シーケンス番号付きバッチ（パイプライン送信）の受信とシーケンス番号付き応答に対応
+ * v3.6.0: エージェントごとの取込済み位置による再送ログの重複排除
+ * v3.7.0: ログバッチ応答での取込キュー混雑度（バックプレッシャー）通知と、ハートビートの転送状況の記録
+ * v3.8.0: ハートビート・ブロック要求用の制御接続（control-channel）に対応し、セッションを接続ごとに管理
+ * v3.9.0: バージョン付きブロックリストの差分同期（MSG_TYPE_BLOCK_SYNC）と制御接続への変更プッシュに対応
+ * v3.9.1: 既存URLのホワイトリスト再評価を1行につき1回（URL登録処理内）に整理
+ * v3.10.0: エッジフィルタ（エージェント側で破棄するリクエストの条件）の同期・プッシュと、ハートビートで報告された破棄件数の記録に対応
+ * v3.11.0: エージェントの事前分類（attack-tags）に対応し、攻撃パターンのバージョンが一致する新規URLは分類結果をそのまま採用
+ * v3.12.0: 集約バッチ（traffic-aggregate）に対応し、正常な既知のリクエストの件数を分×URL別の集計と時間別ロールアップへ加算
+ * v3.13.0: 取込の過負荷時は正常なリクエストの access_log 保存を間引き（IngestSampler）、保存した行に間引き率を記録
+ * v3.14.0: バッチを優先レーン（ModSecurityのエラーログ行・攻撃パターンに一致する行）と通常レーンに分け、優先レーンを先に関連付け・判定・アクション評価してIngestWriterの優先レーンで保存
+ * v3.14.1: 取込済み位置はaccess_logのコミット完了後に、失敗した行より前の位置までだけ保存し、保存に失敗した行があるバッチはエラー応答
+ * v3.14.2: ブロックリストの初回読み込みを接続の受け付け前に同期的に実行
+ * v3.14.3: 集約バッチの取込済み位置も集計のコミット完了後に保存し、保存に失敗した集計があればエラー応答
+ * v3.14.4: レーンの判定で攻撃パターンにより分類した結果を攻撃パターン識別で再利用（同じURLを2回照合しない）
+ * v3.14.5: 保存要求の投入前に例外で失敗した行も保存に失敗した行として扱い、取込済み位置がその行を越えないよう修正
+ * v3.14.6: 間引いた行の送信元IPを時間別ロールアップのユニークIPスケッチへ加える（過負荷時のユニークIP数の過少計上を防止）
  *
  * @author Edamame Team
- * @version 3.0.0
+ * @version 3.14.6
  */
 public class AgentTcpServer {
 
     // TCP通信設定
     private static final int DEFAULT_PORT = 2591;
-    private static final int THREAD_POOL_SIZE = 10;
+    private static final int THREAD_POOL_SIZE = 20; // 1接続1スレッド（制御接続に対応したエージェントは2接続）
     private static final int SOCKET_TIMEOUT = 300000; // 5分間（ミリ秒）
+    private static final long WRITE_COMMIT_TIMEOUT_SECONDS = 30; // グループコミット完了待ちの上限
+    private static final Set<String> SUPPORTED_CAPABILITIES = Set.of(
+        CAPABILITY_DEFLATE_BATCH, CAPABILITY_BINARY_BATCH_V2, CAPABILITY_PIPELINED_BATCH, CAPABILITY_INGEST_BACKPRESSURE,
+        CAPABILITY_CONTROL_CHANNEL, CAPABILITY_BLOCK_LIST_SYNC, CAPABILITY_EDGE_FILTER, CAPABILITY_ATTACK_TAGS,
+        CAPABILITY_TRAFFIC_AGGREGATE);
+    /** 攻撃パターンのYAML（本体、オーバーライド） */
+    private static final String[] ATTACK_PATTERN_PATHS = {
+        "/app/config/attack_patterns.yaml", "/app/config/attack_patterns_override.yaml" };
 
     private final int port;
     private final ObjectMapper objectMapper;
     private final ExecutorService threadPool;
-    private final Map<String, AgentSession> activeSessions;
+    private final Map<String, AgentSession> activeSessions; // 接続ごと（エージェント名@接続元アドレス）
     private final ActionEngine actionEngine;
     private final WhitelistManager whitelistManager;
+    private final IngestWatermarks ingestWatermarks = new IngestWatermarks();
+    private final IngestSampler ingestSampler = new IngestSampler(DbService::getIngestBackpressurePercent, DbService::getIngestLastFlushMillis);
+    private final BlockListPublisher blockListPublisher = new BlockListPublisher();
+    private final EdgeFilterPublisher edgeFilterPublisher = new EdgeFilterPublisher(ATTACK_PATTERN_PATHS);
 
     // ModSecurityアラートキュー（外部から注入）
     private final ModSecurityQueue modSecurityQueue;
@@ -93,12 +133,18 @@ public class AgentTcpServer {
             return;
         }
 
+        // block_ip の初回読み込み（接続の受け付け前に同期的に行う）と変更時の差分プッシュ
+        blockListPublisher.start();
+
         serverSocket = new ServerSocket(port);
         serverSocket.setReuseAddress(true);
         running = true;
 
         AppLogger.info("Agent TCP Server started on port " + port);
 
+        // エージェント側で破棄するリクエストの条件（URL抑止ルール変更時のプッシュ）
+        edgeFilterPublisher.start();
+
         // 接続受付スレッド
         Thread acceptThread = new Thread(this::acceptConnections, "AgentTcpAcceptor");
         acceptThread.setDaemon(true);
@@ -226,9 +272,9 @@ public class AgentTcpServer {
                 return;
             }
 
-            // セッション作成
+            // セッション作成（同じエージェントのデータ接続と制御接続、再接続前後の接続が共存するため接続ごとに管理）
             session = new AgentSession(agentName, clientSocket, input, output);
-            activeSessions.put(agentName, session);
+            activeSessions.put(agentName + "@" + clientAddress, session);
 
             AppLogger.info("Agent authenticated: " + agentName + " from " + clientAddress);
 
@@ -267,7 +313,9 @@ public class AgentTcpServer {
         } finally {
             // セッションをクリーンアップ
             if (session != null) {
-                activeSessions.remove(session.getAgentName());
+                activeSessions.remove(session.getAgentName() + "@" + clientAddress, session);
+                blockListPublisher.unsubscribe(session);
+                edgeFilterPublisher.unsubscribe(session);
                 session.close();
             }
 
@@ -420,7 +468,18 @@ public class AgentTcpServer {
                     handleServerRegistration(session, data);
                     break;
                 case MSG_TYPE_LOG_BATCH:
-                    handleLogBatch(session, data);
+                case MSG_TYPE_LOG_BATCH_DEFLATE:
+                case MSG_TYPE_LOG_BATCH_BINARY:
+                    handleLogBatchMessage(session, messageType, data);
+                    break;
+                case MSG_TYPE_SEQUENCED_BATCH:
+                    handleSequencedBatch(session, data);
+                    break;
+                case MSG_TYPE_CAPABILITIES:
+                    handleCapabilities(session, data);
+                    break;
+                case MSG_TYPE_CONTROL_ATTACH:
+                    handleControlAttach(session, data);
                     break;
                 case MSG_TYPE_HEARTBEAT:
                     handleHeartbeat(session, data);
@@ -428,6 +487,12 @@ public class AgentTcpServer {
                 case MSG_TYPE_BLOCK_REQUEST:
                     handleBlockRequest(session, data);
                     break;
+                case MSG_TYPE_BLOCK_SYNC:
+                    handleBlockListSync(session, data);
+                    break;
+                case MSG_TYPE_EDGE_FILTER_SYNC:
+                    handleEdgeFilterSync(session, data);
+                    break;
                 case MSG_TYPE_UNREGISTER:
                     handleServerUnregistration(session, data);
                     break;
@@ -580,12 +645,27 @@ public class AgentTcpServer {
                 // ハートビートデータをログ出力（デバッグ用）
                 String agentName = (String) heartbeatData.get("agentName");
                 AppLogger.debug("Heartbeat received from: " + agentName + " (JSON format)");
+                if (heartbeatData.get("flowControl") instanceof Map<?, ?> flowControl) {
+                    // エージェントの未送信量（lagBytes）と適応的に選んだバッチサイズ・収集間隔
+                    AppLogger.debug("Agent flow control from " + agentName + ": " + flowControl);
+                }
+                if (heartbeatData.get("edgeFilter") instanceof Map<?, ?> edgeFilter
+                        && edgeFilter.get("drops") instanceof Map<?, ?> drops) {
+                    // 前回のハートビート以降にエージェント側で破棄した件数（ルールごと）
+                    edgeFilterPublisher.recordDrops(session.getAgentName(), drops);
+                }
 
             } catch (Exception e) {
                 // JSON解析に失敗した場合もハートビートとして処理を続行
                 AppLogger.debug("Heartbeat data parsing failed, but processing continues: " + e.getMessage());
             }
 
+            // 制御接続で受けたハートビートは、ログ送信のない間のデータ接続の生存確認も兼ねる
+            AgentSession dataSession = session.getDataSession();
+            if (dataSession != null) {
+                dataSession.updateLastActivity();
+            }
+
             // DbServiceを使用してハートビート更新
             int updated = updateAgentHeartbeat(registrationId);
 
@@ -602,44 +682,441 @@ public class AgentTcpServer {
     }
 
     /**
-     * ログバッチ処理
+     * 機能ネゴシエーション処理
+     * エージェントが要求した機能（カンマ区切り）のうちサーバーが対応するものを合意し、合意結果を返す
      */
-    private void handleLogBatch(AgentSession session, byte[] data) throws IOException {
-        try {
-            String registrationId = session.getRegistrationId();
-            if (registrationId == null) {
-                session.sendResponse(RESPONSE_ERROR, "Not registered");
+    private void handleCapabilities(AgentSession session, byte[] data) throws IOException {
+        Set<String> accepted = new LinkedHashSet<>();
+        for (String capability : new String(data, StandardCharsets.UTF_8).split(",")) {
+            if (SUPPORTED_CAPABILITIES.contains(capability.trim())) {
+                accepted.add(capability.trim());
+            }
+        }
+        session.setCapabilities(accepted);
+        session.sendResponse(RESPONSE_SUCCESS, String.join(",", accepted));
+        AppLogger.debug("Capabilities negotiated with " + session.getAgentName() + ": " + accepted);
+    }
+
+    /**
+     * 制御接続の登録処理
+     * 同じエージェント名で認証済み・登録済みのデータ接続のうち、登録IDが一致するものにこの接続を紐づける。
+     * 制御接続はハートビート・ブロック要求専用で、データ接続のログバッチ処理と別スレッドで処理される
+     */
+    private void handleControlAttach(AgentSession session, byte[] data) throws IOException {
+        String registrationId = new String(data, StandardCharsets.UTF_8);
+        for (AgentSession candidate : activeSessions.values()) {
+            if (candidate != session && candidate.getDataSession() == null && candidate.isActive()
+                    && candidate.getAgentName().equals(session.getAgentName())
+                    && registrationId.equals(candidate.getRegistrationId())) {
+                session.attachAsControl(candidate);
+                session.sendResponse(RESPONSE_SUCCESS, "Control channel attached");
+                AppLogger.debug("Control channel attached for " + session.getAgentName() + " (registration: " + registrationId + ")");
                 return;
             }
+        }
+        AppLogger.warn("Control channel attach rejected for " + session.getAgentName() + ": no data session with registration " + registrationId);
+        session.sendResponse(RESPONSE_ERROR, "Registration not found");
+    }
 
-            // ログバッチデータ（JSON）を解析
-            String jsonData = new String(data, StandardCharsets.UTF_8);
-            Map<String, Object> logBatch = objectMapper.readValue(jsonData, new TypeReference<>() {});
-            
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> logs = (List<Map<String, Object>>) logBatch.get("logs");
+    /**
+     * ログバッチの処理結果（応答コードとメッセージ）
+     */
+    private record BatchResult(byte code, String message) {
+        static BatchResult error(String message) {
+            return new BatchResult(RESPONSE_ERROR, message);
+        }
+    }
 
-            if (logs != null && !logs.isEmpty()) {
-                // processLogEntriesメソッドを呼び出してログ処理を実行
-                int processedCount = processLogEntries(session, logs);
+    /**
+     * ログバッチ処理（形式ごとの処理結果をそのまま応答）
+     */
+    private void handleLogBatchMessage(AgentSession session, byte messageType, byte[] data) throws IOException {
+        BatchResult result = processLogBatchMessage(session, messageType, data, 0);
+        session.sendResponse(result.code(), withBackpressure(session, result.message()));
+    }
 
-                // ログ処理統計を更新
-                if (processedCount > 0) {
-                    updateAgentLogStats(registrationId, processedCount);
-                }
-                
-                session.sendResponse(RESPONSE_SUCCESS, "Processed " + processedCount + " logs");
-                AppLogger.debug("Processed " + processedCount + " logs from agent: " + registrationId);
-            } else {
-                session.sendResponse(RESPONSE_SUCCESS, "No logs to process");
-            }
+    /**
+     * シーケンス番号付きバッチ処理（データ: [long シーケンス番号][byte バッチのメッセージタイプ][バッチのデータ]）
+     * 応答にはシーケンス番号を含め、エージェントは番号で確認応答を照合する
+     */
+    private void handleSequencedBatch(AgentSession session, byte[] data) throws IOException {
+        if (data.length < Long.BYTES + 1) {
+            session.sendSequencedResponse(RESPONSE_ERROR, -1, "Invalid sequenced batch");
+            return;
+        }
+        long sequence = ByteBuffer.wrap(data).getLong();
+        BatchResult result = session.supports(CAPABILITY_PIPELINED_BATCH)
+            ? processLogBatchMessage(session, data[Long.BYTES], data, Long.BYTES + 1)
+            : BatchResult.error("Pipelined batch not negotiated");
+        session.sendSequencedResponse(result.code(), sequence, withBackpressure(session, result.message()));
+    }
+
+    /**
+     * ingest-backpressure 合意済みのエージェントへの応答メッセージに取込キュー使用率（0〜100）を付与
+     * エージェントは値に応じてバッチサイズと収集間隔を調整する
+     */
+    private String withBackpressure(AgentSession session, String message) {
+        if (!session.supports(CAPABILITY_INGEST_BACKPRESSURE)) {
+            return message;
+        }
+        return message + BACKPRESSURE_RESPONSE_MARKER + getIngestBackpressurePercent();
+    }
 
+    /**
+     * メッセージタイプに応じてログバッチをデコード・処理
+     *
+     * @param offset data 内のバッチデータの開始位置
+     */
+    private BatchResult processLogBatchMessage(AgentSession session, byte messageType, byte[] data, int offset) {
+        try {
+            return switch (messageType) {
+                case MSG_TYPE_LOG_BATCH -> processJsonLogBatch(session, new ByteArrayInputStream(data, offset, data.length - offset));
+                case MSG_TYPE_LOG_BATCH_DEFLATE -> processDeflateLogBatch(session, data, offset);
+                case MSG_TYPE_LOG_BATCH_BINARY -> processBinaryLogBatch(session, data, offset);
+                case MSG_TYPE_AGGREGATED_BATCH -> processAggregatedBatch(session, data, offset);
+                default -> BatchResult.error("Unknown batch type");
+            };
         } catch (Exception e) {
             AppLogger.error("Log batch processing error: " + e.getMessage());
-            session.sendResponse(RESPONSE_ERROR, "Log processing failed");
+            return BatchResult.error("Log processing failed");
+        }
+    }
+
+    /**
+     * deflate圧縮ログバッチ処理（データ: [int 展開後サイズ][deflate圧縮JSON]）
+     * 展開後のJSONは一括でバイト配列化せず、ストリームのままJSONパーサーへ渡す
+     */
+    private BatchResult processDeflateLogBatch(AgentSession session, byte[] data, int offset) throws IOException {
+        if (!session.supports(CAPABILITY_DEFLATE_BATCH) || data.length - offset < Integer.BYTES) {
+            return BatchResult.error("Compressed batch not negotiated");
+        }
+        InputStream inflated = openInflatedStream(session, data, offset);
+        if (inflated == null) {
+            return BatchResult.error("Compressed batch too large");
+        }
+        return processJsonLogBatch(session, inflated);
+    }
+
+    /**
+     * バイナリ形式ログバッチ処理（データ: [byte 形式バージョン][byte エンコーディング][本体]）
+     */
+    private BatchResult processBinaryLogBatch(AgentSession session, byte[] data, int offset) throws IOException {
+        if (!session.supports(CAPABILITY_BINARY_BATCH_V2) || data.length - offset < 2) {
+            return BatchResult.error("Binary batch not negotiated");
+        }
+        if (data[offset] != BINARY_BATCH_FORMAT_V2) {
+            AppLogger.warn("Unsupported binary batch format " + data[offset] + " from " + session.getAgentName());
+            return BatchResult.error("Unsupported batch format");
+        }
+
+        int bodyOffset = offset + 2;
+        InputStream body;
+        switch (data[offset + 1]) {
+            case BATCH_ENCODING_RAW -> body = new ByteArrayInputStream(data, bodyOffset, data.length - bodyOffset);
+            case BATCH_ENCODING_DEFLATE -> {
+                if (!session.supports(CAPABILITY_DEFLATE_BATCH) || data.length - bodyOffset < Integer.BYTES) {
+                    return BatchResult.error("Compressed batch not negotiated");
+                }
+                body = openInflatedStream(session, data, bodyOffset);
+                if (body == null) {
+                    return BatchResult.error("Compressed batch too large");
+                }
+            }
+            default -> {
+                return BatchResult.error("Unsupported batch encoding");
+            }
+        }
+        InputStream binaryStream = body;
+        return processLogBatch(session, () -> BinaryLogBatchDecoder.decode(binaryStream));
+    }
+
+    /**
+     * 集約バッチ処理（データ: [byte 全行のバッチのメッセージタイプ（0 は全行なし）][int 集計JSONの長さ][集計JSON][全行のバッチのデータ]）
+     * 全行のバッチを通常のバッチと同様に処理した後、集計（正常な既知のリクエストの件数）を加算する。
+     * 全行のバッチが失敗した場合は集計を加算せずにエラー応答し、エージェントはバッチ全体を再送する
+     */
+    private BatchResult processAggregatedBatch(AgentSession session, byte[] data, int offset) throws IOException {
+        if (!session.supports(CAPABILITY_TRAFFIC_AGGREGATE) || data.length - offset < 1 + Integer.BYTES) {
+            return BatchResult.error("Aggregated batch not negotiated");
+        }
+        if (session.getRegistrationId() == null) {
+            return BatchResult.error("Not registered");
+        }
+        byte innerType = data[offset];
+        int aggregateOffset = offset + 1 + Integer.BYTES;
+        int aggregateLength = ByteBuffer.wrap(data, offset + 1, Integer.BYTES).getInt();
+        if (aggregateLength < 0 || aggregateLength > data.length - aggregateOffset || innerType == MSG_TYPE_AGGREGATED_BATCH) {
+            return BatchResult.error("Invalid aggregated batch");
+        }
+
+        // 集計の重複判定は全行のバッチで進む前の取込済み位置で行う（集計と全行の行末オフセットは交互に並ぶため）
+        Map<String, IngestWatermarks.Watermark> watermarksBefore = ingestWatermarks.snapshot(session.getAgentName());
+        BatchResult inner = new BatchResult(RESPONSE_SUCCESS, "No logs to process");
+        if (innerType != 0) {
+            inner = processLogBatchMessage(session, innerType, data, aggregateOffset + aggregateLength);
+            if (inner.code() != RESPONSE_SUCCESS) {
+                return inner;
+            }
+        }
+
+        Map<String, Object> aggregate = objectMapper.readValue(data, aggregateOffset, aggregateLength, new TypeReference<>() {});
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> records = (List<Map<String, Object>>) aggregate.get("records");
+        AggregateResult result = processTrafficAggregates(session, records, watermarksBefore);
+        if (result.failedCount() > 0) {
+            // 保存に失敗した集計は取込済み位置に含めていないため、再送で加算し直される
+            return BatchResult.error("Failed to store " + result.failedCount() + " aggregate records");
+        }
+        return new BatchResult(RESPONSE_SUCCESS, inner.message() + ", " + result.aggregatedCount() + " logs aggregated");
+    }
+
+    /**
+     * 集約バッチの集計の処理結果
+     *
+     * @param aggregatedCount コミットできた集計の件数の合計
+     * @param failedCount 保存に失敗した集計の数（取込済み位置を進めず、エージェントへエラー応答して再送させる）
+     */
+    private record AggregateResult(int aggregatedCount, int failedCount) {}
+
+    /**
+     * 集約バッチの集計（分×URL×ステータスごとの件数）を加算
+     * 取込済み位置以下の集計は再送として加算しない。件数はaccess_logの行を作らず、access_stats_url_minute と時間別ロールアップにのみ反映する。
+     * 取込済み位置は集計のコミット完了後に保存する。保存に失敗した集計があるソースパスは、その集計の行末オフセットの手前までとし、
+     * 全行のバッチで先に進んだ位置も巻き戻す（再送で失敗した集計が重複として破棄されないため。後続の行・集計は重複し得る）
+     *
+     * @param records 集計（serverName, sourcePath, method, url, statusCode, minute, count, bytes, ips, streamId, endOffset）
+     * @param watermarksBefore 全行のバッチを処理する前の取込済み位置（読み込めない場合はnull）
+     * @return コミットできた集計の件数の合計と保存に失敗した集計の数
+     */
+    private AggregateResult processTrafficAggregates(AgentSession session, List<Map<String, Object>> records,
+                                                     Map<String, IngestWatermarks.Watermark> watermarksBefore) {
+        if (records == null || records.isEmpty()) {
+            return new AggregateResult(0, 0);
+        }
+        Map<String, IngestWatermarks.Watermark> watermarks = ingestWatermarks.forAgent(session.getAgentName());
+        Map<Map<String, Object>, IngestWatermarks.Watermark> recordPositions = new IdentityHashMap<>();
+        Set<String> servers = new HashSet<>();
+        Map<Map<String, Object>, CompletableFuture<Void>> writes = new IdentityHashMap<>();
+        long duplicateCount = 0;
+
+        for (Map<String, Object> record : records) {
+            try {
+                String serverName = (String) record.get("serverName");
+                String sourcePath = (String) record.get("sourcePath");
+                String method = (String) record.get("method");
+                String url = (String) record.get("url");
+                if (serverName == null || sourcePath == null || method == null || url == null
+                        || !(record.get("count") instanceof Number count) || count.longValue() <= 0) {
+                    continue;
+                }
+
+                IngestWatermarks.Watermark position = IngestWatermarks.positionOf(record);
+                if (position != null) {
+                    IngestWatermarks.Watermark watermark = watermarksBefore != null ? watermarksBefore.get(sourcePath) : null;
+                    if (watermark != null && watermark.covers(position)) {
+                        duplicateCount += count.longValue();
+                        continue;
+                    }
+                    if (watermarks != null) {
+                        recordPositions.put(record, position);
+                    }
+                }
+
+                // エージェントのエッジフィルタと同期前に変更された破棄条件はサーバー側でも判定する
+                String fullUrl = UrlCodec.decode(url);
+                if (isIgnorableRequest(fullUrl) || UrlSuppressionManager.shouldSuppress(serverName, fullUrl)) {
+                    continue;
+                }
+
+                List<String> ipAddresses = new ArrayList<>();
+                if (record.get("ips") instanceof List<?> ips) {
+                    for (Object ip : ips) {
+                        if (ip instanceof String address) {
+                            ipAddresses.add(address);
+                        }
+                    }
+                }
+                int statusCode = record.get("statusCode") instanceof Number status ? status.intValue() : 0;
+                long responseBytes = record.get("bytes") instanceof Number bytes ? bytes.longValue() : 0L;
+                LocalDateTime minuteStart = parseNginxTimestamp((String) record.get("minute")).withSecond(0).withNano(0);
+
+                writes.put(record, submitIngestWrite(new IngestWriter.AccessAggregateWrite(serverName, method, fullUrl, minuteStart,
+                    statusCode, count.longValue(), responseBytes, ipAddresses)));
+                if (servers.add(serverName)) {
+                    submitIngestWrite(new IngestWriter.ServerLastLogReceivedWrite(serverName));
+                }
+            } catch (Exception e) {
+                AppLogger.warn("Error processing traffic aggregate from " + session.getAgentName() + ": " + e.getMessage());
+                AppLogger.debug("Failed aggregate data: " + record);
+            }
+        }
+
+        if (duplicateCount > 0) {
+            AppLogger.info("Skipped " + duplicateCount + " already ingested aggregated log entries from " + session.getAgentName());
+        }
+
+        // グループコミットの完了を待ち、コミットできた件数を集計件数とする（待てなかった集計は失敗として扱う）
+        Set<Map<String, Object>> failedRecords = Collections.newSetFromMap(new IdentityHashMap<>());
+        long aggregatedCount = 0;
+        boolean interrupted = false;
+        for (Map.Entry<Map<String, Object>, CompletableFuture<Void>> write : writes.entrySet()) {
+            if (interrupted) {
+                failedRecords.add(write.getKey());
+                continue;
+            }
+            try {
+                write.getValue().get(WRITE_COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                aggregatedCount += ((Number) write.getKey().get("count")).longValue();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                interrupted = true;
+                failedRecords.add(write.getKey());
+            } catch (Exception e) {
+                AppLogger.error("集約アクセスの保存失敗: " + e.getMessage());
+                failedRecords.add(write.getKey());
+            }
+        }
+
+        // 取込済み位置は集計のコミット完了後に保存する。集計は行末オフセットの順に並ばないため、
+        // 失敗した集計のうち最も前の位置より手前の、コミットできた集計の位置までとする
+        if (!recordPositions.isEmpty()) {
+            Map<String, IngestWatermarks.Watermark> firstFailed = new HashMap<>();
+            for (Map<String, Object> record : failedRecords) {
+                IngestWatermarks.Watermark position = recordPositions.get(record);
+                if (position != null) {
+                    firstFailed.merge((String) record.get("sourcePath"), position, AgentTcpServer::earlier);
+                }
+            }
+            Map<String, IngestWatermarks.Watermark> batchPositions = new HashMap<>();
+            for (Map<String, Object> record : records) {
+                IngestWatermarks.Watermark position = recordPositions.get(record);
+                if (position == null || failedRecords.contains(record)) {
+                    continue;
+                }
+                String sourcePath = (String) record.get("sourcePath");
+                IngestWatermarks.Watermark current = watermarks.get(sourcePath);
+                IngestWatermarks.Watermark failed = firstFailed.get(sourcePath);
+                // 全行のバッチで進んだ位置より前の集計の位置は反映しない（集計と全行の行末オフセットは交互に並ぶ）
+                if ((current == null || !current.covers(position)) && (failed == null || !position.covers(failed))) {
+                    batchPositions.merge(sourcePath, position, IngestWatermarks.Watermark::later);
+                }
+            }
+            for (Map.Entry<String, IngestWatermarks.Watermark> entry : firstFailed.entrySet()) {
+                IngestWatermarks.Watermark failed = entry.getValue();
+                IngestWatermarks.Watermark current = watermarks.get(entry.getKey());
+                if (current != null && current.covers(failed)) {
+                    // 全行のバッチで失敗した集計より先へ進んでいる: 失敗した集計の直前まで巻き戻す
+                    batchPositions.put(entry.getKey(), new IngestWatermarks.Watermark(failed.streamId(), failed.endOffset() - 1));
+                }
+            }
+            if (!batchPositions.isEmpty()) {
+                ingestWatermarks.commit(session.getAgentName(), watermarks, batchPositions);
+            }
+        }
+
+        if (aggregatedCount > 0) {
+            submitIngestWrite(new IngestWriter.AgentLogStatsWrite(session.getRegistrationId(), (int) aggregatedCount));
+        }
+        if (!failedRecords.isEmpty()) {
+            AppLogger.warn("Failed to store " + failedRecords.size() + " of " + writes.size() + " aggregate records from " + session.getAgentName());
+        }
+        AppLogger.debug("Aggregated " + aggregatedCount + " log entries (" + writes.size() + " records) from " + session.getAgentName());
+        return new AggregateResult((int) aggregatedCount, failedRecords.size());
+    }
+
+    /**
+     * 同じソースパスの2つの位置のうち前のもの（ストリームが異なる場合は先に見つかった方）
+     */
+    private static IngestWatermarks.Watermark earlier(IngestWatermarks.Watermark current, IngestWatermarks.Watermark next) {
+        return current.streamId().equals(next.streamId()) && next.endOffset() < current.endOffset() ? next : current;
+    }
+
+    /**
+     * [int 展開後サイズ][deflate圧縮データ] を展開するストリームを作成
+     *
+     * @return 展開ストリーム（展開後サイズが上限を超える場合はnull）
+     */
+    private InputStream openInflatedStream(AgentSession session, byte[] data, int offset) {
+        int inflatedSize = ByteBuffer.wrap(data, offset, Integer.BYTES).getInt();
+        if (inflatedSize < 0 || inflatedSize > MAX_INFLATED_SIZE) {
+            AppLogger.warn("Compressed batch too large from " + session.getAgentName() + ": " + inflatedSize + " bytes");
+            return null;
+        }
+        int start = offset + Integer.BYTES;
+        InputStream compressed = new ByteArrayInputStream(data, start, data.length - start);
+        return new BufferedInputStream(new BoundedInputStream(new InflaterInputStream(compressed), inflatedSize));
+    }
+
+    /**
+     * JSON形式ログバッチ処理（非圧縮・圧縮バッチ共通）
+     */
+    private BatchResult processJsonLogBatch(AgentSession session, InputStream jsonStream) throws IOException {
+        return processLogBatch(session, () -> {
+            Map<String, Object> logBatch = objectMapper.readValue(jsonStream, new TypeReference<>() {});
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> logs = (List<Map<String, Object>>) logBatch.get("logs");
+            return logs;
+        });
+    }
+
+    /**
+     * ログバッチのデコード処理（形式ごとの実装を processLogBatch へ渡す）
+     */
+    @FunctionalInterface
+    private interface LogBatchReader {
+        List<Map<String, Object>> read() throws IOException;
+    }
+
+    /**
+     * ログバッチ処理（全形式共通）
+     */
+    private BatchResult processLogBatch(AgentSession session, LogBatchReader reader) throws IOException {
+        String registrationId = session.getRegistrationId();
+        if (registrationId == null) {
+            return BatchResult.error("Not registered");
+        }
+
+        // ログバッチデータを解析
+        List<Map<String, Object>> logs = reader.read();
+        if (logs == null || logs.isEmpty()) {
+            return new BatchResult(RESPONSE_SUCCESS, "No logs to process");
+        }
+
+        // processLogEntriesメソッドを呼び出してログ処理を実行
+        IngestResult result = processLogEntries(session, logs);
+        int processedCount = result.processedCount();
+
+        // ログ処理統計を更新（IngestWriterでエージェントごとに集約）
+        if (processedCount + result.sampledOutCount() > 0) {
+            submitIngestWrite(new IngestWriter.AgentLogStatsWrite(registrationId, processedCount + result.sampledOutCount()));
+        }
+
+        if (result.failedCount() > 0) {
+            // 保存に失敗した行は取込済み位置に含めていないため、再送で取込み直される
+            AppLogger.warn("Failed to store " + result.failedCount() + " of " + logs.size() + " logs from agent: " + registrationId);
+            return BatchResult.error("Failed to store " + result.failedCount() + " logs");
+        }
+        if (result.duplicateCount() == logs.size()) {
+            // 取込済みバッチの再送: 書き込みを行わずに成功応答
+            AppLogger.debug("Duplicate batch from agent: " + registrationId + " (" + logs.size() + " logs already processed)");
+            return new BatchResult(RESPONSE_SUCCESS, "Duplicate batch: " + logs.size() + " logs already processed");
         }
+        AppLogger.debug("Processed " + processedCount + " logs from agent: " + registrationId);
+        return new BatchResult(RESPONSE_SUCCESS, "Processed " + processedCount + " logs"
+            + (result.duplicateCount() > 0 ? " (" + result.duplicateCount() + " duplicates skipped)" : "")
+            + (result.sampledOutCount() > 0 ? " (" + result.sampledOutCount() + " sampled out)" : ""));
     }
 
+    /**
+     * ログエントリの処理結果
+     *
+     * @param processedCount access_logへコミットできた件数
+     * @param duplicateCount 取込済み位置以下のため処理しなかった件数
+     * @param sampledOutCount 過負荷による間引きでaccess_logへ保存しなかった件数（判定・アクションは実行済み）
+     * @param failedCount access_logの保存に失敗した件数（取込済み位置を進めず、エージェントへエラー応答して再送させる）
+     */
+    private record IngestResult(int processedCount, int duplicateCount, int sampledOutCount, int failedCount) {}
+
     /**
      * ブロック要求処理
      */
@@ -682,11 +1159,67 @@ public class AgentTcpServer {
         }
     }
 
+    /**
+     * ブロックリストの差分同期（データ: JSON {"version": エージェントが最後に適用したバージョン}）
+     * 応答はそのバージョンより新しい変更（範囲外の場合は全件）。制御接続からの同期は購読として登録し、以降の変更をプッシュする
+     */
+    private void handleBlockListSync(AgentSession session, byte[] data) throws IOException {
+        AgentSession dataSession = session.getDataSession() != null ? session.getDataSession() : session;
+        if (session.getRegistrationId() == null) {
+            session.sendResponse(RESPONSE_ERROR, "Not registered");
+            return;
+        }
+        if (!dataSession.supports(CAPABILITY_BLOCK_LIST_SYNC)) {
+            session.sendResponse(RESPONSE_ERROR, "Block list sync not negotiated");
+            return;
+        }
+        long agentVersion = 0;
+        try {
+            Map<String, Object> request = objectMapper.readValue(data, new TypeReference<Map<String, Object>>() {});
+            if (request.get("version") instanceof Number number) {
+                agentVersion = number.longValue();
+            }
+        } catch (IOException e) {
+            AppLogger.debug("Block list sync request parsing failed (full sync): " + e.getMessage());
+        }
+        blockListPublisher.respondToSync(session, agentVersion, session.getDataSession() != null);
+    }
+
+    /**
+     * エッジフィルタの同期（データ: JSON {"version": エージェントが適用中のバージョン}）
+     * 応答はバージョンが異なる場合に仕様全体。制御接続からの同期は購読として登録し、以降の変更をプッシュする
+     */
+    private void handleEdgeFilterSync(AgentSession session, byte[] data) throws IOException {
+        AgentSession dataSession = session.getDataSession() != null ? session.getDataSession() : session;
+        if (session.getRegistrationId() == null) {
+            session.sendResponse(RESPONSE_ERROR, "Not registered");
+            return;
+        }
+        if (!dataSession.supports(CAPABILITY_EDGE_FILTER)) {
+            session.sendResponse(RESPONSE_ERROR, "Edge filter not negotiated");
+            return;
+        }
+        long agentVersion = 0;
+        try {
+            Map<String, Object> request = objectMapper.readValue(data, new TypeReference<Map<String, Object>>() {});
+            if (request.get("version") instanceof Number number) {
+                agentVersion = number.longValue();
+            }
+        } catch (IOException e) {
+            AppLogger.debug("Edge filter sync request parsing failed (full sync): " + e.getMessage());
+        }
+        edgeFilterPublisher.respondToSync(session, agentVersion, session.getDataSession() != null);
+    }
+
     /**
      * ログエントリを処理（v3.0.0 - ModSecurityキューベース関連付けシステム）
+     * v3.14.0: 優先レーン（ModSecurityのエラーログ行・攻撃パターンに一致する行）を先に処理し、正常な行は後から通常レーンで処理する。
+     * 各レーン内は収集時刻順。優先レーンの access_log は IngestWriter の優先レーンへ投入し、通常レーンの詰まりを待たずにコミットさせる。
      */
-    private int processLogEntries(AgentSession session, List<Map<String, Object>> logs) {
+    private IngestResult processLogEntries(AgentSession session, List<Map<String, Object>> logs) {
         int processedCount = 0;
+        int duplicateCount = 0;
+        int sampledOutCount = 0;
         String registrationId = session.getRegistrationId();
 
         AppLogger.info("Processing " + logs.size() + " log entries from agent: " + session.getAgentName());
@@ -698,19 +1231,67 @@ public class AgentTcpServer {
             return timeA.compareTo(timeB);
         });
 
+        // エージェントの事前分類の採用と優先レーンの判定に使う攻撃パターンの組（読み込めない場合はnull）
+        AttackPattern.CompiledPatternSet attackPatterns = currentAttackPatterns();
+        String attackPatternVersion = attackPatterns != null ? attackPatterns.version() : null;
+
+        // 優先レーン（不審な行）を先頭に、通常レーン（正常な行）を後ろに並べ替える（各レーン内は時系列順のまま）
+        // 判定のために解析した行と攻撃パターンの判定結果は本処理で再利用する
+        Map<Map<String, Object>, Map<String, Object>> preParsed = new IdentityHashMap<>();
+        Map<Map<String, Object>, LaneClassification> laneClassifications = new IdentityHashMap<>();
+        List<Map<String, Object>> priorityLane = new ArrayList<>();
+        List<Map<String, Object>> bulkLane = new ArrayList<>(logs.size());
+        for (Map<String, Object> logData : logs) {
+            (isPriorityEntry(logData, attackPatterns, preParsed, laneClassifications) ? priorityLane : bulkLane).add(logData);
+        }
+        int priorityCount = priorityLane.size();
+        List<Map<String, Object>> lanes = new ArrayList<>(logs.size());
+        lanes.addAll(priorityLane);
+        lanes.addAll(bulkLane);
+        if (priorityCount > 0) {
+            AppLogger.debug("Priority lane: " + priorityCount + " of " + logs.size() + " log entries from " + session.getAgentName());
+        }
+
         // 重複チェック用のSet（同一リクエストの重複処理を防ぐ）
         Set<String> processedRequests = new HashSet<>();
         
         // 処理したサーバー名を記録（重複登録防止）
         Set<String> processedServers = new HashSet<>();
 
-        for (Map<String, Object> logData : logs) {
+        // 取込の負荷に応じた正常なリクエストの間引き率（1は間引きなし）
+        int sampleRate = ingestSampler.adjust();
+        // 間引いた行の送信元IP（サーバー×時間帯ごと。件数は保存した行の間引き率で計上し、IPだけをユニークIPスケッチへ加える）
+        Map<String, Map<LocalDateTime, Set<String>>> sampledOutIps = new HashMap<>();
+
+        // IngestWriterへ投入した行ごとのaccess_log書き込み（バッチ終了時にコミット完了を待つ）
+        Map<Map<String, Object>, CompletableFuture<Void>> accessLogWrites = new IdentityHashMap<>();
+
+        // 再送された行の重複排除用の取込済み位置（読み込めない場合は重複排除しない）と未処理の行の位置
+        Map<String, IngestWatermarks.Watermark> watermarks = ingestWatermarks.forAgent(session.getAgentName());
+        Map<Map<String, Object>, IngestWatermarks.Watermark> linePositions = new IdentityHashMap<>();
+        // 保存に失敗した行（処理中の例外で保存要求を投入できなかった行と、コミットできなかった行）
+        Set<Map<String, Object>> failedLines = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (int i = 0; i < lanes.size(); i++) {
+            Map<String, Object> logData = lanes.get(i);
+            boolean priority = i < priorityCount;
             try {
                 String rawLogLine = (String) logData.get("rawLogLine");
                 String serverName = (String) logData.get("serverName");
                 String sourcePath = (String) logData.get("sourcePath");
                 String collectedAt = (String) logData.get("collectedAt");
 
+                // 取込済み位置以下の行は再送のため処理しない（access_log・ModSecurityキュー・アクションのいずれにも反映しない）
+                IngestWatermarks.Watermark position = watermarks != null ? IngestWatermarks.positionOf(logData) : null;
+                if (position != null && sourcePath != null) {
+                    IngestWatermarks.Watermark watermark = watermarks.get(sourcePath);
+                    if (watermark != null && watermark.covers(position)) {
+                        duplicateCount++;
+                        continue;
+                    }
+                    linePositions.put(logData, position);
+                }
+
                 // エージェントから受け取ったサーバー名をそのまま使用
                 String actualServerName = serverName;
 
@@ -763,14 +1344,27 @@ public class AgentTcpServer {
                         continue;
                     }
                 } else {
-                    // 通常のHTTPリクエスト行の処理（rawLogLineが存在する場合）
-                    parsedLog = LogParser.parseLogLine(rawLogLine);
+                    // 通常のHTTPリクエスト行の処理（rawLogLineが存在する場合。レーンの判定で解析済みならそれを使う）
+                    parsedLog = preParsed.remove(logData);
+                    if (parsedLog == null) {
+                        parsedLog = LogParser.parseLogLine(rawLogLine);
+                    }
                     if (parsedLog == null) {
                         AppLogger.warn("ログ解析失敗: [" + actualServerName + "] " + rawLogLine);
                         continue; // パース失敗時はスキップ
                     }
                 }
 
+                // 同じバージョンの攻撃パターンで事前分類された行はその結果を使う（異なる場合はサーバーで分類し直す）
+                // レーンの判定で同じURLを分類済みの場合もその結果を使う（攻撃パターンの照合を繰り返さない）
+                LaneClassification laneClassification = laneClassifications.remove(logData);
+                if (attackPatternVersion != null && attackPatternVersion.equals(logData.get("attackPatternVersion"))
+                        && logData.get("attackType") instanceof String tagged && !tagged.isBlank()) {
+                    parsedLog.put("preclassified_attack_type", tagged);
+                } else if (laneClassification != null && laneClassification.url().equals(parsedLog.get("full_url"))) {
+                    parsedLog.put("preclassified_attack_type", laneClassification.attackType());
+                }
+
                 // 重複チェック用のキーを生成（時刻を含めて厳密にチェック）
                 String requestKey = generateStrictRequestKey(parsedLog, actualServerName);
                 if (processedRequests.contains(requestKey)) {
@@ -800,77 +1394,120 @@ public class AgentTcpServer {
                 parsedLog.put("collected_at", collectedAt != null ? collectedAt : LocalDateTime.now().toString());
                 parsedLog.put("agent_registration_id", registrationId);
 
-                // 初期状態ではModSecurityブロックはfalse
-                parsedLog.put("blocked_by_modsec", false);
-
-                // DbServiceを使用してaccess_logテーブルに保存
-                Long accessLogId = insertAccessLog(parsedLog);
-                if (accessLogId != null) {
-                    processedCount++;
-                    AppLogger.debug("access_log保存成功: ID=" + accessLogId + " (" + parsedLog.get("method") + " " + parsedLog.get("full_url") + ")");
-
-                    // サーバーのlast_log_received時刻を更新
-                    try {
-                        updateServerLastLogReceived(actualServerName);
-                        AppLogger.debug("サーバー最終ログ受信時刻更新: " + actualServerName);
-                    } catch (Exception e) {
-                        AppLogger.warn("サーバー最終ログ受信時刻更新エラー: " + actualServerName + " - " + e.getMessage());
-                    }
-
-                    // 既存URLの再アクセス時にホワイトリスト状態を再評価
-                    String method = (String) parsedLog.get("method");
-                    String clientIp = (String) parsedLog.get("ip_address");
-
-                    if (actualServerName != null && method != null && fullUrl != null && clientIp != null) {
-                        whitelistManager.updateExistingUrlWhitelistStatusOnAccess(
-                            actualServerName, method, fullUrl, clientIp
-                        );
-                    }
-
-                    // ModSecurityアラートキューから一致するアラートを検索
-                    LocalDateTime accessTime = (LocalDateTime) parsedLog.get("access_time");
+                // ModSecurityアラートキューから一致するアラートを検索（挿入前にブロック判定を確定させる）
+                LocalDateTime accessTime = (LocalDateTime) parsedLog.get("access_time");
 
-                    List<ModSecurityQueue.ModSecurityAlert> matchingAlerts =
-                        modSecurityQueue.findMatchingAlerts(actualServerName, fullUrl, accessTime);
+                List<ModSecurityQueue.ModSecurityAlert> matchingAlerts =
+                    modSecurityQueue.findMatchingAlerts(actualServerName, fullUrl, accessTime);
 
-                    boolean blockedByModSec = !matchingAlerts.isEmpty();
+                boolean blockedByModSec = !matchingAlerts.isEmpty();
+                parsedLog.put("blocked_by_modsec", blockedByModSec);
 
-                    if (blockedByModSec) {
-                        AppLogger.info("ModSecurityアラート一致検出: " + matchingAlerts.size() + "件, access_log ID=" + accessLogId);
+                String method = (String) parsedLog.get("method");
 
-                        // access_logのblocked_by_modsecをtrueに更新
-                        updateAccessLogModSecStatus(accessLogId, true);
+                // 攻撃パターン識別とURL登録（判定結果はaccess_log行にも保持する。既存URLのホワイトリスト再評価もここで行う）
+                DbRegistry.UrlRegistryVerdict verdict = processUrlAndAttackPattern(parsedLog);
+                String attackType = verdict != null ? verdict.attackType() : null;
+                parsedLog.put("verdict_attack_type", attackType);
+                parsedLog.put("threat_key", verdict != null ? verdict.threat().key() : null);
 
-                        // 一致したアラートをmodsec_alertsテーブルに保存
-                        for (ModSecurityQueue.ModSecurityAlert alert : matchingAlerts) {
-                            ModSecHandler.saveModSecurityAlertToDatabase(accessLogId, alert);
-                            AppLogger.debug("ModSecurityアラート保存: access_log ID=" + accessLogId +
-                                          ", ルール=" + alert.ruleId() + ", メッセージ=" + alert.message());
-                        }
-                    } else {
-                        AppLogger.debug("ModSecurityアラート一致なし: " + fullUrl);
+                // 一致したModSecurityアラートはaccess_logと同じフラッシュで採番IDに紐づけて保存
+                List<Map<String, Object>> alertData = new ArrayList<>();
+                if (blockedByModSec) {
+                    AppLogger.info("ModSecurityアラート一致検出: " + matchingAlerts.size() + "件 (" + method + " " + fullUrl + ")");
+                    for (ModSecurityQueue.ModSecurityAlert alert : matchingAlerts) {
+                        alertData.add(ModSecHandler.toAlertData(alert));
+                        AppLogger.debug("ModSecurityアラート保存要求: ルール=" + alert.ruleId() + ", メッセージ=" + alert.message());
                     }
+                } else {
+                    AppLogger.debug("ModSecurityアラート一致なし: " + fullUrl);
+                }
 
-                    // ModSecurity判定結果を最新アクセス情報にも反映
-                    parsedLog.put("blocked_by_modsec", blockedByModSec);
-
-                    // 攻撃パターン識別とURL登録
-                    processUrlAndAttackPattern(parsedLog);
+                // 過負荷時は正常なリクエストを間引き、保存する行にはその行が代表する件数（間引き率）を記録する
+                int statusCode = parsedLog.get("status_code") instanceof Number n ? n.intValue() : 0;
+                int rowRate = IngestSampler.isSuspicious(attackType, blockedByModSec, statusCode) ? 1 : ingestSampler.sample(sampleRate);
+                parsedLog.put("sample_rate", rowRate);
 
-                    // アクション実行エンジンでの脅威対応（ModSecurityブロック状態を確認）
-                    executeSecurityActions(parsedLog, blockedByModSec);
+                // access_log挿入（ブロック状態・攻撃判定を含む）とサーバー最終ログ受信時刻の更新をIngestWriterへ投入
+                if (rowRate > 0) {
+                    IngestWriter.AccessLogWrite accessLogWrite = new IngestWriter.AccessLogWrite(new HashMap<>(parsedLog), alertData);
+                    accessLogWrites.put(logData, priority ? submitPriorityIngestWrite(accessLogWrite) : submitIngestWrite(accessLogWrite));
                 } else {
-                    AppLogger.error("access_log保存失敗: " + parsedLog);
+                    sampledOutCount++;
+                    if (parsedLog.get("ip_address") instanceof String ipAddress && actualServerName != null) {
+                        LocalDateTime hour = (accessTime != null ? accessTime : LocalDateTime.now()).truncatedTo(ChronoUnit.HOURS);
+                        sampledOutIps.computeIfAbsent(actualServerName, k -> new HashMap<>())
+                            .computeIfAbsent(hour, k -> new HashSet<>()).add(ipAddress);
+                    }
                 }
+                submitIngestWrite(new IngestWriter.ServerLastLogReceivedWrite(actualServerName));
+
+                // アクション実行エンジンでの脅威対応（ModSecurityブロック状態を確認）
+                executeSecurityActions(parsedLog, blockedByModSec);
 
             } catch (Exception e) {
                 AppLogger.warn("Error processing log entry from " + session.getAgentName() + ": " + e.getMessage());
                 AppLogger.debug("Failed log data: " + logData);
+                // 保存要求を投入する前に失敗した行は、取込済み位置がこの行を越えないよう失敗として扱う（再送で取込み直す）
+                if (linePositions.containsKey(logData) && !accessLogWrites.containsKey(logData)) {
+                    failedLines.add(logData);
+                }
+            }
+        }
+
+        if (duplicateCount > 0) {
+            AppLogger.info("Skipped " + duplicateCount + " already ingested log entries from " + session.getAgentName());
+        }
+        sampledOutIps.forEach((serverName, hours) -> hours.forEach((hour, ipAddresses) ->
+            submitIngestWrite(new IngestWriter.SampledOutIpsWrite(serverName, hour, ipAddresses))));
+        if (sampledOutCount > 0) {
+            AppLogger.debug("Sampled out " + sampledOutCount + " clean log entries from " + session.getAgentName() + " (rate 1/" + sampleRate + ")");
+        }
+
+        // グループコミットの完了を待ち、コミットできた件数を処理件数とする（待てなかった行は失敗として扱う）
+        boolean interrupted = false;
+        for (Map.Entry<Map<String, Object>, CompletableFuture<Void>> write : accessLogWrites.entrySet()) {
+            if (interrupted) {
+                failedLines.add(write.getKey());
+                continue;
+            }
+            try {
+                write.getValue().get(WRITE_COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                processedCount++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                interrupted = true;
+                failedLines.add(write.getKey());
+            } catch (Exception e) {
+                AppLogger.error("access_log保存失敗: " + e.getMessage());
+                failedLines.add(write.getKey());
+            }
+        }
+
+        // 取込済み位置は行のコミット完了後に、ソースパスごとに最初に保存に失敗した行の手前まで保存する
+        // （失敗した行以降は再送で取込み直す。保存対象のない行＝スキップ・間引き・error.log の位置は取込済みとして扱う）
+        if (watermarks != null && !linePositions.isEmpty()) {
+            Map<String, IngestWatermarks.Watermark> batchPositions = new HashMap<>();
+            Set<String> failedPaths = new HashSet<>();
+            for (Map<String, Object> logData : logs) {
+                IngestWatermarks.Watermark position = linePositions.get(logData);
+                if (position == null) {
+                    continue;
+                }
+                String sourcePath = (String) logData.get("sourcePath");
+                if (failedLines.contains(logData)) {
+                    failedPaths.add(sourcePath);
+                } else if (!failedPaths.contains(sourcePath)) {
+                    batchPositions.merge(sourcePath, position, IngestWatermarks.Watermark::later);
+                }
+            }
+            if (!batchPositions.isEmpty()) {
+                ingestWatermarks.commit(session.getAgentName(), watermarks, batchPositions);
             }
         }
 
         AppLogger.info("Successfully processed " + processedCount + " log entries from " + session.getAgentName());
-        return processedCount;
+        return new IngestResult(processedCount, duplicateCount, sampledOutCount, failedLines.size());
     }
 
     /**
@@ -1012,6 +1649,9 @@ public class AgentTcpServer {
      */
     public void stop() {
         running = false;
+        blockListPublisher.stop();
+        edgeFilterPublisher.stop();
+        UrlSuppressionManager.shutdown();
 
         // 既存の停止処理
         if (serverSocket != null && !serverSocket.isClosed()) {
@@ -1042,10 +1682,78 @@ public class AgentTcpServer {
     }
 
 
+    /**
+     * 現在の攻撃パターンの組（エージェントの事前分類との比較と優先レーンの判定に使う）
+     * @return コンパイル済みの攻撃パターンの組（読み込めない場合はnull）
+     */
+    private AttackPattern.CompiledPatternSet currentAttackPatterns() {
+        try {
+            return AttackPattern.compiled(ATTACK_PATTERN_PATHS);
+        } catch (Exception e) {
+            AppLogger.debug("攻撃パターンを読み込めないため、エージェントの事前分類・優先レーンの判定は使用しません: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 優先レーンで処理する行か判定
+     * ModSecurityのエラーログ行と、攻撃パターンに一致するアクセスログの行（同じバージョンで事前分類された行はその結果）を優先する
+     *
+     * @param logData エージェントから受け取った行
+     * @param attackPatterns 攻撃パターンの組（null の場合はアクセスログの行を優先しない）
+     * @param preParsed 判定のために解析した行の格納先（本処理で再利用する）
+     * @param classifications 攻撃パターンで判定した結果の格納先（本処理の攻撃パターン識別で再利用する）
+     * @return 優先レーンの場合true
+     */
+    private static boolean isPriorityEntry(Map<String, Object> logData, AttackPattern.CompiledPatternSet attackPatterns,
+                                           Map<Map<String, Object>, Map<String, Object>> preParsed,
+                                           Map<Map<String, Object>, LaneClassification> classifications) {
+        String sourcePath = (String) logData.get("sourcePath");
+        if (sourcePath == null) {
+            return false;
+        }
+        if (sourcePath.contains("error.log")) {
+            return logData.get("request") instanceof String request && ModSecHandler.isModSecurityRawLog(request);
+        }
+        if (!sourcePath.contains("access.log") || attackPatterns == null) {
+            return false;
+        }
+        if (attackPatterns.version().equals(logData.get("attackPatternVersion"))
+                && logData.get("attackType") instanceof String tagged && !tagged.isBlank()) {
+            return AccessRollupBatch.isAttackType(tagged);
+        }
+        String url;
+        String rawLogLine = (String) logData.get("rawLogLine");
+        if (rawLogLine == null || rawLogLine.trim().isEmpty()) {
+            url = logData.get("requestUrl") instanceof String requestUrl ? UrlCodec.decode(requestUrl) : null;
+        } else {
+            Map<String, Object> parsed = LogParser.parseLogLine(rawLogLine);
+            if (parsed == null) {
+                return false;
+            }
+            preParsed.put(logData, parsed);
+            url = (String) parsed.get("full_url");
+        }
+        if (url == null || url.isEmpty()) {
+            return false;
+        }
+        String attackType = attackPatterns.detect(url);
+        classifications.put(logData, new LaneClassification(url, attackType));
+        return AccessRollupBatch.isAttackType(attackType);
+    }
+
+    /**
+     * レーンの判定で攻撃パターンにより分類した結果
+     * @param url 判定したURL（デコード済み）
+     * @param attackType 判定結果の攻撃タイプ（一致なしは normal）
+     */
+    private record LaneClassification(String url, String attackType) {}
+
     /**
      * URL登録と攻撃パターン識別処理
+     * @return このアクセスのURLに対応する攻撃タイプと脅威判定（判定できない場合はnull）
      */
-    private void processUrlAndAttackPattern(Map<String, Object> parsedLog) {
+    private DbRegistry.UrlRegistryVerdict processUrlAndAttackPattern(Map<String, Object> parsedLog) {
         try {
             String serverName = (String) parsedLog.get("server_name");
             String method = (String) parsedLog.get("method");
@@ -1056,7 +1764,7 @@ public class AgentTcpServer {
             Timestamp latestAccessTs = toTimestamp(parsedLog.get("access_time"));
 
             if (serverName == null || method == null || fullUrl == null) {
-                return;
+                return null;
             }
 
             // 既存URLの重複チェックを実行
@@ -1073,16 +1781,22 @@ public class AgentTcpServer {
                     );
                 }
                 try {
-                    updateUrlRegistryLatest(serverName, method, fullUrl, latestAccessTs, latestStatusCode, latestBlocked);
+                    // 判定は同期で取得し、最終アクセス情報の更新はIngestWriterでURLごとに集約
+                    DbRegistry.UrlRegistryVerdict verdict = selectUrlRegistryVerdict(serverName, method, fullUrl, latestBlocked);
+                    if (verdict != null) {
+                        submitIngestWrite(new IngestWriter.UrlRegistryLatestWrite(serverName, method, fullUrl,
+                            latestAccessTs, latestStatusCode, latestBlocked, verdict.threat()));
+                    }
+                    return verdict;
                 } catch (Exception e) {
                     AppLogger.warn("url_registry最新更新失敗: " + e.getMessage());
                 }
-                return;
+                return null;
             }
 
-            // 攻撃パターン識別を実行
-            String attackType = AttackPattern.detectAttackTypeYaml(fullUrl,
-                "/app/config/attack_patterns.yaml", "/app/config/attack_patterns_override.yaml");
+            // 攻撃パターン識別を実行（同じバージョンのパターンで分類したエージェントの結果・レーンの判定結果があればそのまま使う）
+            String attackType = parsedLog.get("preclassified_attack_type") instanceof String tagged
+                ? tagged : AttackPattern.detectAttackTypeYaml(fullUrl, ATTACK_PATTERN_PATHS);
 
             // ホワイトリスト判定を実行（IPアドレス情報を使用）
             boolean isWhitelisted = whitelistManager.determineWhitelistStatus(clientIp);
@@ -1098,9 +1812,12 @@ public class AgentTcpServer {
             } else {
                 AppLogger.error("URL登録失敗: " + serverName + " - " + method + " " + fullUrl);
             }
+            return new DbRegistry.UrlRegistryVerdict(attackType,
+                DbRegistry.evaluateThreat(isWhitelisted, null, attackType, latestBlocked));
 
         } catch (Exception e) {
             AppLogger.error("Error registering URL to registry: " + e.getMessage());
+            return null;
         }
     }
 
@@ -1132,15 +1849,13 @@ public class AgentTcpServer {
             return true;
         }
 
-        // 静的ファイルやよくある無害なリクエストを無視
-        return url.endsWith(".ico") ||
-               url.endsWith(".css") ||
-               url.endsWith(".js") ||
-               url.endsWith(".png") ||
-               url.endsWith(".jpg") ||
-               url.endsWith(".gif") ||
-               url.equals("/favicon.ico") ||
-               url.equals("/robots.txt");
+        // 静的ファイルやよくある無害なリクエストを無視（エッジフィルタとしてエージェントへも配信する条件）
+        for (String extension : EdgeFilterPublisher.IGNORED_EXTENSIONS) {
+            if (url.endsWith(extension)) {
+                return true;
+            }
+        }
+        return EdgeFilterPublisher.IGNORED_PATHS.contains(url);
     }
 
     /**
@@ -1154,4 +1869,50 @@ public class AgentTcpServer {
         }
         return new Timestamp(System.currentTimeMillis());
     }
+
+    /**
+     * 展開後サイズを申告値で打ち切る入力ストリーム（圧縮爆弾対策）
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return checkExhausted();
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return checkExhausted();
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        /**
+         * 申告サイズを読み切った後にデータが残っていれば不正なバッチとして扱う
+         */
+        private int checkExhausted() throws IOException {
+            if (super.read() >= 0) {
+                throw new IOException("Inflated batch exceeds declared size");
+            }
+            return -1;
+        }
+    }
 }
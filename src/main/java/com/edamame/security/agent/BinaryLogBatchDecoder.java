@@ -0,0 +1,297 @@
+package com.edamame.security.agent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.edamame.agent.network.TcpProtocolConstants.*;
+
+/**
+ * バイナリ形式（v2）ログバッチのデコーダー
+ * エージェントの BinaryLogBatchEncoder が出力した本体をストリームから順に読み取り、
+ * JSON形式のバッチと同じキー（serverName, sourcePath, request, httpMethod, requestUrl, statusCode 等）を持つ
+ * ログデータのマップへ復元する。以降の処理（processLogEntries）は形式に依存しない。
+ * 形式の詳細はエージェント側エンコーダーおよび TcpProtocolConstants を参照。
+ * v1.1.0: 読み取り位置（streamId, endOffset）の復元を追加
+ * v1.2.0: 事前分類の結果（attackType, attackPatternVersion）の復元を追加
+ *
+ * @author Edamame Team
+ * @version 1.2.0
+ */
+final class BinaryLogBatchDecoder {
+
+    /** NGINXアクセスログの月名（3文字ずつ、月-1 の3倍の位置） */
+    private static final String MONTH_NAMES = "JanFebMarAprMayJunJulAugSepOctNovDec";
+    private static final int BUFFER_SIZE = 8192;
+
+    private BinaryLogBatchDecoder() {
+        // ユーティリティクラスのため、インスタンス化を禁止
+    }
+
+    /**
+     * バイナリ形式の本体をログデータのリストへデコード
+     *
+     * @param stream 本体の入力ストリーム（形式バージョン・エンコーディングのヘッダーは読み取り済み）
+     * @return ログデータのリスト
+     * @throws IOException 形式不正・読み取りエラー
+     */
+    static List<Map<String, Object>> decode(InputStream stream) throws IOException {
+        Input in = new Input(stream);
+        int tableSize = readCount(in);
+        List<String> stringTable = new ArrayList<>();
+        for (int i = 0; i < tableSize; i++) {
+            stringTable.add(readString(in));
+        }
+
+        int entryCount = readCount(in);
+        List<Map<String, Object>> logs = new ArrayList<>();
+        for (int i = 0; i < entryCount; i++) {
+            logs.add(readEntry(in, stringTable));
+        }
+        return logs;
+    }
+
+    /**
+     * 1エントリを読み取り、JSON形式のバッチと同じキーのマップを作成
+     */
+    private static Map<String, Object> readEntry(Input in, List<String> stringTable) throws IOException {
+        int flags = in.read();
+        if (flags < 0) {
+            throw new EOFException("Unexpected end of binary batch");
+        }
+
+        Map<String, Object> logData = new HashMap<>();
+        logData.put("serverName", tableValue(in, stringTable));
+        logData.put("sourcePath", tableValue(in, stringTable));
+        logData.put("clientIp", readString(in));
+
+        String httpMethod;
+        String requestUrl;
+        String request;
+        if ((flags & BINARY_ENTRY_REQUEST_SPLIT) != 0) {
+            httpMethod = tableValue(in, stringTable);
+            requestUrl = readString(in);
+            request = httpMethod + " " + requestUrl + " " + tableValue(in, stringTable);
+        } else {
+            // LogEntry.getHttpMethod / getRequestUrl と同じ規則で補完
+            request = readString(in);
+            String[] parts = request.split(" ");
+            httpMethod = request.isEmpty() ? "UNKNOWN" : parts[0];
+            requestUrl = !request.isEmpty() && parts.length > 1 ? parts[1] : "/";
+        }
+        logData.put("request", request);
+        logData.put("httpMethod", httpMethod);
+        logData.put("requestUrl", requestUrl);
+
+        logData.put("statusCode", (int) unZigZag(readVarLong(in)));
+
+        logData.put("responseSize", (flags & BINARY_ENTRY_SIZE_NUMERIC) != 0
+            ? Long.toString(readVarLong(in))
+            : readString(in));
+
+        if ((flags & BINARY_ENTRY_TIMESTAMP_EPOCH) != 0) {
+            long epochSecond = unZigZag(readVarLong(in));
+            int offsetSeconds = (int) unZigZag(readVarLong(in));
+            logData.put("timestamp", formatNginxTime(epochSecond, offsetSeconds));
+        } else {
+            logData.put("timestamp", readString(in));
+        }
+
+        if ((flags & BINARY_ENTRY_COLLECTED_EPOCH) != 0) {
+            long epochSecond = unZigZag(readVarLong(in));
+            int nano = (int) readVarLong(in);
+            logData.put("collectedAt", formatCollectedAt(epochSecond, nano));
+        } else {
+            logData.put("collectedAt", readString(in));
+        }
+
+        logData.put("referer", readString(in));
+        logData.put("userAgent", readString(in));
+        logData.put("blockedByModSec", (flags & BINARY_ENTRY_BLOCKED_BY_MODSEC) != 0);
+
+        if ((flags & BINARY_ENTRY_POSITION) != 0) {
+            logData.put("streamId", tableValue(in, stringTable));
+            logData.put("endOffset", readVarLong(in));
+        }
+
+        if ((flags & BINARY_ENTRY_ATTACK_TAG) != 0) {
+            logData.put("attackType", tableValue(in, stringTable));
+            logData.put("attackPatternVersion", tableValue(in, stringTable));
+        }
+        return logData;
+    }
+
+    /**
+     * エポック秒とUTCオフセットからNGINX形式の時刻（dd/MMM/yyyy:HH:mm:ss +hhmm）を復元
+     */
+    private static String formatNginxTime(long epochSecond, int offsetSeconds) throws IOException {
+        LocalDateTime time;
+        try {
+            time = LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.ofTotalSeconds(offsetSeconds));
+        } catch (DateTimeException e) {
+            throw new IOException("Invalid timestamp in binary batch", e);
+        }
+        int month = time.getMonthValue() - 1;
+        int offsetMinutes = Math.abs(offsetSeconds) / 60;
+        StringBuilder sb = new StringBuilder(26);
+        appendDigits(sb, time.getDayOfMonth(), 2).append('/').append(MONTH_NAMES, month * 3, month * 3 + 3).append('/');
+        appendDigits(sb, time.getYear(), 4).append(':');
+        appendDigits(sb, time.getHour(), 2).append(':');
+        appendDigits(sb, time.getMinute(), 2).append(':');
+        appendDigits(sb, time.getSecond(), 2).append(' ').append(offsetSeconds < 0 ? '-' : '+');
+        appendDigits(sb, offsetMinutes / 60, 2);
+        return appendDigits(sb, offsetMinutes % 60, 2).toString();
+    }
+
+    /**
+     * エポック秒（UTC扱い）とナノ秒からISO形式の収集時刻を復元（ISO_LOCAL_DATE_TIME と同じく小数部は末尾0を省略）
+     */
+    private static String formatCollectedAt(long epochSecond, long nano) throws IOException {
+        LocalDateTime time;
+        try {
+            time = LocalDateTime.ofEpochSecond(epochSecond, (int) nano, ZoneOffset.UTC);
+        } catch (DateTimeException e) {
+            throw new IOException("Invalid collectedAt in binary batch", e);
+        }
+        StringBuilder sb = new StringBuilder(29);
+        appendDigits(sb, time.getYear(), 4).append('-');
+        appendDigits(sb, time.getMonthValue(), 2).append('-');
+        appendDigits(sb, time.getDayOfMonth(), 2).append('T');
+        appendDigits(sb, time.getHour(), 2).append(':');
+        appendDigits(sb, time.getMinute(), 2).append(':');
+        appendDigits(sb, time.getSecond(), 2);
+        if (nano != 0) {
+            int fraction = (int) nano;
+            int width = 9;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                width--;
+            }
+            appendDigits(sb.append('.'), fraction, width);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 0埋めした固定桁の数値を追加
+     */
+    private static StringBuilder appendDigits(StringBuilder sb, int value, int width) {
+        String digits = Integer.toString(value);
+        for (int i = digits.length(); i < width; i++) {
+            sb.append('0');
+        }
+        return sb.append(digits);
+    }
+
+    /**
+     * 文字列表のインデックスを読み取り、値を返す
+     */
+    private static String tableValue(Input in, List<String> stringTable) throws IOException {
+        long index = readVarLong(in);
+        if (index < 0 || index >= stringTable.size()) {
+            throw new IOException("Invalid string table index: " + index);
+        }
+        return stringTable.get((int) index);
+    }
+
+    /**
+     * 件数を読み取り（負数・上限超過は形式不正）
+     */
+    private static int readCount(Input in) throws IOException {
+        long count = readVarLong(in);
+        if (count < 0 || count > MAX_INFLATED_SIZE) {
+            throw new IOException("Invalid count in binary batch: " + count);
+        }
+        return (int) count;
+    }
+
+    /**
+     * 長さ付きUTF-8文字列を読み取り（宣言長の分だけ読み進めるため、巨大な長さでも一括確保しない）
+     */
+    private static String readString(Input in) throws IOException {
+        return in.readString(readCount(in));
+    }
+
+    private static long readVarLong(Input in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Unexpected end of binary batch");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in binary batch");
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 内部バッファ付きの入力（1バイト単位の読み取りでストリームの同期化コストを払わないため）
+     */
+    private static final class Input {
+        private final InputStream stream;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+
+        Input(InputStream stream) {
+            this.stream = stream;
+        }
+
+        int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        /**
+         * 指定バイト数のUTF-8文字列を読み取り（バッファ内に収まる場合はコピーせずにデコード）
+         */
+        String readString(int length) throws IOException {
+            if (limit - position >= length) {
+                String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+                position += length;
+                return value;
+            }
+            // バッファをまたぐ長い文字列（宣言長の分だけ読み進めるため、巨大な長さでも一括確保しない）
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.min(length, BUFFER_SIZE * 4));
+            int remaining = length;
+            while (remaining > 0) {
+                if (position == limit && !fill()) {
+                    throw new EOFException("Unexpected end of binary batch");
+                }
+                int chunk = Math.min(remaining, limit - position);
+                bytes.write(buffer, position, chunk);
+                position += chunk;
+                remaining -= chunk;
+            }
+            return bytes.toString(StandardCharsets.UTF_8);
+        }
+
+        private boolean fill() throws IOException {
+            int n = stream.read(buffer, 0, buffer.length);
+            if (n <= 0) {
+                return false;
+            }
+            position = 0;
+            limit = n;
+            return true;
+        }
+    }
+}
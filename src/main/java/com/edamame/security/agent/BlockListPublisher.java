@@ -0,0 +1,301 @@
+package com.edamame.security.agent;
+
+import com.edamame.security.db.DbService;
+import com.edamame.security.tools.AppLogger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.edamame.agent.network.TcpProtocolConstants.*;
+
+/**
+ * エージェントへ配信するブロックリストのバージョン管理と差分プッシュ
+ * block_ip の有効な行（DbService.selectActiveAgentBlocks）をエージェントごとに保持し、
+ * 追加・期限変更・無効化・削除・期限切れのたびに全エージェント共通で単調増加するバージョンを付ける。
+ * 解除したIPは一定時間トゥームストーンとして残し、差分同期で解除を伝える。
+ * <p>
+ * エージェントは最後に適用したバージョンを MSG_TYPE_BLOCK_SYNC で送り、それより新しい変更を1フレームで受け取る。
+ * 以下の場合は全件（full）を返し、エージェントは一覧を置き換える:
+ * 起動時（このプロセスの開始より前のバージョン）・トゥームストーン削除済みの範囲・未知のバージョン。
+ * 制御接続で同期したセッションは購読者として登録し、以降の変更を PUSH_BLOCK_LIST_DELTA でプッシュする。
+ * </p>
+ * <p>
+ * 再読み込みは block_ip の変更通知（DbService.notifyBlockListChanged）で即時に予約し、
+ * 外部からの変更と期限切れのため定期的にも実行する。同期応答とプッシュは同じロックの中で送り、
+ * 1つのセッションへのフレームの順序とバージョンの連続性を保つ。
+ * 初回の読み込みは接続の受け付け前に同期的に行う。初回の読み込みが成功するまでの同期要求にはエラーを返す
+ * （空の全件を返すとエージェントが既存のブロックをすべて解除するため）。
+ * </p>
+ *
+ * v1.0.1: 変更通知をリスナーの追加・削除（複数登録）に対応。範囲指定のブロックを「アドレス/プレフィックス長」で配信
+ * v1.0.2: 初回読み込みを同期化し、読み込みが成功するまでは同期要求にエラー応答（空の全件による一斉解除を防止）
+ *
+ * @author Edamame Team
+ * @version 1.0.2
+ */
+final class BlockListPublisher {
+
+    /** 定期再読み込みの間隔（秒） */
+    private static final long RELOAD_INTERVAL_SECONDS = 60;
+    /** 解除したIPのトゥームストーンを保持する時間（ミリ秒） */
+    private static final long TOMBSTONE_RETENTION_MS = 60 * 60 * 1000L;
+
+    /**
+     * 配信するブロック
+     *
+     * @param ipAddress IPアドレス（文字列表記、範囲指定は「アドレス/プレフィックス長」）
+     * @param expiresAt 期限（エポックミリ秒、無期限はnull）
+     * @param reason 理由
+     */
+    record Block(String ipAddress, Long expiresAt, String reason) {}
+
+    /**
+     * バージョン付きの状態（block がnullの場合は解除済みのトゥームストーン）
+     */
+    private record Versioned(long version, Block block, long removedAtMillis) {}
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicBoolean reloadPending = new AtomicBoolean(false);
+    private final Runnable changeListener = this::requestReload;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "BlockListPublisher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 以下は this で同期
+    private final Map<String, Map<String, Versioned>> byAgent = new HashMap<>(); // エージェント名 → (IP → 状態)
+    private final Map<AgentSession, Long> subscribers = new HashMap<>();          // 購読セッション → 送信済みバージョン
+    private long version;
+    private long fullSyncFloor; // これより前のバージョンからの同期は全件
+    private boolean loaded;     // block_ip の読み込みに1度でも成功したか
+
+    /**
+     * コンストラクタ
+     * バージョンは起動時刻（ミリ秒）から始め、再起動前のバージョンを持つエージェントを全件同期の対象にする
+     */
+    BlockListPublisher() {
+        this.version = System.currentTimeMillis();
+        this.fullSyncFloor = version;
+    }
+
+    /**
+     * 初回読み込み（呼び出し元のスレッドで同期的に実行）・定期再読み込みと変更通知の受け付けを開始
+     * 接続の受け付けを始める前に呼び出すこと。初回読み込みに失敗した場合は定期再読み込みで再試行する
+     */
+    void start() {
+        DbService.addBlockListChangeListener(changeListener);
+        reload();
+        scheduler.scheduleWithFixedDelay(this::reload, RELOAD_INTERVAL_SECONDS, RELOAD_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 停止
+     */
+    void stop() {
+        DbService.removeBlockListChangeListener(changeListener);
+        scheduler.shutdownNow();
+        synchronized (this) {
+            subscribers.clear();
+        }
+    }
+
+    /**
+     * 再読み込みを予約（連続した変更通知は1回の再読み込みにまとめる）
+     */
+    void requestReload() {
+        if (reloadPending.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::reload);
+            } catch (Exception e) {
+                reloadPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * 同期要求に応答（差分または全件）
+     * 制御接続のセッションは購読者として登録し、以降の変更をプッシュする。
+     * block_ip を1度も読み込めていない間はエラーを返し、エージェントは現在のブロックを維持して後で再同期する
+     *
+     * @param session 要求元のセッション
+     * @param agentVersion エージェントが最後に適用したバージョン（未同期は0）
+     * @param subscribe 購読者として登録するか
+     * @throws IOException 応答の送信エラー
+     */
+    synchronized void respondToSync(AgentSession session, long agentVersion, boolean subscribe) throws IOException {
+        if (!loaded) {
+            session.sendResponse(RESPONSE_ERROR, "Block list not loaded");
+            AppLogger.debug("Block list sync for " + session.getAgentName() + " rejected: block list not loaded yet");
+            return;
+        }
+        Map<String, Object> delta = buildDelta(session.getAgentName(), agentVersion);
+        session.sendResponse(RESPONSE_SUCCESS, objectMapper.writeValueAsString(delta));
+        if (subscribe) {
+            subscribers.put(session, version);
+        }
+        AppLogger.debug("Block list sync for " + session.getAgentName() + ": " + agentVersion + " -> " + version
+            + " (full=" + delta.get("full") + ", blocks=" + ((List<?>) delta.get("blocks")).size()
+            + ", unblocks=" + ((List<?>) delta.get("unblocks")).size() + ")");
+    }
+
+    /**
+     * 購読を解除（接続終了時）
+     *
+     * @param session セッション
+     */
+    synchronized void unsubscribe(AgentSession session) {
+        subscribers.remove(session);
+    }
+
+    /**
+     * block_ip を読み込み、前回との差分にバージョンを付けて購読者へプッシュ
+     */
+    private void reload() {
+        reloadPending.set(false);
+        Map<String, Map<String, Block>> desired;
+        try {
+            desired = loadDesired();
+        } catch (Exception e) {
+            AppLogger.warn("ブロックリストの読み込みに失敗しました（次回再試行します）: " + e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            int changes = 0;
+            for (Map.Entry<String, Map<String, Block>> agentEntry : desired.entrySet()) {
+                Map<String, Versioned> current = byAgent.computeIfAbsent(agentEntry.getKey(), k -> new HashMap<>());
+                for (Block block : agentEntry.getValue().values()) {
+                    Versioned existing = current.get(block.ipAddress());
+                    if (existing == null || !Objects.equals(existing.block(), block)) {
+                        current.put(block.ipAddress(), new Versioned(++version, block, 0));
+                        changes++;
+                    }
+                }
+            }
+            for (Map.Entry<String, Map<String, Versioned>> agentEntry : byAgent.entrySet()) {
+                Map<String, Block> agentDesired = desired.getOrDefault(agentEntry.getKey(), Map.of());
+                Iterator<Map.Entry<String, Versioned>> it = agentEntry.getValue().entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, Versioned> entry = it.next();
+                    Versioned state = entry.getValue();
+                    if (state.block() == null) {
+                        if (now - state.removedAtMillis() > TOMBSTONE_RETENTION_MS) {
+                            it.remove();
+                            fullSyncFloor = Math.max(fullSyncFloor, state.version());
+                        }
+                    } else if (!agentDesired.containsKey(entry.getKey())) {
+                        entry.setValue(new Versioned(++version, null, now));
+                        changes++;
+                    }
+                }
+            }
+            byAgent.values().removeIf(Map::isEmpty);
+            if (!loaded) {
+                loaded = true;
+                AppLogger.info("ブロックリストを読み込みました（バージョン " + version + "）");
+            }
+
+            if (changes > 0) {
+                AppLogger.info("ブロックリストを更新しました: " + changes + " 件の変更（バージョン " + version + "）");
+                pushToSubscribers();
+            }
+        }
+    }
+
+    /**
+     * 購読者へ送信済みバージョン以降の差分をプッシュ（this で同期して呼び出す）
+     */
+    private void pushToSubscribers() {
+        Iterator<Map.Entry<AgentSession, Long>> it = subscribers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<AgentSession, Long> entry = it.next();
+            AgentSession session = entry.getKey();
+            if (!session.isActive()) {
+                it.remove();
+                continue;
+            }
+            Map<String, Object> delta = buildDelta(session.getAgentName(), entry.getValue());
+            if (((List<?>) delta.get("blocks")).isEmpty() && ((List<?>) delta.get("unblocks")).isEmpty()
+                    && !Boolean.TRUE.equals(delta.get("full"))) {
+                continue; // このエージェントへの変更なし（送信済みバージョンは据え置き）
+            }
+            try {
+                session.sendResponse(PUSH_BLOCK_LIST_DELTA, objectMapper.writeValueAsString(delta));
+                entry.setValue(version);
+            } catch (IOException e) {
+                AppLogger.warn("Block list push failed for " + session.getAgentName() + ": " + e.getMessage());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 指定バージョン以降の差分（範囲外の場合は全件）を作成（this で同期して呼び出す）
+     */
+    private Map<String, Object> buildDelta(String agentName, long since) {
+        boolean full = since < fullSyncFloor || since > version;
+        List<Map<String, Object>> blocks = new ArrayList<>();
+        List<String> unblocks = new ArrayList<>();
+        for (Map.Entry<String, Versioned> entry : byAgent.getOrDefault(agentName, Map.of()).entrySet()) {
+            Versioned state = entry.getValue();
+            if (!full && state.version() <= since) {
+                continue;
+            }
+            if (state.block() != null) {
+                Map<String, Object> block = new LinkedHashMap<>();
+                block.put("ipAddress", state.block().ipAddress());
+                block.put("expiresAt", state.block().expiresAt());
+                block.put("reason", state.block().reason());
+                blocks.add(block);
+            } else if (!full) {
+                unblocks.add(entry.getKey());
+            }
+        }
+        Map<String, Object> delta = new LinkedHashMap<>();
+        delta.put("version", version);
+        delta.put("since", since);
+        delta.put("full", full);
+        delta.put("blocks", blocks);
+        delta.put("unblocks", unblocks);
+        return delta;
+    }
+
+    /**
+     * 有効なブロックIPをエージェント・IPごとに読み込み
+     * 同じIPに複数の行がある場合は無期限、次に期限の遅いものを採用する
+     */
+    private static Map<String, Map<String, Block>> loadDesired() throws Exception {
+        Map<String, Map<String, Block>> desired = new HashMap<>();
+        for (Map<String, Object> row : DbService.selectActiveAgentBlocks()) {
+            String ipAddress = (String) row.get("ip_address");
+            if (ipAddress == null) {
+                continue;
+            }
+            Timestamp endAt = (Timestamp) row.get("end_at");
+            Block block = new Block(ipAddress, endAt != null ? endAt.getTime() : null, (String) row.get("reason"));
+            desired.computeIfAbsent((String) row.get("target_agent_name"), k -> new HashMap<>())
+                .merge(ipAddress, block, BlockListPublisher::longer);
+        }
+        return desired;
+    }
+
+    private static Block longer(Block a, Block b) {
+        if (a.expiresAt() == null) return a;
+        if (b.expiresAt() == null) return b;
+        return a.expiresAt() >= b.expiresAt() ? a : b;
+    }
+}
@@ -0,0 +1,293 @@
+package com.edamame.security.agent;
+
+import com.edamame.security.AttackPattern;
+import com.edamame.security.suppression.UrlSuppressionManager;
+import com.edamame.security.tools.AppLogger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.edamame.agent.network.TcpProtocolConstants.*;
+
+/**
+ * エージェントへ配信するエッジフィルタ（エージェント側で破棄するリクエストの条件）のバージョン管理とプッシュ
+ * サーバーが取込時に破棄するリクエスト（静的ファイルの拡張子・固定パス・有効なURL抑止ルール）を1つの仕様にまとめ、
+ * 内容が変わるたびにバージョンを進める。エージェントは同じ条件に一致する行を送信前に破棄し、
+ * 破棄件数をルールごとにハートビートで報告する。
+ * <p>
+ * エージェントは適用中のバージョンを MSG_TYPE_EDGE_FILTER_SYNC で送り、異なる場合は仕様全体を受け取る
+ * （仕様は小さいため差分は扱わない）。制御接続で同期したセッションは購読者として登録し、以降の変更を PUSH_EDGE_FILTER でプッシュする。
+ * 再読み込みは URL抑止ルールの変更通知で即時に予約し、外部からの変更のため定期的にも実行する。
+ * </p>
+ * <p>
+ * 旧エージェントや未同期の間の行のため、サーバー側の破棄（AgentTcpServer.isIgnorableRequest・UrlSuppressionManager）はそのまま残す。
+ * </p>
+ * <p>
+ * 仕様にはコンパイル済みの攻撃パターンの組（attack_patterns.yaml＋オーバーライド）も含め、エージェントは破棄しない行を
+ * 事前分類する。パターンの組のバージョンが変わった場合（ファイルの更新）も仕様のバージョンを進める。
+ * </p>
+ *
+ * v1.1.0: 攻撃パターンの組（attackPatterns）を仕様に追加
+ *
+ * @author Edamame Team
+ * @version 1.1.0
+ */
+final class EdgeFilterPublisher {
+
+    /** 取込時に破棄する静的ファイルの拡張子（URLの末尾と比較） */
+    static final List<String> IGNORED_EXTENSIONS = List.of(".ico", ".css", ".js", ".png", ".jpg", ".gif");
+    /** 取込時に破棄するパス（URL全体と比較。クローラー・死活監視が定期的に取得するもの） */
+    static final List<String> IGNORED_PATHS = List.of("/favicon.ico", "/robots.txt");
+
+    /** 定期再読み込みの間隔（秒） */
+    private static final long RELOAD_INTERVAL_SECONDS = 60;
+    /** ハートビートで報告される破棄件数のキーの接頭辞（URL抑止ルール） */
+    private static final String SUPPRESSION_KEY_PREFIX = "suppression:";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String[] attackPatternPaths;
+    private final AtomicBoolean reloadPending = new AtomicBoolean(false);
+    private final Runnable changeListener = this::requestReload;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "EdgeFilterPublisher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 以下は this で同期
+    private final Map<AgentSession, Long> subscribers = new HashMap<>(); // 購読セッション → 送信済みバージョン
+    private List<UrlSuppressionManager.RuleSpec> suppressions; // null は未読み込み
+    private AttackPattern.CompiledPatternSet attackPatterns;   // null は未読み込み・読み込み失敗
+    private long version;
+
+    /**
+     * コンストラクタ
+     * バージョンは起動時刻（ミリ秒）から始め、再起動前のバージョンを持つエージェントにも仕様全体を送る
+     *
+     * @param attackPatternPaths 攻撃パターンのYAML（本体、オーバーライド）のパス
+     */
+    EdgeFilterPublisher(String... attackPatternPaths) {
+        this.attackPatternPaths = attackPatternPaths;
+        this.version = System.currentTimeMillis();
+    }
+
+    /**
+     * 初回読み込み・定期再読み込みと変更通知の受け付けを開始
+     */
+    void start() {
+        UrlSuppressionManager.addRulesChangeListener(changeListener);
+        scheduler.scheduleWithFixedDelay(this::reload, 0, RELOAD_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 停止
+     */
+    void stop() {
+        UrlSuppressionManager.removeRulesChangeListener(changeListener);
+        scheduler.shutdownNow();
+        synchronized (this) {
+            subscribers.clear();
+        }
+    }
+
+    /**
+     * 再読み込みを予約（連続した変更通知は1回の再読み込みにまとめる）
+     */
+    void requestReload() {
+        if (reloadPending.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::reload);
+            } catch (Exception e) {
+                reloadPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * 同期要求に応答（バージョンが一致すれば unchanged、それ以外は仕様全体）
+     * 制御接続のセッションは購読者として登録し、以降の変更をプッシュする
+     *
+     * @param session 要求元のセッション
+     * @param agentVersion エージェントが適用中のバージョン（未同期は0）
+     * @param subscribe 購読者として登録するか
+     * @throws IOException 応答の送信エラー
+     */
+    synchronized void respondToSync(AgentSession session, long agentVersion, boolean subscribe) throws IOException {
+        if (suppressions == null) {
+            // 初回読み込み前は呼び出し元スレッドで読み込む
+            suppressions = UrlSuppressionManager.activeRules();
+            attackPatterns = loadAttackPatterns();
+        }
+        Map<String, Object> response;
+        if (agentVersion == version) {
+            response = new LinkedHashMap<>();
+            response.put("version", version);
+            response.put("unchanged", true);
+        } else {
+            response = buildSpec();
+        }
+        session.sendResponse(RESPONSE_SUCCESS, objectMapper.writeValueAsString(response));
+        if (subscribe) {
+            subscribers.put(session, version);
+        }
+        AppLogger.debug("Edge filter sync for " + session.getAgentName() + ": " + agentVersion + " -> " + version
+            + " (suppressions=" + suppressions.size() + ", attackPatterns="
+            + (attackPatterns != null ? attackPatterns.version() : "none") + ")");
+    }
+
+    /**
+     * 購読を解除（接続終了時）
+     *
+     * @param session セッション
+     */
+    synchronized void unsubscribe(AgentSession session) {
+        subscribers.remove(session);
+    }
+
+    /**
+     * ハートビートで報告されたエージェント側の破棄件数を記録
+     * URL抑止ルールの件数は url_suppressions.drop_count に加算し、それ以外（拡張子・パス）はデバッグログに出力する
+     *
+     * @param agentName エージェント名
+     * @param drops ルールのキー（"suppression:ID" / "extension:拡張子" / "path:パス"）→ 前回報告以降の破棄件数
+     */
+    void recordDrops(String agentName, Map<?, ?> drops) {
+        long total = 0;
+        for (Map.Entry<?, ?> entry : drops.entrySet()) {
+            if (!(entry.getKey() instanceof String key) || !(entry.getValue() instanceof Number number) || number.longValue() <= 0) {
+                continue;
+            }
+            total += number.longValue();
+            if (key.startsWith(SUPPRESSION_KEY_PREFIX)) {
+                try {
+                    UrlSuppressionManager.recordHits(Long.parseLong(key.substring(SUPPRESSION_KEY_PREFIX.length())), number.longValue());
+                } catch (NumberFormatException e) {
+                    AppLogger.debug("Invalid edge filter drop key from " + agentName + ": " + key);
+                }
+            }
+        }
+        if (total > 0) {
+            AppLogger.debug("Edge filter drops reported by " + agentName + ": " + total + " " + drops);
+        }
+    }
+
+    /**
+     * 有効なURL抑止ルールと攻撃パターンの組を読み込み、変わっていればバージョンを進めて購読者へプッシュ
+     */
+    private void reload() {
+        reloadPending.set(false);
+        List<UrlSuppressionManager.RuleSpec> loaded;
+        try {
+            loaded = UrlSuppressionManager.activeRules();
+        } catch (Exception e) {
+            AppLogger.warn("エッジフィルタの読み込みに失敗しました（次回再試行します）: " + e.getMessage());
+            return;
+        }
+        AttackPattern.CompiledPatternSet loadedPatterns = loadAttackPatterns();
+
+        synchronized (this) {
+            if (loaded.equals(suppressions) && patternVersion(loadedPatterns).equals(patternVersion(attackPatterns))) {
+                return;
+            }
+            boolean initial = suppressions == null;
+            suppressions = loaded;
+            attackPatterns = loadedPatterns;
+            if (initial) {
+                return; // 起動時のバージョンのまま（まだ誰にも配信していない）
+            }
+            version++;
+            AppLogger.info("エッジフィルタを更新しました: URL抑止ルール " + loaded.size() + " 件、攻撃パターン "
+                + patternVersion(loadedPatterns) + "（バージョン " + version + "）");
+            pushToSubscribers();
+        }
+    }
+
+    /**
+     * 攻撃パターンの組を取得（変更がなければコンパイル済みのものを再利用。読み込めない場合はnull）
+     */
+    private AttackPattern.CompiledPatternSet loadAttackPatterns() {
+        try {
+            return AttackPattern.compiled(attackPatternPaths);
+        } catch (Exception e) {
+            AppLogger.warn("攻撃パターンを読み込めないため、エージェントへは配信しません: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String patternVersion(AttackPattern.CompiledPatternSet patternSet) {
+        return patternSet != null ? patternSet.version() : "none";
+    }
+
+    /**
+     * 購読者へ仕様全体をプッシュ（this で同期して呼び出す）
+     */
+    private void pushToSubscribers() {
+        String spec;
+        try {
+            spec = objectMapper.writeValueAsString(buildSpec());
+        } catch (IOException e) {
+            AppLogger.warn("Edge filter serialization failed: " + e.getMessage());
+            return;
+        }
+        Iterator<Map.Entry<AgentSession, Long>> it = subscribers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<AgentSession, Long> entry = it.next();
+            AgentSession session = entry.getKey();
+            if (!session.isActive()) {
+                it.remove();
+                continue;
+            }
+            try {
+                session.sendResponse(PUSH_EDGE_FILTER, spec);
+                entry.setValue(version);
+            } catch (IOException e) {
+                AppLogger.warn("Edge filter push failed for " + session.getAgentName() + ": " + e.getMessage());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 現在の仕様を作成（this で同期して呼び出す）
+     */
+    private Map<String, Object> buildSpec() {
+        List<Map<String, Object>> rules = new ArrayList<>();
+        for (UrlSuppressionManager.RuleSpec rule : suppressions) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", rule.id());
+            item.put("serverName", rule.serverName());
+            item.put("pattern", rule.pattern());
+            rules.add(item);
+        }
+        Map<String, Object> spec = new LinkedHashMap<>();
+        spec.put("version", version);
+        spec.put("extensions", IGNORED_EXTENSIONS);
+        spec.put("paths", IGNORED_PATHS);
+        spec.put("suppressions", rules);
+        if (attackPatterns != null) {
+            List<Map<String, Object>> patterns = new ArrayList<>();
+            for (AttackPattern.CompiledPattern pattern : attackPatterns.patterns()) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("type", pattern.attackType());
+                item.put("pattern", pattern.pattern());
+                item.put("excludeUrls", pattern.excludeUrls());
+                patterns.add(item);
+            }
+            Map<String, Object> attackPatternSpec = new LinkedHashMap<>();
+            attackPatternSpec.put("version", attackPatterns.version());
+            attackPatternSpec.put("patterns", patterns);
+            spec.put("attackPatterns", attackPatternSpec);
+        }
+        return spec;
+    }
+}
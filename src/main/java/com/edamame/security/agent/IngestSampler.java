@@ -0,0 +1,126 @@
+package com.edamame.security.agent;
+
+import com.edamame.security.db.AccessRollupBatch;
+import com.edamame.security.tools.AppLogger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * 過負荷時の access_log 保存の間引き（ロードシェディング）
+ * 取込書き込み（IngestWriter）のキュー使用率または直近のフラッシュ所要時間がしきい値を超えた場合、
+ * 正常なアクセスの access_log への保存を 1/N に間引き、攻撃検知の遅れより保存件数を優先して減らす。
+ * 不審なアクセス（攻撃タイプあり・ModSecurity一致・4xx/5xx）は常に保存する。
+ * <p>
+ * 間引き率 N は過負荷が続く間は調整間隔ごとに倍に（上限 {@link #MAX_SAMPLE_RATE}）、回復後は半分に戻す。
+ * 保存した行には間引き率を記録し（access_log.sample_rate）、時間別ロールアップには間引き率の件数として加算する
+ * （間引いた分は access_stats_hourly.sampled_out_count に数える）。間引いた行も URL登録・攻撃判定・アクション評価は行う。
+ * </p>
+ *
+ * @author Edamame Team
+ * @version 1.0.0
+ */
+final class IngestSampler {
+
+    /** 間引き率の上限 */
+    static final int MAX_SAMPLE_RATE = 64;
+    /** 過負荷とみなすキュー使用率（%） */
+    private static final int OVERLOAD_QUEUE_PERCENT = 50;
+    /** 回復とみなすキュー使用率（%） */
+    private static final int RECOVERED_QUEUE_PERCENT = 20;
+    /** 過負荷とみなすフラッシュ所要時間（ミリ秒） */
+    private static final long OVERLOAD_FLUSH_MS = 2_000;
+    /** 回復とみなすフラッシュ所要時間（ミリ秒） */
+    private static final long RECOVERED_FLUSH_MS = 500;
+    /** 間引き率を調整する最短間隔（ミリ秒） */
+    private static final long ADJUST_INTERVAL_MS = 5_000;
+
+    private final IntSupplier queuePercent;
+    private final LongSupplier lastFlushMillis;
+    private final AtomicLong cleanCounter = new AtomicLong();
+    private final AtomicLong sampledOutCount = new AtomicLong();
+    private volatile int sampleRate = 1;
+    private long lastAdjustedAt; // this で同期
+
+    /**
+     * コンストラクタ
+     *
+     * @param queuePercent 取込書き込みのキュー使用率（0〜100）
+     * @param lastFlushMillis 直近のフラッシュ所要時間（ミリ秒）
+     */
+    IngestSampler(IntSupplier queuePercent, LongSupplier lastFlushMillis) {
+        this.queuePercent = queuePercent;
+        this.lastFlushMillis = lastFlushMillis;
+    }
+
+    /**
+     * 負荷に応じて間引き率を調整（バッチの処理開始時に呼ぶ。調整間隔内は何もしない）
+     *
+     * @return 調整後の間引き率（間引きなしは1）
+     */
+    synchronized int adjust() {
+        long now = System.currentTimeMillis();
+        if (now - lastAdjustedAt < ADJUST_INTERVAL_MS) {
+            return sampleRate;
+        }
+        lastAdjustedAt = now;
+        int queue = queuePercent.getAsInt();
+        long flushMillis = lastFlushMillis.getAsLong();
+        int current = sampleRate;
+        int next = current;
+        if (queue >= OVERLOAD_QUEUE_PERCENT || flushMillis >= OVERLOAD_FLUSH_MS) {
+            next = Math.min(MAX_SAMPLE_RATE, current * 2);
+        } else if (queue <= RECOVERED_QUEUE_PERCENT && flushMillis <= RECOVERED_FLUSH_MS) {
+            next = Math.max(1, current / 2);
+        }
+        if (next != current) {
+            sampleRate = next;
+            if (next > 1) {
+                AppLogger.warn("取込が遅延しているため、正常なアクセスのaccess_log保存を 1/" + next + " に間引きます"
+                    + "（キュー使用率 " + queue + "%、フラッシュ " + flushMillis + "ms）");
+            } else {
+                AppLogger.info("取込の遅延が解消したため、access_logの間引きを終了しました（間引き件数 " + sampledOutCount.get() + "）");
+            }
+        }
+        return next;
+    }
+
+    /**
+     * 常に保存する不審なアクセスか（攻撃タイプあり・ModSecurity一致・4xx/5xx）
+     *
+     * @param attackType 攻撃タイプ（null可）
+     * @param blockedByModSec ModSecurityアラートに一致したか
+     * @param statusCode HTTPステータス
+     * @return 不審なアクセスの場合true
+     */
+    static boolean isSuspicious(String attackType, boolean blockedByModSec, int statusCode) {
+        return blockedByModSec || statusCode >= 400 || AccessRollupBatch.isAttackType(attackType);
+    }
+
+    /**
+     * 正常なアクセスを保存するか判定
+     *
+     * @param rate adjust で取得したバッチの間引き率
+     * @return 保存する場合はその行が代表する件数（間引き率）、間引く場合は0
+     */
+    int sample(int rate) {
+        if (rate <= 1) {
+            return 1;
+        }
+        if (cleanCounter.getAndIncrement() % rate == 0) {
+            return rate;
+        }
+        sampledOutCount.incrementAndGet();
+        return 0;
+    }
+
+    /**
+     * 現在の間引き率を取得
+     *
+     * @return 間引き率（間引きなしは1）
+     */
+    int getSampleRate() {
+        return sampleRate;
+    }
+}
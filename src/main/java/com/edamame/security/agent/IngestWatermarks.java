@@ -0,0 +1,145 @@
+package com.edamame.security.agent;
+
+import com.edamame.security.db.DbService;
+import com.edamame.security.db.IngestWriter;
+import com.edamame.security.tools.AppLogger;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * エージェントごとの取込済み位置（ハイウォーターマーク）の管理
+ * エージェントはログ行ごとに読み取り位置（ストリームID＋行末オフセット）を付与して送信する。
+ * 同じストリームID内のオフセットは単調に増えるため、ソースパスごとに取込済みの最大位置を保持し、
+ * それ以下の位置の行は再送（タイムアウト後の再試行・パイプライン送信の巻き戻し・スプールからの再送）として処理しない。
+ * <p>
+ * 位置は agent_ingest_watermarks テーブルに IngestWriter 経由で保存し、エージェントごとの初回バッチで読み込む。
+ * ストリームIDが変わった場合（ローテーション・切り詰め・エージェントの位置ファイル再作成）は新しい位置で置き換える。
+ * 位置の保存は対応する行のコミット完了後に要求し、メモリ上の位置は保存のコミット完了後に反映する。
+ * </p>
+ *
+ * v1.1.0: 集約バッチの重複判定用に、全行のバッチを処理する前の位置のスナップショット（snapshot）を追加
+ * v1.2.0: advance を commit に置き換え、保存のコミット完了を待ってからメモリ上の位置を反映
+ *
+ * @author Edamame Team
+ * @version 1.2.0
+ */
+final class IngestWatermarks {
+
+    /**
+     * 読み取り位置
+     *
+     * @param streamId ストリームID
+     * @param endOffset 行末オフセット
+     */
+    record Watermark(String streamId, long endOffset) {
+
+        /**
+         * 指定位置が取込済み（この位置以下）か
+         */
+        boolean covers(Watermark position) {
+            return streamId.equals(position.streamId()) && position.endOffset() <= endOffset;
+        }
+
+        /**
+         * 同じソースパスの2つの位置のうち後のもの（ストリームが異なる場合は後に受信した方）
+         */
+        static Watermark later(Watermark current, Watermark next) {
+            return current.streamId().equals(next.streamId()) && current.endOffset() >= next.endOffset() ? current : next;
+        }
+    }
+
+    /** 位置の保存のコミット完了待ちの上限（秒） */
+    private static final long COMMIT_TIMEOUT_SECONDS = 30;
+
+    /** エージェント名 → (ソースパス → 取込済み位置) */
+    private final Map<String, Map<String, Watermark>> byAgent = new ConcurrentHashMap<>();
+
+    /**
+     * ログデータの読み取り位置を取得
+     *
+     * @param logData エージェントから受信したログデータ
+     * @return 読み取り位置（位置を持たない旧エージェント・旧スプールのデータはnull）
+     */
+    static Watermark positionOf(Map<String, Object> logData) {
+        if (logData.get("streamId") instanceof String streamId && !streamId.isEmpty()
+                && logData.get("endOffset") instanceof Number offset && offset.longValue() > 0) {
+            return new Watermark(streamId, offset.longValue());
+        }
+        return null;
+    }
+
+    /**
+     * エージェントの取込済み位置を取得（初回はデータベースから読み込み）
+     *
+     * @param agentName エージェント名
+     * @return ソースパスごとの取込済み位置（読み込みに失敗した場合はnull。次回のバッチで再度読み込む）
+     */
+    Map<String, Watermark> forAgent(String agentName) {
+        Map<String, Watermark> watermarks = byAgent.get(agentName);
+        if (watermarks != null) {
+            return watermarks;
+        }
+        try {
+            List<Map<String, Object>> rows = DbService.selectIngestWatermarks(agentName);
+            Map<String, Watermark> loaded = new ConcurrentHashMap<>();
+            for (Map<String, Object> row : rows) {
+                loaded.put((String) row.get("source_path"),
+                    new Watermark((String) row.get("stream_id"), ((Number) row.get("end_offset")).longValue()));
+            }
+            Map<String, Watermark> existing = byAgent.putIfAbsent(agentName, loaded);
+            return existing != null ? existing : loaded;
+        } catch (Exception e) {
+            AppLogger.warn("取込済み位置の読み込みに失敗しました（このバッチは重複排除を行いません）: " + agentName + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * エージェントの取込済み位置のスナップショットを取得（集約バッチで全行のバッチを処理する前の位置を保持する）
+     *
+     * @param agentName エージェント名
+     * @return ソースパスごとの取込済み位置のコピー（読み込みに失敗した場合はnull）
+     */
+    Map<String, Watermark> snapshot(String agentName) {
+        Map<String, Watermark> watermarks = forAgent(agentName);
+        return watermarks != null ? Map.copyOf(watermarks) : null;
+    }
+
+    /**
+     * バッチで取込んだ位置を保存し、コミットできた位置をメモリへ反映
+     * 対応する行の書き込みがすべてコミットされた後に呼び出すこと（位置が行より先にコミットされないため）。
+     * 保存に失敗した位置はメモリへ反映しない（次回の再送は重複として破棄されず、もう一度取込まれる）
+     *
+     * @param agentName エージェント名
+     * @param watermarks forAgent で取得したエージェントの取込済み位置
+     * @param batchPositions ソースパスごとのコミット済みの最後の位置
+     */
+    void commit(String agentName, Map<String, Watermark> watermarks, Map<String, Watermark> batchPositions) {
+        Map<String, CompletableFuture<Void>> writes = new LinkedHashMap<>();
+        for (Map.Entry<String, Watermark> entry : batchPositions.entrySet()) {
+            Watermark position = entry.getValue();
+            try {
+                writes.put(entry.getKey(), DbService.submitIngestWrite(new IngestWriter.IngestWatermarkWrite(
+                    agentName, entry.getKey(), position.streamId(), position.endOffset())));
+            } catch (Exception e) {
+                AppLogger.warn("取込済み位置の保存要求に失敗しました: " + agentName + " " + entry.getKey() + " - " + e.getMessage());
+            }
+        }
+        for (Map.Entry<String, CompletableFuture<Void>> entry : writes.entrySet()) {
+            try {
+                entry.getValue().get(COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                watermarks.put(entry.getKey(), batchPositions.get(entry.getKey()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                AppLogger.warn("取込済み位置の保存に失敗しました: " + agentName + " " + entry.getKey() + " - " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.edamame.security.db;
+
+import com.edamame.security.tools.HyperLogLog;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 時間別ロールアップ（access_stats_hourly / attack_stats_hourly / status_stats_hourly）の1バッチ分の差分集計
+ * 取込処理で1行ずつ record し、バッチ終了時に DbService.upsertAccessRollups でまとめて加算する
+ * エージェントが集約して送った正常なアクセスは recordCount で件数ごと加える
+ * 過負荷時に間引いて保存したアクセスは間引き率の件数として加え、間引いた分を sampledOut に数える
+ * 間引いたアクセスの送信元IPは recordIps で件数を加えずにユニークIPスケッチへ加える
+ * 攻撃タイプは取込時の判定で計上する（url_registry.attack_type は登録後に変わらない）。取込後にModSecurityアラートが
+ * 一致したアクセスは recordLateModSecBlock でブロック数・攻撃数を補正する
+ */
+public class AccessRollupBatch {
+
+    private final Map<String, Bucket> buckets = new LinkedHashMap<>();
+
+    /**
+     * アクセス1件を集計に加える
+     * @param serverName サーバー名
+     * @param accessTime アクセス時刻（時単位に切り捨てて集計）
+     * @param statusCode HTTPステータス
+     * @param ipAddress 送信元IP
+     * @param attackType 攻撃タイプ（url_registry.attack_type相当、null可）
+     * @param blockedByModSec ModSecurityでブロックされたか
+     * @param sampleRate 過負荷時の間引き率（このアクセスが代表する件数。間引きなしは1）
+     */
+    public void record(String serverName, LocalDateTime accessTime, int statusCode, String ipAddress,
+                       String attackType, boolean blockedByModSec, int sampleRate) {
+        long weight = Math.max(1, sampleRate);
+        Bucket bucket = count(serverName, accessTime, statusCode, weight);
+        if (bucket == null) return;
+        bucket.sampledOut += weight - 1;
+        if (blockedByModSec) {
+            bucket.modsecBlocks++;
+        }
+        // ダッシュボードの攻撃判定（ModSecブロック または 攻撃タイプあり）と同一の基準
+        boolean typed = isAttackType(attackType);
+        if (typed || blockedByModSec) {
+            bucket.attacks++;
+            bucket.attackTypes.merge(typed ? attackType : "MODSEC", 1L, Long::sum);
+        }
+        bucket.ipSketch.add(ipAddress);
+    }
+
+    /**
+     * エージェントが集約して送った正常なアクセス（攻撃なし・ModSecurityブロックなし）の件数を集計に加える
+     * @param serverName サーバー名
+     * @param accessTime アクセス時刻（時単位に切り捨てて集計）
+     * @param statusCode HTTPステータス
+     * @param requestCount 件数
+     * @param ipAddresses 送信元IP（エージェントが上限まで集めたもの）
+     */
+    public void recordCount(String serverName, LocalDateTime accessTime, int statusCode, long requestCount,
+                            Collection<String> ipAddresses) {
+        Bucket bucket = count(serverName, accessTime, statusCode, requestCount);
+        if (bucket == null) return;
+        for (String ipAddress : ipAddresses) {
+            bucket.ipSketch.add(ipAddress);
+        }
+    }
+
+    /**
+     * 件数を加えずに送信元IPだけをユニークIPスケッチへ加える（過負荷時に間引いて保存しなかったアクセス）
+     * @param serverName サーバー名
+     * @param accessTime アクセス時刻（時単位に切り捨てて集計）
+     * @param ipAddresses 送信元IP
+     */
+    public void recordIps(String serverName, LocalDateTime accessTime, Collection<String> ipAddresses) {
+        Bucket bucket = bucket(serverName, accessTime);
+        if (bucket == null) return;
+        for (String ipAddress : ipAddresses) {
+            bucket.ipSketch.add(ipAddress);
+        }
+    }
+
+    /**
+     * 取込後にModSecurityアラートが一致したアクセス（取込時はブロックなしで計上済み）の補正を加える
+     * アクセス数・ステータス別件数は変えず、ModSecブロック数を加え、攻撃タイプがなければ攻撃数と MODSEC の件数を加える
+     * @param serverName サーバー名
+     * @param accessTime アクセス時刻（時単位に切り捨てて集計）
+     * @param attackType 取込時の攻撃タイプ（access_log.attack_type_id の攻撃タイプ、null可）
+     */
+    public void recordLateModSecBlock(String serverName, LocalDateTime accessTime, String attackType) {
+        Bucket bucket = bucket(serverName, accessTime);
+        if (bucket == null) return;
+        bucket.modsecBlocks++;
+        if (!isAttackType(attackType)) {
+            // 攻撃タイプありのアクセスは取込時に攻撃として計上済み
+            bucket.attacks++;
+            bucket.attackTypes.merge("MODSEC", 1L, Long::sum);
+        }
+    }
+
+    /**
+     * サーバー×時間帯のバケットに件数とステータスクラス別・ステータスコード別の件数を加える
+     * @return バケット（サーバー名がない場合はnull）
+     */
+    private Bucket count(String serverName, LocalDateTime accessTime, int statusCode, long requestCount) {
+        Bucket bucket = bucket(serverName, accessTime);
+        if (bucket == null) return null;
+        bucket.requests += requestCount;
+        switch (statusCode / 100) {
+            case 2 -> bucket.status2xx += requestCount;
+            case 3 -> bucket.status3xx += requestCount;
+            case 4 -> bucket.status4xx += requestCount;
+            case 5 -> bucket.status5xx += requestCount;
+            default -> bucket.statusOther += requestCount;
+        }
+        bucket.statusCodes.merge(statusCode, requestCount, Long::sum);
+        return bucket;
+    }
+
+    /**
+     * サーバー×時間帯のバケットを取得（なければ作成）
+     * @return バケット（サーバー名がない場合はnull）
+     */
+    private Bucket bucket(String serverName, LocalDateTime accessTime) {
+        if (serverName == null) return null;
+        LocalDateTime hour = (accessTime != null ? accessTime : LocalDateTime.now()).truncatedTo(ChronoUnit.HOURS);
+        return buckets.computeIfAbsent(serverName + "|" + hour, k -> new Bucket(serverName, hour));
+    }
+
+    /**
+     * 攻撃として計上する攻撃タイプか判定（CLEAN/UNKNOWN/normal以外）
+     * @param attackType 攻撃タイプ
+     * @return 攻撃タイプであればtrue
+     */
+    public static boolean isAttackType(String attackType) {
+        if (attackType == null || attackType.isBlank()) return false;
+        return !"CLEAN".equalsIgnoreCase(attackType)
+            && !"UNKNOWN".equalsIgnoreCase(attackType)
+            && !"normal".equalsIgnoreCase(attackType);
+    }
+
+    /**
+     * 集計が空か
+     * @return 1件も記録されていなければtrue
+     */
+    public boolean isEmpty() {
+        return buckets.isEmpty();
+    }
+
+    /**
+     * サーバー×時間帯ごとの集計一覧
+     * @return バケット一覧
+     */
+    public Collection<Bucket> buckets() {
+        return buckets.values();
+    }
+
+    /**
+     * サーバー×時間帯の集計値
+     */
+    public static final class Bucket {
+        final String serverName;
+        final LocalDateTime hourStart;
+        long requests;
+        long status2xx;
+        long status3xx;
+        long status4xx;
+        long status5xx;
+        long statusOther;
+        long attacks;
+        long modsecBlocks;
+        long sampledOut;
+        final Map<String, Long> attackTypes = new HashMap<>();
+        final Map<Integer, Long> statusCodes = new HashMap<>();
+        final HyperLogLog ipSketch = new HyperLogLog();
+
+        Bucket(String serverName, LocalDateTime hourStart) {
+            this.serverName = serverName;
+            this.hourStart = hourStart;
+        }
+
+        public String serverName() { return serverName; }
+        public LocalDateTime hourStart() { return hourStart; }
+        public long requests() { return requests; }
+        public long attacks() { return attacks; }
+    }
+}
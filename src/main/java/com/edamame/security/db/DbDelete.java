@@ -9,6 +9,9 @@ import java.sql.SQLException;
  * settingsテーブルの保存日数に従い、各テーブルの古いレコードを削除する
  * v2.1.0: DbService static化に対応、DbSessionを直接受け取る設計に変更
  * v2.2.0: block_ipクリーンアップを専用バッチに分離
+ * v2.3.0: 時間別ロールアップテーブルも保持期間・サーバー削除の対象に追加
+ * v2.4.0: 分×URL別の集計（access_stats_url_minute）も保持期間・サーバー削除の対象に追加
+ * v2.5.0: ステータスコード別の時間別集計（status_stats_hourly）も保持期間・サーバー削除の対象に追加
  */
 public class DbDelete {
 
@@ -35,6 +38,9 @@ public class DbDelete {
                                 // access_logを削除
                                 deleteOldAccessLogs(dbSession, retentionDays);
 
+                                // 時間別ロールアップを削除
+                                deleteOldAccessRollups(dbSession, retentionDays);
+
                                 // 非アクティブなagent_serversを削除
                                 deleteOldAgentServers(dbSession, retentionDays);
 
@@ -201,6 +207,35 @@ public class DbDelete {
         });
     }
 
+    /**
+     * 古い時間別ロールアップと分×URL別の集計を削除
+     */
+    private static void deleteOldAccessRollups(DbSession dbSession, int retentionDays) throws SQLException {
+        dbSession.execute(conn -> {
+            try {
+                int deleted = 0;
+                // テーブルと期間の開始時刻カラム
+                String[][] rollups = {
+                    {"access_stats_hourly", "hour_start"}, {"attack_stats_hourly", "hour_start"}, {"status_stats_hourly", "hour_start"},
+                    {"access_stats_url_minute", "minute_start"}
+                };
+                for (String[] rollup : rollups) {
+                    String sql = "DELETE FROM " + rollup[0] + " WHERE " + rollup[1] + " < DATE_SUB(NOW(), INTERVAL ? DAY)";
+                    try (var pstmt = conn.prepareStatement(sql)) {
+                        pstmt.setInt(1, retentionDays);
+                        deleted += pstmt.executeUpdate();
+                    }
+                }
+                if (deleted > 0) {
+                    AppLogger.info("古い時間別ロールアップを削除: " + deleted + " 件");
+                }
+            } catch (SQLException e) {
+                AppLogger.error("時間別ロールアップ削除エラー: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
     /**
      * 古い非アクティブエージェントサーバーを削除
      */
@@ -285,11 +320,13 @@ public class DbDelete {
                     // 1. modsec_alertsを削除（外部キー制約のため最初）
                     deleteModSecAlertsByServer(dbSession, serverName);
                     
-                    // 2. access_logを削除
+                    // 2. access_logと時間別ロールアップを削除
                     deleteAccessLogsByServer(dbSession, serverName);
+                    deleteAccessRollupsByServer(dbSession, serverName);
                     
                     // 3. url_registryを削除
                     deleteUrlRegistryByServer(dbSession, serverName);
+                    DbRegistry.clearUrlIdCache();
                     
                     // 4. users_rolesから該当role_idを削除（roles削除前に実行）
                     deleteUsersRolesByServer(dbSession, serverName);
@@ -362,6 +399,25 @@ public class DbDelete {
         });
     }
 
+    /**
+     * 指定サーバーの時間別ロールアップと分×URL別の集計を削除
+     */
+    private static void deleteAccessRollupsByServer(DbSession dbSession, String serverName) throws SQLException {
+        dbSession.execute(conn -> {
+            try {
+                for (String table : new String[]{"access_stats_hourly", "attack_stats_hourly", "status_stats_hourly", "access_stats_url_minute"}) {
+                    try (var pstmt = conn.prepareStatement("DELETE FROM " + table + " WHERE server_name = ?")) {
+                        pstmt.setString(1, serverName);
+                        pstmt.executeUpdate();
+                    }
+                }
+            } catch (SQLException e) {
+                AppLogger.error("時間別ロールアップ削除エラー: " + serverName + " - " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
     /**
      * 指定サーバーのURL登録情報を削除
      */
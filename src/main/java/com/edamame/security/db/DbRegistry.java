@@ -1,10 +1,16 @@
 package com.edamame.security.db;
 import com.edamame.security.tools.AppLogger;
+import com.edamame.security.tools.HyperLogLog;
 import java.sql.*;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.edamame.security.db.DbService.addDefaultRoleHierarchy;
 
@@ -12,9 +18,67 @@ import static com.edamame.security.db.DbService.addDefaultRoleHierarchy;
  * サーバー情報の登録・更新専用ユーティリティ
  * registerOrUpdateServer, insertAccessLog, registerUrlRegistryEntry等を提供
  * v2.1.0: DbService static化に対応、DbSessionを直接受け取る設計に変更
+ * v2.2.0: 時間別ロールアップ（access_stats_hourly / attack_stats_hourly）の加算処理を追加
+ * v2.3.0: access_log挿入時に攻撃タイプID（attack_types辞書）と脅威キーを同時に記録
+ * v2.4.0: access_logのURLをurl_registry.idで記録（URL→IDのキャッシュを保持）
+ * v2.6.0: エージェントの集約バッチの件数を分×URL別の集計（access_stats_url_minute）へ加算する文を追加
+ * v2.7.0: 過負荷時の間引き率（access_log.sample_rate）と、時間別ロールアップの間引き分の件数（sampled_out_count）を記録
+ * v2.8.0: 時間別ロールアップのユニークIPスケッチを呼び出し側のトランザクション内で行ロック（SELECT ... FOR UPDATE）して読み書きし、プロセス内ロックを廃止
+ * v2.9.0: 時間別ロールアップにステータスコード別の件数（status_stats_hourly）を加算
  */
 public class DbRegistry {
 
+    /** attack_types辞書のキャッシュ（攻撃タイプ→ID）。辞書は追記のみのため無効化は不要 */
+    private static final Map<String, Integer> ATTACK_TYPE_IDS = new ConcurrentHashMap<>();
+
+    /** access_log挿入文（パラメータは bindAccessLogInsert で設定） */
+    static final String INSERT_ACCESS_LOG_SQL = """
+            INSERT INTO access_log (
+                server_name, ip_address, method, url_id, status_code,
+                access_time, blocked_by_modsec, created_at, source_path, collected_at,
+                agent_registration_id, attack_type_id, threat_key, sample_rate
+            ) VALUES (?, ?, ?, ?, ?, ?, ?, NOW(), ?, ?, ?, ?, ?, ?)
+            """;
+
+    /** modsec_alerts挿入文（パラメータは bindModSecAlertInsert で設定） */
+    static final String INSERT_MODSEC_ALERT_SQL = """
+            INSERT INTO modsec_alerts (
+                access_log_id, rule_id, message, data_value, severity,
+                server_name, detected_at
+            ) VALUES (?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    /** url_registry最終アクセス情報の更新文（パラメータは bindUrlRegistryLatestUpdate で設定） */
+    static final String UPDATE_URL_REGISTRY_LATEST_SQL = """
+            UPDATE url_registry
+            SET latest_access_time = ?, latest_status_code = ?, latest_blocked_by_modsec = ?,
+                threat_key = ?, threat_label = ?, threat_priority = ?, updated_at = NOW()
+            WHERE server_name COLLATE utf8mb4_unicode_ci = ? AND method = ? AND full_url = ?
+            ORDER BY updated_at DESC
+            LIMIT 1
+            """;
+
+    /** access_stats_url_minute加算文（パラメータは bindUrlMinuteStatsUpsert で設定） */
+    static final String UPSERT_URL_MINUTE_STATS_SQL = """
+            INSERT INTO access_stats_url_minute (server_name, minute_start, url_id, status_code, request_count, response_bytes)
+            VALUES (?, ?, ?, ?, ?, ?)
+            ON DUPLICATE KEY UPDATE
+                request_count = request_count + VALUES(request_count),
+                response_bytes = response_bytes + VALUES(response_bytes)
+            """;
+
+    /** URL→url_registry.id キャッシュの最大件数（超過分は最も古く参照されたものから破棄） */
+    private static final int URL_ID_CACHE_SIZE = 50_000;
+
+    /** url_registry IDのキャッシュ（サーバー名・メソッド・URL→ID）。サーバー削除時にクリアする */
+    private static final Map<String, Integer> URL_IDS = Collections.synchronizedMap(
+        new LinkedHashMap<String, Integer>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > URL_ID_CACHE_SIZE;
+            }
+        });
+
     /**
      * サーバー情報を登録または更新
      * @param dbSession データベースセッション
@@ -283,123 +347,8 @@ public class DbRegistry {
     public static Long insertAccessLog(DbSession dbSession, Map<String, Object> parsedLog) throws SQLException {
         return dbSession.executeWithResult(conn -> {
             try {
-                String sql = """
-                    INSERT INTO access_log (
-                        server_name, ip_address, method, full_url, status_code,
-                        access_time, blocked_by_modsec, created_at, source_path, collected_at,
-                        agent_registration_id
-                    ) VALUES (?, ?, ?, ?, ?, ?, ?, NOW(), ?, ?, ?)
-                    """;
-
-                try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-                    // サーバー名の処理（NULL安全処理を追加）
-                    String serverName = (String) parsedLog.get("server_name");
-                    if (serverName == null || serverName.trim().isEmpty()) {
-                        // フォールバック: serverNameフィールドも確認
-                        serverName = (String) parsedLog.get("serverName");
-                        if (serverName == null || serverName.trim().isEmpty()) {
-                            serverName = "default"; // デフォルト値を設定
-                            AppLogger.warn("server_name/serverNameがnullのため、デフォルト値を設定: " + parsedLog);
-                        }
-                    }
-                    pstmt.setString(1, serverName);
-                    
-                    // IPアドレスの処理
-                    String clientIp = (String) parsedLog.get("ip_address");
-                    if (clientIp == null || clientIp.trim().isEmpty()) {
-                        // フォールバック: clientIpフィールドも確認
-                        clientIp = (String) parsedLog.get("clientIp");
-                        if (clientIp == null || clientIp.trim().isEmpty()) {
-                            clientIp = "unknown";
-                            AppLogger.warn("ip_address/clientIpがnullのため、デフォルト値を設定");
-                        }
-                    }
-                    pstmt.setString(2, clientIp);
-                    
-                    // HTTPメソッドの処理
-                    String httpMethod = (String) parsedLog.get("method");
-                    if (httpMethod == null || httpMethod.trim().isEmpty()) {
-                        // フォールバック: httpMethodフィールドも確認
-                        httpMethod = (String) parsedLog.get("httpMethod");
-                        if (httpMethod == null || httpMethod.trim().isEmpty()) {
-                            httpMethod = "GET";
-                            AppLogger.warn("method/httpMethodがnullのため、デフォルト値を設定");
-                        }
-                    }
-                    pstmt.setString(3, httpMethod);
-                    
-                    // URLの処理
-                    String requestUrl = (String) parsedLog.get("full_url");
-                    if (requestUrl == null || requestUrl.trim().isEmpty()) {
-                        // フォールバック: requestUrlフィールドも確認
-                        requestUrl = (String) parsedLog.get("requestUrl");
-                        if (requestUrl == null || requestUrl.trim().isEmpty()) {
-                            requestUrl = "/";
-                            AppLogger.warn("full_url/requestUrlがnullのため、デフォルト値を設定");
-                        }
-                    }
-                    pstmt.setString(4, requestUrl);
-                    
-                    // ステータスコードの処理
-                    Integer statusCode = (Integer) parsedLog.get("status_code");
-                    if (statusCode == null) {
-                        statusCode = (Integer) parsedLog.getOrDefault("statusCode", 0);
-                    }
-                    pstmt.setInt(5, statusCode);
-
-                    // access_timeの処理（エージェントから送信されたcollectedAtを使用）
-                    Object accessTime = parsedLog.get("collectedAt");
-                    if (accessTime != null) {
-                        // LocalDateTimeまたはTimestamp文字列として処理
-                        if (accessTime instanceof LocalDateTime) {
-                            pstmt.setTimestamp(6, Timestamp.valueOf((LocalDateTime) accessTime));
-                        } else if (accessTime instanceof String) {
-                            try {
-                                LocalDateTime dateTime = LocalDateTime.parse((String) accessTime);
-                                pstmt.setTimestamp(6, Timestamp.valueOf(dateTime));
-                            } catch (Exception e) {
-                                pstmt.setTimestamp(6, new Timestamp(System.currentTimeMillis()));
-                            }
-                        } else {
-                            pstmt.setTimestamp(6, new Timestamp(System.currentTimeMillis()));
-                        }
-                    } else {
-                        pstmt.setTimestamp(6, new Timestamp(System.currentTimeMillis()));
-                    }
-
-                    pstmt.setBoolean(7, (Boolean) parsedLog.getOrDefault("blockedByModSec", false));
-
-                    // source_pathの処理（snake_caseとcamelCaseの両方に対応）
-                    String sourcePath = (String) parsedLog.get("source_path");
-                    if (sourcePath == null || sourcePath.trim().isEmpty()) {
-                        // フォールバック: sourcePathフィールドも確認
-                        sourcePath = (String) parsedLog.get("sourcePath");
-                        if (sourcePath == null || sourcePath.trim().isEmpty()) {
-                            sourcePath = ""; // デフォルト値（空文字）
-                            AppLogger.debug("source_path/sourcePathがnullのため、デフォルト値を設定");
-                        }
-                    }
-                    pstmt.setString(8, sourcePath);
-
-                    // collected_atの処理（instanceof演算子はnullチェックを含むため冗長なnullチェックを削除）
-                    Object collectedAt = parsedLog.get("collectedAt");
-                    if (collectedAt instanceof LocalDateTime) {
-                        pstmt.setTimestamp(9, Timestamp.valueOf((LocalDateTime) collectedAt));
-                    } else {
-                        pstmt.setTimestamp(9, new Timestamp(System.currentTimeMillis()));
-                    }
-
-                    // agent_registration_idの処理（snake_caseとcamelCaseの両方に対応）
-                    String agentRegistrationId = (String) parsedLog.get("agent_registration_id");
-                    if (agentRegistrationId == null || agentRegistrationId.trim().isEmpty()) {
-                        // フォールバック: agentRegistrationIdフィールドも確認
-                        agentRegistrationId = (String) parsedLog.get("agentRegistrationId");
-                        if (agentRegistrationId == null || agentRegistrationId.trim().isEmpty()) {
-                            agentRegistrationId = null; // NULLを許可
-                            AppLogger.debug("agent_registration_id/agentRegistrationIdがnullのため、NULLを設定");
-                        }
-                    }
-                    pstmt.setString(10, agentRegistrationId);
+                try (PreparedStatement pstmt = conn.prepareStatement(INSERT_ACCESS_LOG_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                    bindAccessLogInsert(conn, pstmt, parsedLog);
 
                     int affected = pstmt.executeUpdate();
                     if (affected > 0) {
@@ -420,6 +369,272 @@ public class DbRegistry {
         });
     }
 
+    /**
+     * access_log挿入文のパラメータを設定（単発挿入とIngestWriterのバッチ挿入で共用）
+     * @param conn 挿入に使用するコネクション（URL・攻撃タイプの辞書ID解決に使用）
+     * @param pstmt INSERT_ACCESS_LOG_SQL から作成した文
+     * @param parsedLog ログ情報Map
+     * @throws SQLException SQL例外
+     */
+    static void bindAccessLogInsert(Connection conn, PreparedStatement pstmt, Map<String, Object> parsedLog) throws SQLException {
+        // サーバー名の処理（NULL安全処理を追加）
+        String serverName = (String) parsedLog.get("server_name");
+        if (serverName == null || serverName.trim().isEmpty()) {
+            // フォールバック: serverNameフィールドも確認
+            serverName = (String) parsedLog.get("serverName");
+            if (serverName == null || serverName.trim().isEmpty()) {
+                serverName = "default"; // デフォルト値を設定
+                AppLogger.warn("server_name/serverNameがnullのため、デフォルト値を設定: " + parsedLog);
+            }
+        }
+        pstmt.setString(1, serverName);
+        
+        // IPアドレスの処理
+        String clientIp = (String) parsedLog.get("ip_address");
+        if (clientIp == null || clientIp.trim().isEmpty()) {
+            // フォールバック: clientIpフィールドも確認
+            clientIp = (String) parsedLog.get("clientIp");
+            if (clientIp == null || clientIp.trim().isEmpty()) {
+                clientIp = "unknown";
+                AppLogger.warn("ip_address/clientIpがnullのため、デフォルト値を設定");
+            }
+        }
+        pstmt.setString(2, clientIp);
+        
+        // HTTPメソッドの処理
+        String httpMethod = (String) parsedLog.get("method");
+        if (httpMethod == null || httpMethod.trim().isEmpty()) {
+            // フォールバック: httpMethodフィールドも確認
+            httpMethod = (String) parsedLog.get("httpMethod");
+            if (httpMethod == null || httpMethod.trim().isEmpty()) {
+                httpMethod = "GET";
+                AppLogger.warn("method/httpMethodがnullのため、デフォルト値を設定");
+            }
+        }
+        pstmt.setString(3, httpMethod);
+        
+        // URLの処理
+        String requestUrl = (String) parsedLog.get("full_url");
+        if (requestUrl == null || requestUrl.trim().isEmpty()) {
+            // フォールバック: requestUrlフィールドも確認
+            requestUrl = (String) parsedLog.get("requestUrl");
+            if (requestUrl == null || requestUrl.trim().isEmpty()) {
+                requestUrl = "/";
+                AppLogger.warn("full_url/requestUrlがnullのため、デフォルト値を設定");
+            }
+        }
+        // URL文字列はurl_registryにのみ保持し、access_logにはIDを記録
+        Integer urlId = resolveUrlId(conn, serverName, httpMethod, requestUrl);
+        if (urlId == null) {
+            pstmt.setNull(4, Types.INTEGER);
+        } else {
+            pstmt.setInt(4, urlId);
+        }
+        
+        // ステータスコードの処理
+        Integer statusCode = (Integer) parsedLog.get("status_code");
+        if (statusCode == null) {
+            statusCode = (Integer) parsedLog.getOrDefault("statusCode", 0);
+        }
+        pstmt.setInt(5, statusCode);
+
+        // access_timeの処理（エージェントから送信されたcollectedAtを使用）
+        Object accessTime = parsedLog.get("collectedAt");
+        if (accessTime != null) {
+            // LocalDateTimeまたはTimestamp文字列として処理
+            if (accessTime instanceof LocalDateTime) {
+                pstmt.setTimestamp(6, Timestamp.valueOf((LocalDateTime) accessTime));
+            } else if (accessTime instanceof String) {
+                try {
+                    LocalDateTime dateTime = LocalDateTime.parse((String) accessTime);
+                    pstmt.setTimestamp(6, Timestamp.valueOf(dateTime));
+                } catch (Exception e) {
+                    pstmt.setTimestamp(6, new Timestamp(System.currentTimeMillis()));
+                }
+            } else {
+                pstmt.setTimestamp(6, new Timestamp(System.currentTimeMillis()));
+            }
+        } else {
+            pstmt.setTimestamp(6, new Timestamp(System.currentTimeMillis()));
+        }
+
+        // ModSecurityブロック判定（取込処理で挿入前に確定済み。snake_caseとcamelCaseの両方に対応）
+        Object blocked = parsedLog.containsKey("blocked_by_modsec")
+            ? parsedLog.get("blocked_by_modsec") : parsedLog.get("blockedByModSec");
+        pstmt.setBoolean(7, Boolean.TRUE.equals(blocked));
+
+        // source_pathの処理（snake_caseとcamelCaseの両方に対応）
+        String sourcePath = (String) parsedLog.get("source_path");
+        if (sourcePath == null || sourcePath.trim().isEmpty()) {
+            // フォールバック: sourcePathフィールドも確認
+            sourcePath = (String) parsedLog.get("sourcePath");
+            if (sourcePath == null || sourcePath.trim().isEmpty()) {
+                sourcePath = ""; // デフォルト値（空文字）
+                AppLogger.debug("source_path/sourcePathがnullのため、デフォルト値を設定");
+            }
+        }
+        pstmt.setString(8, sourcePath);
+
+        // collected_atの処理（instanceof演算子はnullチェックを含むため冗長なnullチェックを削除）
+        Object collectedAt = parsedLog.get("collectedAt");
+        if (collectedAt instanceof LocalDateTime) {
+            pstmt.setTimestamp(9, Timestamp.valueOf((LocalDateTime) collectedAt));
+        } else {
+            pstmt.setTimestamp(9, new Timestamp(System.currentTimeMillis()));
+        }
+
+        // agent_registration_idの処理（snake_caseとcamelCaseの両方に対応）
+        String agentRegistrationId = (String) parsedLog.get("agent_registration_id");
+        if (agentRegistrationId == null || agentRegistrationId.trim().isEmpty()) {
+            // フォールバック: agentRegistrationIdフィールドも確認
+            agentRegistrationId = (String) parsedLog.get("agentRegistrationId");
+            if (agentRegistrationId == null || agentRegistrationId.trim().isEmpty()) {
+                agentRegistrationId = null; // NULLを許可
+                AppLogger.debug("agent_registration_id/agentRegistrationIdがnullのため、NULLを設定");
+            }
+        }
+        pstmt.setString(10, agentRegistrationId);
+
+        // 取込時点の攻撃判定（ダッシュボードがurl_registryと結合せずに参照できるよう行に保持）
+        Integer attackTypeId = resolveAttackTypeId(conn, (String) parsedLog.get("verdict_attack_type"));
+        if (attackTypeId == null) {
+            pstmt.setNull(11, Types.SMALLINT);
+        } else {
+            pstmt.setInt(11, attackTypeId);
+        }
+        pstmt.setString(12, (String) parsedLog.get("threat_key"));
+
+        // 過負荷時の間引き率（この行が代表するアクセス数。間引きなしは1）
+        pstmt.setInt(13, parsedLog.get("sample_rate") instanceof Number rate ? Math.max(1, rate.intValue()) : 1);
+    }
+
+    /**
+     * URLをurl_registry.idに変換（キャッシュ→既存行の検索→未登録なら最小限の行を追加）
+     * 通常は取込処理で先にurl_registryへ登録済みのため、登録・更新時にキャッシュされたIDが使われる
+     * @param conn 取込処理と同一のコネクション
+     * @param serverName サーバー名
+     * @param method HTTPメソッド
+     * @param fullUrl フルURL
+     * @return url_registry.id
+     * @throws SQLException SQL例外
+     */
+    private static Integer resolveUrlId(Connection conn, String serverName, String method, String fullUrl) throws SQLException {
+        String key = urlIdKey(serverName, method, fullUrl);
+        Integer cached = URL_IDS.get(key);
+        if (cached != null) return cached;
+
+        String selectSql = "SELECT id FROM url_registry WHERE server_name = ? AND method = ? AND full_url = ? ORDER BY updated_at DESC LIMIT 1";
+        try (PreparedStatement sel = conn.prepareStatement(selectSql)) {
+            sel.setString(1, serverName);
+            sel.setString(2, method);
+            sel.setString(3, fullUrl);
+            try (ResultSet rs = sel.executeQuery()) {
+                if (rs.next()) {
+                    int id = rs.getInt(1);
+                    URL_IDS.put(key, id);
+                    return id;
+                }
+            }
+        }
+        String insertSql = "INSERT INTO url_registry (server_name, method, full_url, created_at, updated_at) VALUES (?, ?, ?, NOW(), NOW())";
+        try (PreparedStatement ins = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS)) {
+            ins.setString(1, serverName);
+            ins.setString(2, method);
+            ins.setString(3, fullUrl);
+            ins.executeUpdate();
+            try (ResultSet keys = ins.getGeneratedKeys()) {
+                if (keys.next()) {
+                    int id = keys.getInt(1);
+                    URL_IDS.put(key, id);
+                    return id;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * access_stats_url_minute加算文のパラメータを設定（URLはurl_registry.idに変換。IngestWriterのバッチ加算で使用）
+     * @param conn 取込処理と同一のコネクション
+     * @param pstmt UPSERT_URL_MINUTE_STATS_SQL の文
+     * @param serverName サーバー名
+     * @param method HTTPメソッド
+     * @param fullUrl フルURL（デコード済み）
+     * @param minuteStart 集計期間の開始時刻（分単位）
+     * @param statusCode HTTPステータス
+     * @param requestCount 件数
+     * @param responseBytes レスポンスサイズの合計
+     * @return パラメータを設定できた場合true（URLのIDを取得できない場合はfalse）
+     * @throws SQLException SQL例外
+     */
+    static boolean bindUrlMinuteStatsUpsert(Connection conn, PreparedStatement pstmt, String serverName, String method, String fullUrl,
+                                            LocalDateTime minuteStart, int statusCode, long requestCount, long responseBytes) throws SQLException {
+        Integer urlId = resolveUrlId(conn, serverName, method, fullUrl);
+        if (urlId == null) {
+            return false;
+        }
+        pstmt.setString(1, serverName);
+        pstmt.setTimestamp(2, Timestamp.valueOf(minuteStart));
+        pstmt.setInt(3, urlId);
+        pstmt.setInt(4, statusCode);
+        pstmt.setLong(5, requestCount);
+        pstmt.setLong(6, responseBytes);
+        return true;
+    }
+
+    /**
+     * URL IDキャッシュのキーを生成
+     */
+    private static String urlIdKey(String serverName, String method, String fullUrl) {
+        return serverName + '\0' + method + '\0' + fullUrl;
+    }
+
+    /**
+     * URL IDキャッシュを破棄（url_registryの行を削除した場合に呼び出す）
+     */
+    public static void clearUrlIdCache() {
+        URL_IDS.clear();
+    }
+
+    /**
+     * URL・攻撃タイプの辞書IDキャッシュを破棄（辞書行を追加したトランザクションがロールバックされた場合に呼び出す）
+     */
+    static void clearDictionaryCaches() {
+        URL_IDS.clear();
+        ATTACK_TYPE_IDS.clear();
+    }
+
+    /**
+     * 攻撃タイプをattack_types辞書のIDに変換（未登録なら追加）
+     * @param conn 取込処理と同一のコネクション
+     * @param attackType 攻撃タイプ（null/空の場合はnull）
+     * @return 辞書ID
+     * @throws SQLException SQL例外
+     */
+    private static Integer resolveAttackTypeId(Connection conn, String attackType) throws SQLException {
+        if (attackType == null || attackType.isBlank()) return null;
+        // url_registry.attack_type と同じ長さで丸める
+        String key = attackType.length() > 50 ? attackType.substring(0, 50) : attackType;
+        Integer cached = ATTACK_TYPE_IDS.get(key);
+        if (cached != null) return cached;
+
+        try (PreparedStatement ins = conn.prepareStatement("INSERT IGNORE INTO attack_types (attack_type) VALUES (?)")) {
+            ins.setString(1, key);
+            ins.executeUpdate();
+        }
+        try (PreparedStatement sel = conn.prepareStatement("SELECT id FROM attack_types WHERE attack_type = ?")) {
+            sel.setString(1, key);
+            try (ResultSet rs = sel.executeQuery()) {
+                if (rs.next()) {
+                    int id = rs.getInt(1);
+                    ATTACK_TYPE_IDS.put(key, id);
+                    return id;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * url_registryテーブルに新規URLを登録
      * @param dbSession データベースセッション
@@ -442,7 +657,7 @@ public class DbRegistry {
                     VALUES (?, ?, ?, ?, ?, NOW(), NOW(), ?, ?, ?, ?, ?, ?)
                 """;
 
-                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
                     pstmt.setString(1, serverName);
                     pstmt.setString(2, method);
                     pstmt.setString(3, fullUrl);
@@ -461,6 +676,11 @@ public class DbRegistry {
 
                     int affected = pstmt.executeUpdate();
                     if (affected > 0) {
+                        try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                            if (keys.next()) {
+                                URL_IDS.put(urlIdKey(serverName, method, fullUrl), keys.getInt(1));
+                            }
+                        }
                         AppLogger.info("URL登録成功: " + method + " " + fullUrl + " (whitelisted=" + isWhitelisted + ")");
                         return true;
                     }
@@ -482,59 +702,222 @@ public class DbRegistry {
      * @param latestAccessTime 最終アクセス時刻
      * @param latestStatusCode 最終HTTPステータス
      * @param latestBlockedByModsec 最終ModSecブロック有無
+     * @return 登録済みの攻撃タイプと今回の脅威判定（該当行がない場合はnull）
      * @throws SQLException SQL例外
      */
-    public static void updateUrlRegistryLatest(DbSession dbSession, String serverName, String method, String fullUrl,
-                                               Timestamp latestAccessTime, Integer latestStatusCode, Boolean latestBlockedByModsec) throws SQLException {
+    public static UrlRegistryVerdict updateUrlRegistryLatest(DbSession dbSession, String serverName, String method, String fullUrl,
+                                                 Timestamp latestAccessTime, Integer latestStatusCode, Boolean latestBlockedByModsec) throws SQLException {
+        UrlRegistryVerdict verdict = selectUrlRegistryVerdict(dbSession, serverName, method, fullUrl, latestBlockedByModsec);
+        if (verdict == null) {
+            return null;
+        }
         dbSession.execute(conn -> {
-            String selectSql = "SELECT is_whitelisted, user_final_threat, attack_type FROM url_registry WHERE server_name COLLATE utf8mb4_unicode_ci = ? AND method = ? AND full_url = ? ORDER BY updated_at DESC LIMIT 1";
-            String updateSql = """
-                UPDATE url_registry
-                SET latest_access_time = ?, latest_status_code = ?, latest_blocked_by_modsec = ?,
-                    threat_key = ?, threat_label = ?, threat_priority = ?, updated_at = NOW()
-                WHERE server_name COLLATE utf8mb4_unicode_ci = ? AND method = ? AND full_url = ?
-                ORDER BY updated_at DESC
-                LIMIT 1
-                """;
+            try (PreparedStatement pstmt = conn.prepareStatement(UPDATE_URL_REGISTRY_LATEST_SQL)) {
+                bindUrlRegistryLatestUpdate(pstmt, serverName, method, fullUrl, latestAccessTime, latestStatusCode, latestBlockedByModsec, verdict.threat());
+                pstmt.executeUpdate();
+            } catch (SQLException e) {
+                AppLogger.error("url_registry最新アクセス更新エラー: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+        return verdict;
+    }
+
+    /**
+     * url_registry の登録内容から今回のアクセスの判定結果を取得（更新は行わない）
+     * 取込処理はこの判定をaccess_log挿入に使い、最終アクセス情報の更新はIngestWriterへ委ねる
+     * @param dbSession データベースセッション
+     * @param serverName サーバー名
+     * @param method HTTPメソッド
+     * @param fullUrl フルURL
+     * @param latestBlockedByModsec 今回のModSecブロック有無
+     * @return 登録済みの攻撃タイプと今回の脅威判定（該当行がない場合はnull）
+     * @throws SQLException SQL例外
+     */
+    public static UrlRegistryVerdict selectUrlRegistryVerdict(DbSession dbSession, String serverName, String method, String fullUrl,
+                                                              Boolean latestBlockedByModsec) throws SQLException {
+        return dbSession.executeWithResult(conn -> {
+            String selectSql = "SELECT id, is_whitelisted, user_final_threat, attack_type FROM url_registry WHERE server_name COLLATE utf8mb4_unicode_ci = ? AND method = ? AND full_url = ? ORDER BY updated_at DESC LIMIT 1";
             try (PreparedStatement sel = conn.prepareStatement(selectSql)) {
                 sel.setString(1, serverName);
                 sel.setString(2, method);
                 sel.setString(3, fullUrl);
-                boolean isWhitelisted = false;
-                Boolean userFinalThreat = null;
-                String attackType = null;
                 try (ResultSet rs = sel.executeQuery()) {
-                    if (rs.next()) {
-                        isWhitelisted = rs.getBoolean("is_whitelisted");
-                        Object uft = rs.getObject("user_final_threat");
-                        userFinalThreat = uft == null ? null : rs.getBoolean("user_final_threat");
-                        attackType = rs.getString("attack_type");
-                    }
-                }
-                ThreatEvaluation eval = evaluateThreat(isWhitelisted, userFinalThreat, attackType, latestBlockedByModsec);
-                try (PreparedStatement pstmt = conn.prepareStatement(updateSql)) {
-                    pstmt.setTimestamp(1, latestAccessTime != null ? latestAccessTime : new Timestamp(System.currentTimeMillis()));
-                    if (latestStatusCode == null) {
-                        pstmt.setNull(2, Types.INTEGER);
-                    } else {
-                        pstmt.setInt(2, latestStatusCode);
+                    if (!rs.next()) {
+                        return null;
                     }
-                    pstmt.setBoolean(3, latestBlockedByModsec != null && latestBlockedByModsec);
-                    pstmt.setString(4, eval.key());
-                    pstmt.setString(5, eval.label());
-                    pstmt.setInt(6, eval.priority());
-                    pstmt.setString(7, serverName);
-                    pstmt.setString(8, method);
-                    pstmt.setString(9, fullUrl);
-                    pstmt.executeUpdate();
+                    URL_IDS.put(urlIdKey(serverName, method, fullUrl), rs.getInt("id"));
+                    boolean isWhitelisted = rs.getBoolean("is_whitelisted");
+                    Object uft = rs.getObject("user_final_threat");
+                    Boolean userFinalThreat = uft == null ? null : rs.getBoolean("user_final_threat");
+                    String attackType = rs.getString("attack_type");
+                    return new UrlRegistryVerdict(attackType, evaluateThreat(isWhitelisted, userFinalThreat, attackType, latestBlockedByModsec));
                 }
             } catch (SQLException e) {
-                AppLogger.error("url_registry最新アクセス更新エラー: " + e.getMessage());
+                AppLogger.error("url_registry判定取得エラー: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * url_registry最終アクセス情報の更新文のパラメータを設定（単発更新とIngestWriterのバッチ更新で共用）
+     */
+    static void bindUrlRegistryLatestUpdate(PreparedStatement pstmt, String serverName, String method, String fullUrl,
+                                            Timestamp latestAccessTime, Integer latestStatusCode, Boolean latestBlockedByModsec,
+                                            ThreatEvaluation eval) throws SQLException {
+        pstmt.setTimestamp(1, latestAccessTime != null ? latestAccessTime : new Timestamp(System.currentTimeMillis()));
+        if (latestStatusCode == null) {
+            pstmt.setNull(2, Types.INTEGER);
+        } else {
+            pstmt.setInt(2, latestStatusCode);
+        }
+        pstmt.setBoolean(3, latestBlockedByModsec != null && latestBlockedByModsec);
+        pstmt.setString(4, eval.key());
+        pstmt.setString(5, eval.label());
+        pstmt.setInt(6, eval.priority());
+        pstmt.setString(7, serverName);
+        pstmt.setString(8, method);
+        pstmt.setString(9, fullUrl);
+    }
+
+    /**
+     * 時間別ロールアップ（access_stats_hourly / attack_stats_hourly / status_stats_hourly）にバッチ分の集計を加算
+     * カウンタは INSERT ... ON DUPLICATE KEY UPDATE で加算し、ユニークIPスケッチは既存値とマージして書き戻す。
+     * スケッチの読み書きが他のコネクションと競合しないよう、1トランザクションで実行する
+     * @param dbSession データベースセッション
+     * @param batch バッチ集計
+     * @throws SQLException SQL例外
+     */
+    public static void upsertAccessRollups(DbSession dbSession, AccessRollupBatch batch) throws SQLException {
+        if (batch == null || batch.isEmpty()) return;
+        dbSession.executeInTransaction(conn -> {
+            try {
+                upsertAccessRollups(conn, batch);
+            } catch (SQLException e) {
+                AppLogger.error("時間別ロールアップ更新エラー: " + e.getMessage());
                 throw new RuntimeException(e);
             }
         });
     }
 
+    /**
+     * 指定コネクション上で時間別ロールアップを加算（IngestWriterのフラッシュトランザクション内からも使用）
+     * カウンタの加算で対象行を作成・行ロックしてから、スケッチを SELECT ... FOR UPDATE で読み、マージして書き戻す。
+     * 行ロックは呼び出し側のトランザクションの終了まで保持されるため、取込の通常レーン・優先レーンなど
+     * 別コネクションからの同じサーバー×時間帯の更新は、先にコミットされたスケッチへマージされる。
+     * 行ロックの取得順はサーバー名・時間帯の順にそろえる（並行する更新どうしのデッドロックを避ける）。
+     * スケッチに加えるIPがないバケット（取込後のModSecurityブロックの補正など）はスケッチを読み書きしない。
+     * IPを含むバッチは自動コミットを無効にしたトランザクション内で呼び出すこと
+     * @param conn コネクション
+     * @param batch バッチ集計
+     * @throws SQLException SQL例外
+     */
+    static void upsertAccessRollups(Connection conn, AccessRollupBatch batch) throws SQLException {
+        if (batch == null || batch.isEmpty()) return;
+        String upsertAccessSql = """
+            INSERT INTO access_stats_hourly
+                (server_name, hour_start, request_count, status_2xx, status_3xx, status_4xx, status_5xx, status_other,
+                 attack_count, modsec_blocks, distinct_ip_estimate, ip_sketch, sampled_out_count)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, NULL, ?)
+            ON DUPLICATE KEY UPDATE
+                request_count = request_count + VALUES(request_count),
+                status_2xx = status_2xx + VALUES(status_2xx),
+                status_3xx = status_3xx + VALUES(status_3xx),
+                status_4xx = status_4xx + VALUES(status_4xx),
+                status_5xx = status_5xx + VALUES(status_5xx),
+                status_other = status_other + VALUES(status_other),
+                attack_count = attack_count + VALUES(attack_count),
+                modsec_blocks = modsec_blocks + VALUES(modsec_blocks),
+                sampled_out_count = sampled_out_count + VALUES(sampled_out_count)
+            """;
+        String selectSketchSql = "SELECT ip_sketch FROM access_stats_hourly WHERE server_name = ? AND hour_start = ? FOR UPDATE";
+        String updateSketchSql = "UPDATE access_stats_hourly SET ip_sketch = ?, distinct_ip_estimate = ? WHERE server_name = ? AND hour_start = ?";
+        String upsertAttackSql = """
+            INSERT INTO attack_stats_hourly (server_name, hour_start, attack_type, attack_count)
+            VALUES (?, ?, ?, ?)
+            ON DUPLICATE KEY UPDATE attack_count = attack_count + VALUES(attack_count)
+            """;
+        String upsertStatusSql = """
+            INSERT INTO status_stats_hourly (server_name, hour_start, status_code, request_count)
+            VALUES (?, ?, ?, ?)
+            ON DUPLICATE KEY UPDATE request_count = request_count + VALUES(request_count)
+            """;
+        List<AccessRollupBatch.Bucket> buckets = new ArrayList<>(batch.buckets());
+        buckets.sort(Comparator.comparing(AccessRollupBatch.Bucket::serverName).thenComparing(AccessRollupBatch.Bucket::hourStart));
+        try (PreparedStatement access = conn.prepareStatement(upsertAccessSql);
+             PreparedStatement sel = conn.prepareStatement(selectSketchSql);
+             PreparedStatement sketchUpdate = conn.prepareStatement(updateSketchSql);
+             PreparedStatement attack = conn.prepareStatement(upsertAttackSql);
+             PreparedStatement status = conn.prepareStatement(upsertStatusSql)) {
+            for (AccessRollupBatch.Bucket bucket : buckets) {
+                access.setString(1, bucket.serverName);
+                access.setTimestamp(2, Timestamp.valueOf(bucket.hourStart));
+                access.setLong(3, bucket.requests);
+                access.setLong(4, bucket.status2xx);
+                access.setLong(5, bucket.status3xx);
+                access.setLong(6, bucket.status4xx);
+                access.setLong(7, bucket.status5xx);
+                access.setLong(8, bucket.statusOther);
+                access.setLong(9, bucket.attacks);
+                access.setLong(10, bucket.modsecBlocks);
+                access.setLong(11, bucket.sampledOut);
+                access.addBatch();
+            }
+            access.executeBatch();
+
+            boolean hasSketchRows = false;
+            boolean hasAttackRows = false;
+            boolean hasStatusRows = false;
+            for (AccessRollupBatch.Bucket bucket : buckets) {
+                Timestamp hour = Timestamp.valueOf(bucket.hourStart);
+                if (!bucket.ipSketch.isEmpty()) {
+                    // 行ロック済みのため、ロック読み取りで他のコネクションがコミットした最新のスケッチを読む
+                    HyperLogLog sketch = new HyperLogLog();
+                    sketch.merge(bucket.ipSketch);
+                    sel.setString(1, bucket.serverName);
+                    sel.setTimestamp(2, hour);
+                    try (ResultSet rs = sel.executeQuery()) {
+                        if (rs.next()) {
+                            sketch.merge(rs.getBytes("ip_sketch"));
+                        }
+                    }
+                    sketchUpdate.setBytes(1, sketch.toBytes());
+                    sketchUpdate.setLong(2, sketch.estimate());
+                    sketchUpdate.setString(3, bucket.serverName);
+                    sketchUpdate.setTimestamp(4, hour);
+                    sketchUpdate.addBatch();
+                    hasSketchRows = true;
+                }
+                for (var entry : bucket.attackTypes.entrySet()) {
+                    attack.setString(1, bucket.serverName);
+                    attack.setTimestamp(2, hour);
+                    attack.setString(3, entry.getKey());
+                    attack.setLong(4, entry.getValue());
+                    attack.addBatch();
+                    hasAttackRows = true;
+                }
+                for (var entry : bucket.statusCodes.entrySet()) {
+                    status.setString(1, bucket.serverName);
+                    status.setTimestamp(2, hour);
+                    status.setInt(3, entry.getKey());
+                    status.setLong(4, entry.getValue());
+                    status.addBatch();
+                    hasStatusRows = true;
+                }
+            }
+            if (hasSketchRows) {
+                sketchUpdate.executeBatch();
+            }
+            if (hasAttackRows) {
+                attack.executeBatch();
+            }
+            if (hasStatusRows) {
+                status.executeBatch();
+            }
+        }
+    }
+
     /**
      * modsec_alertsテーブルにModSecurityアラートを保存
      * @param dbSession データベースセッション
@@ -545,54 +928,8 @@ public class DbRegistry {
     public static void insertModSecAlert(DbSession dbSession, Long accessLogId, Map<String, Object> modSecInfo) throws SQLException {
         dbSession.execute(conn -> {
             try {
-                String sql = """
-                    INSERT INTO modsec_alerts (
-                        access_log_id, rule_id, message, data_value, severity,
-                        server_name, detected_at
-                    ) VALUES (?, ?, ?, ?, ?, ?, ?)
-                    """;
-
-                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                    pstmt.setLong(1, accessLogId);
-                    pstmt.setString(2, (String) modSecInfo.get("rule_id"));
-                    pstmt.setString(3, (String) modSecInfo.get("message"));
-                    pstmt.setString(4, (String) modSecInfo.get("data_value"));
-
-                    // severityはIntegerまたはStringの場合がある
-                    Object severity = modSecInfo.get("severity");
-                    if (severity instanceof Integer) {
-                        pstmt.setInt(5, (Integer) severity);
-                    } else if (severity instanceof String) {
-                        try {
-                            pstmt.setInt(5, Integer.parseInt((String) severity));
-                        } catch (NumberFormatException e) {
-                            pstmt.setInt(5, 0); // デフォルト値
-                        }
-                    } else {
-                        pstmt.setInt(5, 0);
-                    }
-
-                    pstmt.setString(6, (String) modSecInfo.get("server_name"));
-
-                    // detected_atの処理（文字列またはTimestamp/LocalDateTimeに対応）
-                    Object detectedAt = modSecInfo.get("detected_at");
-                    if (detectedAt != null) {
-                        if (detectedAt instanceof LocalDateTime) {
-                            pstmt.setTimestamp(7, Timestamp.valueOf((LocalDateTime) detectedAt));
-                        } else if (detectedAt instanceof String) {
-                            try {
-                                LocalDateTime dateTime = LocalDateTime.parse((String) detectedAt);
-                                pstmt.setTimestamp(7, Timestamp.valueOf(dateTime));
-                            } catch (Exception e) {
-                                // パース失敗時は現在時刻を使用
-                                pstmt.setTimestamp(7, new Timestamp(System.currentTimeMillis()));
-                            }
-                        } else {
-                            pstmt.setTimestamp(7, new Timestamp(System.currentTimeMillis()));
-                        }
-                    } else {
-                        pstmt.setTimestamp(7, new Timestamp(System.currentTimeMillis()));
-                    }
+                try (PreparedStatement pstmt = conn.prepareStatement(INSERT_MODSEC_ALERT_SQL)) {
+                    bindModSecAlertInsert(pstmt, accessLogId, modSecInfo);
 
                     int affected = pstmt.executeUpdate();
                     if (affected > 0) {
@@ -606,6 +943,56 @@ public class DbRegistry {
         });
     }
 
+    /**
+     * modsec_alerts挿入文のパラメータを設定（単発挿入とIngestWriterのバッチ挿入で共用）
+     * @param pstmt INSERT_MODSEC_ALERT_SQL から作成した文
+     * @param accessLogId アクセスログID
+     * @param modSecInfo アラート情報Map
+     * @throws SQLException SQL例外
+     */
+    static void bindModSecAlertInsert(PreparedStatement pstmt, Long accessLogId, Map<String, Object> modSecInfo) throws SQLException {
+        pstmt.setLong(1, accessLogId);
+        pstmt.setString(2, (String) modSecInfo.get("rule_id"));
+        pstmt.setString(3, (String) modSecInfo.get("message"));
+        pstmt.setString(4, (String) modSecInfo.get("data_value"));
+
+        // severityはIntegerまたはStringの場合がある
+        Object severity = modSecInfo.get("severity");
+        if (severity instanceof Integer) {
+            pstmt.setInt(5, (Integer) severity);
+        } else if (severity instanceof String) {
+            try {
+                pstmt.setInt(5, Integer.parseInt((String) severity));
+            } catch (NumberFormatException e) {
+                pstmt.setInt(5, 0); // デフォルト値
+            }
+        } else {
+            pstmt.setInt(5, 0);
+        }
+
+        pstmt.setString(6, (String) modSecInfo.get("server_name"));
+
+        // detected_atの処理（文字列またはTimestamp/LocalDateTimeに対応）
+        Object detectedAt = modSecInfo.get("detected_at");
+        if (detectedAt != null) {
+            if (detectedAt instanceof LocalDateTime) {
+                pstmt.setTimestamp(7, Timestamp.valueOf((LocalDateTime) detectedAt));
+            } else if (detectedAt instanceof String) {
+                try {
+                    LocalDateTime dateTime = LocalDateTime.parse((String) detectedAt);
+                    pstmt.setTimestamp(7, Timestamp.valueOf(dateTime));
+                } catch (Exception e) {
+                    // パース失敗時は現在時刻を使用
+                    pstmt.setTimestamp(7, new Timestamp(System.currentTimeMillis()));
+                }
+            } else {
+                pstmt.setTimestamp(7, new Timestamp(System.currentTimeMillis()));
+            }
+        } else {
+            pstmt.setTimestamp(7, new Timestamp(System.currentTimeMillis()));
+        }
+    }
+
     /**
      * サーバー名に対してadmin/operator/viewerロールを追加登録する
      * @param dbSession データベースセッション
@@ -671,4 +1058,7 @@ public class DbRegistry {
     }
 
     public record ThreatEvaluation(String key, String label, int priority) {}
+
+    /** url_registryから得たアクセス時点の判定結果（攻撃タイプと脅威度） */
+    public record UrlRegistryVerdict(String attackType, ThreatEvaluation threat) {}
 }
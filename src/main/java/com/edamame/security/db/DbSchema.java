@@ -6,9 +6,16 @@ import java.sql.*;
  * DBスキーマ管理クラス
  * DBの初期テーブル構造作成・カラム存在確認・追加機能を提供
  * v2.0.0: Connection引数を完全廃止、DbService専用に統一
+ * v2.1.0: エージェントの集約バッチ用に access_stats_url_minute（分×URL×ステータスの件数）を追加
+ * v2.2.0: 過負荷時の間引き用に access_log.sample_rate と access_stats_hourly.sampled_out_count を追加
+ * v2.2.1: 旧形式access_logのURL移行で登録するURLを未分類・移行登録として記録し、紐付けをid範囲ごとに分割
+ * v2.3.0: 時間別のステータスコード別件数 status_stats_hourly を追加（定時レポートのステータスコード別件数用）
  */
 public class DbSchema {
 
+    /** 旧形式access_logのURL移行で1回の紐付け更新が対象とするid範囲の行数 */
+    private static final long URL_MIGRATION_CHUNK_ROWS = 50_000;
+
     /**
      * 主要全テーブルのスキーマ自動整合
      * @param dbSession データベースセッション
@@ -29,21 +36,21 @@ public class DbSchema {
      * 内部実装：主要全テーブルのスキーマ自動整合を一括実行する
      */
     private static void syncAllTablesSchemaInternal(DbSession dbSession) throws SQLException {
-        // access_log
-        var accessLogDefs = new java.util.LinkedHashMap<String, String>();
-        accessLogDefs.put("id", "BIGINT AUTO_INCREMENT PRIMARY KEY");
-        accessLogDefs.put("server_name", "VARCHAR(100) NOT NULL DEFAULT 'default'");
-        accessLogDefs.put("method", "VARCHAR(10) NOT NULL");
-        accessLogDefs.put("full_url", "TEXT NOT NULL");
-        accessLogDefs.put("status_code", "INT NOT NULL");
-        accessLogDefs.put("ip_address", "VARCHAR(45) NOT NULL");
-        accessLogDefs.put("access_time", "DATETIME NOT NULL");
-        accessLogDefs.put("blocked_by_modsec", "BOOLEAN DEFAULT FALSE");
-        accessLogDefs.put("created_at", "DATETIME DEFAULT CURRENT_TIMESTAMP");
-        accessLogDefs.put("source_path", "VARCHAR(500)");
-        accessLogDefs.put("collected_at", "TIMESTAMP NULL");
-        accessLogDefs.put("agent_registration_id", "VARCHAR(255) NULL");
-        autoSyncTableColumns(dbSession, "access_log", accessLogDefs, null);
+        // attack_types（攻撃タイプ辞書。access_log.attack_type_id から参照）
+        var attackTypesDefs = new java.util.LinkedHashMap<String, String>();
+        attackTypesDefs.put("id", "SMALLINT AUTO_INCREMENT PRIMARY KEY");
+        attackTypesDefs.put("attack_type", "VARCHAR(50) NOT NULL UNIQUE");
+        attackTypesDefs.put("created_at", "DATETIME DEFAULT CURRENT_TIMESTAMP");
+        autoSyncTableColumns(dbSession, "attack_types", attackTypesDefs, null);
+
+        // 既存access_logに判定結果カラムが無い場合は、同期後にurl_registryから初期値を埋める
+        boolean accessLogNeedsVerdictBackfill = dbSession.executeWithResult(conn -> {
+            try {
+                return tableExists(conn, "access_log") && !getTableColumns(conn, "access_log").contains("attack_type_id");
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
 
         // url_registry
         var urlRegistryDefs = new java.util.LinkedHashMap<String, String>();
@@ -64,6 +71,46 @@ public class DbSchema {
         urlRegistryDefs.put("threat_label", "VARCHAR(50) DEFAULT '不明'");
         urlRegistryDefs.put("threat_priority", "INT DEFAULT 0");
         autoSyncTableColumns(dbSession, "url_registry", urlRegistryDefs, null);
+        var urlRegistryIndexes = new java.util.LinkedHashMap<String, String>();
+        urlRegistryIndexes.put("idx_url_registry_server_method_url", "server_name, method, full_url(255)");
+        urlRegistryIndexes.put("idx_url_registry_method_url", "method, full_url(255)");
+        autoSyncTableIndexes(dbSession, "url_registry", urlRegistryIndexes);
+
+        // 旧形式（full_urlをTEXTで保持）のaccess_logは、url_registryのIDへ移行してからfull_urlを削除する
+        boolean legacyUrlsRemain = migrateAccessLogUrlsToRegistry(dbSession);
+
+        // access_log（URLは url_registry.id を参照。文字列は url_registry 側にのみ保持）
+        var accessLogDefs = new java.util.LinkedHashMap<String, String>();
+        accessLogDefs.put("id", "BIGINT AUTO_INCREMENT PRIMARY KEY");
+        accessLogDefs.put("server_name", "VARCHAR(100) NOT NULL DEFAULT 'default'");
+        accessLogDefs.put("method", "VARCHAR(10) NOT NULL");
+        accessLogDefs.put("url_id", "INT NULL");
+        if (legacyUrlsRemain) {
+            // 移行できなかった行があるため旧カラムを残す（次回起動時に再移行）
+            accessLogDefs.put("full_url", "TEXT NULL");
+        }
+        accessLogDefs.put("status_code", "INT NOT NULL");
+        accessLogDefs.put("ip_address", "VARCHAR(45) NOT NULL");
+        accessLogDefs.put("access_time", "DATETIME NOT NULL");
+        accessLogDefs.put("blocked_by_modsec", "BOOLEAN DEFAULT FALSE");
+        accessLogDefs.put("created_at", "DATETIME DEFAULT CURRENT_TIMESTAMP");
+        accessLogDefs.put("source_path", "VARCHAR(500)");
+        accessLogDefs.put("collected_at", "TIMESTAMP NULL");
+        accessLogDefs.put("agent_registration_id", "VARCHAR(255) NULL");
+        accessLogDefs.put("attack_type_id", "SMALLINT NULL");
+        accessLogDefs.put("threat_key", "VARCHAR(20) NULL");
+        accessLogDefs.put("sample_rate", "INT NOT NULL DEFAULT 1");
+        autoSyncTableColumns(dbSession, "access_log", accessLogDefs, null);
+        // access_logのセカンダリインデックス（ダッシュボード集計・保持期間クリーンアップ・url_registry結合用）
+        var accessLogIndexes = new java.util.LinkedHashMap<String, String>();
+        accessLogIndexes.put("idx_access_log_access_time", "access_time");
+        accessLogIndexes.put("idx_access_log_server_time", "server_name, access_time");
+        accessLogIndexes.put("idx_access_log_url_id", "url_id");
+        autoSyncTableIndexes(dbSession, "access_log", accessLogIndexes);
+
+        if (accessLogNeedsVerdictBackfill) {
+            backfillAccessLogVerdicts(dbSession);
+        }
 
         // modsec_alerts
         var modsecDefs = new java.util.LinkedHashMap<String, String>();
@@ -81,6 +128,10 @@ public class DbSchema {
         modsecMigrate.put("msg", "message");
         modsecMigrate.put("data", "data_value");
         autoSyncTableColumns(dbSession, "modsec_alerts", modsecDefs, modsecMigrate);
+        var modsecIndexes = new java.util.LinkedHashMap<String, String>();
+        modsecIndexes.put("idx_modsec_alerts_access_log_id", "access_log_id");
+        modsecIndexes.put("idx_modsec_alerts_created_at", "created_at");
+        autoSyncTableIndexes(dbSession, "modsec_alerts", modsecIndexes);
 
         // servers
         var serversDefs = new java.util.LinkedHashMap<String, String>();
@@ -111,6 +162,8 @@ public class DbSchema {
         var blockIpDefs = new java.util.LinkedHashMap<String, String>();
         blockIpDefs.put("id", "BIGINT AUTO_INCREMENT PRIMARY KEY");
         blockIpDefs.put("ip_address", "VARBINARY(16) NOT NULL");
+        // 範囲指定（CIDR）のプレフィックス長。単一アドレスはNULL（ip_address はネットワークアドレス）
+        blockIpDefs.put("prefix_len", "TINYINT UNSIGNED NULL");
         blockIpDefs.put("service_type", "ENUM('MONITOR_BLOCK','APP_LOGIN','MANUAL') NOT NULL");
         blockIpDefs.put("target_agent_name", "VARCHAR(128)");
         blockIpDefs.put("reason", "VARCHAR(255) NOT NULL");
@@ -122,6 +175,10 @@ public class DbSchema {
         blockIpDefs.put("created_by", "VARCHAR(64) NOT NULL");
         blockIpDefs.put("updated_by", "VARCHAR(64) NOT NULL");
         autoSyncTableColumns(dbSession, "block_ip", blockIpDefs, null);
+        var blockIpIndexes = new java.util.LinkedHashMap<String, String>();
+        blockIpIndexes.put("idx_block_ip_lookup", "ip_address, service_type, status");
+        blockIpIndexes.put("idx_block_ip_status_end", "status, end_at");
+        autoSyncTableIndexes(dbSession, "block_ip", blockIpIndexes);
 
         // users
         var usersDefs = new java.util.LinkedHashMap<String, String>();
@@ -261,6 +318,16 @@ public class DbSchema {
         agentBlockRequestsDefs.put("result_message", "TEXT");
         autoSyncTableColumns(dbSession, "agent_block_requests", agentBlockRequestsDefs, null);
 
+        // agent_ingest_watermarks - エージェントのソースパスごとの取込済み位置（再送バッチの重複排除）
+        var agentIngestWatermarksDefs = new java.util.LinkedHashMap<String, String>();
+        agentIngestWatermarksDefs.put("agent_name", "VARCHAR(255) NOT NULL");
+        agentIngestWatermarksDefs.put("source_path", "VARCHAR(500) NOT NULL");
+        agentIngestWatermarksDefs.put("stream_id", "VARCHAR(64) NOT NULL");
+        agentIngestWatermarksDefs.put("end_offset", "BIGINT NOT NULL DEFAULT 0");
+        agentIngestWatermarksDefs.put("updated_at", "DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP");
+        agentIngestWatermarksDefs.put("PRIMARY KEY", "(agent_name, source_path)");
+        autoSyncTableColumns(dbSession, "agent_ingest_watermarks", agentIngestWatermarksDefs, null);
+
         // action_tools - アクション実行ツール定義
         var actionToolsDefs = new java.util.LinkedHashMap<String, String>();
         actionToolsDefs.put("id", "INT AUTO_INCREMENT PRIMARY KEY");
@@ -306,9 +373,272 @@ public class DbSchema {
         urlSuppressionsDefs.put("updated_at", "DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP");
         autoSyncTableColumns(dbSession, "url_suppressions", urlSuppressionsDefs, null);
 
+        // access_stats_hourly（サーバー×時間帯のアクセス集計。取込時にバッチ単位で加算）
+        boolean rollupExisted = dbSession.executeWithResult(conn -> {
+            try {
+                return tableExists(conn, "access_stats_hourly");
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        var accessStatsHourlyDefs = new java.util.LinkedHashMap<String, String>();
+        accessStatsHourlyDefs.put("server_name", "VARCHAR(100) NOT NULL");
+        accessStatsHourlyDefs.put("hour_start", "DATETIME NOT NULL");
+        accessStatsHourlyDefs.put("request_count", "BIGINT NOT NULL DEFAULT 0");
+        accessStatsHourlyDefs.put("status_2xx", "BIGINT NOT NULL DEFAULT 0");
+        accessStatsHourlyDefs.put("status_3xx", "BIGINT NOT NULL DEFAULT 0");
+        accessStatsHourlyDefs.put("status_4xx", "BIGINT NOT NULL DEFAULT 0");
+        accessStatsHourlyDefs.put("status_5xx", "BIGINT NOT NULL DEFAULT 0");
+        accessStatsHourlyDefs.put("status_other", "BIGINT NOT NULL DEFAULT 0");
+        accessStatsHourlyDefs.put("attack_count", "BIGINT NOT NULL DEFAULT 0");
+        accessStatsHourlyDefs.put("modsec_blocks", "BIGINT NOT NULL DEFAULT 0");
+        accessStatsHourlyDefs.put("distinct_ip_estimate", "BIGINT NOT NULL DEFAULT 0");
+        accessStatsHourlyDefs.put("ip_sketch", "VARBINARY(1024) NULL");
+        accessStatsHourlyDefs.put("sampled_out_count", "BIGINT NOT NULL DEFAULT 0");
+        accessStatsHourlyDefs.put("updated_at", "DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP");
+        accessStatsHourlyDefs.put("PRIMARY KEY", "(server_name, hour_start)");
+        autoSyncTableColumns(dbSession, "access_stats_hourly", accessStatsHourlyDefs, null);
+        var accessStatsHourlyIndexes = new java.util.LinkedHashMap<String, String>();
+        accessStatsHourlyIndexes.put("idx_access_stats_hourly_hour", "hour_start");
+        autoSyncTableIndexes(dbSession, "access_stats_hourly", accessStatsHourlyIndexes);
+
+        // attack_stats_hourly（サーバー×時間帯×攻撃タイプの件数）
+        var attackStatsHourlyDefs = new java.util.LinkedHashMap<String, String>();
+        attackStatsHourlyDefs.put("server_name", "VARCHAR(100) NOT NULL");
+        attackStatsHourlyDefs.put("hour_start", "DATETIME NOT NULL");
+        attackStatsHourlyDefs.put("attack_type", "VARCHAR(50) NOT NULL");
+        attackStatsHourlyDefs.put("attack_count", "BIGINT NOT NULL DEFAULT 0");
+        attackStatsHourlyDefs.put("PRIMARY KEY", "(server_name, hour_start, attack_type)");
+        autoSyncTableColumns(dbSession, "attack_stats_hourly", attackStatsHourlyDefs, null);
+        var attackStatsHourlyIndexes = new java.util.LinkedHashMap<String, String>();
+        attackStatsHourlyIndexes.put("idx_attack_stats_hourly_hour", "hour_start");
+        autoSyncTableIndexes(dbSession, "attack_stats_hourly", attackStatsHourlyIndexes);
+
+        // status_stats_hourly（サーバー×時間帯×ステータスコードの件数）
+        boolean statusRollupExisted = dbSession.executeWithResult(conn -> {
+            try {
+                return tableExists(conn, "status_stats_hourly");
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        var statusStatsHourlyDefs = new java.util.LinkedHashMap<String, String>();
+        statusStatsHourlyDefs.put("server_name", "VARCHAR(100) NOT NULL");
+        statusStatsHourlyDefs.put("hour_start", "DATETIME NOT NULL");
+        statusStatsHourlyDefs.put("status_code", "INT NOT NULL");
+        statusStatsHourlyDefs.put("request_count", "BIGINT NOT NULL DEFAULT 0");
+        statusStatsHourlyDefs.put("PRIMARY KEY", "(server_name, hour_start, status_code)");
+        autoSyncTableColumns(dbSession, "status_stats_hourly", statusStatsHourlyDefs, null);
+        var statusStatsHourlyIndexes = new java.util.LinkedHashMap<String, String>();
+        statusStatsHourlyIndexes.put("idx_status_stats_hourly_hour", "hour_start");
+        autoSyncTableIndexes(dbSession, "status_stats_hourly", statusStatsHourlyIndexes);
+
+        // access_stats_url_minute（サーバー×分×URL×ステータスの件数。エージェントが集約して送った正常なリクエスト）
+        var accessStatsUrlMinuteDefs = new java.util.LinkedHashMap<String, String>();
+        accessStatsUrlMinuteDefs.put("server_name", "VARCHAR(100) NOT NULL");
+        accessStatsUrlMinuteDefs.put("minute_start", "DATETIME NOT NULL");
+        accessStatsUrlMinuteDefs.put("url_id", "INT NOT NULL");
+        accessStatsUrlMinuteDefs.put("status_code", "INT NOT NULL");
+        accessStatsUrlMinuteDefs.put("request_count", "BIGINT NOT NULL DEFAULT 0");
+        accessStatsUrlMinuteDefs.put("response_bytes", "BIGINT NOT NULL DEFAULT 0");
+        accessStatsUrlMinuteDefs.put("PRIMARY KEY", "(server_name, minute_start, url_id, status_code)");
+        autoSyncTableColumns(dbSession, "access_stats_url_minute", accessStatsUrlMinuteDefs, null);
+        var accessStatsUrlMinuteIndexes = new java.util.LinkedHashMap<String, String>();
+        accessStatsUrlMinuteIndexes.put("idx_access_stats_url_minute_minute", "minute_start");
+        accessStatsUrlMinuteIndexes.put("idx_access_stats_url_minute_url", "url_id, minute_start");
+        autoSyncTableIndexes(dbSession, "access_stats_url_minute", accessStatsUrlMinuteIndexes);
+
+        if (!rollupExisted) {
+            backfillAccessRollups(dbSession);
+        }
+        if (!statusRollupExisted) {
+            backfillStatusRollups(dbSession);
+        }
+
         AppLogger.log("エージェント管理用テーブルのスキーマ同期が完了しました", "INFO");
     }
 
+    /**
+     * 旧形式のaccess_log（full_urlをTEXTで保持）をurl_registryのID参照（url_id）へ移行する
+     * url_registryに未登録のURLは登録してからIDを割り当てる。全行の移行を確認できた場合のみ、
+     * 旧インデックスを削除してfull_urlカラムの削除（カラム同期）を許可する
+     * 移行で登録するURLは取込時の攻撃判定・ホワイトリスト判定を経ていないため、未分類（UNKNOWN）・移行登録の注記付きとし、
+     * 登録日時・最終アクセス日時は access_log の最初・最後のアクセス時刻とする（新規検知として表示されないように）
+     * 紐付けは access_log の id 範囲ごとに分けて更新し、1回の更新が全行を対象にしないようにする
+     * @return 未移行の行が残っている（full_urlを残す必要がある）場合はtrue
+     */
+    private static boolean migrateAccessLogUrlsToRegistry(DbSession dbSession) throws SQLException {
+        return dbSession.executeWithResult(conn -> {
+            try {
+                if (!tableExists(conn, "access_log") || !getTableColumns(conn, "access_log").contains("full_url")) {
+                    return false;
+                }
+                try (Statement stmt = conn.createStatement()) {
+                    if (!getTableColumns(conn, "access_log").contains("url_id")) {
+                        addColumn(conn, "access_log", "url_id", "INT NULL");
+                    }
+                    int registered = stmt.executeUpdate("""
+                        INSERT INTO url_registry (server_name, method, full_url, attack_type, threat_key, threat_label,
+                                                  user_threat_note, created_at, latest_access_time, latest_blocked_by_modsec)
+                        SELECT al.server_name, al.method, al.full_url, 'UNKNOWN', 'unknown', '不明',
+                               'access_log移行時に登録（未分類）', al.first_access, al.last_access, al.blocked
+                        FROM (
+                            SELECT server_name, method, full_url, MIN(access_time) AS first_access,
+                                   MAX(access_time) AS last_access, MAX(blocked_by_modsec) AS blocked
+                            FROM access_log WHERE url_id IS NULL
+                            GROUP BY server_name, method, full_url
+                        ) al
+                        WHERE NOT EXISTS (
+                            SELECT 1 FROM url_registry ur
+                            WHERE ur.server_name = al.server_name AND ur.method = al.method AND ur.full_url = al.full_url
+                        )
+                        """);
+                    long linked = 0;
+                    long minId = 0;
+                    long maxId = 0;
+                    try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MIN(id), 0), COALESCE(MAX(id), 0) FROM access_log WHERE url_id IS NULL")) {
+                        if (rs.next()) {
+                            minId = rs.getLong(1);
+                            maxId = rs.getLong(2);
+                        }
+                    }
+                    try (PreparedStatement link = conn.prepareStatement("""
+                        UPDATE access_log al
+                        JOIN url_registry ur
+                          ON ur.server_name = al.server_name AND ur.method = al.method AND ur.full_url = al.full_url
+                        SET al.url_id = ur.id
+                        WHERE al.id BETWEEN ? AND ? AND al.url_id IS NULL
+                        """)) {
+                        for (long from = minId; maxId > 0 && from <= maxId; from += URL_MIGRATION_CHUNK_ROWS) {
+                            link.setLong(1, from);
+                            link.setLong(2, Math.min(maxId, from + URL_MIGRATION_CHUNK_ROWS - 1));
+                            linked += link.executeUpdate();
+                        }
+                    }
+                    long remaining = 0;
+                    try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM access_log WHERE url_id IS NULL")) {
+                        if (rs.next()) remaining = rs.getLong(1);
+                    }
+                    AppLogger.log("access_logのURLをurl_registry参照へ移行: 追加登録=" + registered + "件, 紐付け=" + linked + "行, 未移行=" + remaining + "行", "INFO");
+                    if (remaining > 0) {
+                        return true;
+                    }
+                    if (getTableIndexes(conn, "access_log").containsKey("idx_access_log_method_url")) {
+                        executeOnlineDdl(conn, "ALTER TABLE access_log DROP INDEX idx_access_log_method_url");
+                    }
+                    return false;
+                }
+            } catch (SQLException e) {
+                // 移行に失敗した場合は旧カラムを残し、次回起動時に再試行する
+                AppLogger.warn("access_logのURL移行に失敗しました（full_urlを保持）: " + e.getMessage());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * access_logへ attack_type_id / threat_key を追加した直後に、既存行へurl_registryの判定結果を一括反映する
+     * 既存行は取込時点の判定が残っていないため、url_registryの現在値で代用する
+     */
+    private static void backfillAccessLogVerdicts(DbSession dbSession) throws SQLException {
+        String dictionarySql = """
+            INSERT IGNORE INTO attack_types (attack_type)
+            SELECT DISTINCT attack_type FROM url_registry
+            WHERE attack_type IS NOT NULL AND attack_type <> ''
+            """;
+        String updateSql = """
+            UPDATE access_log al
+            JOIN url_registry ur ON ur.id = al.url_id
+            LEFT JOIN attack_types t ON t.attack_type = ur.attack_type
+            SET al.attack_type_id = t.id, al.threat_key = ur.threat_key
+            """;
+        dbSession.execute(conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate(dictionarySql);
+                int updated = stmt.executeUpdate(updateSql);
+                AppLogger.log("access_logの判定結果カラムを既存url_registryから初期設定しました: " + updated + "行", "INFO");
+            } catch (SQLException e) {
+                // 初期設定の失敗は起動を妨げない（以降の取込分は挿入時に設定される）
+                AppLogger.warn("access_logの判定結果カラムの初期設定に失敗しました: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * ロールアップテーブル新規作成時に、既存のaccess_logから時間別集計を一括生成する
+     * ユニークIP数は COUNT(DISTINCT) の値を入れ、スケッチ（ip_sketch）はNULLのままとする
+     */
+    private static void backfillAccessRollups(DbSession dbSession) throws SQLException {
+        String attackCondition = "(al.blocked_by_modsec = TRUE OR (t.attack_type IS NOT NULL AND t.attack_type NOT IN ('CLEAN', 'UNKNOWN', 'normal')))";
+        String baseFrom = """
+            FROM access_log al
+            LEFT JOIN attack_types t ON t.id = al.attack_type_id
+            """;
+        String accessSql = """
+            INSERT INTO access_stats_hourly
+                (server_name, hour_start, request_count, status_2xx, status_3xx, status_4xx, status_5xx, status_other,
+                 attack_count, modsec_blocks, distinct_ip_estimate)
+            SELECT al.server_name, DATE_FORMAT(al.access_time, '%Y-%m-%d %H:00:00') AS hour_start, COUNT(*),
+                   SUM(al.status_code BETWEEN 200 AND 299), SUM(al.status_code BETWEEN 300 AND 399),
+                   SUM(al.status_code BETWEEN 400 AND 499), SUM(al.status_code BETWEEN 500 AND 599),
+                   SUM(al.status_code < 200 OR al.status_code > 599),
+            """ + "       SUM(" + attackCondition + "), SUM(al.blocked_by_modsec = TRUE), COUNT(DISTINCT al.ip_address)\n"
+            + baseFrom + "GROUP BY al.server_name, hour_start";
+        String attackSql = """
+            INSERT INTO attack_stats_hourly (server_name, hour_start, attack_type, attack_count)
+            SELECT server_name, hour_start, attack_type, COUNT(*) FROM (
+                SELECT al.server_name, DATE_FORMAT(al.access_time, '%Y-%m-%d %H:00:00') AS hour_start,
+                       CASE WHEN t.attack_type IS NOT NULL AND t.attack_type NOT IN ('CLEAN', 'UNKNOWN', 'normal')
+                            THEN t.attack_type ELSE 'MODSEC' END AS attack_type
+            """ + baseFrom + "WHERE " + attackCondition + """
+
+            ) sub
+            GROUP BY server_name, hour_start, attack_type
+            """;
+        dbSession.execute(conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                int hours = stmt.executeUpdate(accessSql);
+                int attackRows = stmt.executeUpdate(attackSql);
+                AppLogger.log("ロールアップテーブルを既存access_logから初期生成しました: access_stats_hourly=" + hours + "行, attack_stats_hourly=" + attackRows + "行", "INFO");
+            } catch (SQLException e) {
+                // 初期生成の失敗は起動を妨げない（以降の取込分から集計される）
+                AppLogger.warn("ロールアップテーブルの初期生成に失敗しました: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * ステータスコード別の時間別集計の新規作成時に、既存のaccess_log（間引き率の件数）と
+     * 分×URL別の集計（access_stats_url_minute）から一括生成する
+     */
+    private static void backfillStatusRollups(DbSession dbSession) throws SQLException {
+        String statusSql = """
+            INSERT INTO status_stats_hourly (server_name, hour_start, status_code, request_count)
+            SELECT server_name, hour_start, status_code, SUM(request_count) FROM (
+                SELECT server_name, DATE_FORMAT(access_time, '%Y-%m-%d %H:00:00') AS hour_start, status_code,
+                       SUM(GREATEST(sample_rate, 1)) AS request_count
+                FROM access_log
+                GROUP BY server_name, hour_start, status_code
+                UNION ALL
+                SELECT server_name, DATE_FORMAT(minute_start, '%Y-%m-%d %H:00:00') AS hour_start, status_code,
+                       SUM(request_count) AS request_count
+                FROM access_stats_url_minute
+                GROUP BY server_name, hour_start, status_code
+            ) sub
+            WHERE status_code IS NOT NULL
+            GROUP BY server_name, hour_start, status_code
+            """;
+        dbSession.execute(conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                int rows = stmt.executeUpdate(statusSql);
+                AppLogger.log("ステータスコード別の時間別集計を既存データから初期生成しました: status_stats_hourly=" + rows + "行", "INFO");
+            } catch (SQLException e) {
+                // 初期生成の失敗は起動を妨げない（以降の取込分から集計される）
+                AppLogger.warn("ステータスコード別の時間別集計の初期生成に失敗しました: " + e.getMessage());
+            }
+        });
+    }
+
     /**
      * 指定テーブルのカラム構成を自動同期
      * @param dbSession データベースセッション
@@ -380,6 +710,113 @@ public class DbSchema {
         });
     }
 
+    /**
+     * 指定テーブルのセカンダリインデックスを宣言的定義に合わせて同期
+     * 不足しているインデックスはオンライン（ALGORITHM=INPLACE, LOCK=NONE）で作成し、
+     * 同名で列構成が異なるものは作り直す。冗長なインデックス（他インデックスの左端プレフィックス）は警告ログで報告のみ行う
+     * @param dbSession データベースセッション
+     * @param tableName テーブル名
+     * @param indexDefs インデックス定義Map（インデックス名→カラムリスト。例: "server_name, access_time" / "full_url(255)"）
+     * @throws SQLException SQL例外
+     */
+    private static void autoSyncTableIndexes(DbSession dbSession, String tableName, java.util.Map<String, String> indexDefs) throws SQLException {
+        dbSession.execute(conn -> {
+            try {
+                var existingIndexes = getTableIndexes(conn, tableName);
+                for (var entry : indexDefs.entrySet()) {
+                    String indexName = entry.getKey();
+                    String idealColumns = normalizeIndexColumns(entry.getValue());
+                    String currentColumns = existingIndexes.get(indexName);
+                    if (idealColumns.equals(currentColumns)) {
+                        continue;
+                    }
+                    if (currentColumns != null) {
+                        AppLogger.log(tableName + "." + indexName + " の列構成が定義と異なるため再作成します: " + currentColumns + " → " + idealColumns, "INFO");
+                        executeOnlineDdl(conn, "ALTER TABLE " + tableName + " DROP INDEX " + indexName);
+                    }
+                    executeOnlineDdl(conn, "ALTER TABLE " + tableName + " ADD INDEX " + indexName + " (" + entry.getValue() + ")");
+                    existingIndexes.put(indexName, idealColumns);
+                    AppLogger.log(tableName + "テーブルにインデックス " + indexName + " (" + entry.getValue() + ") を作成しました", "INFO");
+                }
+                reportRedundantIndexes(tableName, existingIndexes);
+            } catch (SQLException e) {
+                AppLogger.error("テーブル " + tableName + " のインデックス同期エラー: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * 指定テーブルのインデックス一覧を取得（インデックス名→正規化済みカラムリスト）
+     */
+    private static java.util.Map<String, String> getTableIndexes(Connection conn, String tableName) throws SQLException {
+        var columnsByIndex = new java.util.LinkedHashMap<String, java.util.TreeMap<Integer, String>>();
+        try (PreparedStatement pstmt = conn.prepareStatement("SHOW INDEX FROM " + tableName)) {
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                String column = rs.getString("Column_name");
+                if (column == null) {
+                    // 関数インデックスは比較対象外
+                    continue;
+                }
+                String subPart = rs.getString("Sub_part");
+                String part = column.toLowerCase() + (subPart != null ? "(" + subPart + ")" : "");
+                columnsByIndex.computeIfAbsent(rs.getString("Key_name"), k -> new java.util.TreeMap<>())
+                        .put(rs.getInt("Seq_in_index"), part);
+            }
+        }
+        var indexes = new java.util.LinkedHashMap<String, String>();
+        columnsByIndex.forEach((name, parts) -> indexes.put(name, String.join(",", parts.values())));
+        return indexes;
+    }
+
+    /**
+     * インデックスのカラムリストを比較用に正規化（空白除去・小文字化）
+     */
+    private static String normalizeIndexColumns(String columns) {
+        return columns.replaceAll("\\s+", "").toLowerCase();
+    }
+
+    /**
+     * 他インデックスの左端プレフィックスになっている冗長インデックスを警告ログで報告
+     * 削除は運用判断とし、ここでは自動削除しない
+     */
+    private static void reportRedundantIndexes(String tableName, java.util.Map<String, String> indexes) {
+        for (var candidate : indexes.entrySet()) {
+            if (candidate.getKey().equals("PRIMARY")) {
+                continue;
+            }
+            for (var other : indexes.entrySet()) {
+                if (other.getKey().equals(candidate.getKey())) {
+                    continue;
+                }
+                String a = candidate.getValue();
+                String b = other.getValue();
+                boolean isPrefix = b.equals(a) || b.startsWith(a + ",");
+                // 完全重複の場合は片方だけ報告する
+                if (isPrefix && (!b.equals(a) || candidate.getKey().compareTo(other.getKey()) > 0)) {
+                    AppLogger.warn(tableName + "テーブルのインデックス " + candidate.getKey() + " (" + a + ") は "
+                            + other.getKey() + " (" + b + ") と冗長です。不要であれば削除を検討してください");
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * オンラインDDLを実行（INPLACE/LOCK=NONEが使えない場合は通常のALTERにフォールバック）
+     */
+    private static void executeOnlineDdl(Connection conn, String ddl) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(ddl + ", ALGORITHM=INPLACE, LOCK=NONE");
+        } catch (SQLException e) {
+            AppLogger.log("オンラインDDLが利用できないため通常のALTERで実行します: " + e.getMessage(), "DEBUG");
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(ddl);
+            }
+        }
+    }
+
     /**
      * テーブル存在確認
      */
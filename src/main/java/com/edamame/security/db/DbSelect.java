@@ -112,6 +112,110 @@ public class DbSelect {
         });
     }
 
+    /**
+     * エージェントのファイアウォールへ配信する有効なブロックIPを取得
+     * 監視対象ブロック・手動ブロックのうち対象エージェント指定があり、ACTIVEで期限内の行（APP_LOGINはWebアプリのログイン制限のため対象外）
+     * @param dbSession データベースセッション
+     * @return ブロックIPリスト（ip_address: 文字列表記（範囲指定は「アドレス/プレフィックス長」）, target_agent_name, end_at: Timestamp（無期限はnull）, reason）
+     * @throws SQLException SQL例外
+     */
+    public static List<Map<String, Object>> selectActiveAgentBlocks(DbSession dbSession) throws SQLException {
+        return dbSession.executeWithResult(conn -> {
+            try {
+                String sql = """
+                    SELECT CONCAT(INET6_NTOA(ip_address), IF(prefix_len IS NULL, '', CONCAT('/', prefix_len))) AS ip_address,
+                           target_agent_name, end_at, reason
+                    FROM block_ip
+                    WHERE status = 'ACTIVE' AND service_type IN ('MONITOR_BLOCK', 'MANUAL')
+                      AND target_agent_name IS NOT NULL AND target_agent_name <> ''
+                      AND (end_at IS NULL OR end_at > NOW())
+                    """;
+                List<Map<String, Object>> blocks = new ArrayList<>();
+                try (var pstmt = conn.prepareStatement(sql);
+                     var rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        Map<String, Object> block = new HashMap<>();
+                        block.put("ip_address", rs.getString("ip_address"));
+                        block.put("target_agent_name", rs.getString("target_agent_name"));
+                        block.put("end_at", rs.getTimestamp("end_at"));
+                        block.put("reason", rs.getString("reason"));
+                        blocks.add(block);
+                    }
+                }
+                return blocks;
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * 有効なブロックIPのアドレスとプレフィックス長を用途別に取得（ログインブロック判定のスナップショット用）
+     * @param dbSession データベースセッション
+     * @param serviceType 用途（APP_LOGIN等）
+     * @return ブロックIPリスト（ip_address: バイト列, prefix_len: Integer（単一アドレスはnull）, end_at: Timestamp（無期限はnull））
+     * @throws SQLException SQL例外
+     */
+    public static List<Map<String, Object>> selectActiveBlockPrefixes(DbSession dbSession, String serviceType) throws SQLException {
+        return dbSession.executeWithResult(conn -> {
+            try {
+                String sql = """
+                    SELECT ip_address, prefix_len, end_at
+                    FROM block_ip
+                    WHERE status = 'ACTIVE' AND service_type = ?
+                      AND (end_at IS NULL OR end_at > NOW())
+                    """;
+                List<Map<String, Object>> blocks = new ArrayList<>();
+                try (var pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, serviceType);
+                    try (var rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            Map<String, Object> block = new HashMap<>();
+                            block.put("ip_address", rs.getBytes("ip_address"));
+                            block.put("prefix_len", rs.getObject("prefix_len") != null ? rs.getInt("prefix_len") : null);
+                            block.put("end_at", rs.getTimestamp("end_at"));
+                            blocks.add(block);
+                        }
+                    }
+                }
+                return blocks;
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * エージェントの取込済み位置（ハイウォーターマーク）をソースパスごとに取得
+     * @param dbSession データベースセッション
+     * @param agentName エージェント名
+     * @return 取込済み位置リスト（source_path, stream_id, end_offset）
+     * @throws SQLException SQL例外
+     */
+    public static List<Map<String, Object>> selectIngestWatermarks(DbSession dbSession, String agentName) throws SQLException {
+        return dbSession.executeWithResult(conn -> {
+            try {
+                String sql = "SELECT source_path, stream_id, end_offset FROM agent_ingest_watermarks WHERE agent_name = ?";
+                List<Map<String, Object>> watermarks = new ArrayList<>();
+                try (var pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, agentName);
+                    try (var rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            Map<String, Object> watermark = new HashMap<>();
+                            watermark.put("source_path", rs.getString("source_path"));
+                            watermark.put("stream_id", rs.getString("stream_id"));
+                            watermark.put("end_offset", rs.getLong("end_offset"));
+                            watermarks.add(watermark);
+                        }
+                    }
+                }
+                return watermarks;
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
     /**
      * settingsテーブルからホワイトリスト設定を取得
      * @param dbSession データベースセッション
@@ -219,11 +323,12 @@ public class DbSelect {
         return dbSession.executeWithResult(conn -> {
             try {
                 String sql = """
-                    SELECT id, server_name, method, full_url, access_time
-                    FROM access_log
-                    WHERE access_time >= NOW() - INTERVAL ? MINUTE
-                    AND blocked_by_modsec = false
-                    ORDER BY access_time DESC
+                    SELECT al.id, al.server_name, al.method, ur.full_url, al.access_time
+                    FROM access_log al
+                    JOIN url_registry ur ON ur.id = al.url_id
+                    WHERE al.access_time >= NOW() - INTERVAL ? MINUTE
+                    AND al.blocked_by_modsec = false
+                    ORDER BY al.access_time DESC
                     LIMIT 1000
                     """;
                 List<Map<String, Object>> accessLogs = new ArrayList<>();
@@ -16,9 +16,14 @@ import java.util.function.Consumer;
  */
 public final class DbService {
     private static DbSession globalSession;
+    private static DbSession ingestWriterSession;
+    private static DbSession ingestPrioritySession;
+    private static IngestWriter ingestWriter;
     private static boolean initialized = false;
     private static volatile Runnable blockIpCleanupRescheduler;
     private static volatile long blockIpCleanupVersion = 0L;
+    private static final java.util.concurrent.atomic.AtomicLong whitelistSettingsVersion = new java.util.concurrent.atomic.AtomicLong();
+    private static final List<Runnable> blockListChangeListeners = new java.util.concurrent.CopyOnWriteArrayList<>();
 
     // staticクラスのためコンストラクタを非公開
     private DbService() {}
@@ -34,6 +39,12 @@ public final class DbService {
             throw new IllegalStateException("DbService is already initialized");
         }
         globalSession = new DbSession(url, properties);
+        // 取込書き込みはトランザクションを共有しないよう専用コネクションで実行
+        ingestWriterSession = new DbSession(url, properties);
+        // 優先レーンは通常レーンのフラッシュを待たないよう別のコネクションで実行
+        ingestPrioritySession = new DbSession(url, properties);
+        ingestWriter = new IngestWriter(ingestWriterSession, ingestPrioritySession,
+            IngestWriter.DEFAULT_MAX_BATCH_SIZE, IngestWriter.DEFAULT_FLUSH_INTERVAL_MS);
         initialized = true;
     }
 
@@ -59,6 +70,82 @@ public final class DbService {
         }
     }
 
+    /**
+     * block_ip の変更時に呼び出すリスナーを追加（エージェントへのブロックリスト配信・ログインブロック判定のスナップショット用）
+     * @param listener 変更通知を受けるRunnable
+     */
+    public static void addBlockListChangeListener(Runnable listener) {
+        blockListChangeListeners.add(listener);
+    }
+
+    /**
+     * block_ip の変更リスナーを削除
+     * @param listener 追加時と同じRunnable
+     */
+    public static void removeBlockListChangeListener(Runnable listener) {
+        blockListChangeListeners.remove(listener);
+    }
+
+    /**
+     * block_ip の変更を通知する。
+     * 登録済みのリスナーを即時実行する（リスナーは再読み込みの予約・スナップショットの無効化だけを行い、呼び出し元を待たせない）。
+     */
+    public static void notifyBlockListChanged() {
+        for (Runnable listener : blockListChangeListeners) {
+            try {
+                listener.run();
+            } catch (Exception ignored) {
+                // 通知の失敗は定期再読み込みで補われるため無視
+            }
+        }
+    }
+
+    /**
+     * 取込書き込み要求をグループコミット型ライターへ投入
+     * @param write 書き込み要求
+     * @return 要求を含むフラッシュのコミット完了で完了するFuture
+     */
+    public static java.util.concurrent.CompletableFuture<Void> submitIngestWrite(IngestWriter.Write write) {
+        checkInitialized();
+        return ingestWriter.submit(write);
+    }
+
+    /**
+     * 取込書き込み要求をグループコミット型ライターの優先レーンへ投入（不審なアクセスを通常の取込より先にコミット）
+     * @param write 書き込み要求
+     * @return 要求を含むフラッシュのコミット完了で完了するFuture
+     */
+    public static java.util.concurrent.CompletableFuture<Void> submitPriorityIngestWrite(IngestWriter.Write write) {
+        checkInitialized();
+        return ingestWriter.submit(write, true);
+    }
+
+    /**
+     * 取込書き込みライターのメトリクス（フラッシュ所要時間・バッチサイズ等）を取得
+     * @return メトリクスMap（未初期化時は空Map）
+     */
+    public static Map<String, Object> getIngestWriterMetrics() {
+        IngestWriter writer = ingestWriter;
+        return writer != null ? writer.getMetrics() : Map.of();
+    }
+
+    /**
+     * 取込書き込みライターのキュー使用率（エージェントへ通知するバックプレッシャー）を取得
+     * @return 0〜100（未初期化時は0）
+     */
+    public static int getIngestBackpressurePercent() {
+        IngestWriter writer = ingestWriter;
+        return writer != null ? writer.getQueueUtilizationPercent() : 0;
+    }
+
+    /**
+     * 取込書き込みライターの直近のフラッシュ所要時間（取込の過負荷判定に使用）を取得
+     * @return ミリ秒（未初期化時は0）
+     */
+    public static long getIngestLastFlushMillis() {
+        IngestWriter writer = ingestWriter;
+        return writer != null ? writer.getLastFlushMillis() : 0;
+    }
 
     /**
      * DbServiceが初期化済みかチェック
@@ -72,6 +159,18 @@ public final class DbService {
      * DbServiceをシャットダウン（アプリケーション終了時に呼び出し）
      */
     public static synchronized void shutdown() {
+        if (ingestWriter != null) {
+            ingestWriter.shutdown(10_000);
+            ingestWriter = null;
+        }
+        if (ingestWriterSession != null) {
+            ingestWriterSession.close();
+            ingestWriterSession = null;
+        }
+        if (ingestPrioritySession != null) {
+            ingestPrioritySession.close();
+            ingestPrioritySession = null;
+        }
         if (globalSession != null) {
             globalSession.close();
             globalSession = null;
@@ -125,6 +224,38 @@ public final class DbService {
         return DbSelect.selectPendingBlockRequests(globalSession, registrationId, limit);
     }
 
+    /**
+     * エージェントのファイアウォールへ配信する有効なブロックIPを取得
+     * @return ブロックIPリスト（ip_address, target_agent_name, end_at, reason）
+     * @throws SQLException SQL例外
+     */
+    public static List<Map<String, Object>> selectActiveAgentBlocks() throws SQLException {
+        checkInitialized();
+        return DbSelect.selectActiveAgentBlocks(globalSession);
+    }
+
+    /**
+     * 有効なブロックIPのアドレスとプレフィックス長を用途別に取得
+     * @param serviceType 用途（APP_LOGIN等）
+     * @return ブロックIPリスト（ip_address: バイト列, prefix_len, end_at）
+     * @throws SQLException SQL例外
+     */
+    public static List<Map<String, Object>> selectActiveBlockPrefixes(String serviceType) throws SQLException {
+        checkInitialized();
+        return DbSelect.selectActiveBlockPrefixes(globalSession, serviceType);
+    }
+
+    /**
+     * エージェントの取込済み位置（ハイウォーターマーク）をソースパスごとに取得
+     * @param agentName エージェント名
+     * @return 取込済み位置リスト（source_path, stream_id, end_offset）
+     * @throws SQLException SQL例外
+     */
+    public static List<Map<String, Object>> selectIngestWatermarks(String agentName) throws SQLException {
+        checkInitialized();
+        return DbSelect.selectIngestWatermarks(globalSession, agentName);
+    }
+
     /**
      * settingsテーブルからホワイトリスト設定を取得
      * @return ホワイトリスト設定Map
@@ -264,6 +395,20 @@ public final class DbService {
         return DbUpdate.updateUrlWhitelistStatus(globalSession, serverName, method, fullUrl);
     }
 
+    /**
+     * url_registryの登録内容から今回のアクセスの判定結果を取得（更新は行わない）
+     * @param serverName サーバー名
+     * @param method HTTPメソッド
+     * @param fullUrl フルURL
+     * @param latestBlockedByModsec 今回のModSecブロック有無
+     * @return 登録済みの攻撃タイプと今回の脅威判定（該当行がない場合はnull）
+     * @throws SQLException SQL例外
+     */
+    public static DbRegistry.UrlRegistryVerdict selectUrlRegistryVerdict(String serverName, String method, String fullUrl, Boolean latestBlockedByModsec) throws SQLException {
+        checkInitialized();
+        return DbRegistry.selectUrlRegistryVerdict(globalSession, serverName, method, fullUrl, latestBlockedByModsec);
+    }
+
     /**
      * url_registryの最終アクセス情報を更新
      * @param serverName サーバー名
@@ -272,11 +417,12 @@ public final class DbService {
      * @param latestAccessTime 最終アクセス時刻
      * @param latestStatusCode 最終HTTPステータス
      * @param latestBlockedByModsec 最終ModSecブロック有無
+     * @return 登録済みの攻撃タイプと今回の脅威判定（該当行がない場合はnull）
      * @throws SQLException SQL例外
      */
-    public static void updateUrlRegistryLatest(String serverName, String method, String fullUrl, Timestamp latestAccessTime, Integer latestStatusCode, Boolean latestBlockedByModsec) throws SQLException {
+    public static DbRegistry.UrlRegistryVerdict updateUrlRegistryLatest(String serverName, String method, String fullUrl, Timestamp latestAccessTime, Integer latestStatusCode, Boolean latestBlockedByModsec) throws SQLException {
         checkInitialized();
-        DbUpdate.updateUrlRegistryLatest(globalSession, serverName, method, fullUrl, latestAccessTime, latestStatusCode, latestBlockedByModsec);
+        return DbUpdate.updateUrlRegistryLatest(globalSession, serverName, method, fullUrl, latestAccessTime, latestStatusCode, latestBlockedByModsec);
     }
 
     // ============= INSERT/REGISTRY操作（DbRegistry���委譲） =============
@@ -333,6 +479,16 @@ public final class DbService {
         return DbRegistry.registerUrlRegistryEntry(globalSession, serverName, method, fullUrl, isWhitelisted, attackType, latestAccessTime, latestStatusCode, latestBlockedByModsec);
     }
 
+    /**
+     * 時間別ロールアップにバッチ分の集計を加算
+     * @param batch バッチ集計
+     * @throws SQLException SQL例外
+     */
+    public static void upsertAccessRollups(AccessRollupBatch batch) throws SQLException {
+        checkInitialized();
+        DbRegistry.upsertAccessRollups(globalSession, batch);
+    }
+
     /**
      * modsec_alertsテーブルにModSecurityアラートを保存
      * @param accessLogId access_logテーブルのID
@@ -405,6 +561,7 @@ public final class DbService {
             checkInitialized();
             DbDelete.runBlockIpCleanupBatch(globalSession);
             blockIpCleanupVersion++;
+            notifyBlockListChanged();
             if (blockIpCleanupRescheduler != null) {
                 try {
                     blockIpCleanupRescheduler.run();
@@ -507,6 +664,19 @@ public final class DbService {
      */
     public static void updateWhitelistSettings(boolean whitelistMode, String whitelistIp) throws SQLException {
         checkInitialized();
-        DbUpdate.updateWhitelistSettings(globalSession, whitelistMode, whitelistIp);
+        try {
+            DbUpdate.updateWhitelistSettings(globalSession, whitelistMode, whitelistIp);
+        } finally {
+            // 失敗時も反映済みの可能性があるため、キャッシュ側に読み直させる
+            whitelistSettingsVersion.incrementAndGet();
+        }
+    }
+
+    /**
+     * ホワイトリスト設定の更新バージョン（updateWhitelistSettings のたびに増加。キャッシュの無効化判定用）
+     * @return 現在のバージョン
+     */
+    public static long getWhitelistSettingsVersion() {
+        return whitelistSettingsVersion.get();
     }
 }
@@ -7,8 +7,27 @@ import java.sql.Timestamp;
  * データベースのアップデート処理用クラス
  * サーバー・エージェント・統計情報などのUPDATE系処理を集約
  * v2.1.0: DbService static化に対応、DbSessionを直接受け取る設計に変更
+ * v2.2.0: 取込後のModSecurityブロック状態の更新を時間別ロールアップにも反映
  */
 public class DbUpdate {
+
+    /** サーバー最終ログ受信時刻の更新文（IngestWriterのバッチ更新でも使用） */
+    static final String UPDATE_SERVER_LAST_LOG_RECEIVED_SQL = """
+            UPDATE servers
+            SET last_log_received = NOW()
+            WHERE server_name = ? COLLATE utf8mb4_unicode_ci
+            """;
+
+    /** エージェントのログ受信統計の更新文（IngestWriterのバッチ更新でも使用） */
+    static final String UPDATE_AGENT_LOG_STATS_SQL =
+            "UPDATE agent_servers SET total_logs_received = total_logs_received + ?, last_log_count = ? WHERE registration_id = ?";
+
+    /** エージェントの取込済み位置（ハイウォーターマーク）の保存文（IngestWriterのバッチ更新で使用） */
+    static final String UPSERT_INGEST_WATERMARK_SQL = """
+            INSERT INTO agent_ingest_watermarks (agent_name, source_path, stream_id, end_offset)
+            VALUES (?, ?, ?, ?)
+            ON DUPLICATE KEY UPDATE stream_id = VALUES(stream_id), end_offset = VALUES(end_offset)
+            """;
     
     /**
      * サーバー情報を更新
@@ -54,12 +73,7 @@ public class DbUpdate {
     public static void updateServerLastLogReceived(DbSession dbSession, String serverName) throws SQLException {
         dbSession.execute(conn -> {
             try {
-                String updateSql = """
-                    UPDATE servers
-                    SET last_log_received = NOW()
-                    WHERE server_name = ? COLLATE utf8mb4_unicode_ci
-                    """;
-                try (var updateStmt = conn.prepareStatement(updateSql)) {
+                try (var updateStmt = conn.prepareStatement(UPDATE_SERVER_LAST_LOG_RECEIVED_SQL)) {
                     updateStmt.setString(1, serverName);
                     int updated = updateStmt.executeUpdate();
                     if (updated == 0) {
@@ -112,8 +126,7 @@ public class DbUpdate {
     public static int updateAgentLogStats(DbSession dbSession, String registrationId, int logCount) throws SQLException {
         return dbSession.executeWithResult(conn -> {
             try {
-                String sql = "UPDATE agent_servers SET total_logs_received = total_logs_received + ?, last_log_count = ? WHERE registration_id = ?";
-                try (var pstmt = conn.prepareStatement(sql)) {
+                try (var pstmt = conn.prepareStatement(UPDATE_AGENT_LOG_STATS_SQL)) {
                     pstmt.setInt(1, logCount);
                     pstmt.setInt(2, logCount);
                     pstmt.setString(3, registrationId);
@@ -134,6 +147,7 @@ public class DbUpdate {
 
     /**
      * access_logのModSecurityブロック状態を更新
+     * ブロックなしで取込済みの行をブロックありに更新した場合は、時間別ロールアップのModSecブロック数・攻撃数も補正する
      * @param dbSession データベースセッション
      * @param accessLogId アクセスログID
      * @param blockedByModSec ModSecurityによってブロックされたかどうか
@@ -143,9 +157,16 @@ public class DbUpdate {
     public static int updateAccessLogModSecStatus(DbSession dbSession, Long accessLogId, boolean blockedByModSec) throws SQLException {
         return dbSession.executeWithResult(conn -> {
             try {
-                String selectSql = "SELECT server_name, method, full_url, status_code, access_time FROM access_log WHERE id = ?";
+                String selectSql = """
+                    SELECT al.server_name, al.method, ur.full_url, al.status_code, al.access_time, al.blocked_by_modsec, t.attack_type
+                    FROM access_log al
+                    LEFT JOIN url_registry ur ON ur.id = al.url_id
+                    LEFT JOIN attack_types t ON t.id = al.attack_type_id
+                    WHERE al.id = ?
+                    """;
                 String sql = "UPDATE access_log SET blocked_by_modsec = ? WHERE id = ?";
                 String serverName = null; String method = null; String fullUrl = null; Integer statusCode = null; Timestamp accessTime = null;
+                boolean wasBlocked = false; String attackType = null;
                 try (var sel = conn.prepareStatement(selectSql)) {
                     sel.setLong(1, accessLogId);
                     try (var rs = sel.executeQuery()) {
@@ -156,6 +177,8 @@ public class DbUpdate {
                             Object statusObj = rs.getObject("status_code");
                             statusCode = statusObj instanceof Number n ? n.intValue() : null;
                             accessTime = rs.getTimestamp("access_time");
+                            wasBlocked = rs.getBoolean("blocked_by_modsec");
+                            attackType = rs.getString("attack_type");
                         }
                     }
                 }
@@ -166,10 +189,23 @@ public class DbUpdate {
                     int updated = pstmt.executeUpdate();
                     if (updated > 0) {
                         AppLogger.debug("ModSecurityブロック状態更新: ID=" + accessLogId + ", blocked=" + blockedByModSec);
-                        // url_registryの最新アクセス情報も同期
+                        // 取込時にブロックなしで計上したアクセスのロールアップを補正（ダッシュボード・レポートの件数に反映）
+                        if (blockedByModSec && !wasBlocked && serverName != null) {
+                            AccessRollupBatch delta = new AccessRollupBatch();
+                            delta.recordLateModSecBlock(serverName, accessTime != null ? accessTime.toLocalDateTime() : null, attackType);
+                            DbRegistry.upsertAccessRollups(conn, delta);
+                        }
+                        // url_registryの最新アクセス情報も同期し、再判定した脅威キーをaccess_log行にも反映
                         if (serverName != null && method != null && fullUrl != null) {
                             try {
-                                updateUrlRegistryLatest(dbSession, serverName, method, fullUrl, accessTime, statusCode, blockedByModSec);
+                                DbRegistry.UrlRegistryVerdict verdict = updateUrlRegistryLatest(dbSession, serverName, method, fullUrl, accessTime, statusCode, blockedByModSec);
+                                if (verdict != null) {
+                                    try (var threatStmt = conn.prepareStatement("UPDATE access_log SET threat_key = ? WHERE id = ?")) {
+                                        threatStmt.setString(1, verdict.threat().key());
+                                        threatStmt.setLong(2, accessLogId);
+                                        threatStmt.executeUpdate();
+                                    }
+                                }
                             } catch (Exception e) {
                                 AppLogger.warn("url_registry最新情報同期失敗: " + e.getMessage());
                             }
@@ -433,11 +469,12 @@ public class DbUpdate {
      * @param latestAccessTime 最終アクセス時刻
      * @param latestStatusCode 最終HTTPステータス
      * @param latestBlockedByModsec 最終ModSecブロック有無
+     * @return 登録済みの攻撃タイプと今回の脅威判定（該当行がない場合はnull）
      * @throws SQLException SQL例外
      */
-    public static void updateUrlRegistryLatest(DbSession dbSession, String serverName, String method, String fullUrl,
-                                               Timestamp latestAccessTime, Integer latestStatusCode, Boolean latestBlockedByModsec) throws SQLException {
-        DbRegistry.updateUrlRegistryLatest(dbSession, serverName, method, fullUrl, latestAccessTime, latestStatusCode, latestBlockedByModsec);
+    public static DbRegistry.UrlRegistryVerdict updateUrlRegistryLatest(DbSession dbSession, String serverName, String method, String fullUrl,
+                                                 Timestamp latestAccessTime, Integer latestStatusCode, Boolean latestBlockedByModsec) throws SQLException {
+        return DbRegistry.updateUrlRegistryLatest(dbSession, serverName, method, fullUrl, latestAccessTime, latestStatusCode, latestBlockedByModsec);
     }
 
     /**
@@ -0,0 +1,546 @@
+package com.edamame.security.db;
+
+import com.edamame.security.tools.AppLogger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 取込処理の書き込みをまとめて実行するグループコミット型ライター
+ * <p>
+ * 各取込スレッドは型付きの書き込み要求（{@link Write}）を {@link #submit} で投入し、
+ * 専用スレッドがフラッシュ間隔または最大件数ごとに、冗長な要求を集約したうえで
+ * JDBCバッチとして1トランザクションで実行する。
+ * </p>
+ * <ul>
+ *   <li>access_log の挿入はバッチ挿入し、採番されたIDで紐づく modsec_alerts もバッチ挿入する</li>
+ *   <li>servers.last_log_received はフラッシュ内でサーバーごとに1回だけ更新する</li>
+ *   <li>url_registry の最終アクセス情報はURLごとに最後の要求のみ反映する</li>
+ *   <li>agent_servers のログ統計はエージェントごとに件数を合算して1回で更新する</li>
+ *   <li>時間別ロールアップはフラッシュ内の access_log 分をまとめて加算する</li>
+ *   <li>エージェントの取込済み位置はソースパスごとに最後の要求のみ反映する</li>
+ *   <li>エージェントが集約した件数は access_stats_url_minute にバッチ加算し、同じフラッシュの時間別ロールアップにも含める</li>
+ *   <li>間引いたアクセスの送信元IPは同じフラッシュの時間別ロールアップのユニークIPスケッチにだけ加える</li>
+ * </ul>
+ * <p>
+ * 要求は通常レーンと優先レーンの2つのキューで受け付け、レーンごとの書き込みスレッドと専用コネクションでフラッシュする。
+ * 優先レーン（不審なアクセスの access_log 等）は待ち時間を待たずにフラッシュし、通常レーンのフラッシュの完了を待たない。
+ * 通常レーンが上限まで詰まっていても優先レーンの投入は待機しない（優先レーンにも別の上限がある）。
+ * </p>
+ * <p>
+ * フラッシュが失敗した場合はロールバックし、要求ごとに個別のトランザクションで再実行する
+ * （不正な1件がフラッシュ全体を失敗させないため）。取込済み位置は最後に再実行し、同じフラッシュで失敗した要求があれば保存しない。専用のDbSession（コネクション）を使用し、
+ * 他処理の自動コミット文と同じコネクション上でトランザクションを共有しない。
+ * </p>
+ */
+public final class IngestWriter {
+
+    /** 1回のフラッシュで処理する最大要求数 */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 500;
+    /** 最初の要求を受け取ってからフラッシュするまでの最大待ち時間（ミリ秒） */
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 100;
+    /** 未処理要求の上限（超過時は投入側が待機する） */
+    private static final int QUEUE_CAPACITY = 20_000;
+    /** 優先レーンの未処理要求の上限 */
+    private static final int PRIORITY_QUEUE_CAPACITY = 5_000;
+    /** 停止の確認間隔（要求の待ち受けの最大時間、ミリ秒） */
+    private static final long POLL_MS = 500;
+    /** 統計ログの出力間隔（ミリ秒） */
+    private static final long METRICS_LOG_INTERVAL_MS = 60_000;
+
+    private final int maxBatchSize;
+    private final long flushIntervalMs;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Pending> priorityQueue = new LinkedBlockingQueue<>(PRIORITY_QUEUE_CAPACITY);
+    private final Thread worker;
+    private final Thread priorityWorker;
+    private volatile boolean running = true;
+
+    // メトリクス
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final AtomicLong maxBatch = new AtomicLong();
+    private volatile long lastFlushNanos;
+    private volatile int lastBatchSize;
+    private final AtomicLong lastMetricsLogAt = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * 取込書き込み要求
+     */
+    public sealed interface Write permits AccessLogWrite, ServerLastLogReceivedWrite, UrlRegistryLatestWrite, AgentLogStatsWrite,
+            IngestWatermarkWrite, AccessAggregateWrite, SampledOutIpsWrite {}
+
+    /**
+     * access_logの挿入（一致したModSecurityアラートを同時に保存）
+     * @param parsedLog ログ情報Map（投入後に変更されないコピーを渡すこと）
+     * @param modSecAlerts modsec_alertsへ保存するアラート情報（insertModSecAlertと同じキー）
+     */
+    public record AccessLogWrite(Map<String, Object> parsedLog, List<Map<String, Object>> modSecAlerts) implements Write {}
+
+    /**
+     * サーバーの最終ログ受信時刻の更新（フラッシュ内でサーバーごとに1回へ集約）
+     * @param serverName サーバー名
+     */
+    public record ServerLastLogReceivedWrite(String serverName) implements Write {}
+
+    /**
+     * url_registryの最終アクセス情報の更新（フラッシュ内でURLごとに最後の要求へ集約）
+     */
+    public record UrlRegistryLatestWrite(String serverName, String method, String fullUrl, Timestamp latestAccessTime,
+                                         Integer latestStatusCode, boolean latestBlockedByModsec,
+                                         DbRegistry.ThreatEvaluation threat) implements Write {}
+
+    /**
+     * エージェントのログ受信統計の更新（フラッシュ内でエージェントごとに合算）
+     * @param registrationId エージェント登録ID
+     * @param logCount 処理件数
+     */
+    public record AgentLogStatsWrite(String registrationId, int logCount) implements Write {}
+
+    /**
+     * エージェントの取込済み位置（ハイウォーターマーク）の保存（フラッシュ内でソースパスごとに最後の要求へ集約）
+     * 対応するaccess_log要求のコミット完了を待ってから投入する（レーンをまたいだコミット順は保証しないため）
+     * @param agentName エージェント名
+     * @param sourcePath ログのソースパス
+     * @param streamId 読み取り位置のストリームID
+     * @param endOffset 取込済みの行末オフセット
+     */
+    public record IngestWatermarkWrite(String agentName, String sourcePath, String streamId, long endOffset) implements Write {}
+
+    /**
+     * エージェントが集約して送った正常なアクセスの件数（分×URL×ステータス）の加算
+     * access_stats_url_minute と時間別ロールアップに加算し、access_log には挿入しない
+     * @param serverName サーバー名
+     * @param method HTTPメソッド
+     * @param fullUrl フルURL（デコード済み）
+     * @param minuteStart 集計期間の開始時刻（分単位）
+     * @param statusCode HTTPステータス
+     * @param requestCount 件数
+     * @param responseBytes レスポンスサイズの合計
+     * @param ipAddresses 送信元IP（ユニークIP推定に使用）
+     */
+    public record AccessAggregateWrite(String serverName, String method, String fullUrl, LocalDateTime minuteStart, int statusCode,
+                                       long requestCount, long responseBytes, List<String> ipAddresses) implements Write {}
+
+    /**
+     * 過負荷時に間引いた（access_log に保存しない）アクセスの送信元IPを時間別ロールアップのユニークIPスケッチへ加える
+     * 件数は保存した行の間引き率で計上済みのため加えない（取込バッチごとにサーバー×時間帯で1件にまとめて投入する）
+     * @param serverName サーバー名
+     * @param hourStart 時間帯の開始時刻（時単位）
+     * @param ipAddresses 送信元IP
+     */
+    public record SampledOutIpsWrite(String serverName, LocalDateTime hourStart, Set<String> ipAddresses) implements Write {}
+
+    private record Pending(Write write, CompletableFuture<Void> done) {}
+
+    /**
+     * コンストラクタ（通常レーン・優先レーンの書き込みスレッドを開始する）
+     * @param dbSession 通常レーンの書き込み専用のデータベースセッション
+     * @param priorityDbSession 優先レーンの書き込み専用のデータベースセッション（通常レーンのトランザクションと並行して実行）
+     * @param maxBatchSize 1回のフラッシュで処理する最大要求数
+     * @param flushIntervalMs フラッシュまでの最大待ち時間（ミリ秒）
+     */
+    public IngestWriter(DbSession dbSession, DbSession priorityDbSession, int maxBatchSize, long flushIntervalMs) {
+        this.maxBatchSize = maxBatchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.worker = new Thread(() -> runLoop(queue, dbSession, false), "ingest-writer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+        this.priorityWorker = new Thread(() -> runLoop(priorityQueue, priorityDbSession, true), "ingest-writer-priority");
+        this.priorityWorker.setDaemon(true);
+        this.priorityWorker.start();
+    }
+
+    /**
+     * 書き込み要求を投入
+     * @param write 書き込み要求
+     * @return 要求を含むフラッシュのコミット完了で完了するFuture（失敗時は例外で完了）
+     * @throws IllegalStateException 停止後に呼び出した場合
+     */
+    public CompletableFuture<Void> submit(Write write) {
+        return submit(write, false);
+    }
+
+    /**
+     * 書き込み要求をレーンを指定して投入
+     * @param write 書き込み要求
+     * @param priority 優先レーンに投入する場合true（不審なアクセスなど、通常の取込より先にコミットさせる要求）
+     * @return 要求を含むフラッシュのコミット完了で完了するFuture（失敗時は例外で完了）
+     * @throws IllegalStateException 停止後に呼び出した場合
+     */
+    public CompletableFuture<Void> submit(Write write, boolean priority) {
+        if (!running) {
+            throw new IllegalStateException("IngestWriter is stopped");
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            (priority ? priorityQueue : queue).put(new Pending(write, done));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            done.completeExceptionally(e);
+        }
+        return done;
+    }
+
+    /**
+     * 新規要求の受付を停止し、未処理の要求をフラッシュしてから書き込みスレッドを終了
+     * @param timeoutMs 終了待ちの最大時間（ミリ秒）
+     */
+    public void shutdown(long timeoutMs) {
+        running = false;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            worker.join(timeoutMs);
+            priorityWorker.join(Math.max(1, deadline - System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive() || priorityWorker.isAlive()) {
+            AppLogger.warn("IngestWriterの終了待ちがタイムアウトしました（未処理: " + (queue.size() + priorityQueue.size()) + "件）");
+        }
+    }
+
+    /**
+     * 未処理要求のキュー使用率を取得（エージェントへ通知する取込のバックプレッシャー）
+     * 通常レーン・優先レーンのうち使用率の高い方を返す（どちらかが上限に達すると投入側が待機するため）
+     * @return キュー上限に対する未処理要求数の割合（0〜100）
+     */
+    public int getQueueUtilizationPercent() {
+        long percent = Math.max(queue.size() * 100L / QUEUE_CAPACITY, priorityQueue.size() * 100L / PRIORITY_QUEUE_CAPACITY);
+        return (int) Math.min(100, percent);
+    }
+
+    /**
+     * 通常レーンの直近のフラッシュの所要時間を取得（取込の過負荷判定に使用）
+     * @return 所要時間（ミリ秒）
+     */
+    public long getLastFlushMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastFlushNanos);
+    }
+
+    /**
+     * フラッシュのメトリクスを取得
+     * @return フラッシュ回数・バッチサイズ・フラッシュ所要時間などのMap
+     */
+    public Map<String, Object> getMetrics() {
+        long flushes = flushCount.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("flush_count", flushes);
+        metrics.put("write_count", writeCount.get());
+        metrics.put("failed_flush_count", failedFlushCount.get());
+        metrics.put("queue_depth", queue.size());
+        metrics.put("priority_queue_depth", priorityQueue.size());
+        metrics.put("last_batch_size", lastBatchSize);
+        metrics.put("avg_batch_size", flushes == 0 ? 0.0 : (double) writeCount.get() / flushes);
+        metrics.put("max_batch_size", maxBatch.get());
+        metrics.put("last_flush_ms", lastFlushNanos / 1_000_000.0);
+        metrics.put("avg_flush_ms", flushes == 0 ? 0.0 : totalFlushNanos.get() / 1_000_000.0 / flushes);
+        metrics.put("max_flush_ms", maxFlushNanos.get() / 1_000_000.0);
+        return metrics;
+    }
+
+    /**
+     * 書き込みスレッド本体（レーンごと）：最初の要求から flushIntervalMs 経過または maxBatchSize 到達でフラッシュする
+     * 優先レーンは待ち時間を待たず、その時点で溜まっている要求（最大 maxBatchSize 件）をフラッシュする
+     */
+    private void runLoop(BlockingQueue<Pending> lane, DbSession session, boolean priority) {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        while (running || !lane.isEmpty()) {
+            try {
+                Pending first = lane.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < maxBatchSize) {
+                    lane.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (priority || batch.size() >= maxBatchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    Pending next = lane.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(session, batch, priority);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (Exception e) {
+                AppLogger.error("IngestWriterで予期しないエラー: " + e.getMessage());
+                batch.forEach(p -> p.done().completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 1回分の要求をまとめて書き込む（失敗時は要求ごとに再実行）
+     * 再実行では取込済み位置（IngestWatermarkWrite）を他の要求の後に回し、同じフラッシュの要求が1件でも失敗した場合は
+     * 位置を書き込まずに失敗として完了する（位置が対応する行より先に、または行なしでコミットされないように）。
+     * 時間別ロールアップは access_log・集計件数と同じ要求の中で加算するため、個別の再実行でも行と一緒にコミットされる
+     */
+    private void flush(DbSession dbSession, List<Pending> batch, boolean priority) {
+        long start = System.nanoTime();
+        List<Write> writes = new ArrayList<>(batch.size());
+        batch.forEach(p -> writes.add(p.write()));
+        try {
+            dbSession.ensureConnected();
+            dbSession.executeInTransaction(conn -> {
+                try {
+                    writeAll(conn, writes);
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            batch.forEach(p -> p.done().complete(null));
+        } catch (Exception e) {
+            failedFlushCount.incrementAndGet();
+            // ロールバックにより未コミットの辞書行が消えている可能性があるためキャッシュを破棄
+            DbRegistry.clearDictionaryCaches();
+            AppLogger.warn("IngestWriterの一括書き込みに失敗したため個別に再実行します（" + batch.size() + "件）: " + e.getMessage());
+            List<Pending> watermarks = new ArrayList<>();
+            boolean anyFailed = false;
+            for (Pending pending : batch) {
+                if (pending.write() instanceof IngestWatermarkWrite) {
+                    watermarks.add(pending);
+                    continue;
+                }
+                try {
+                    dbSession.executeInTransaction(conn -> {
+                        try {
+                            writeAll(conn, List.of(pending.write()));
+                        } catch (SQLException ex) {
+                            throw new RuntimeException(ex);
+                        }
+                    });
+                    pending.done().complete(null);
+                } catch (Exception ex) {
+                    DbRegistry.clearDictionaryCaches();
+                    AppLogger.error("IngestWriterの書き込み失敗: " + pending.write().getClass().getSimpleName() + " - " + ex.getMessage());
+                    pending.done().completeExceptionally(ex);
+                    anyFailed = true;
+                }
+            }
+            if (!watermarks.isEmpty()) {
+                retryWatermarks(dbSession, watermarks, anyFailed);
+            }
+        }
+        recordFlush(batch.size(), System.nanoTime() - start, priority);
+    }
+
+    /**
+     * 一括書き込みの失敗後に取込済み位置をまとめて再実行（同じフラッシュに失敗した要求があれば書き込まずに失敗とする）
+     */
+    private void retryWatermarks(DbSession dbSession, List<Pending> watermarks, boolean anyFailed) {
+        if (anyFailed) {
+            IllegalStateException skipped = new IllegalStateException("同じフラッシュの書き込みが失敗したため取込済み位置を保存しません");
+            AppLogger.warn("IngestWriter: " + skipped.getMessage() + "（" + watermarks.size() + "件）");
+            watermarks.forEach(p -> p.done().completeExceptionally(skipped));
+            return;
+        }
+        List<Write> writes = new ArrayList<>(watermarks.size());
+        watermarks.forEach(p -> writes.add(p.write()));
+        try {
+            dbSession.executeInTransaction(conn -> {
+                try {
+                    writeAll(conn, writes);
+                } catch (SQLException ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+            watermarks.forEach(p -> p.done().complete(null));
+        } catch (Exception ex) {
+            AppLogger.error("IngestWriterの書き込み失敗: IngestWatermarkWrite - " + ex.getMessage());
+            watermarks.forEach(p -> p.done().completeExceptionally(ex));
+        }
+    }
+
+    /**
+     * 要求を種類ごとに集約し、JDBCバッチで実行する（呼び出し側のトランザクション内で実行）
+     */
+    private void writeAll(Connection conn, List<Write> writes) throws SQLException {
+        List<AccessLogWrite> accessLogs = new ArrayList<>();
+        Set<String> servers = new LinkedHashSet<>();
+        Map<String, UrlRegistryLatestWrite> urlLatest = new LinkedHashMap<>();
+        Map<String, Integer> agentStats = new LinkedHashMap<>();
+        Map<String, IngestWatermarkWrite> watermarks = new LinkedHashMap<>();
+        List<AccessAggregateWrite> aggregates = new ArrayList<>();
+        AccessRollupBatch rollup = new AccessRollupBatch();
+        for (Write write : writes) {
+            switch (write) {
+                case AccessLogWrite w -> accessLogs.add(w);
+                case ServerLastLogReceivedWrite w -> servers.add(w.serverName());
+                case UrlRegistryLatestWrite w -> urlLatest.put(w.serverName() + '\0' + w.method() + '\0' + w.fullUrl(), w);
+                case AgentLogStatsWrite w -> agentStats.merge(w.registrationId(), w.logCount(), Integer::sum);
+                case IngestWatermarkWrite w -> watermarks.put(w.agentName() + '\0' + w.sourcePath(), w);
+                case AccessAggregateWrite w -> aggregates.add(w);
+                case SampledOutIpsWrite w -> rollup.recordIps(w.serverName(), w.hourStart(), w.ipAddresses());
+            }
+        }
+
+        if (!accessLogs.isEmpty()) {
+            writeAccessLogs(conn, accessLogs, rollup);
+        }
+        if (!aggregates.isEmpty()) {
+            writeAccessAggregates(conn, aggregates, rollup);
+        }
+        DbRegistry.upsertAccessRollups(conn, rollup);
+        if (!urlLatest.isEmpty()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(DbRegistry.UPDATE_URL_REGISTRY_LATEST_SQL)) {
+                for (UrlRegistryLatestWrite w : urlLatest.values()) {
+                    DbRegistry.bindUrlRegistryLatestUpdate(pstmt, w.serverName(), w.method(), w.fullUrl(),
+                        w.latestAccessTime(), w.latestStatusCode(), w.latestBlockedByModsec(), w.threat());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+        }
+        if (!servers.isEmpty()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(DbUpdate.UPDATE_SERVER_LAST_LOG_RECEIVED_SQL)) {
+                for (String serverName : servers) {
+                    pstmt.setString(1, serverName);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+        }
+        if (!agentStats.isEmpty()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(DbUpdate.UPDATE_AGENT_LOG_STATS_SQL)) {
+                for (var entry : agentStats.entrySet()) {
+                    pstmt.setInt(1, entry.getValue());
+                    pstmt.setInt(2, entry.getValue());
+                    pstmt.setString(3, entry.getKey());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+        }
+        if (!watermarks.isEmpty()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(DbUpdate.UPSERT_INGEST_WATERMARK_SQL)) {
+                for (IngestWatermarkWrite w : watermarks.values()) {
+                    pstmt.setString(1, w.agentName());
+                    pstmt.setString(2, w.sourcePath());
+                    pstmt.setString(3, w.streamId());
+                    pstmt.setLong(4, w.endOffset());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * access_logをバッチ挿入し、採番IDで modsec_alerts のバッチ挿入と時間別ロールアップへの集計を行う
+     */
+    private void writeAccessLogs(Connection conn, List<AccessLogWrite> accessLogs, AccessRollupBatch rollup) throws SQLException {
+        List<Long> ids = new ArrayList<>(accessLogs.size());
+        try (PreparedStatement pstmt = conn.prepareStatement(DbRegistry.INSERT_ACCESS_LOG_SQL, Statement.RETURN_GENERATED_KEYS)) {
+            for (AccessLogWrite w : accessLogs) {
+                DbRegistry.bindAccessLogInsert(conn, pstmt, w.parsedLog());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                while (keys.next()) {
+                    ids.add(keys.getLong(1));
+                }
+            }
+        }
+        if (ids.size() != accessLogs.size()) {
+            throw new SQLException("access_logの採番ID数が一致しません: expected=" + accessLogs.size() + ", actual=" + ids.size());
+        }
+
+        boolean hasAlerts = false;
+        try (PreparedStatement alertStmt = conn.prepareStatement(DbRegistry.INSERT_MODSEC_ALERT_SQL)) {
+            for (int i = 0; i < accessLogs.size(); i++) {
+                Map<String, Object> parsedLog = accessLogs.get(i).parsedLog();
+                List<Map<String, Object>> alerts = accessLogs.get(i).modSecAlerts();
+                if (alerts != null) {
+                    for (Map<String, Object> alert : alerts) {
+                        DbRegistry.bindModSecAlertInsert(alertStmt, ids.get(i), alert);
+                        alertStmt.addBatch();
+                        hasAlerts = true;
+                    }
+                }
+                rollup.record((String) parsedLog.get("server_name"),
+                    parsedLog.get("access_time") instanceof LocalDateTime t ? t : null,
+                    parsedLog.get("status_code") instanceof Number n ? n.intValue() : 0,
+                    (String) parsedLog.get("ip_address"),
+                    (String) parsedLog.get("verdict_attack_type"),
+                    Boolean.TRUE.equals(parsedLog.get("blocked_by_modsec")),
+                    parsedLog.get("sample_rate") instanceof Number rate ? rate.intValue() : 1);
+            }
+            if (hasAlerts) {
+                alertStmt.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * エージェントが集約した件数を access_stats_url_minute にバッチ加算し、時間別ロールアップへ集計する
+     */
+    private void writeAccessAggregates(Connection conn, List<AccessAggregateWrite> aggregates, AccessRollupBatch rollup) throws SQLException {
+        boolean hasRows = false;
+        try (PreparedStatement pstmt = conn.prepareStatement(DbRegistry.UPSERT_URL_MINUTE_STATS_SQL)) {
+            for (AccessAggregateWrite w : aggregates) {
+                if (DbRegistry.bindUrlMinuteStatsUpsert(conn, pstmt, w.serverName(), w.method(), w.fullUrl(), w.minuteStart(),
+                        w.statusCode(), w.requestCount(), w.responseBytes())) {
+                    pstmt.addBatch();
+                    hasRows = true;
+                }
+                rollup.recordCount(w.serverName(), w.minuteStart(), w.statusCode(), w.requestCount(), w.ipAddresses());
+            }
+            if (hasRows) {
+                pstmt.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * フラッシュのメトリクスを記録し、一定間隔で統計ログを出力
+     * 直近の所要時間・件数は通常レーンのフラッシュで更新する（少量の優先レーンのフラッシュで過負荷判定が外れないように）
+     */
+    private void recordFlush(int batchSize, long elapsedNanos, boolean priority) {
+        flushCount.incrementAndGet();
+        writeCount.addAndGet(batchSize);
+        totalFlushNanos.addAndGet(elapsedNanos);
+        maxFlushNanos.accumulateAndGet(elapsedNanos, Math::max);
+        maxBatch.accumulateAndGet(batchSize, Math::max);
+        if (!priority) {
+            lastFlushNanos = elapsedNanos;
+            lastBatchSize = batchSize;
+        }
+        AppLogger.debug("IngestWriterフラッシュ" + (priority ? "（優先レーン）" : "") + ": " + batchSize + "件, "
+            + (elapsedNanos / 1_000_000) + "ms");
+
+        long now = System.currentTimeMillis();
+        long last = lastMetricsLogAt.get();
+        if (now - last >= METRICS_LOG_INTERVAL_MS && lastMetricsLogAt.compareAndSet(last, now)) {
+            AppLogger.info("IngestWriter統計: " + getMetrics());
+        }
+    }
+}
@@ -491,26 +491,10 @@ public class ModSecHandler {
      */
     public static void saveModSecurityAlertToDatabase(Long accessLogId, ModSecurityQueue.ModSecurityAlert alert) {
         try {
-            Map<String, Object> alertData = new HashMap<>();
-
-            // ModSecurityアラートの詳細情報を正しくマッピング
-            String ruleId = alert.ruleId();
-            String message = alert.message();
-            String dataValue = alert.dataValue();
-            String severity = alert.severity();
-
-            // デフォルト値の処理を改善
-            alertData.put("rule_id", ruleId != null && !ruleId.isEmpty() ? ruleId : "unknown");
-            alertData.put("message", message != null && !message.isEmpty() ? message : "ModSecurity Alert");
-            alertData.put("data_value", dataValue != null ? dataValue : "");
-
-            // 重要度の数値変換処理を追加
-            Integer severityValue = convertSeverityToInt(severity);
-            alertData.put("severity", severityValue);
-
-            alertData.put("server_name", alert.serverName());
-            alertData.put("raw_log", alert.rawLog());
-            alertData.put("detected_at", alert.detectedAt().toString());
+            Map<String, Object> alertData = toAlertData(alert);
+            String ruleId = (String) alertData.get("rule_id");
+            String message = (String) alertData.get("message");
+            Object severityValue = alertData.get("severity");
 
             insertModSecAlert(accessLogId, alertData);
 
@@ -524,6 +508,35 @@ public class ModSecHandler {
         }
     }
 
+    /**
+     * ModSecurityアラートをmodsec_alerts保存用のMapに変換（insertModSecAlert / IngestWriterで共用）
+     * @param alert ModSecurityアラート
+     * @return 保存用アラート情報
+     */
+    public static Map<String, Object> toAlertData(ModSecurityQueue.ModSecurityAlert alert) {
+        Map<String, Object> alertData = new HashMap<>();
+
+        // ModSecurityアラートの詳細情報を正しくマッピング
+        String ruleId = alert.ruleId();
+        String message = alert.message();
+        String dataValue = alert.dataValue();
+        String severity = alert.severity();
+
+        // デフォルト値の処理を改善
+        alertData.put("rule_id", ruleId != null && !ruleId.isEmpty() ? ruleId : "unknown");
+        alertData.put("message", message != null && !message.isEmpty() ? message : "ModSecurity Alert");
+        alertData.put("data_value", dataValue != null ? dataValue : "");
+
+        // 重要度の数値変換処理を追加
+        Integer severityValue = convertSeverityToInt(severity);
+        alertData.put("severity", severityValue);
+
+        alertData.put("server_name", alert.serverName());
+        alertData.put("raw_log", alert.rawLog());
+        alertData.put("detected_at", alert.detectedAt().toString());
+        return alertData;
+    }
+
     /**
      * ModSecurity重要度文字列を数値に変換
      * @param severity 重要度文字列
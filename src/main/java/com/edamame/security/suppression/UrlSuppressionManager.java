@@ -9,16 +9,56 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * URL抑止判定を行う管理クラス。
  * is_enabledな抑止ルールをサーバー名（またはall）で取得し、正規表現マッチしたらログを破棄する。
+ * <p>
+ * 有効なルールはメモリ上のスナップショットとして保持し、サーバーごとに正規表現をコンパイル済みの状態で使い回す。
+ * サーバーに適用するルールは1つの正規表現（各ルールをグループで囲んだ選択）にまとめ、URLを1回走査して判定する。
+ * スナップショットは UrlSuppressionService によるルール変更（{@link #invalidateRules()}）で破棄し、
+ * 外部からの変更に備えて一定時間ごとにも読み直す。
+ * </p>
+ * <p>
+ * ヒット数はルールごとの LongAdder に加算し、数秒ごとに1回のバッチ更新で url_suppressions へ反映する。
+ * エージェント側で破棄した件数（ハートビートで報告）も {@link #recordHits(long, long)} で同じく加算する。
+ * </p>
+ *
+ * v1.1.0: ルールのスナップショットとサーバーごとの結合正規表現を導入し、ヒット数の更新をバッチ化
+ * v1.2.0: エージェントへ配信する有効ルールの取得（activeRules）、ルール変更の通知、エージェント報告のヒット数加算を追加
+ *
+ * @author Edamame Team
+ * @version 1.2.0
  */
 public class UrlSuppressionManager {
 
+    /** ルール変更の通知がなくても読み直す間隔（ミリ秒） */
+    private static final long REFRESH_INTERVAL_MS = 60_000;
+    /** ヒット数をDBへ反映する間隔（秒） */
+    private static final long HIT_FLUSH_INTERVAL_SECONDS = 5;
+    /** 結合するとグループ番号・フラグの範囲が変わるパターン（後方参照・インラインフラグ） */
+    private static final Pattern NOT_COMBINABLE = Pattern.compile("\\\\[1-9]|\\\\k<|\\(\\?[a-zA-Z-]+[:)]");
+
+    private static final Object LOAD_LOCK = new Object();
+    private static final AtomicLong GENERATION = new AtomicLong();
+    private static final Map<Long, LongAdder> PENDING_HITS = new ConcurrentHashMap<>();
+    private static final List<Runnable> CHANGE_LISTENERS = new CopyOnWriteArrayList<>();
+    private static volatile RuleSet ruleSet; // null は未読み込み・無効化済み
+    private static ScheduledExecutorService hitFlusher; // UrlSuppressionManager.class で同期
+
     /**
-     * 抑止対象ならtrueを返し、ヒットしたルールのアクセス情報を更新する。
+     * 抑止対象ならtrueを返し、ヒットしたルールのヒット数を加算する。
      * @param serverName サーバー名
      * @param fullUrl フルURL
      * @return 抑止対象ならtrue
@@ -26,57 +66,306 @@ public class UrlSuppressionManager {
     public static boolean shouldSuppress(String serverName, String fullUrl) {
         if (fullUrl == null || fullUrl.isBlank()) return false;
         String effectiveServer = (serverName == null || serverName.isBlank()) ? "all" : serverName;
-        List<SuppressionRule> rules = loadActiveRules(effectiveServer);
-        for (SuppressionRule rule : rules) {
+        CompiledRules rules = currentRules().forServer(effectiveServer);
+        SuppressionRule matched = rules.match(fullUrl);
+        if (matched == null) {
+            return false;
+        }
+        recordHit(matched.id());
+        AppLogger.debug("URL抑止ルールに一致: id=" + matched.id() + ", server=" + matched.serverName() + ", pattern=" + matched.rawPattern() + ", url=" + fullUrl);
+        return true;
+    }
+
+    /**
+     * ルールのスナップショットを破棄する（ルールの追加・更新・削除・有効切替後に呼び出す）。
+     * 次回の判定で読み直す。
+     */
+    public static void invalidateRules() {
+        GENERATION.incrementAndGet();
+        ruleSet = null;
+        for (Runnable listener : CHANGE_LISTENERS) {
             try {
-                if (rule.pattern.matcher(fullUrl).find()) {
-                    markHit(rule.id);
-                    AppLogger.info("URL抑止ルールに一致: id=" + rule.id + ", server=" + rule.serverName + ", pattern=" + rule.rawPattern + ", url=" + fullUrl);
-                    return true;
-                }
+                listener.run();
             } catch (Exception e) {
-                AppLogger.warn("URL抑止マッチングエラー: pattern=" + rule.rawPattern + " url=" + fullUrl + " msg=" + e.getMessage());
+                AppLogger.warn("URL抑止ルール変更通知の処理中にエラーが発生しました: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * ルール変更（invalidateRules）の通知先を追加する。
+     * 通知はルールを変更したスレッドで呼ばれるため、通知先は処理を別スレッドへ渡すこと。
+     * @param listener 通知先
+     */
+    public static void addRulesChangeListener(Runnable listener) {
+        CHANGE_LISTENERS.add(listener);
+    }
+
+    /**
+     * ルール変更の通知先を削除する。
+     * @param listener 通知先
+     */
+    public static void removeRulesChangeListener(Runnable listener) {
+        CHANGE_LISTENERS.remove(listener);
+    }
+
+    /**
+     * 配信用の有効ルール
+     *
+     * @param id ルールID
+     * @param serverName 対象サーバー名（all は全サーバー）
+     * @param pattern 正規表現（大文字小文字を区別しない）
+     */
+    public record RuleSpec(long id, String serverName, String pattern) {}
+
+    /**
+     * 現在の有効ルール（ID順、コンパイルできたもののみ）を取得する。
+     * @return 有効ルール
+     */
+    public static List<RuleSpec> activeRules() {
+        List<RuleSpec> specs = new ArrayList<>();
+        for (SuppressionRule rule : currentRules().rules()) {
+            specs.add(new RuleSpec(rule.id(), rule.serverName(), rule.rawPattern()));
+        }
+        return specs;
+    }
+
+    /**
+     * エージェント側で抑止した件数をヒット数に加算する（DBへの反映は定期処理で行う）。
+     * @param id ルールID
+     * @param count 件数
+     */
+    public static void recordHits(long id, long count) {
+        if (count <= 0) {
+            return;
+        }
+        PENDING_HITS.computeIfAbsent(id, k -> new LongAdder()).add(count);
+        ensureHitFlusher();
+    }
+
+    /**
+     * 未反映のヒット数をDBへ反映し、定期反映を停止する（サーバー停止時）。
+     */
+    public static void shutdown() {
+        synchronized (UrlSuppressionManager.class) {
+            if (hitFlusher != null) {
+                hitFlusher.shutdownNow();
+                hitFlusher = null;
             }
         }
-        return false;
+        flushHits();
     }
 
     private record SuppressionRule(long id, String serverName, String rawPattern, Pattern pattern) {}
 
-    private static List<SuppressionRule> loadActiveRules(String serverName) {
+    /**
+     * 読み込んだ有効ルールと、サーバーごとのコンパイル済みルール
+     */
+    private record RuleSet(long loadedAtMillis, List<SuppressionRule> rules, Map<String, CompiledRules> byServer) {
+
+        CompiledRules forServer(String serverName) {
+            return byServer.computeIfAbsent(serverName.toLowerCase(Locale.ROOT), key -> {
+                List<SuppressionRule> applicable = new ArrayList<>();
+                for (SuppressionRule rule : rules) {
+                    if ("all".equalsIgnoreCase(rule.serverName()) || key.equalsIgnoreCase(rule.serverName())) {
+                        applicable.add(rule);
+                    }
+                }
+                return CompiledRules.compile(applicable);
+            });
+        }
+    }
+
+    /**
+     * 1サーバーに適用するルール
+     * 結合できるルールは「(ルール1)|(ルール2)|...」の1つの正規表現にまとめ、各ルールを囲むグループの番号で一致したルールを特定する。
+     * 後方参照・インラインフラグを含むルールと、結合した正規表現がコンパイルできない場合は個別に評価する。
+     */
+    private static final class CompiledRules {
+        private final Pattern combined;
+        private final SuppressionRule[] combinedRules;
+        private final int[] combinedGroups;
+        private final List<SuppressionRule> separate;
+
+        private CompiledRules(Pattern combined, SuppressionRule[] combinedRules, int[] combinedGroups, List<SuppressionRule> separate) {
+            this.combined = combined;
+            this.combinedRules = combinedRules;
+            this.combinedGroups = combinedGroups;
+            this.separate = separate;
+        }
+
+        static CompiledRules compile(List<SuppressionRule> rules) {
+            List<SuppressionRule> combinable = new ArrayList<>();
+            List<SuppressionRule> separate = new ArrayList<>();
+            for (SuppressionRule rule : rules) {
+                (NOT_COMBINABLE.matcher(rule.rawPattern()).find() ? separate : combinable).add(rule);
+            }
+            if (combinable.size() < 2) {
+                return new CompiledRules(null, new SuppressionRule[0], new int[0], rules);
+            }
+            StringBuilder source = new StringBuilder();
+            int[] groups = new int[combinable.size()];
+            int group = 1;
+            for (int i = 0; i < combinable.size(); i++) {
+                SuppressionRule rule = combinable.get(i);
+                if (i > 0) {
+                    source.append('|');
+                }
+                source.append('(').append(rule.rawPattern()).append(')');
+                groups[i] = group;
+                group += 1 + rule.pattern().matcher("").groupCount();
+            }
+            try {
+                Pattern combined = Pattern.compile(source.toString(), Pattern.CASE_INSENSITIVE);
+                return new CompiledRules(combined, combinable.toArray(new SuppressionRule[0]), groups, separate);
+            } catch (Exception e) {
+                // 名前付きグループの重複等で結合できない場合は個別に評価
+                AppLogger.debug("URL抑止パターンを結合できないため個別に評価します: " + e.getMessage());
+                return new CompiledRules(null, new SuppressionRule[0], new int[0], rules);
+            }
+        }
+
+        /**
+         * 一致したルールを取得（結合した正規表現ではURLの先頭に近い位置で一致したルール）
+         */
+        SuppressionRule match(String fullUrl) {
+            if (combined != null) {
+                try {
+                    Matcher matcher = combined.matcher(fullUrl);
+                    if (matcher.find()) {
+                        for (int i = 0; i < combinedGroups.length; i++) {
+                            if (matcher.start(combinedGroups[i]) >= 0) {
+                                return combinedRules[i];
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    AppLogger.warn("URL抑止マッチングエラー: url=" + fullUrl + " msg=" + e.getMessage());
+                }
+            }
+            for (SuppressionRule rule : separate) {
+                try {
+                    if (rule.pattern().matcher(fullUrl).find()) {
+                        return rule;
+                    }
+                } catch (Exception e) {
+                    AppLogger.warn("URL抑止マッチングエラー: pattern=" + rule.rawPattern() + " url=" + fullUrl + " msg=" + e.getMessage());
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 現在のルールを取得（未読み込み・無効化済み・一定時間経過時は読み直す）
+     */
+    private static RuleSet currentRules() {
+        long now = System.currentTimeMillis();
+        RuleSet current = ruleSet;
+        if (current != null && now - current.loadedAtMillis() < REFRESH_INTERVAL_MS) {
+            return current;
+        }
+        synchronized (LOAD_LOCK) {
+            current = ruleSet;
+            if (current != null && now - current.loadedAtMillis() < REFRESH_INTERVAL_MS) {
+                return current;
+            }
+            long generation = GENERATION.get();
+            List<SuppressionRule> rules = loadActiveRules();
+            if (rules == null) {
+                // 取得に失敗した場合は前回のルールを次の間隔まで使い続ける（初回は抑止なし）
+                if (current == null) {
+                    return new RuleSet(now, List.of(), new ConcurrentHashMap<>());
+                }
+                rules = current.rules();
+            }
+            RuleSet loaded = new RuleSet(now, rules, new ConcurrentHashMap<>());
+            // 読み込み中に無効化された場合は次回の判定で読み直す
+            if (generation == GENERATION.get()) {
+                ruleSet = loaded;
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * 有効な全ルールを取得し正規表現をコンパイル
+     * @return ルール（取得に失敗した場合はnull）
+     */
+    private static List<SuppressionRule> loadActiveRules() {
         List<SuppressionRule> list = new ArrayList<>();
-        String sql = "SELECT id, server_name, url_pattern FROM url_suppressions WHERE is_enabled = TRUE AND (server_name = 'all' OR server_name = ?)";
+        String sql = "SELECT id, server_name, url_pattern FROM url_suppressions WHERE is_enabled = TRUE ORDER BY id";
         try (Connection conn = DbService.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, serverName);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    long id = rs.getLong("id");
-                    String srv = rs.getString("server_name");
-                    String pat = rs.getString("url_pattern");
-                    if (pat == null || pat.isBlank()) continue;
-                    try {
-                        Pattern compiled = Pattern.compile(pat, Pattern.CASE_INSENSITIVE);
-                        list.add(new SuppressionRule(id, srv, pat, compiled));
-                    } catch (Exception e) {
-                        AppLogger.warn("URL抑止パターンコンパイル失敗: id=" + id + " pattern=" + pat + " msg=" + e.getMessage());
-                    }
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                long id = rs.getLong("id");
+                String srv = rs.getString("server_name");
+                String pat = rs.getString("url_pattern");
+                if (pat == null || pat.isBlank()) continue;
+                try {
+                    Pattern compiled = Pattern.compile(pat, Pattern.CASE_INSENSITIVE);
+                    list.add(new SuppressionRule(id, srv, pat, compiled));
+                } catch (Exception e) {
+                    AppLogger.warn("URL抑止パターンコンパイル失敗: id=" + id + " pattern=" + pat + " msg=" + e.getMessage());
                 }
             }
         } catch (SQLException e) {
             AppLogger.error("URL抑止ルール取得エラー: " + e.getMessage());
+            return null;
         }
         return list;
     }
 
-    private static void markHit(long id) {
-        String sql = "UPDATE url_suppressions SET last_access_at = NOW(), drop_count = drop_count + 1 WHERE id = ?";
+    /**
+     * ヒット数を加算（DBへの反映は定期処理で行う）
+     */
+    private static void recordHit(long id) {
+        PENDING_HITS.computeIfAbsent(id, k -> new LongAdder()).increment();
+        ensureHitFlusher();
+    }
+
+    private static synchronized void ensureHitFlusher() {
+        if (hitFlusher != null) {
+            return;
+        }
+        hitFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "UrlSuppressionHitFlusher");
+            t.setDaemon(true);
+            return t;
+        });
+        hitFlusher.scheduleWithFixedDelay(UrlSuppressionManager::flushHits,
+            HIT_FLUSH_INTERVAL_SECONDS, HIT_FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 加算済みのヒット数を1回のバッチ更新で反映（失敗した分は次回に持ち越す）
+     */
+    private static void flushHits() {
+        List<long[]> batch = new ArrayList<>();
+        for (Map.Entry<Long, LongAdder> entry : PENDING_HITS.entrySet()) {
+            long count = entry.getValue().sumThenReset();
+            if (count > 0) {
+                batch.add(new long[] {entry.getKey(), count});
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE url_suppressions SET last_access_at = NOW(), drop_count = drop_count + ? WHERE id = ?";
         try (Connection conn = DbService.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setLong(1, id);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            AppLogger.warn("URL抑止ヒット更新エラー: id=" + id + " msg=" + e.getMessage());
+            for (long[] hit : batch) {
+                ps.setLong(1, hit[1]);
+                ps.setLong(2, hit[0]);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } catch (Exception e) {
+            AppLogger.warn("URL抑止ヒット更新エラー（次回に持ち越します）: " + batch.size() + " 件 msg=" + e.getMessage());
+            for (long[] hit : batch) {
+                PENDING_HITS.computeIfAbsent(hit[0], k -> new LongAdder()).add(hit[1]);
+            }
         }
     }
 }
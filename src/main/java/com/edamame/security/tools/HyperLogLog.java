@@ -0,0 +1,130 @@
+package com.edamame.security.tools;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ユニーク数推定用のHyperLogLogスケッチ
+ * <p>
+ * 精度パラメータ p=10（1024レジスタ、標準誤差 約3.3%）固定で、
+ * レジスタ配列をそのままバイト列としてDBへ保存・復元できる。
+ * 時間帯ごとのスケッチをマージすることで、任意期間のユニークIP数を推定する用途を想定。
+ * </p>
+ */
+public class HyperLogLog {
+
+    /** 精度パラメータ */
+    private static final int P = 10;
+    /** レジスタ数（2^P） */
+    public static final int REGISTER_COUNT = 1 << P;
+
+    private final byte[] registers;
+
+    /**
+     * 空のスケッチを作成
+     */
+    public HyperLogLog() {
+        this.registers = new byte[REGISTER_COUNT];
+    }
+
+    /**
+     * 保存済みバイト列からスケッチを復元（長さ不一致やnullの場合は空のスケッチ）
+     * @param bytes レジスタ配列
+     * @return スケッチ
+     */
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        HyperLogLog hll = new HyperLogLog();
+        hll.merge(bytes);
+        return hll;
+    }
+
+    /**
+     * 値を追加
+     * @param value 値（IPアドレス等）
+     */
+    public void add(String value) {
+        if (value == null) return;
+        long hash = hash64(value.getBytes(StandardCharsets.UTF_8));
+        int index = (int) (hash >>> (64 - P));
+        // 残りビットの先頭0の数+1（全0の場合は上限値）
+        int rank = Math.min(Long.numberOfLeadingZeros(hash << P) + 1, 64 - P + 1);
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * 他スケッチのレジスタ配列をマージ（レジスタ毎の最大値）
+     * @param other レジスタ配列（長さ不一致やnullは無視）
+     */
+    public void merge(byte[] other) {
+        if (other == null || other.length != REGISTER_COUNT) return;
+        for (int i = 0; i < REGISTER_COUNT; i++) {
+            if (other[i] > registers[i]) {
+                registers[i] = other[i];
+            }
+        }
+    }
+
+    /**
+     * 他スケッチをマージ
+     * @param other スケッチ
+     */
+    public void merge(HyperLogLog other) {
+        if (other != null) merge(other.registers);
+    }
+
+    /**
+     * 値が1件も追加・マージされていないか
+     * @return 全レジスタが0であればtrue
+     */
+    public boolean isEmpty() {
+        for (byte r : registers) {
+            if (r != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * ユニーク数の推定値を取得（小規模域はLinear Countingで補正）
+     * @return 推定ユニーク数
+     */
+    public long estimate() {
+        double sum = 0.0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTER_COUNT);
+        double raw = alpha * REGISTER_COUNT * REGISTER_COUNT / sum;
+        if (raw <= 2.5 * REGISTER_COUNT && zeros > 0) {
+            return Math.round(REGISTER_COUNT * Math.log((double) REGISTER_COUNT / zeros));
+        }
+        return Math.round(raw);
+    }
+
+    /**
+     * 保存用のレジスタ配列（コピー）を取得
+     * @return レジスタ配列
+     */
+    public byte[] toBytes() {
+        return registers.clone();
+    }
+
+    /**
+     * 64bitハッシュ（FNV-1a + MurmurHash3 fmix64 で拡散）
+     */
+    private static long hash64(byte[] data) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : data) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,562 @@
+package com.edamame.security.tools;
+
+import java.net.InetAddress;
+import java.util.Objects;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * IPv4/IPv6 のプレフィックス（CIDR）を最長一致で検索する不変のラディックストライ
+ * <p>
+ * アドレスは block_ip.ip_address と同じ表現（IPv4 は4バイト、IPv6 は16バイト。INET6_ATON の結果と同一）で扱い、
+ * IPv4射影IPv6アドレス（::ffff:a.b.c.d）は IPv4 として照合する。
+ * 分岐のないノードを持たない（パス圧縮した）2分木で、各ノードはプレフィックスを128ビット（long 2つ）で保持し、
+ * マスク付きのXORで比較する。先頭16ビットは構築時に65536要素の表へ展開し、検索は表から該当する部分木へ直接入って
+ * 残りの数ノードだけをたどる（ノードを根からたどるとキャッシュミスが深さの分だけ続くため）。
+ * 10万件でも1回の検索は数十ナノ秒程度。
+ * </p>
+ * <p>
+ * {@link Builder} で構築した後は変更しないため、参照を volatile フィールド等で公開すれば複数スレッドからロックなしで検索できる。
+ * 内容が変わった場合は新しいトライを構築して参照ごと差し替える。
+ * </p>
+ *
+ * @param <V> プレフィックスに対応付ける値
+ * @author Edamame Team
+ * @version 1.0.0
+ */
+public final class IpPrefixTrie<V> {
+
+    private static final IpPrefixTrie<?> EMPTY = new IpPrefixTrie<>(null, null, 0);
+
+    /** 表へ展開する先頭のビット数 */
+    private static final int STRIDE_BITS = 16;
+
+    private final Node<V> rootV4;
+    private final Node<V> rootV6;
+    private final Stride<V> strideV4;
+    private final Stride<V> strideV6;
+    private final int size;
+
+    private IpPrefixTrie(Node<V> rootV4, Node<V> rootV6, int size) {
+        this.rootV4 = rootV4;
+        this.rootV6 = rootV6;
+        this.strideV4 = Stride.of(rootV4);
+        this.strideV6 = Stride.of(rootV6);
+        this.size = size;
+    }
+
+    /**
+     * 空のトライ
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> IpPrefixTrie<V> empty() {
+        return (IpPrefixTrie<V>) EMPTY;
+    }
+
+    /**
+     * ビルダーを作成（同じプレフィックスを複数回登録した場合は後の値で置き換える）
+     */
+    public static <V> Builder<V> builder() {
+        return new Builder<>((previous, next) -> next);
+    }
+
+    /**
+     * ビルダーを作成
+     *
+     * @param merge 同じプレフィックスを複数回登録した場合の値の統合（既存の値, 新しい値）
+     */
+    public static <V> Builder<V> builder(BinaryOperator<V> merge) {
+        return new Builder<>(merge);
+    }
+
+    /**
+     * 登録されているプレフィックスの数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 空か
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * アドレスを含む最長のプレフィックスの値を取得
+     *
+     * @param address アドレス（4または16バイト）
+     * @return 値（含むプレフィックスがない・アドレスの長さが不正な場合はnull）
+     */
+    public V longestMatch(byte[] address) {
+        Stride<V> stride;
+        int bits;
+        if (address == null) {
+            return null;
+        } else if (address.length == 4) {
+            stride = strideV4;
+            bits = 32;
+        } else if (address.length == 16) {
+            stride = strideV6;
+            bits = 128;
+        } else {
+            return null;
+        }
+        if (stride == null) {
+            return null;
+        }
+        long hi = high(address);
+        long lo = low(address);
+        int index = (int) (hi >>> (64 - STRIDE_BITS));
+        V best = stride.covering[index];
+        Node<V> node = stride.start[index];
+        while (node != null && node.matches(hi, lo)) {
+            if (node.value != null) {
+                best = node.value;
+            }
+            if (node.length == bits) {
+                break;
+            }
+            node = bit(hi, lo, node.length) == 0 ? node.zero : node.one;
+        }
+        return best;
+    }
+
+    /**
+     * 文字列表記のアドレスを含む最長のプレフィックスの値を取得
+     *
+     * @param address アドレス（例: 192.0.2.1, 2001:db8::1）
+     * @return 値（含むプレフィックスがない・アドレスとして解釈できない場合はnull）
+     */
+    public V longestMatch(String address) {
+        return size == 0 ? null : longestMatch(parseAddress(address));
+    }
+
+    /**
+     * アドレスを含むいずれかのプレフィックスか
+     */
+    public boolean contains(String address) {
+        return longestMatch(address) != null;
+    }
+
+    /**
+     * アドレスを含むプレフィックスのうち、値が条件を満たすものがあるか（短いプレフィックスから順に判定）
+     *
+     * @param address アドレス（4または16バイト）
+     * @param predicate 値の条件（期限内か等）
+     * @return 条件を満たすものがある場合true
+     */
+    public boolean anyMatch(byte[] address, Predicate<? super V> predicate) {
+        return find(address, Objects.requireNonNull(predicate)) != null;
+    }
+
+    /**
+     * 根からパスをたどり、条件を満たす最初の値を返す
+     */
+    private V find(byte[] address, Predicate<? super V> predicate) {
+        if (address == null) {
+            return null;
+        }
+        Node<V> node;
+        int bits;
+        if (address.length == 4) {
+            node = rootV4;
+            bits = 32;
+        } else if (address.length == 16) {
+            node = rootV6;
+            bits = 128;
+        } else {
+            return null;
+        }
+        long hi = high(address);
+        long lo = low(address);
+        while (node != null && node.matches(hi, lo)) {
+            if (node.value != null && predicate.test(node.value)) {
+                return node.value;
+            }
+            if (node.length == bits) {
+                break;
+            }
+            node = bit(hi, lo, node.length) == 0 ? node.zero : node.one;
+        }
+        return null;
+    }
+
+    /**
+     * 文字列表記のアドレスを4または16バイトへ変換（名前解決は行わない）
+     * IPv4射影IPv6アドレスは4バイトになる
+     *
+     * @param text アドレス
+     * @return バイト列（アドレスとして解釈できない場合はnull）
+     */
+    public static byte[] parseAddress(String text) {
+        if (text == null) {
+            return null;
+        }
+        String value = text.trim();
+        if (value.isEmpty() || value.length() > 64) {
+            return null;
+        }
+        if (value.indexOf(':') >= 0) {
+            // コロンを含む文字列はIPv6リテラルとして解釈されるため名前解決は発生しない
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (!(Character.digit(c, 16) >= 0 || c == ':' || c == '.')) {
+                    return null;
+                }
+            }
+            try {
+                return InetAddress.getByName(value).getAddress();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+        byte[] bytes = new byte[4];
+        int part = 0;
+        int octet = -1;
+        for (int i = 0; i <= value.length(); i++) {
+            char c = i < value.length() ? value.charAt(i) : '.';
+            if (c == '.') {
+                if (octet < 0 || part == 4) {
+                    return null;
+                }
+                bytes[part++] = (byte) octet;
+                octet = -1;
+            } else if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return part == 4 ? bytes : null;
+    }
+
+    /**
+     * アドレスのバイト列を文字列表記へ変換
+     *
+     * @param address アドレス（4または16バイト）
+     * @return 文字列表記（長さが不正な場合は空文字）
+     */
+    public static String formatAddress(byte[] address) {
+        try {
+            return address != null && (address.length == 4 || address.length == 16)
+                ? InetAddress.getByAddress(address).getHostAddress()
+                : "";
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    /**
+     * CIDR表記のプレフィックス
+     *
+     * @param address ネットワークアドレス（4または16バイト、プレフィックス長より後ろのビットは0）
+     * @param length プレフィックス長（IPv4は0〜32、IPv6は0〜128）
+     */
+    public record Prefix(byte[] address, int length) {
+
+        /**
+         * 単一アドレス（プレフィックス長がアドレス長と同じ）か
+         */
+        public boolean isSingleAddress() {
+            return length == address.length * 8;
+        }
+
+        /**
+         * 文字列表記（単一アドレスはアドレスのみ、範囲は アドレス/長さ）
+         */
+        @Override
+        public String toString() {
+            return isSingleAddress() ? formatAddress(address) : formatAddress(address) + "/" + length;
+        }
+
+        /**
+         * アドレスまたはCIDR表記（例: 192.0.2.0/24, 2001:db8::/32）を解釈
+         * プレフィックス長より後ろのビットは0にする
+         *
+         * @param text アドレスまたはCIDR表記
+         * @return プレフィックス（解釈できない場合はnull）
+         */
+        public static Prefix parse(String text) {
+            if (text == null) {
+                return null;
+            }
+            String value = text.trim();
+            int slash = value.indexOf('/');
+            byte[] address = parseAddress(slash < 0 ? value : value.substring(0, slash));
+            if (address == null) {
+                return null;
+            }
+            int bits = address.length * 8;
+            int length = bits;
+            if (slash >= 0) {
+                String lengthText = value.substring(slash + 1);
+                if (lengthText.isEmpty() || lengthText.length() > 3 || !lengthText.chars().allMatch(Character::isDigit)) {
+                    return null;
+                }
+                length = Integer.parseInt(lengthText);
+                // IPv4射影IPv6のCIDR（::ffff:0:0/96 以上）はIPv4の長さへ換算
+                if (address.length == 4 && value.indexOf(':') >= 0) {
+                    length -= 96;
+                }
+                if (length < 0 || length > bits) {
+                    return null;
+                }
+            }
+            return of(address, length);
+        }
+
+        /**
+         * アドレスとプレフィックス長から作成（プレフィックス長より後ろのビットは0にする）
+         *
+         * @param address アドレス（4または16バイト）
+         * @param length プレフィックス長（null はアドレス長）
+         * @return プレフィックス（長さが不正な場合はnull）
+         */
+        public static Prefix of(byte[] address, Integer length) {
+            if (address == null || (address.length != 4 && address.length != 16)) {
+                return null;
+            }
+            int bits = address.length * 8;
+            int prefixLength = length != null ? length : bits;
+            if (prefixLength < 0 || prefixLength > bits) {
+                return null;
+            }
+            byte[] masked = address.clone();
+            for (int i = 0; i < masked.length; i++) {
+                int keep = Math.max(0, Math.min(8, prefixLength - i * 8));
+                masked[i] &= (byte) (0xFF << (8 - keep));
+            }
+            return new Prefix(masked, prefixLength);
+        }
+    }
+
+    /**
+     * トライのビルダー（{@link #build()} の後は使用しない）
+     *
+     * @param <V> 値
+     */
+    public static final class Builder<V> {
+        private final BinaryOperator<V> merge;
+        private Node<V> rootV4;
+        private Node<V> rootV6;
+        private int size;
+        private boolean built;
+
+        private Builder(BinaryOperator<V> merge) {
+            this.merge = merge;
+        }
+
+        /**
+         * プレフィックスを登録
+         *
+         * @param prefix プレフィックス
+         * @param value 値（null不可）
+         * @return このビルダー
+         */
+        public Builder<V> add(Prefix prefix, V value) {
+            Objects.requireNonNull(value, "value");
+            if (built) {
+                throw new IllegalStateException("IpPrefixTrie is already built");
+            }
+            byte[] address = prefix.address();
+            long hi = high(address);
+            long lo = low(address);
+            if (address.length == 4) {
+                rootV4 = insert(rootV4, hi, lo, prefix.length(), value);
+            } else {
+                rootV6 = insert(rootV6, hi, lo, prefix.length(), value);
+            }
+            return this;
+        }
+
+        /**
+         * 文字列表記のアドレスまたはCIDRを登録
+         *
+         * @param text アドレスまたはCIDR表記
+         * @param value 値（null不可）
+         * @return 解釈できて登録した場合true
+         */
+        public boolean add(String text, V value) {
+            Prefix prefix = Prefix.parse(text);
+            if (prefix == null) {
+                return false;
+            }
+            add(prefix, value);
+            return true;
+        }
+
+        /**
+         * 不変のトライを作成
+         */
+        public IpPrefixTrie<V> build() {
+            built = true;
+            return size == 0 ? empty() : new IpPrefixTrie<>(rootV4, rootV6, size);
+        }
+
+        private Node<V> insert(Node<V> root, long hi, long lo, int length, V value) {
+            if (root == null) {
+                size++;
+                return new Node<>(hi, lo, length, value);
+            }
+            Node<V> parent = null;
+            Node<V> node = root;
+            while (true) {
+                int common = commonPrefixLength(node.hi, node.lo, hi, lo, Math.min(node.length, length));
+                if (common < node.length) {
+                    // node の途中で分かれる: 共通部分の分岐ノードを挟む
+                    Node<V> branch = new Node<>(hi, lo, common, null);
+                    branch.setChild(bit(node.hi, node.lo, common), node);
+                    if (common == length) {
+                        branch.value = value;
+                    } else {
+                        branch.setChild(bit(hi, lo, common), new Node<>(hi, lo, length, value));
+                    }
+                    size++;
+                    if (parent == null) {
+                        return branch;
+                    }
+                    parent.setChild(bit(hi, lo, parent.length), branch);
+                    return root;
+                }
+                if (node.length == length) {
+                    if (node.value == null) {
+                        size++;
+                        node.value = value;
+                    } else {
+                        node.value = merge.apply(node.value, value);
+                    }
+                    return root;
+                }
+                int next = bit(hi, lo, node.length);
+                Node<V> child = next == 0 ? node.zero : node.one;
+                if (child == null) {
+                    size++;
+                    node.setChild(next, new Node<>(hi, lo, length, value));
+                    return root;
+                }
+                parent = node;
+                node = child;
+            }
+        }
+    }
+
+    /**
+     * 先頭16ビットごとの検索開始位置
+     * start は先頭16ビットのパス上で最初に長さ16以上になるノード、
+     * covering はそれより短いプレフィックスのうち最長で一致するものの値
+     */
+    private static final class Stride<V> {
+        final Node<V>[] start;
+        final V[] covering;
+
+        @SuppressWarnings("unchecked")
+        private Stride() {
+            this.start = (Node<V>[]) new Node<?>[1 << STRIDE_BITS];
+            this.covering = (V[]) new Object[1 << STRIDE_BITS];
+        }
+
+        static <V> Stride<V> of(Node<V> root) {
+            if (root == null) {
+                return null;
+            }
+            Stride<V> stride = new Stride<>();
+            for (int index = 0; index < stride.start.length; index++) {
+                long hi = (long) index << (64 - STRIDE_BITS);
+                Node<V> node = root;
+                while (node != null) {
+                    if (node.length >= STRIDE_BITS) {
+                        stride.start[index] = node;
+                        break;
+                    }
+                    if (!node.matches(hi, 0L)) {
+                        break;
+                    }
+                    if (node.value != null) {
+                        stride.covering[index] = node.value;
+                    }
+                    node = bit(hi, 0L, node.length) == 0 ? node.zero : node.one;
+                }
+            }
+            return stride;
+        }
+    }
+
+    /**
+     * ノード（プレフィックス・値・子。構築後は変更しない）
+     */
+    private static final class Node<V> {
+        final long hi;
+        final long lo;
+        final int length;
+        final long maskHi;
+        final long maskLo;
+        V value;
+        Node<V> zero;
+        Node<V> one;
+
+        Node(long hi, long lo, int length, V value) {
+            this.length = length;
+            this.maskHi = length >= 64 ? -1L : length == 0 ? 0L : -1L << (64 - length);
+            this.maskLo = length <= 64 ? 0L : length >= 128 ? -1L : -1L << (128 - length);
+            this.hi = hi & maskHi;
+            this.lo = lo & maskLo;
+            this.value = value;
+        }
+
+        boolean matches(long addressHi, long addressLo) {
+            return ((addressHi ^ hi) & maskHi) == 0 && ((addressLo ^ lo) & maskLo) == 0;
+        }
+
+        void setChild(int bit, Node<V> child) {
+            if (bit == 0) {
+                zero = child;
+            } else {
+                one = child;
+            }
+        }
+    }
+
+    /**
+     * 先頭からのビット位置の値（0または1）
+     */
+    private static int bit(long hi, long lo, int index) {
+        return (int) (index < 64 ? (hi >>> (63 - index)) & 1 : (lo >>> (127 - index)) & 1);
+    }
+
+    /**
+     * 2つのキーの共通プレフィックス長（上限 limit）
+     */
+    private static int commonPrefixLength(long hi1, long lo1, long hi2, long lo2, int limit) {
+        long diff = hi1 ^ hi2;
+        int common = diff != 0 ? Long.numberOfLeadingZeros(diff) : 64 + Long.numberOfLeadingZeros(lo1 ^ lo2);
+        return Math.min(common, limit);
+    }
+
+    /**
+     * アドレスの先頭64ビット（IPv4は上位32ビットに左詰め）
+     */
+    private static long high(byte[] address) {
+        long value = 0;
+        int count = Math.min(8, address.length);
+        for (int i = 0; i < count; i++) {
+            value = (value << 8) | (address[i] & 0xFF);
+        }
+        return value << (8 * (8 - count));
+    }
+
+    /**
+     * アドレスの後半64ビット（IPv4は0）
+     */
+    private static long low(byte[] address) {
+        long value = 0;
+        for (int i = 8; i < address.length; i++) {
+            value = (value << 8) | (address[i] & 0xFF);
+        }
+        return value;
+    }
+}
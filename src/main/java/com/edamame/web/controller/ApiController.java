@@ -1,5 +1,6 @@
 package com.edamame.web.controller;
 
+import com.edamame.security.db.DbService;
 import com.edamame.security.tools.AppLogger;
 import com.edamame.web.service.DataService;
 import com.edamame.web.service.FragmentService;
@@ -397,7 +398,8 @@ public class ApiController implements HttpHandler {
         boolean dbConnected = dataService.isConnectionValid();
         Map<String, Object> health = Map.of(
             "db_connected", dbConnected,
-            "version", "v1.0.1"
+            "version", "v1.0.1",
+            "ingest_writer", DbService.getIngestWriterMetrics()
         );
 
         sendJsonResponse(exchange, 200, health);
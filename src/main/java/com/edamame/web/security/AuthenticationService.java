@@ -1,23 +1,28 @@
 package com.edamame.web.security;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import static com.edamame.security.db.DbService.*;
 import com.edamame.security.tools.AppLogger;
+import com.edamame.security.tools.IpPrefixTrie;
 
 /**
  * 認証サービスクラス
  * ユーザー認証とセッション管理を担当
+ * ログインブロック（block_ip の APP_LOGIN）の判定は、有効な行を読み込んだプレフィックストライ（CIDR対応）の
+ * スナップショットで行い、ログイン試行ごとにSQLを発行しない。スナップショットは block_ip の変更通知・
+ * 自動ブロック登録で無効化し、期限切れや外部からの変更のため一定時間ごとにも読み直す。
  */
 public class AuthenticationService {
 
@@ -33,6 +38,20 @@ public class AuthenticationService {
     private static final long LOGIN_FAIL_WINDOW_MINUTES = 5;
     private static final long AUTO_BLOCK_DURATION_MINUTES = 10;
     private static final long CLEANUP_OFFSET_SECONDS = 10;
+    // ログインブロックのスナップショットを読み直す間隔（ミリ秒）
+    private static final long LOGIN_BLOCK_SNAPSHOT_TTL_MS = 60_000;
+
+    /**
+     * ログインブロックのスナップショット
+     * @param prefixes ブロック中のIP・CIDR → 期限（エポックミリ秒、無期限は Long.MAX_VALUE）
+     * @param loadedAtMillis 読み込み時刻
+     */
+    private record LoginBlockSnapshot(IpPrefixTrie<Long> prefixes, long loadedAtMillis) {}
+
+    private volatile LoginBlockSnapshot loginBlockSnapshot; // null は未読み込み・無効化済み
+    private final AtomicLong loginBlockGeneration = new AtomicLong();
+    private final Object loginBlockLock = new Object();
+    private final Runnable loginBlockInvalidator = this::invalidateLoginBlocks;
 
     /**
      * コンストラクタ
@@ -52,6 +71,8 @@ public class AuthenticationService {
         }
         // ブロックIPクリーンアップ後に次回予約を自動セットするフックを登録
         registerBlockIpCleanupRescheduler(this::scheduleNextBlockIpCleanupFromDatabase);
+        // block_ip の変更（手動操作・期限切れ更新）でログインブロックのスナップショットを無効化
+        addBlockListChangeListener(loginBlockInvalidator);
 
         // 期限切れセッションのクリーンアップを1時間ごとに実行
         scheduler.scheduleAtFixedRate(this::cleanupExpiredSessions, 1, 1, java.util.concurrent.TimeUnit.HOURS);
@@ -300,15 +321,53 @@ public class AuthenticationService {
         if (ipBytes == null) {
             return false;
         }
-        String sql = "SELECT 1 FROM block_ip WHERE ip_address = ? AND service_type = 'APP_LOGIN' AND status = 'ACTIVE' AND (end_at IS NULL OR end_at > NOW()) LIMIT 1";
-        try (PreparedStatement stmt = getConnection().prepareStatement(sql)) {
-            stmt.setBytes(1, ipBytes);
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next();
+        long now = System.currentTimeMillis();
+        return loginBlocks(now).anyMatch(ipBytes, endAt -> endAt > now);
+    }
+
+    /**
+     * ログインブロックのスナップショットを取得（未読み込み・無効化済み・一定時間経過時はDBから読み直す）
+     * @param now 現在時刻（エポックミリ秒）
+     * @return ブロック中のIP・CIDR → 期限
+     * @throws SQLException SQL例外
+     */
+    private IpPrefixTrie<Long> loginBlocks(long now) throws SQLException {
+        LoginBlockSnapshot current = loginBlockSnapshot;
+        if (current != null && now - current.loadedAtMillis() < LOGIN_BLOCK_SNAPSHOT_TTL_MS) {
+            return current.prefixes();
+        }
+        synchronized (loginBlockLock) {
+            current = loginBlockSnapshot;
+            if (current != null && now - current.loadedAtMillis() < LOGIN_BLOCK_SNAPSHOT_TTL_MS) {
+                return current.prefixes();
+            }
+            long generation = loginBlockGeneration.get();
+            IpPrefixTrie.Builder<Long> builder = IpPrefixTrie.builder(Math::max);
+            for (Map<String, Object> row : selectActiveBlockPrefixes("APP_LOGIN")) {
+                IpPrefixTrie.Prefix prefix = IpPrefixTrie.Prefix.of((byte[]) row.get("ip_address"), (Integer) row.get("prefix_len"));
+                if (prefix == null) {
+                    continue;
+                }
+                Timestamp endAt = (Timestamp) row.get("end_at");
+                builder.add(prefix, endAt != null ? endAt.getTime() : Long.MAX_VALUE);
             }
+            IpPrefixTrie<Long> prefixes = builder.build();
+            // 読み込み中に無効化された場合は古い可能性があるため保持しない（次回の判定で読み直す）
+            if (loginBlockGeneration.get() == generation) {
+                loginBlockSnapshot = new LoginBlockSnapshot(prefixes, now);
+            }
+            return prefixes;
         }
     }
 
+    /**
+     * ログインブロックのスナップショットを無効化（次回の判定で読み直す）
+     */
+    private void invalidateLoginBlocks() {
+        loginBlockGeneration.incrementAndGet();
+        loginBlockSnapshot = null;
+    }
+
     /**
      * ログイン失敗回数超過によりブロックIPへ登録
      * @param ipAddress クライアントIP
@@ -327,6 +386,7 @@ public class AuthenticationService {
             stmt.setString(4, "system");
             stmt.setString(5, "system");
             stmt.executeUpdate();
+            invalidateLoginBlocks();
             AppLogger.warn("ログイン失敗多発によりIPをブロック: " + ipAddress);
 
             // 最短end_atを再取得し、+1分でクリーンアップを再スケジュール
@@ -390,12 +450,12 @@ public class AuthenticationService {
      * @return バイト配列（変換不可時はnull）
      */
     private byte[] toIpBytes(String ipAddress) {
-        try {
-            return InetAddress.getByName(ipAddress).getAddress();
-        } catch (UnknownHostException e) {
-            AppLogger.warn("IPアドレス変換失敗: " + ipAddress + " / " + e.getMessage());
-            return null;
+        // クライアントIPの文字列を名前解決せずに変換する
+        byte[] ipBytes = IpPrefixTrie.parseAddress(ipAddress);
+        if (ipBytes == null) {
+            AppLogger.warn("IPアドレス変換失敗: " + ipAddress);
         }
+        return ipBytes;
     }
 
     /**
@@ -516,6 +576,7 @@ public class AuthenticationService {
      * サービスのリソースを解放し、スケジューラを安全に停止する
      */
     public void shutdown() {
+        removeBlockListChangeListener(loginBlockInvalidator);
         if (scheduler != null && !scheduler.isShutdown()) {
             scheduler.shutdown();
         }
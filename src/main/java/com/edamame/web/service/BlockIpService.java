@@ -2,8 +2,8 @@ package com.edamame.web.service;
 
 import com.edamame.security.db.DbService;
 import com.edamame.security.tools.AppLogger;
+import com.edamame.security.tools.IpPrefixTrie;
 
-import java.net.InetAddress;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -33,7 +33,7 @@ public class BlockIpService {
         String safeOrder = "desc".equalsIgnoreCase(order) ? "DESC" : "ASC";
 
         StringBuilder sql = new StringBuilder();
-        sql.append("SELECT id, ip_address, service_type, target_agent_name, reason, start_at, end_at, status, created_at, updated_at, created_by, updated_by FROM block_ip WHERE 1=1");
+        sql.append("SELECT id, ip_address, prefix_len, service_type, target_agent_name, reason, start_at, end_at, status, created_at, updated_at, created_by, updated_by FROM block_ip WHERE 1=1");
         List<Object> params = new ArrayList<>();
         if (status != null && !status.isBlank() && !"all".equalsIgnoreCase(status)) {
             sql.append(" AND status = ?");
@@ -78,7 +78,7 @@ public class BlockIpService {
                     while (rs.next()) {
                         Map<String, Object> row = new HashMap<>();
                         row.put("id", rs.getLong("id"));
-                        row.put("ipAddress", toIpString(rs.getBytes("ip_address")));
+                        row.put("ipAddress", toIpString(rs.getBytes("ip_address"), rs.getObject("prefix_len", Integer.class)));
                         row.put("serviceType", rs.getString("service_type"));
                         row.put("targetAgentName", rs.getString("target_agent_name"));
                         row.put("reason", rs.getString("reason"));
@@ -102,27 +102,33 @@ public class BlockIpService {
 
     /**
      * 手動作成（service_type=MANUAL固定）。
+     * ipAddress は単一IPまたはCIDR（例: 192.0.2.0/24）。範囲指定はネットワークアドレスとプレフィックス長で保存する。
      */
     public int createManual(String ipAddress, String targetAgent, String reason, LocalDateTime endAt, String username) throws SQLException {
-        byte[] ipBytes = toIpBytes(ipAddress);
-        if (ipBytes == null) {
+        IpPrefixTrie.Prefix prefix = IpPrefixTrie.Prefix.parse(ipAddress);
+        if (prefix == null || prefix.length() == 0) {
             throw new SQLException("invalid ip address");
         }
-        String sql = "INSERT INTO block_ip (ip_address, service_type, target_agent_name, reason, start_at, end_at, status, created_by, updated_by) " +
-                "VALUES (?, 'MANUAL', ?, ?, NOW(), ?, 'ACTIVE', ?, ?)";
+        String sql = "INSERT INTO block_ip (ip_address, prefix_len, service_type, target_agent_name, reason, start_at, end_at, status, created_by, updated_by) " +
+                "VALUES (?, ?, 'MANUAL', ?, ?, NOW(), ?, 'ACTIVE', ?, ?)";
         try (Connection conn = DbService.getConnection()) {
             if (conn == null) { throw new SQLException("DB connection is null"); }
             try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setBytes(1, ipBytes);
-                ps.setString(2, targetAgent != null && !targetAgent.isBlank() ? targetAgent : null);
-                ps.setString(3, reason);
+                ps.setBytes(1, prefix.address());
+                if (prefix.isSingleAddress()) {
+                    ps.setNull(2, java.sql.Types.TINYINT);
+                } else {
+                    ps.setInt(2, prefix.length());
+                }
+                ps.setString(3, targetAgent != null && !targetAgent.isBlank() ? targetAgent : null);
+                ps.setString(4, reason);
                 if (endAt != null) {
-                    ps.setTimestamp(4, Timestamp.valueOf(endAt));
+                    ps.setTimestamp(5, Timestamp.valueOf(endAt));
                 } else {
-                    ps.setNull(4, java.sql.Types.TIMESTAMP);
+                    ps.setNull(5, java.sql.Types.TIMESTAMP);
                 }
-                ps.setString(5, username);
                 ps.setString(6, username);
+                ps.setString(7, username);
                 int inserted = ps.executeUpdate();
                 if (inserted > 0) {
                     scheduleCleanupReschedule();
@@ -294,6 +300,8 @@ public class BlockIpService {
         } catch (Exception ignored) {
             // スケジュール更新失敗は致命的でないため無視
         }
+        // エージェントへのブロックリスト配信（差分プッシュ）
+        DbService.notifyBlockListChanged();
     }
 
 
@@ -351,21 +359,14 @@ public class BlockIpService {
     }
 
     private static byte[] toIpBytes(String ip) {
-        try {
-            return InetAddress.getByName(ip).getAddress();
-        } catch (Exception e) {
-            AppLogger.warn("IP変換失敗: " + ip + " / " + e.getMessage());
-            return null;
-        }
+        // 検索語がアドレスとして解釈できる場合のみ完全一致条件に使う（名前解決は行わない）
+        return IpPrefixTrie.parseAddress(ip);
     }
 
-    private static String toIpString(byte[] ip) {
+    private static String toIpString(byte[] ip, Integer prefixLen) {
         if (ip == null) return "";
-        try {
-            return InetAddress.getByAddress(ip).getHostAddress();
-        } catch (Exception e) {
-            return "";
-        }
+        String address = IpPrefixTrie.formatAddress(ip);
+        return prefixLen == null || address.isEmpty() ? address : address + "/" + prefixLen;
     }
 
     /** 検索結果コンテナ */
@@ -76,9 +76,8 @@ public class DataService {
      * @return アクセス数
      */
     private int getTotalAccessToday() {
-        // アクティブなサーバーのみ集計する
-        String sql = "SELECT COUNT(*) FROM access_log al JOIN servers s ON al.server_name COLLATE utf8mb4_unicode_ci = s.server_name COLLATE utf8mb4_unicode_ci WHERE DATE(al.access_time) = CURDATE() AND s.is_active = TRUE";
-        return executeCountQuery(sql);
+        // アクティブなサーバーのみ集計する（時間別ロールアップを参照）
+        return executeCountQuery(buildTodayRollupSumSql("request_count"));
     }
 
     /**
@@ -86,20 +85,8 @@ public class DataService {
      * @return 攻撃検知数
      */
     private int getTotalAttacksToday() {
-        // 各 access_log を servers と結合し、is_active = TRUE のサーバーのみを対象に攻撃判定を行う
-        String sql = """
-            SELECT COUNT(DISTINCT al.id)
-            FROM access_log al
-            JOIN servers s ON al.server_name COLLATE utf8mb4_unicode_ci = s.server_name COLLATE utf8mb4_unicode_ci
-            LEFT JOIN url_registry ur ON al.method = ur.method AND al.full_url = ur.full_url
-            WHERE DATE(al.access_time) = CURDATE()
-              AND s.is_active = TRUE
-              AND (
-                  al.blocked_by_modsec = TRUE
-                  OR (ur.attack_type IS NOT NULL AND ur.attack_type NOT IN ('CLEAN', 'UNKNOWN', 'normal'))
-              )
-            """;
-        return executeCountQuery(sql);
+        // 取込時にModSecブロック または 攻撃タイプありと判定されたアクセス数（is_active = TRUE のサーバーのみ）
+        return executeCountQuery(buildTodayRollupSumSql("attack_count"));
     }
 
     /**
@@ -107,8 +94,18 @@ public class DataService {
      * @return ブロック数
      */
     private int getModSecBlocksToday() {
-        String sql = "SELECT COUNT(*) FROM access_log al JOIN servers s ON al.server_name COLLATE utf8mb4_unicode_ci = s.server_name COLLATE utf8mb4_unicode_ci WHERE DATE(al.access_time) = CURDATE() AND al.blocked_by_modsec = TRUE AND s.is_active = TRUE";
-        return executeCountQuery(sql);
+        return executeCountQuery(buildTodayRollupSumSql("modsec_blocks"));
+    }
+
+    /**
+     * 本日分の時間別ロールアップ（access_stats_hourly）の指定カラム合計を求めるSQLを生成（アクティブサーバーのみ）
+     * @param column 合計するカラム名（定数のみを渡すこと）
+     * @return SQL
+     */
+    private String buildTodayRollupSumSql(String column) {
+        return "SELECT COALESCE(SUM(h." + column + "), 0) FROM access_stats_hourly h"
+            + " JOIN servers s ON h.server_name COLLATE utf8mb4_unicode_ci = s.server_name COLLATE utf8mb4_unicode_ci"
+            + " WHERE h.hour_start >= CURDATE() AND h.hour_start < CURDATE() + INTERVAL 1 DAY AND s.is_active = TRUE";
     }
 
     /**
@@ -151,12 +148,16 @@ public class DataService {
                    ma.severity AS severity,
                    ma.message AS message,
                    al.ip_address AS source_ip,
-                   al.full_url AS target_url,
+                   ur.full_url AS target_url,
                    'MODSEC' AS alert_type,
+                   COALESCE(t.attack_type, 'MODSEC') AS attack_type,
+                   al.threat_key AS threat_key,
                    FALSE AS is_resolved,
                    ma.created_at AS created_at
             FROM modsec_alerts ma
             LEFT JOIN access_log al ON ma.access_log_id = al.id
+            LEFT JOIN url_registry ur ON ur.id = al.url_id
+            LEFT JOIN attack_types t ON t.id = al.attack_type_id
             LEFT JOIN servers s ON al.server_name = s.server_name
             ORDER BY ma.created_at DESC
             LIMIT ?
@@ -171,12 +172,13 @@ public class DataService {
                     alert.put("accessTime", formatDateTime(rs.getTimestamp("created_at"))); // created_atを使用
                     alert.put("ipAddress", rs.getString("source_ip"));
                     alert.put("url", rs.getString("target_url"));
-                    alert.put("attackType", rs.getString("alert_type")); // alert_typeを攻撃タイプとして使用
+                    alert.put("attackType", rs.getString("attack_type")); // 取込時にaccess_logへ記録した攻撃タイプ（なければMODSEC）
+                    alert.put("threatKey", rs.getString("threat_key"));
                     alert.put("ruleId", rs.getString("rule_id"));
                     alert.put("severity", rs.getString("severity"));
                     alert.put("isResolved", rs.getBoolean("is_resolved"));
                     alert.put("message", rs.getString("message"));
-                    alert.put("severityLevel", determineSeverityLevel(rs.getString("alert_type"), rs.getString("severity")));
+                    alert.put("severityLevel", determineSeverityLevel(rs.getString("attack_type"), rs.getString("severity")));
 
                     alerts.add(alert);
                 }
@@ -196,9 +198,9 @@ public class DataService {
         // サーバー管理画面向け: 全サーバーを返す（有効/無効の両方を管理画面で確認できるようにする）
         String sql = """
             SELECT s.*,
-                   COALESCE((SELECT COUNT(*) FROM access_log a
-                            WHERE a.server_name COLLATE utf8mb4_unicode_ci = s.server_name COLLATE utf8mb4_unicode_ci
-                            AND DATE(a.access_time) = CURDATE()), 0) as today_access_count
+                   COALESCE((SELECT SUM(h.request_count) FROM access_stats_hourly h
+                            WHERE h.server_name COLLATE utf8mb4_unicode_ci = s.server_name COLLATE utf8mb4_unicode_ci
+                            AND h.hour_start >= CURDATE() AND h.hour_start < CURDATE() + INTERVAL 1 DAY), 0) as today_access_count
             FROM servers s
             ORDER BY s.server_name COLLATE utf8mb4_unicode_ci
             """;
@@ -230,40 +232,26 @@ public class DataService {
      */
     public List<Map<String, Object>> getServerStats() {
         List<Map<String, Object>> serverStats = new ArrayList<>();
-        // server_stats テーブルが存在しない場合は servers テーブルとアクセスログを集計して取得する
+        // 取込時に更新される時間別ロールアップ（access_stats_hourly）から集計し、access_log の全件走査を避ける
         String sql = """
             SELECT s.server_name,
                    s.server_description,
                    s.is_active,
                    s.last_log_received,
-                   COALESCE(a.total_access, 0) AS total_access,
-                   COALESCE(today.total_access_today, 0) AS today_access_count,
-                   COALESCE(ar.attack_count, 0) AS attack_count,
-                   COALESCE(m.modsec_blocks, 0) AS modsec_blocks
+                   COALESCE(r.total_access, 0) AS total_access,
+                   COALESCE(r.total_access_today, 0) AS today_access_count,
+                   COALESCE(r.attack_count, 0) AS attack_count,
+                   COALESCE(r.modsec_blocks, 0) AS modsec_blocks
             FROM servers s
             LEFT JOIN (
-                SELECT server_name, COUNT(*) AS total_access FROM access_log GROUP BY server_name
-            ) a ON a.server_name = s.server_name
-            LEFT JOIN (
-                SELECT server_name, COUNT(*) AS total_access_today
-                FROM access_log
-                WHERE DATE(access_time) = CURDATE()
+                SELECT server_name,
+                       SUM(request_count) AS total_access,
+                       SUM(CASE WHEN hour_start >= CURDATE() THEN request_count ELSE 0 END) AS total_access_today,
+                       SUM(attack_count) AS attack_count,
+                       SUM(modsec_blocks) AS modsec_blocks
+                FROM access_stats_hourly
                 GROUP BY server_name
-            ) today ON today.server_name = s.server_name
-            LEFT JOIN (
-                SELECT al.server_name, COUNT(DISTINCT al.id) AS attack_count
-                FROM access_log al
-                LEFT JOIN url_registry ur ON al.method = ur.method AND al.full_url = ur.full_url
-                WHERE (
-                    al.blocked_by_modsec = TRUE
-                    OR (ur.attack_type IS NOT NULL AND ur.attack_type NOT IN ('CLEAN', 'UNKNOWN', 'normal'))
-                )
-                GROUP BY al.server_name
-            ) ar ON ar.server_name = s.server_name
-            LEFT JOIN (
-                SELECT server_name, SUM(CASE WHEN blocked_by_modsec=TRUE THEN 1 ELSE 0 END) AS modsec_blocks
-                FROM access_log GROUP BY server_name
-            ) m ON m.server_name = s.server_name
+            ) r ON r.server_name = s.server_name
             WHERE s.is_active = TRUE
             ORDER BY s.server_name COLLATE utf8mb4_unicode_ci
             """;
@@ -297,30 +285,15 @@ public class DataService {
      */
     public List<Map<String, Object>> getAttackTypeStats() {
         List<Map<String, Object>> attackTypes = new ArrayList<>();
-        // 今日のアクセスログをベースに、攻撃判定と同一のフィルタで攻撃タイプ別に集計する
-        // 範囲: DATE(access_time)=CURDATE(), サーバは active のみを集計対象
-        // 攻撃タイプは url_registry.attack_type を優先し、マッピングが無く ModSecurity によるブロックがある場合は 'MODSEC' とする
-        // only_full_group_by 回避のため、サブクエリで各アクセスごとに attack_type を決定し
-        // 外側で集計（GROUP BY）する方式に変更
+        // 本日分の時間別攻撃タイプ集計（attack_stats_hourly）を合算する。サーバは active のみを集計対象
+        // 攻撃タイプは取込時に url_registry.attack_type を優先し、攻撃タイプが無く ModSecurity によるブロックがある場合は 'MODSEC' として計上済み
         String sql = """
-            SELECT attack_type, COUNT(*) AS count FROM (
-                SELECT al.id AS log_id,
-                       CASE
-                           WHEN ur.attack_type IS NOT NULL AND ur.attack_type NOT IN ('CLEAN','UNKNOWN','normal') THEN ur.attack_type
-                           WHEN al.blocked_by_modsec = TRUE THEN 'MODSEC'
-                           ELSE 'UNKNOWN'
-                       END AS attack_type
-                FROM access_log al
-                JOIN servers s ON al.server_name COLLATE utf8mb4_unicode_ci = s.server_name COLLATE utf8mb4_unicode_ci
-                LEFT JOIN url_registry ur ON al.method = ur.method AND al.full_url = ur.full_url
-                WHERE DATE(al.access_time) = CURDATE()
-                  AND s.is_active = TRUE
-                  AND (
-                      al.blocked_by_modsec = TRUE
-                      OR (ur.attack_type IS NOT NULL AND ur.attack_type NOT IN ('CLEAN','UNKNOWN','normal'))
-                  )
-            ) sub
-            GROUP BY attack_type
+            SELECT h.attack_type, SUM(h.attack_count) AS count
+            FROM attack_stats_hourly h
+            JOIN servers s ON h.server_name COLLATE utf8mb4_unicode_ci = s.server_name COLLATE utf8mb4_unicode_ci
+            WHERE h.hour_start >= CURDATE() AND h.hour_start < CURDATE() + INTERVAL 1 DAY
+              AND s.is_active = TRUE
+            GROUP BY h.attack_type
             ORDER BY count DESC
             """;
 
@@ -1,6 +1,7 @@
 package com.edamame.web.service;
 
 import com.edamame.security.db.DbService;
+import com.edamame.security.suppression.UrlSuppressionManager;
 import com.edamame.security.tools.AppLogger;
 import com.edamame.web.security.WebSecurityUtils;
 
@@ -19,6 +20,7 @@ import java.util.Map;
 /**
  * URL抑止条件のCRUDと検索を担当するサービスクラス。
  * 正規表現パターンをサーバー単位または全体で管理し、UI向けに一覧・更新機能を提供する。
+ * 変更後は UrlSuppressionManager のルールのスナップショットを破棄し、次の判定から反映する。
  */
 public class UrlSuppressionService {
 
@@ -117,7 +119,7 @@ public class UrlSuppressionService {
             ps.setBoolean(4, enabled);
             ps.setString(5, username);
             ps.setString(6, username);
-            return ps.executeUpdate();
+            return changed(ps.executeUpdate());
         }
     }
 
@@ -142,7 +144,7 @@ public class UrlSuppressionService {
             ps.setBoolean(4, enabled);
             ps.setString(5, username);
             ps.setLong(6, id);
-            return ps.executeUpdate();
+            return changed(ps.executeUpdate());
         }
     }
 
@@ -156,7 +158,7 @@ public class UrlSuppressionService {
         try (Connection conn = DbService.getConnection();
              PreparedStatement ps = conn.prepareStatement("DELETE FROM url_suppressions WHERE id = ?")) {
             ps.setLong(1, id);
-            return ps.executeUpdate();
+            return changed(ps.executeUpdate());
         }
     }
 
@@ -174,7 +176,7 @@ public class UrlSuppressionService {
             ps.setBoolean(1, enabled);
             ps.setString(2, username);
             ps.setLong(3, id);
-            return ps.executeUpdate();
+            return changed(ps.executeUpdate());
         }
     }
 
@@ -205,6 +207,18 @@ public class UrlSuppressionService {
         return null;
     }
 
+    /**
+     * 更新があれば判定側（UrlSuppressionManager）のルールのスナップショットを破棄する。
+     * @param updated 更新件数
+     * @return 更新件数
+     */
+    private int changed(int updated) {
+        if (updated > 0) {
+            UrlSuppressionManager.invalidateRules();
+        }
+        return updated;
+    }
+
     private String normalizeServer(String serverName) {
         if (serverName == null || serverName.isBlank()) return "all";
         return WebSecurityUtils.sanitizeInput(serverName.trim());
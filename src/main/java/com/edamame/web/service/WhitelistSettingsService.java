@@ -2,8 +2,8 @@ package com.edamame.web.service;
 
 import com.edamame.security.db.DbService;
 import com.edamame.security.tools.AppLogger;
+import com.edamame.security.tools.IpPrefixTrie;
 
-import java.net.InetAddress;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
@@ -15,6 +15,7 @@ import java.util.Set;
 /**
  * ホワイトリスト設定を取得・更新するサービス。
  * settingsテーブルのwhitelist_modeとwhitelist_ipを扱う。
+ * whitelist_ip の各要素は単一IPまたはCIDR（例: 192.0.2.0/24）。
  */
 public class WhitelistSettingsService {
 
@@ -101,16 +102,11 @@ public class WhitelistSettingsService {
         if (ip == null || ip.isBlank()) {
             throw new IllegalArgumentException("IPアドレスが空です");
         }
-        // IP以外の文字が混入しないように軽くフィルタし、InetAddressで最終確認
-        if (!ip.matches("[0-9a-fA-F:.,]+")) {
+        // IP以外の文字が混入しないように軽くフィルタし、アドレス・CIDRとして解釈できるか確認（名前解決は行わない）
+        if (!ip.matches("[0-9a-fA-F:.,]+(/[0-9]{1,3})?")) {
             throw new IllegalArgumentException("不正な文字を含むIPです: " + ip);
         }
-        try {
-            InetAddress address = InetAddress.getByName(ip);
-            if (address == null) {
-                throw new IllegalArgumentException("IP解決に失敗しました: " + ip);
-            }
-        } catch (Exception e) {
+        if (IpPrefixTrie.Prefix.parse(ip) == null) {
             throw new IllegalArgumentException("IP形式が不正です: " + ip);
         }
     }
@@ -97,7 +97,7 @@
     }
 
     function validateIp(ip){
-        if (!ip.match(/^[0-9a-fA-F:.,]+$/)) {
+        if (!ip.match(/^[0-9a-fA-F:.,]+(\/[0-9]{1,3})?$/)) {
             throw new Error('IP形式が不正です: '+ip);
         }
     }
@@ -0,0 +1,27 @@
+package com.edamame.agent.network;
+
+import com.edamame.agent.log.LogEntry;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * パッケージ外のテスト（サーバー側デコーダーとの往復テスト）から BinaryLogBatchEncoder を使うための入口
+ */
+public final class BinaryLogBatchEncoderAccess {
+
+    private BinaryLogBatchEncoderAccess() {
+    }
+
+    /**
+     * ログリストをバイナリ形式の本体へエンコード
+     *
+     * @param logs ログリスト
+     * @param includeAttackTags 事前分類の結果を含めるか
+     * @return エンコード済みの本体
+     * @throws IOException バッファへの書き込みエラー
+     */
+    public static byte[] encode(List<LogEntry> logs, boolean includeAttackTags) throws IOException {
+        return new BinaryLogBatchEncoder().encode(logs, includeAttackTags);
+    }
+}
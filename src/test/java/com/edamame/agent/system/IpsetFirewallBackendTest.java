@@ -0,0 +1,151 @@
+package com.edamame.agent.system;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * IpsetFirewallBackend のテスト
+ * コマンドを実行せずに記録する CommandExecutor で、ipset restore へ渡すスクリプトと
+ * restore 失敗時にセットを読み直して判定する未反映のIPアドレスを確認する
+ */
+class IpsetFirewallBackendTest {
+
+    /**
+     * 実行したコマンドと標準入力を記録し、コマンドごとに決めた結果を返す CommandExecutor
+     */
+    private static final class RecordingExecutor implements CommandExecutor {
+        final List<List<String>> commands = new ArrayList<>();
+        final List<String> inputs = new ArrayList<>();
+        final Map<String, Result> results;
+
+        RecordingExecutor(Map<String, Result> results) {
+            this.results = results;
+        }
+
+        @Override
+        public Result execute(List<String> command, String input) {
+            commands.add(command);
+            inputs.add(input);
+            return results.getOrDefault(String.join(" ", command), new Result(0, "", ""));
+        }
+    }
+
+    private static Set<String> setOf(String... values) {
+        return new LinkedHashSet<>(List.of(values));
+    }
+
+    private static CommandExecutor.Result listing(String set, String... members) {
+        StringBuilder output = new StringBuilder("Name: " + set + "\nType: hash:net\nHeader: family inet hashsize 1024\nMembers:\n");
+        for (String member : members) {
+            output.append(member).append('\n');
+        }
+        return new CommandExecutor.Result(0, output.toString(), "");
+    }
+
+    @Test
+    void deltaIsAppliedWithOneRestoreSplitByFamily() {
+        RecordingExecutor executor = new RecordingExecutor(Map.of());
+        IpsetFirewallBackend backend = new IpsetFirewallBackend(executor);
+
+        Set<String> failed = backend.apply(new FirewallBackend.Change(
+            setOf("192.0.2.1", "2001:db8::1", "198.51.100.0/24"), setOf("203.0.113.5", "2001:db8::/64"), null));
+
+        assertTrue(failed.isEmpty());
+        assertEquals(List.of(List.of("ipset", "restore", "-exist")), executor.commands);
+        assertEquals("del edamame-block4 203.0.113.5\n"
+            + "del edamame-block6 2001:db8::/64\n"
+            + "add edamame-block4 192.0.2.1\n"
+            + "add edamame-block6 2001:db8::1\n"
+            + "add edamame-block4 198.51.100.0/24\n", executor.inputs.get(0));
+    }
+
+    @Test
+    void fullListIsSwappedInPerFamily() {
+        RecordingExecutor executor = new RecordingExecutor(Map.of());
+        IpsetFirewallBackend backend = new IpsetFirewallBackend(executor);
+
+        Set<String> failed = backend.apply(new FirewallBackend.Change(
+            setOf("192.0.2.1"), setOf("203.0.113.5"), setOf("192.0.2.1", "2001:db8::1", "10.0.0.0/8")));
+
+        assertTrue(failed.isEmpty());
+        assertEquals("create edamame-block4-swap hash:net family inet\n"
+            + "flush edamame-block4-swap\n"
+            + "add edamame-block4-swap 192.0.2.1\n"
+            + "add edamame-block4-swap 10.0.0.0/8\n"
+            + "swap edamame-block4-swap edamame-block4\n"
+            + "destroy edamame-block4-swap\n"
+            + "create edamame-block6-swap hash:net family inet6\n"
+            + "flush edamame-block6-swap\n"
+            + "add edamame-block6-swap 2001:db8::1\n"
+            + "swap edamame-block6-swap edamame-block6\n"
+            + "destroy edamame-block6-swap\n", executor.inputs.get(0));
+    }
+
+    @Test
+    void emptyDeltaRunsNoCommand() {
+        RecordingExecutor executor = new RecordingExecutor(Map.of());
+        IpsetFirewallBackend backend = new IpsetFirewallBackend(executor);
+
+        assertTrue(backend.apply(new FirewallBackend.Change(Set.of(), Set.of(), null)).isEmpty());
+        assertTrue(executor.commands.isEmpty());
+    }
+
+    @Test
+    void partialRestoreFailureReportsOnlyEntriesMissingFromTheSets() {
+        RecordingExecutor executor = new RecordingExecutor(Map.of(
+            "ipset restore -exist", new CommandExecutor.Result(1, "", "ipset v7.15: Error in line 3: Syntax error"),
+            "ipset list edamame-block4", listing("edamame-block4", "192.0.2.1", "203.0.113.5"),
+            // ipset は省略形・小文字で表示する
+            "ipset list edamame-block6", listing("edamame-block6", "2001:db8::1 timeout 0")));
+        IpsetFirewallBackend backend = new IpsetFirewallBackend(executor);
+
+        Set<String> failed = backend.apply(new FirewallBackend.Change(
+            setOf("192.0.2.1/32", "2001:DB8:0:0::1", "198.51.100.7"), setOf("203.0.113.5", "192.0.2.200"), null));
+
+        // 追加されていない 198.51.100.7 と、削除されずに残っている 203.0.113.5 だけが未反映
+        assertEquals(Set.of("198.51.100.7", "203.0.113.5"), failed);
+        assertEquals(List.of("ipset", "list", "edamame-block6"), executor.commands.get(executor.commands.size() - 1));
+    }
+
+    @Test
+    void failedSwapKeepsPreviousSetContents() {
+        RecordingExecutor executor = new RecordingExecutor(Map.of(
+            "ipset restore -exist", new CommandExecutor.Result(1, "", "ipset v7.15: Error in line 4"),
+            "ipset list edamame-block4", listing("edamame-block4", "203.0.113.5"),
+            "ipset list edamame-block6", listing("edamame-block6")));
+        IpsetFirewallBackend backend = new IpsetFirewallBackend(executor);
+
+        Set<String> failed = backend.apply(new FirewallBackend.Change(
+            setOf("192.0.2.1", "2001:db8::1"), setOf("203.0.113.5"), setOf("192.0.2.1", "2001:db8::1")));
+
+        assertEquals(Set.of("192.0.2.1", "2001:db8::1", "203.0.113.5"), failed);
+    }
+
+    @Test
+    void unreadableSetsMarkTheWholeChangeAsFailed() {
+        RecordingExecutor executor = new RecordingExecutor(Map.of(
+            "ipset restore -exist", new CommandExecutor.Result(1, "", "error"),
+            "ipset list edamame-block4", new CommandExecutor.Result(1, "", "The set with the given name does not exist")));
+        IpsetFirewallBackend backend = new IpsetFirewallBackend(executor);
+
+        Set<String> failed = backend.apply(new FirewallBackend.Change(setOf("192.0.2.1"), setOf("203.0.113.5"), null));
+
+        assertEquals(Set.of("192.0.2.1", "203.0.113.5"), failed);
+    }
+
+    @Test
+    void memberKeyNormalizesNotation() {
+        assertEquals(IpsetFirewallBackend.memberKey("192.0.2.1"), IpsetFirewallBackend.memberKey("192.0.2.1/32"));
+        assertEquals(IpsetFirewallBackend.memberKey("10.0.0.0/8"), IpsetFirewallBackend.memberKey("10.1.2.3/8"));
+        assertEquals(IpsetFirewallBackend.memberKey("2001:db8::1"), IpsetFirewallBackend.memberKey("2001:DB8:0:0:0:0:0:1/128"));
+        assertEquals("not-an-address", IpsetFirewallBackend.memberKey("not-an-address"));
+    }
+}
@@ -0,0 +1,165 @@
+package com.edamame.security.agent;
+
+import com.edamame.agent.log.LogEntry;
+import com.edamame.agent.network.BinaryLogBatchEncoderAccess;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * バイナリ形式（v2）とJSON形式のログバッチのサイズ・CPU時間の比較ベンチマーク
+ * <p>
+ * 固定シードで生成したアクセスログ（既定 1000 行）のバッチについて、エージェントのエンコードと
+ * サーバーのデコード（マップへの復元）を合わせた時間と、deflate 前後のサイズを出力する。
+ * JSON はエージェント（LogTransmitter）・サーバー（AgentTcpServer）と同じ ObjectMapper の設定を使う。
+ * JUnit のテストではなく、{@code ./gradlew benchmarkBinaryBatch}（引数: 行数 反復回数）で実行する。
+ * 結果は document/com/edamame/agent/network/BinaryLogBatchEncoder.md に記録する。
+ * </p>
+ */
+public final class BinaryLogBatchBenchmark {
+
+    private static final int DEFAULT_LINES = 1_000;
+    private static final int DEFAULT_ITERATIONS = 2_000;
+    private static final DateTimeFormatter NGINX_TIME = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+
+    private static final String[] METHODS = {"GET", "GET", "GET", "POST", "HEAD"};
+    private static final String[] PATHS = {
+        "/", "/index.html", "/assets/app.js", "/assets/style.css", "/api/v1/items", "/login", "/search", "/images/logo.png"};
+    private static final int[] STATUSES = {200, 200, 200, 200, 304, 301, 404, 403, 500};
+    private static final String[] USER_AGENTS = {
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/129.0.0.0 Safari/537.36",
+        "Mozilla/5.0 (iPhone; CPU iPhone OS 17_6 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.6 Mobile/15E148 Safari/604.1",
+        "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)",
+        "curl/8.5.0"};
+
+    private BinaryLogBatchBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_LINES;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+        List<LogEntry> logs = generate(lines, new Random(42));
+
+        // エージェント（LogTransmitter）とサーバー（AgentTcpServer）の ObjectMapper 設定
+        ObjectMapper agentMapper = new ObjectMapper();
+        agentMapper.findAndRegisterModules();
+        agentMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        ObjectMapper serverMapper = new ObjectMapper();
+
+        Map<String, Object> batch = new LinkedHashMap<>();
+        batch.put("logs", logs);
+        batch.put("agentId", "benchmark-agent");
+        byte[] json = agentMapper.writeValueAsBytes(batch);
+        byte[] binary = BinaryLogBatchEncoderAccess.encode(logs, true);
+
+        // 計測前に往復結果の件数を確認（比較対象が同じデータを運んでいること）
+        List<Map<String, Object>> decoded = BinaryLogBatchDecoder.decode(new ByteArrayInputStream(binary));
+        if (decoded.size() != lines) {
+            throw new IllegalStateException("binary round trip returned " + decoded.size() + " of " + lines + " entries");
+        }
+
+        System.out.printf("lines=%d iterations=%d%n", lines, iterations);
+        System.out.printf("size   json=%,d B (deflate %,d B)  binary=%,d B (deflate %,d B)%n",
+            json.length, deflate(json).length, binary.length, deflate(binary).length);
+
+        Runnable jsonRoundTrip = () -> {
+            try {
+                byte[] data = agentMapper.writeValueAsBytes(batch);
+                Map<String, Object> logBatch = serverMapper.readValue(new ByteArrayInputStream(data), new TypeReference<>() {});
+                consume(logBatch.get("logs"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        Runnable binaryRoundTrip = () -> {
+            try {
+                byte[] data = BinaryLogBatchEncoderAccess.encode(logs, true);
+                consume(BinaryLogBatchDecoder.decode(new ByteArrayInputStream(data)));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+
+        // JIT のウォームアップ後に計測（交互に実行して順序の影響を減らす）
+        measure(jsonRoundTrip, iterations);
+        measure(binaryRoundTrip, iterations);
+        double jsonMillis = measure(jsonRoundTrip, iterations);
+        double binaryMillis = measure(binaryRoundTrip, iterations);
+        System.out.printf("cpu    json=%.3f ms/batch  binary=%.3f ms/batch (encode + decode)%n", jsonMillis, binaryMillis);
+    }
+
+    /**
+     * アクセスログのバッチを生成（同じシードで同じ内容）
+     */
+    static List<LogEntry> generate(int lines, Random random) {
+        List<LogEntry> logs = new ArrayList<>(lines);
+        LocalDateTime start = LocalDateTime.of(2026, 10, 19, 12, 0, 0);
+        long offset = 0;
+        for (int i = 0; i < lines; i++) {
+            LocalDateTime time = start.plusNanos(i * 37_000_000L);
+            String method = METHODS[random.nextInt(METHODS.length)];
+            String url = PATHS[random.nextInt(PATHS.length)] + (random.nextInt(4) == 0 ? "?q=" + random.nextInt(10_000) : "");
+            String request = method + " " + url + " HTTP/1.1";
+            String clientIp = random.nextInt(5) == 0
+                ? "2001:db8::" + Integer.toHexString(random.nextInt(0xFFFF))
+                : "198.51." + random.nextInt(256) + "." + random.nextInt(256);
+            offset += request.length() + 180;
+            logs.add(new LogEntry(clientIp, time.atOffset(ZoneOffset.ofHours(9)).format(NGINX_TIME), request,
+                STATUSES[random.nextInt(STATUSES.length)], String.valueOf(random.nextInt(50_000)),
+                random.nextBoolean() ? "-" : "https://example.com/", USER_AGENTS[random.nextInt(USER_AGENTS.length)],
+                "/var/log/nginx/access.log", "web-01", time.plusNanos(120_000_000L).toString(), false,
+                "2049-131074", offset, "normal", "v42"));
+        }
+        return logs;
+    }
+
+    /**
+     * 処理を指定回数実行し、1回あたりの平均時間（ミリ秒）を返す
+     */
+    private static double measure(Runnable roundTrip, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            roundTrip.run();
+        }
+        return (System.nanoTime() - start) / 1_000_000.0 / iterations;
+    }
+
+    private static int sink;
+
+    /**
+     * 結果を捨てずに参照する（最適化で処理が省かれないように）
+     */
+    private static void consume(Object result) {
+        sink += System.identityHashCode(result);
+    }
+
+    /**
+     * LogTransmitter と同じ圧縮レベルで deflate
+     */
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,107 @@
+package com.edamame.security.agent;
+
+import com.edamame.agent.log.LogEntry;
+import com.edamame.agent.network.BinaryLogBatchEncoderAccess;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * バイナリ形式（v2）ログバッチの往復テスト
+ * エージェントの BinaryLogBatchEncoder でエンコードしサーバーの BinaryLogBatchDecoder でデコードした結果が、
+ * 同じエントリをJSON形式のバッチで送った場合にサーバーが受け取るマップと一致することを確認する
+ */
+class BinaryLogBatchCodecTest {
+
+    /** デコーダーが復元するキー（processLogEntries が参照するJSON形式のキー） */
+    private static final List<String> KEYS = List.of(
+        "serverName", "sourcePath", "clientIp", "request", "httpMethod", "requestUrl", "statusCode", "responseSize",
+        "timestamp", "collectedAt", "referer", "userAgent", "blockedByModSec", "streamId", "endOffset",
+        "attackType", "attackPatternVersion");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static LogEntry entry(String clientIp, String timestamp, String request, int statusCode, String responseSize,
+                                  String collectedAt, boolean blockedByModSec, String streamId, long endOffset,
+                                  String attackType, String attackPatternVersion) {
+        return new LogEntry(clientIp, timestamp, request, statusCode, responseSize, "https://example.com/ref?q=1",
+            "Mozilla/5.0 (テスト; ☃)", "/var/log/nginx/access.log", "web-01", collectedAt, blockedByModSec,
+            streamId, endOffset, attackType, attackPatternVersion);
+    }
+
+    private static final List<LogEntry> ENTRIES = List.of(
+        // 分割できるリクエスト・数値サイズ・エポック化できる時刻・読み取り位置・事前分類
+        entry("192.0.2.1", "19/Oct/2026:12:34:56 +0900", "GET /index.html?a=1&b=%20 HTTP/1.1", 200, "5120",
+            "2026-10-19T12:34:56.123456789", false, "dev1-ino2", 1_024, "normal", "v42"),
+        // 負のUTCオフセット・小数部のない収集時刻・ModSecurityブロック
+        entry("2001:db8::1", "01/Jan/2026:00:00:00 -0530", "POST /login HTTP/2.0", 403, "0",
+            "2026-01-01T05:30:00", true, "dev1-ino2", 2_048, "SQLi", "v42"),
+        // 末尾が0の小数部（桁数を保って復元できること）
+        entry("198.51.100.7", "29/Feb/2024:23:59:59 +0000", "HEAD / HTTP/1.0", 301, "-",
+            "2024-02-29T23:59:59.100", false, "dev1-ino3", 4_096, null, null),
+        // 分割できないリクエスト・数値でないサイズ・解釈できない時刻・位置なし
+        entry("203.0.113.9", "not-a-time", "\\x16\\x03\\x01", 400, "abc", "2026-10-19 12:00:00", false, null, 0, null, null),
+        // 空のリクエスト・空のリファラー相当の値
+        entry("10.0.0.1", "", "", 444, "", "2026-10-19T00:00:00.000000001", false, null, 0, null, null),
+        // 余分な空白を含むリクエスト（分割すると元に戻せない）
+        entry("10.0.0.2", "19/Oct/2026:01:02:03 +0100", "GET  /double-space HTTP/1.1", 404, "12",
+            "2026-10-19T01:02:03.5", false, "dev9-ino1", 9_999_999_999L, "XSS", "v43"));
+
+    @Test
+    void binaryBatchDecodesToTheSameMapsAsJson() throws IOException {
+        assertRoundTrip(ENTRIES, true);
+    }
+
+    @Test
+    void attackTagsAreOmittedWhenNotNegotiated() throws IOException {
+        List<Map<String, Object>> decoded = decode(ENTRIES, false);
+        for (Map<String, Object> logData : decoded) {
+            assertFalse(logData.containsKey("attackType"));
+            assertFalse(logData.containsKey("attackPatternVersion"));
+        }
+    }
+
+    @Test
+    void emptyBatchRoundTrips() throws IOException {
+        assertEquals(List.of(), decode(List.of(), true));
+    }
+
+    private void assertRoundTrip(List<LogEntry> entries, boolean includeAttackTags) throws IOException {
+        List<Map<String, Object>> decoded = decode(entries, includeAttackTags);
+        List<Map<String, Object>> json = objectMapper.readValue(
+            objectMapper.writeValueAsBytes(Map.of("logs", entries)), new TypeReference<Map<String, List<Map<String, Object>>>>() {})
+            .get("logs");
+
+        assertEquals(json.size(), decoded.size());
+        for (int i = 0; i < json.size(); i++) {
+            for (String key : KEYS) {
+                assertEquals(normalize(key, json.get(i).get(key)), normalize(key, decoded.get(i).get(key)),
+                    "entry " + i + " key " + key);
+            }
+        }
+    }
+
+    private static List<Map<String, Object>> decode(List<LogEntry> entries, boolean includeAttackTags) throws IOException {
+        byte[] body = BinaryLogBatchEncoderAccess.encode(entries, includeAttackTags);
+        return BinaryLogBatchDecoder.decode(new ByteArrayInputStream(body));
+    }
+
+    /**
+     * 比較用の値（数値は long に揃え、JSON形式で位置を持たない行の endOffset=0 は未設定とみなす）
+     */
+    private static Object normalize(String key, Object value) {
+        if (value instanceof Number number) {
+            long longValue = number.longValue();
+            return "endOffset".equals(key) && longValue == 0 ? null : longValue;
+        }
+        return value;
+    }
+}
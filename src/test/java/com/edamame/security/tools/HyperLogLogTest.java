@@ -0,0 +1,111 @@
+package com.edamame.security.tools;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * HyperLogLog のテスト
+ * 推定誤差が p=10 の標準誤差（約3.3%）の3倍以内に収まること、小規模域の補正、マージと保存・復元を確認する
+ */
+class HyperLogLogTest {
+
+    /** 許容する相対誤差（標準誤差 1.04/sqrt(1024) の3倍） */
+    private static final double MAX_RELATIVE_ERROR = 3 * 1.04 / Math.sqrt(HyperLogLog.REGISTER_COUNT);
+
+    @Test
+    void estimateIsWithinErrorBoundsForIpv4Addresses() {
+        for (int n : new int[] {1_000, 5_000, 20_000, 100_000, 500_000}) {
+            HyperLogLog hll = new HyperLogLog();
+            for (int i = 0; i < n; i++) {
+                hll.add("10." + ((i >> 16) & 0xFF) + "." + ((i >> 8) & 0xFF) + "." + (i & 0xFF));
+            }
+            assertWithinBounds(n, hll.estimate());
+        }
+    }
+
+    @Test
+    void estimateIsWithinErrorBoundsForIpv6Addresses() {
+        for (int n : new int[] {3_000, 30_000, 300_000}) {
+            HyperLogLog hll = new HyperLogLog();
+            for (int i = 0; i < n; i++) {
+                hll.add("2001:db8::" + Integer.toHexString(i >>> 16) + ":" + Integer.toHexString(i & 0xFFFF));
+            }
+            assertWithinBounds(n, hll.estimate());
+        }
+    }
+
+    @Test
+    void smallCardinalitiesUseLinearCounting() {
+        HyperLogLog hll = new HyperLogLog();
+        assertEquals(0, hll.estimate());
+        for (int i = 1; i <= 200; i++) {
+            hll.add("192.0.2." + i);
+            long estimate = hll.estimate();
+            assertTrue(Math.abs(estimate - i) <= Math.max(2, i * 0.05), "n=" + i + " estimate=" + estimate);
+        }
+    }
+
+    @Test
+    void duplicatesDoNotIncreaseTheEstimate() {
+        HyperLogLog hll = new HyperLogLog();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 10_000; i++) {
+                hll.add("user-" + i);
+            }
+        }
+        assertWithinBounds(10_000, hll.estimate());
+    }
+
+    @Test
+    void mergeEstimatesTheUnion() {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        for (int i = 0; i < 60_000; i++) {
+            first.add("ip-" + i);
+        }
+        for (int i = 40_000; i < 100_000; i++) {
+            second.add("ip-" + i);
+        }
+        HyperLogLog union = HyperLogLog.fromBytes(first.toBytes());
+        union.merge(second);
+        assertWithinBounds(100_000, union.estimate());
+
+        // マージは順序に依存しない
+        HyperLogLog reversed = HyperLogLog.fromBytes(second.toBytes());
+        reversed.merge(first.toBytes());
+        assertArrayEquals(union.toBytes(), reversed.toBytes());
+    }
+
+    @Test
+    void bytesRoundTripAndInvalidBytesAreIgnored() {
+        HyperLogLog hll = new HyperLogLog();
+        for (int i = 0; i < 1_000; i++) {
+            hll.add("198.51.100." + (i % 256) + "-" + i);
+        }
+        assertArrayEquals(hll.toBytes(), HyperLogLog.fromBytes(hll.toBytes()).toBytes());
+        assertEquals(hll.estimate(), HyperLogLog.fromBytes(hll.toBytes()).estimate());
+        assertEquals(0, HyperLogLog.fromBytes(new byte[7]).estimate());
+        assertEquals(0, HyperLogLog.fromBytes(null).estimate());
+    }
+
+    @Test
+    void isEmptyUntilAValueIsAddedOrMerged() {
+        HyperLogLog hll = new HyperLogLog();
+        assertTrue(hll.isEmpty());
+        hll.merge(new byte[HyperLogLog.REGISTER_COUNT]);
+        assertTrue(hll.isEmpty());
+        hll.add("203.0.113.1");
+        assertFalse(hll.isEmpty());
+        assertFalse(HyperLogLog.fromBytes(hll.toBytes()).isEmpty());
+    }
+
+    private static void assertWithinBounds(long actual, long estimate) {
+        double error = Math.abs(estimate - actual) / (double) actual;
+        assertTrue(error <= MAX_RELATIVE_ERROR,
+            "n=" + actual + " estimate=" + estimate + " error=" + String.format("%.2f%%", error * 100));
+    }
+}
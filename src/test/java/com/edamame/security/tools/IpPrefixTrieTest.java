@@ -0,0 +1,202 @@
+package com.edamame.security.tools;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * IpPrefixTrie のテスト
+ * IPv4・IPv6・IPv4射影IPv6（::ffff:0:0/96）と重なり合うプレフィックスでの最長一致と anyMatch を確認し、
+ * ランダムなプレフィックスでは全件走査の結果と突き合わせる
+ */
+class IpPrefixTrieTest {
+
+    @Test
+    void longestMatchPicksMostSpecificIpv4Prefix() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+            .add(IpPrefixTrie.Prefix.parse("10.0.0.0/8"), "a")
+            .add(IpPrefixTrie.Prefix.parse("10.1.0.0/16"), "b")
+            .add(IpPrefixTrie.Prefix.parse("10.1.2.0/24"), "c")
+            .add(IpPrefixTrie.Prefix.parse("10.1.2.3"), "d")
+            .build();
+
+        assertEquals(4, trie.size());
+        assertEquals("d", trie.longestMatch("10.1.2.3"));
+        assertEquals("c", trie.longestMatch("10.1.2.4"));
+        assertEquals("b", trie.longestMatch("10.1.3.1"));
+        assertEquals("a", trie.longestMatch("10.200.0.1"));
+        assertNull(trie.longestMatch("11.0.0.1"));
+        assertNull(trie.longestMatch("2001:db8::1"));
+    }
+
+    @Test
+    void prefixesShorterThanTheStrideAreMatched() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+            .add(IpPrefixTrie.Prefix.parse("0.0.0.0/0"), "default")
+            .add(IpPrefixTrie.Prefix.parse("172.16.0.0/12"), "private")
+            .add(IpPrefixTrie.Prefix.parse("172.20.5.0/24"), "office")
+            .build();
+
+        assertEquals("private", trie.longestMatch("172.20.1.1"));
+        assertEquals("office", trie.longestMatch("172.20.5.9"));
+        assertEquals("private", trie.longestMatch("172.31.255.255"));
+        assertEquals("default", trie.longestMatch("172.32.0.1"));
+        assertEquals("default", trie.longestMatch("8.8.8.8"));
+    }
+
+    @Test
+    void longestMatchPicksMostSpecificIpv6Prefix() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+            .add(IpPrefixTrie.Prefix.parse("2001:db8::/32"), "doc")
+            .add(IpPrefixTrie.Prefix.parse("2001:db8:1::/48"), "site")
+            .add(IpPrefixTrie.Prefix.parse("2001:db8:1::1"), "host")
+            .add(IpPrefixTrie.Prefix.parse("2001:db8:1:0:8000::/65"), "upper-half")
+            .build();
+
+        assertEquals("host", trie.longestMatch("2001:db8:1::1"));
+        assertEquals("host", trie.longestMatch("2001:DB8:1:0:0:0:0:1"));
+        assertEquals("site", trie.longestMatch("2001:db8:1::2"));
+        assertEquals("upper-half", trie.longestMatch("2001:db8:1:0:8000::1"));
+        assertEquals("doc", trie.longestMatch("2001:db8:ffff::1"));
+        assertNull(trie.longestMatch("2001:db9::1"));
+        assertNull(trie.longestMatch("10.0.0.1"));
+    }
+
+    @Test
+    void ipv4MappedIpv6IsMatchedAsIpv4() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+            .add(IpPrefixTrie.Prefix.parse("::ffff:192.0.2.0/120"), "mapped-range")
+            .add(IpPrefixTrie.Prefix.parse("::ffff:198.51.100.7"), "mapped-host")
+            .build();
+
+        assertEquals("mapped-range", trie.longestMatch("192.0.2.5"));
+        assertEquals("mapped-range", trie.longestMatch("::ffff:192.0.2.5"));
+        assertEquals("mapped-host", trie.longestMatch("198.51.100.7"));
+        assertNull(trie.longestMatch("192.0.3.1"));
+        assertEquals("192.0.2.0/24", IpPrefixTrie.Prefix.parse("::ffff:192.0.2.0/120").toString());
+    }
+
+    @Test
+    void wholeMappedRangeCoversEveryIpv4AddressOnly() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+            .add(IpPrefixTrie.Prefix.parse("::ffff:0:0/96"), "all-v4")
+            .add(IpPrefixTrie.Prefix.parse("203.0.113.0/24"), "test-net")
+            .build();
+
+        IpPrefixTrie.Prefix mapped = IpPrefixTrie.Prefix.parse("::ffff:0:0/96");
+        assertEquals(4, mapped.address().length);
+        assertEquals(0, mapped.length());
+        assertEquals("all-v4", trie.longestMatch("1.2.3.4"));
+        assertEquals("all-v4", trie.longestMatch("::ffff:255.255.255.255"));
+        assertEquals("test-net", trie.longestMatch("::ffff:203.0.113.9"));
+        assertNull(trie.longestMatch("2001:db8::1"));
+        assertNull(trie.longestMatch("::1"));
+    }
+
+    @Test
+    void anyMatchTestsEveryOverlappingPrefix() {
+        // 値は期限（エポック秒）: 短いプレフィックスは期限切れ、長いプレフィックスは期限内
+        IpPrefixTrie<Long> trie = IpPrefixTrie.<Long>builder()
+            .add(IpPrefixTrie.Prefix.parse("10.0.0.0/8"), 50L)
+            .add(IpPrefixTrie.Prefix.parse("10.1.0.0/16"), 200L)
+            .add(IpPrefixTrie.Prefix.parse("10.1.2.3"), 10L)
+            .add(IpPrefixTrie.Prefix.parse("2001:db8::/32"), 300L)
+            .build();
+        byte[] inside = IpPrefixTrie.parseAddress("10.1.2.3");
+
+        assertEquals(10L, trie.longestMatch(inside));
+        assertTrue(trie.anyMatch(inside, expiresAt -> expiresAt > 100));
+        assertTrue(trie.anyMatch(IpPrefixTrie.parseAddress("10.9.9.9"), expiresAt -> expiresAt > 40));
+        assertFalse(trie.anyMatch(IpPrefixTrie.parseAddress("10.9.9.9"), expiresAt -> expiresAt > 100));
+        assertFalse(trie.anyMatch(inside, expiresAt -> expiresAt > 1_000));
+        assertTrue(trie.anyMatch(IpPrefixTrie.parseAddress("2001:db8::5"), expiresAt -> expiresAt > 100));
+        assertFalse(trie.anyMatch(IpPrefixTrie.parseAddress("2001:db9::5"), expiresAt -> true));
+        assertFalse(trie.anyMatch(new byte[5], expiresAt -> true));
+    }
+
+    @Test
+    void duplicatePrefixesAreMerged() {
+        IpPrefixTrie<Long> trie = IpPrefixTrie.<Long>builder(Math::max)
+            .add(IpPrefixTrie.Prefix.parse("192.0.2.0/24"), 5L)
+            .add(IpPrefixTrie.Prefix.parse("192.0.2.77/24"), 9L)
+            .add(IpPrefixTrie.Prefix.parse("192.0.2.0/24"), 7L)
+            .build();
+
+        assertEquals(1, trie.size());
+        assertEquals(9L, trie.longestMatch("192.0.2.1"));
+    }
+
+    @Test
+    void invalidInputIsRejected() {
+        assertNull(IpPrefixTrie.parseAddress("256.1.1.1"));
+        assertNull(IpPrefixTrie.parseAddress("1.2.3"));
+        assertNull(IpPrefixTrie.parseAddress("example.com"));
+        assertNull(IpPrefixTrie.parseAddress("2001:db8::zz"));
+        assertNull(IpPrefixTrie.Prefix.parse("10.0.0.0/33"));
+        assertNull(IpPrefixTrie.Prefix.parse("2001:db8::/129"));
+        assertNull(IpPrefixTrie.Prefix.parse("10.0.0.0/"));
+        assertNull(IpPrefixTrie.<String>empty().longestMatch("10.0.0.1"));
+    }
+
+    @Test
+    void randomIpv4PrefixesMatchLinearScan() {
+        assertMatchesLinearScan(4, new Random(43), 3_000, 20_000);
+    }
+
+    @Test
+    void randomIpv6PrefixesMatchLinearScan() {
+        assertMatchesLinearScan(16, new Random(4343), 2_000, 10_000);
+    }
+
+    /**
+     * ランダムなプレフィックス（重なりを作るため一部は既存のプレフィックスの内側）で構築したトライの最長一致を、
+     * 全プレフィックスを走査した結果と比較する
+     */
+    private static void assertMatchesLinearScan(int bytes, Random random, int prefixCount, int lookups) {
+        List<IpPrefixTrie.Prefix> prefixes = new ArrayList<>();
+        IpPrefixTrie.Builder<Integer> builder = IpPrefixTrie.builder();
+        for (int i = 0; i < prefixCount; i++) {
+            byte[] address = new byte[bytes];
+            random.nextBytes(address);
+            if (!prefixes.isEmpty() && random.nextBoolean()) {
+                byte[] base = prefixes.get(random.nextInt(prefixes.size())).address();
+                System.arraycopy(base, 0, address, 0, random.nextInt(bytes));
+            }
+            IpPrefixTrie.Prefix prefix = IpPrefixTrie.Prefix.of(address, random.nextInt(bytes * 8 + 1));
+            builder.add(prefix, i);
+            prefixes.add(prefix);
+        }
+        IpPrefixTrie<Integer> trie = builder.build();
+
+        for (int i = 0; i < lookups; i++) {
+            byte[] address = new byte[bytes];
+            random.nextBytes(address);
+            if (random.nextBoolean()) {
+                byte[] base = prefixes.get(random.nextInt(prefixes.size())).address();
+                System.arraycopy(base, 0, address, 0, random.nextInt(bytes + 1));
+            }
+            Integer expected = null;
+            int expectedLength = -1;
+            for (int p = 0; p < prefixes.size(); p++) {
+                IpPrefixTrie.Prefix prefix = prefixes.get(p);
+                // 同じプレフィックスは後の値で置き換わるため、同じ長さでは後の登録を採用
+                if (prefix.length() >= expectedLength && contains(prefix, address)) {
+                    expected = p;
+                    expectedLength = prefix.length();
+                }
+            }
+            assertEquals(expected, trie.longestMatch(address), () -> "address " + IpPrefixTrie.formatAddress(address));
+        }
+    }
+
+    private static boolean contains(IpPrefixTrie.Prefix prefix, byte[] address) {
+        return java.util.Arrays.equals(IpPrefixTrie.Prefix.of(address, prefix.length()).address(), prefix.address());
+    }
+}